@@ -0,0 +1,80 @@
+package com.cm55.gson;
+
+import java.util.concurrent.*;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.cm55.gson.Json.*;
+
+/**
+ * {@link Json}による解析とフィールドアクセスのベンチマーク
+ * @author ysugimura
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JsonBenchmark {
+
+  String json;
+  JObject object;
+  JObject tapeObject;
+
+  @Setup
+  public void setup() {
+    StringBuilder s = new StringBuilder("{\"header\":{\"id\":\"12345\",\"ts\":\"20180801120000\"},\"records\":[");
+    for (int i = 0; i < 200; i++) {
+      if (i > 0) s.append(",");
+      s.append("{\"no\":" + i + ",\"name\":\"record" + i + "\",\"flag\":true}");
+    }
+    json = s.append("]}").toString();
+    object = Json.get(json);
+    tapeObject = Json.tape(json);
+  }
+
+  @Benchmark
+  public JObject get() {
+    return Json.get(json);
+  }
+
+  @Benchmark
+  public JObject tape() {
+    return Json.tape(json);
+  }
+
+  @Benchmark
+  public String fieldAccess() {
+    return fieldAccess(object);
+  }
+
+  @Benchmark
+  public String tapeFieldAccess() {
+    return fieldAccess(tapeObject);
+  }
+
+  @Benchmark
+  public int arrayAccess() {
+    return arrayAccess(object);
+  }
+
+  @Benchmark
+  public int tapeArrayAccess() {
+    return arrayAccess(tapeObject);
+  }
+
+  private static String fieldAccess(JObject object) {
+    JObject header = object.get("header");
+    return header.get("ts").asString();
+  }
+
+  private static int arrayAccess(JObject object) {
+    int sum = 0;
+    JArray records = object.get("records");
+    for (JElement record: records) {
+      sum += record.asObject().get("no").asInteger();
+    }
+    return sum;
+  }
+}
@@ -0,0 +1,56 @@
+package com.cm55.gson;
+
+import java.util.concurrent.*;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.cm55.gson.JsonFixer.*;
+
+/**
+ * XMLから変換されたような入れ子のドキュメントに対する{@link JsonFixer}のベンチマーク
+ * @author ysugimura
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JsonFixerBenchmark {
+
+  String json;
+  FixRoot root;
+
+  @Setup
+  public void setup() {
+    // 要素が一つの場合はオブジェクト、複数の場合は配列、空の場合は空配列になっている
+    StringBuilder s = new StringBuilder("{\"orders\":{\"order\":[");
+    for (int i = 0; i < 100; i++) {
+      if (i > 0) s.append(",");
+      s.append("{\"id\":\"" + i + "\",\"default\":\"d\",\"option\":[],\"commodities\":{\"commodity\":");
+      if (i % 2 == 0) {
+        s.append("{\"name\":\"c" + i + "\",\"price\":\"100\"}");
+      } else {
+        s.append("[{\"name\":\"c" + i + "\",\"price\":\"100\"},{\"name\":\"d" + i + "\",\"price\":\"200\"}]");
+      }
+      s.append("}}");
+    }
+    json = s.append("]}}").toString();
+    root = new FixRoot(
+      new FixNone("orders",
+        new ForceArray("order",
+          new ChangeFieldName("default", "defaultValue"),
+          new DropEmptyArray("option"),
+          new FixNone("commodities",
+            new ForceArray("commodity")
+          )
+        )
+      )
+    );
+  }
+
+  @Benchmark
+  public String fix() {
+    return JsonFixer.fix(json, root);
+  }
+}
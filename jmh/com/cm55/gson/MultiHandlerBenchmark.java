@@ -0,0 +1,285 @@
+package com.cm55.gson;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.google.gson.reflect.*;
+
+/**
+ * サブクラス数の異なる{@link MultiHandler}で、サブクラスが混在するリストを直列化・復帰するベンチマーク
+ * @author ysugimura
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MultiHandlerBenchmark {
+
+  /** 登録するサブクラス数 */
+  @Param({ "2", "20", "200" })
+  int subClassCount;
+
+  Serializer<ArrayList<Base>>serializer;
+  ArrayList<Base>list;
+  String json;
+
+  @SuppressWarnings("unchecked")
+  @Setup
+  public void setup() throws Exception {
+    MultiHandlerBuilder<Base>builder = new MultiHandlerBuilder<>(Base.class);
+    for (int i = 0; i < subClassCount; i++) {
+      builder.addSubClass(SUB_CLASSES[i]);
+    }
+    serializer = new Serializer<>(
+      new HandlerBuilder<>(new TypeToken<ArrayList<Base>>() {}).addSubHandler(builder.build()).build()
+    );
+    list = new ArrayList<>();
+    for (int i = 0; i < 400; i++) {
+      list.add((Base)SUB_CLASSES[i % subClassCount].getDeclaredConstructor().newInstance());
+    }
+    json = serializer.serialize(list);
+  }
+
+  @Benchmark
+  public String serialize() {
+    return serializer.serialize(list);
+  }
+
+  @Benchmark
+  public ArrayList<Base> deserialize() {
+    return serializer.deserialize(json);
+  }
+
+  public static abstract class Base {
+  }
+
+  public static class S000 extends Base { int v = 0; }
+  public static class S001 extends Base { int v = 1; }
+  public static class S002 extends Base { int v = 2; }
+  public static class S003 extends Base { int v = 3; }
+  public static class S004 extends Base { int v = 4; }
+  public static class S005 extends Base { int v = 5; }
+  public static class S006 extends Base { int v = 6; }
+  public static class S007 extends Base { int v = 7; }
+  public static class S008 extends Base { int v = 8; }
+  public static class S009 extends Base { int v = 9; }
+  public static class S010 extends Base { int v = 10; }
+  public static class S011 extends Base { int v = 11; }
+  public static class S012 extends Base { int v = 12; }
+  public static class S013 extends Base { int v = 13; }
+  public static class S014 extends Base { int v = 14; }
+  public static class S015 extends Base { int v = 15; }
+  public static class S016 extends Base { int v = 16; }
+  public static class S017 extends Base { int v = 17; }
+  public static class S018 extends Base { int v = 18; }
+  public static class S019 extends Base { int v = 19; }
+  public static class S020 extends Base { int v = 20; }
+  public static class S021 extends Base { int v = 21; }
+  public static class S022 extends Base { int v = 22; }
+  public static class S023 extends Base { int v = 23; }
+  public static class S024 extends Base { int v = 24; }
+  public static class S025 extends Base { int v = 25; }
+  public static class S026 extends Base { int v = 26; }
+  public static class S027 extends Base { int v = 27; }
+  public static class S028 extends Base { int v = 28; }
+  public static class S029 extends Base { int v = 29; }
+  public static class S030 extends Base { int v = 30; }
+  public static class S031 extends Base { int v = 31; }
+  public static class S032 extends Base { int v = 32; }
+  public static class S033 extends Base { int v = 33; }
+  public static class S034 extends Base { int v = 34; }
+  public static class S035 extends Base { int v = 35; }
+  public static class S036 extends Base { int v = 36; }
+  public static class S037 extends Base { int v = 37; }
+  public static class S038 extends Base { int v = 38; }
+  public static class S039 extends Base { int v = 39; }
+  public static class S040 extends Base { int v = 40; }
+  public static class S041 extends Base { int v = 41; }
+  public static class S042 extends Base { int v = 42; }
+  public static class S043 extends Base { int v = 43; }
+  public static class S044 extends Base { int v = 44; }
+  public static class S045 extends Base { int v = 45; }
+  public static class S046 extends Base { int v = 46; }
+  public static class S047 extends Base { int v = 47; }
+  public static class S048 extends Base { int v = 48; }
+  public static class S049 extends Base { int v = 49; }
+  public static class S050 extends Base { int v = 50; }
+  public static class S051 extends Base { int v = 51; }
+  public static class S052 extends Base { int v = 52; }
+  public static class S053 extends Base { int v = 53; }
+  public static class S054 extends Base { int v = 54; }
+  public static class S055 extends Base { int v = 55; }
+  public static class S056 extends Base { int v = 56; }
+  public static class S057 extends Base { int v = 57; }
+  public static class S058 extends Base { int v = 58; }
+  public static class S059 extends Base { int v = 59; }
+  public static class S060 extends Base { int v = 60; }
+  public static class S061 extends Base { int v = 61; }
+  public static class S062 extends Base { int v = 62; }
+  public static class S063 extends Base { int v = 63; }
+  public static class S064 extends Base { int v = 64; }
+  public static class S065 extends Base { int v = 65; }
+  public static class S066 extends Base { int v = 66; }
+  public static class S067 extends Base { int v = 67; }
+  public static class S068 extends Base { int v = 68; }
+  public static class S069 extends Base { int v = 69; }
+  public static class S070 extends Base { int v = 70; }
+  public static class S071 extends Base { int v = 71; }
+  public static class S072 extends Base { int v = 72; }
+  public static class S073 extends Base { int v = 73; }
+  public static class S074 extends Base { int v = 74; }
+  public static class S075 extends Base { int v = 75; }
+  public static class S076 extends Base { int v = 76; }
+  public static class S077 extends Base { int v = 77; }
+  public static class S078 extends Base { int v = 78; }
+  public static class S079 extends Base { int v = 79; }
+  public static class S080 extends Base { int v = 80; }
+  public static class S081 extends Base { int v = 81; }
+  public static class S082 extends Base { int v = 82; }
+  public static class S083 extends Base { int v = 83; }
+  public static class S084 extends Base { int v = 84; }
+  public static class S085 extends Base { int v = 85; }
+  public static class S086 extends Base { int v = 86; }
+  public static class S087 extends Base { int v = 87; }
+  public static class S088 extends Base { int v = 88; }
+  public static class S089 extends Base { int v = 89; }
+  public static class S090 extends Base { int v = 90; }
+  public static class S091 extends Base { int v = 91; }
+  public static class S092 extends Base { int v = 92; }
+  public static class S093 extends Base { int v = 93; }
+  public static class S094 extends Base { int v = 94; }
+  public static class S095 extends Base { int v = 95; }
+  public static class S096 extends Base { int v = 96; }
+  public static class S097 extends Base { int v = 97; }
+  public static class S098 extends Base { int v = 98; }
+  public static class S099 extends Base { int v = 99; }
+  public static class S100 extends Base { int v = 100; }
+  public static class S101 extends Base { int v = 101; }
+  public static class S102 extends Base { int v = 102; }
+  public static class S103 extends Base { int v = 103; }
+  public static class S104 extends Base { int v = 104; }
+  public static class S105 extends Base { int v = 105; }
+  public static class S106 extends Base { int v = 106; }
+  public static class S107 extends Base { int v = 107; }
+  public static class S108 extends Base { int v = 108; }
+  public static class S109 extends Base { int v = 109; }
+  public static class S110 extends Base { int v = 110; }
+  public static class S111 extends Base { int v = 111; }
+  public static class S112 extends Base { int v = 112; }
+  public static class S113 extends Base { int v = 113; }
+  public static class S114 extends Base { int v = 114; }
+  public static class S115 extends Base { int v = 115; }
+  public static class S116 extends Base { int v = 116; }
+  public static class S117 extends Base { int v = 117; }
+  public static class S118 extends Base { int v = 118; }
+  public static class S119 extends Base { int v = 119; }
+  public static class S120 extends Base { int v = 120; }
+  public static class S121 extends Base { int v = 121; }
+  public static class S122 extends Base { int v = 122; }
+  public static class S123 extends Base { int v = 123; }
+  public static class S124 extends Base { int v = 124; }
+  public static class S125 extends Base { int v = 125; }
+  public static class S126 extends Base { int v = 126; }
+  public static class S127 extends Base { int v = 127; }
+  public static class S128 extends Base { int v = 128; }
+  public static class S129 extends Base { int v = 129; }
+  public static class S130 extends Base { int v = 130; }
+  public static class S131 extends Base { int v = 131; }
+  public static class S132 extends Base { int v = 132; }
+  public static class S133 extends Base { int v = 133; }
+  public static class S134 extends Base { int v = 134; }
+  public static class S135 extends Base { int v = 135; }
+  public static class S136 extends Base { int v = 136; }
+  public static class S137 extends Base { int v = 137; }
+  public static class S138 extends Base { int v = 138; }
+  public static class S139 extends Base { int v = 139; }
+  public static class S140 extends Base { int v = 140; }
+  public static class S141 extends Base { int v = 141; }
+  public static class S142 extends Base { int v = 142; }
+  public static class S143 extends Base { int v = 143; }
+  public static class S144 extends Base { int v = 144; }
+  public static class S145 extends Base { int v = 145; }
+  public static class S146 extends Base { int v = 146; }
+  public static class S147 extends Base { int v = 147; }
+  public static class S148 extends Base { int v = 148; }
+  public static class S149 extends Base { int v = 149; }
+  public static class S150 extends Base { int v = 150; }
+  public static class S151 extends Base { int v = 151; }
+  public static class S152 extends Base { int v = 152; }
+  public static class S153 extends Base { int v = 153; }
+  public static class S154 extends Base { int v = 154; }
+  public static class S155 extends Base { int v = 155; }
+  public static class S156 extends Base { int v = 156; }
+  public static class S157 extends Base { int v = 157; }
+  public static class S158 extends Base { int v = 158; }
+  public static class S159 extends Base { int v = 159; }
+  public static class S160 extends Base { int v = 160; }
+  public static class S161 extends Base { int v = 161; }
+  public static class S162 extends Base { int v = 162; }
+  public static class S163 extends Base { int v = 163; }
+  public static class S164 extends Base { int v = 164; }
+  public static class S165 extends Base { int v = 165; }
+  public static class S166 extends Base { int v = 166; }
+  public static class S167 extends Base { int v = 167; }
+  public static class S168 extends Base { int v = 168; }
+  public static class S169 extends Base { int v = 169; }
+  public static class S170 extends Base { int v = 170; }
+  public static class S171 extends Base { int v = 171; }
+  public static class S172 extends Base { int v = 172; }
+  public static class S173 extends Base { int v = 173; }
+  public static class S174 extends Base { int v = 174; }
+  public static class S175 extends Base { int v = 175; }
+  public static class S176 extends Base { int v = 176; }
+  public static class S177 extends Base { int v = 177; }
+  public static class S178 extends Base { int v = 178; }
+  public static class S179 extends Base { int v = 179; }
+  public static class S180 extends Base { int v = 180; }
+  public static class S181 extends Base { int v = 181; }
+  public static class S182 extends Base { int v = 182; }
+  public static class S183 extends Base { int v = 183; }
+  public static class S184 extends Base { int v = 184; }
+  public static class S185 extends Base { int v = 185; }
+  public static class S186 extends Base { int v = 186; }
+  public static class S187 extends Base { int v = 187; }
+  public static class S188 extends Base { int v = 188; }
+  public static class S189 extends Base { int v = 189; }
+  public static class S190 extends Base { int v = 190; }
+  public static class S191 extends Base { int v = 191; }
+  public static class S192 extends Base { int v = 192; }
+  public static class S193 extends Base { int v = 193; }
+  public static class S194 extends Base { int v = 194; }
+  public static class S195 extends Base { int v = 195; }
+  public static class S196 extends Base { int v = 196; }
+  public static class S197 extends Base { int v = 197; }
+  public static class S198 extends Base { int v = 198; }
+  public static class S199 extends Base { int v = 199; }
+
+  /** 登録対象のサブクラス */
+  @SuppressWarnings("rawtypes")
+  static final Class[]SUB_CLASSES = {
+    S000.class, S001.class, S002.class, S003.class, S004.class, S005.class, S006.class, S007.class, S008.class, S009.class,
+    S010.class, S011.class, S012.class, S013.class, S014.class, S015.class, S016.class, S017.class, S018.class, S019.class,
+    S020.class, S021.class, S022.class, S023.class, S024.class, S025.class, S026.class, S027.class, S028.class, S029.class,
+    S030.class, S031.class, S032.class, S033.class, S034.class, S035.class, S036.class, S037.class, S038.class, S039.class,
+    S040.class, S041.class, S042.class, S043.class, S044.class, S045.class, S046.class, S047.class, S048.class, S049.class,
+    S050.class, S051.class, S052.class, S053.class, S054.class, S055.class, S056.class, S057.class, S058.class, S059.class,
+    S060.class, S061.class, S062.class, S063.class, S064.class, S065.class, S066.class, S067.class, S068.class, S069.class,
+    S070.class, S071.class, S072.class, S073.class, S074.class, S075.class, S076.class, S077.class, S078.class, S079.class,
+    S080.class, S081.class, S082.class, S083.class, S084.class, S085.class, S086.class, S087.class, S088.class, S089.class,
+    S090.class, S091.class, S092.class, S093.class, S094.class, S095.class, S096.class, S097.class, S098.class, S099.class,
+    S100.class, S101.class, S102.class, S103.class, S104.class, S105.class, S106.class, S107.class, S108.class, S109.class,
+    S110.class, S111.class, S112.class, S113.class, S114.class, S115.class, S116.class, S117.class, S118.class, S119.class,
+    S120.class, S121.class, S122.class, S123.class, S124.class, S125.class, S126.class, S127.class, S128.class, S129.class,
+    S130.class, S131.class, S132.class, S133.class, S134.class, S135.class, S136.class, S137.class, S138.class, S139.class,
+    S140.class, S141.class, S142.class, S143.class, S144.class, S145.class, S146.class, S147.class, S148.class, S149.class,
+    S150.class, S151.class, S152.class, S153.class, S154.class, S155.class, S156.class, S157.class, S158.class, S159.class,
+    S160.class, S161.class, S162.class, S163.class, S164.class, S165.class, S166.class, S167.class, S168.class, S169.class,
+    S170.class, S171.class, S172.class, S173.class, S174.class, S175.class, S176.class, S177.class, S178.class, S179.class,
+    S180.class, S181.class, S182.class, S183.class, S184.class, S185.class, S186.class, S187.class, S188.class, S189.class,
+    S190.class, S191.class, S192.class, S193.class, S194.class, S195.class, S196.class, S197.class, S198.class, S199.class,
+  };
+}
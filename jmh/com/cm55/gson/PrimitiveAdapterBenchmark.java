@@ -0,0 +1,69 @@
+package com.cm55.gson;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * プリミティブ配列、整数キーのマップの直列化・復帰のベンチマーク。
+ * {@link Settings#USE_PRIMITIVE_ADAPTERS}の有無で比較する。
+ * @author ysugimura
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PrimitiveAdapterBenchmark {
+
+  /** 専用アダプタを使用するか */
+  @Param({ "true", "false" })
+  boolean primitiveAdapters;
+
+  public static class Numbers {
+    int[]ints = new int[1000];
+    long[]longs = new long[1000];
+    double[]doubles = new double[1000];
+    HashMap<Integer, String>names = new HashMap<>();
+
+    Numbers() {
+      for (int i = 0; i < 1000; i++) {
+        ints[i] = i * 31;
+        longs[i] = i * 1000000007L;
+        doubles[i] = i * 0.125;
+      }
+      for (int i = 0; i < 100; i++) {
+        names.put(i, "name" + i);
+      }
+    }
+  }
+
+  Serializer<Numbers>serializer;
+  Numbers numbers;
+  String json;
+
+  @Setup
+  public void setup() {
+    boolean saved = Settings.USE_PRIMITIVE_ADAPTERS;
+    Settings.USE_PRIMITIVE_ADAPTERS = primitiveAdapters;
+    try {
+      serializer = new Serializer<>(Numbers.class);
+    } finally {
+      Settings.USE_PRIMITIVE_ADAPTERS = saved;
+    }
+    numbers = new Numbers();
+    json = serializer.serialize(numbers);
+  }
+
+  @Benchmark
+  public String serialize() {
+    return serializer.serialize(numbers);
+  }
+
+  @Benchmark
+  public Numbers deserialize() {
+    return serializer.deserialize(json);
+  }
+}
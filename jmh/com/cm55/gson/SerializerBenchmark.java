@@ -0,0 +1,151 @@
+package com.cm55.gson;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * {@link Serializer}の直列化・復帰のベンチマーク
+ * @author ysugimura
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SerializerBenchmark {
+
+  /** 小さなPOJO */
+  public static class Small {
+    int id = 123;
+    String name = "small";
+    double value = 1.5;
+    boolean flag = true;
+  }
+
+  /** 大きなPOJO */
+  public static class Large {
+    String title = "large";
+    long timestamp = 1500000000000L;
+    ArrayList<Small>items = new ArrayList<>();
+    HashMap<String, String>attributes = new HashMap<>();
+    double[]values = new double[256];
+
+    Large() {
+      for (int i = 0; i < 500; i++) {
+        Small small = new Small();
+        small.id = i;
+        small.name = "item" + i;
+        small.value = i * 0.25;
+        items.add(small);
+      }
+      for (int i = 0; i < 50; i++) {
+        attributes.put("key" + i, "value" + i);
+      }
+      for (int i = 0; i < values.length; i++) {
+        values[i] = Math.sqrt(i);
+      }
+    }
+  }
+
+  /** 大きなPOJOを{@link Lazy}で持つもの */
+  public static class LazyLarge {
+    int id = 1;
+    Lazy<Large>large = Lazy.of(new Large());
+  }
+
+  Serializer<Small>smallSerializer;
+  Serializer<Large>largeSerializer;
+  Small small;
+  Large large;
+  String smallJson;
+  String largeJson;
+  byte[]largeGzip;
+  byte[]largeBinary;
+  Serializer<LazyLarge>lazySerializer;
+  String lazyJson;
+  Serializer<Large>methodHandleSerializer;
+  Large target;
+
+  @Setup
+  public void setup() {
+    smallSerializer = new Serializer<>(Small.class);
+    largeSerializer = new Serializer<>(Large.class);
+    small = new Small();
+    large = new Large();
+    smallJson = smallSerializer.serialize(small);
+    largeJson = largeSerializer.serialize(large);
+    largeGzip = largeSerializer.serializeGzip(large);
+    largeBinary = largeSerializer.serializeBinary(large);
+    lazySerializer = new Serializer<>(LazyLarge.class);
+    lazyJson = lazySerializer.serialize(new LazyLarge());
+    methodHandleSerializer = new Serializer<>(new HandlerBuilder<>(Large.class).setMethodHandleAccess(true).build());
+    target = largeSerializer.deserialize(largeJson);
+  }
+
+  @Benchmark
+  public String serializeSmall() {
+    return smallSerializer.serialize(small);
+  }
+
+  @Benchmark
+  public Small deserializeSmall() {
+    return smallSerializer.deserialize(smallJson);
+  }
+
+  @Benchmark
+  public String serializeLarge() {
+    return largeSerializer.serialize(large);
+  }
+
+  @Benchmark
+  public Large deserializeLarge() {
+    return largeSerializer.deserialize(largeJson);
+  }
+
+  /** 同じオブジェクトに繰り返し上書きする */
+  @Benchmark
+  public Large deserializeIntoLarge() {
+    return largeSerializer.deserializeInto(largeJson, target);
+  }
+
+  /** {@link java.lang.invoke.MethodHandle}によるフィールドアクセス */
+  @Benchmark
+  public String serializeMethodHandle() {
+    return methodHandleSerializer.serialize(large);
+  }
+
+  /** {@link java.lang.invoke.MethodHandle}によるフィールドアクセス */
+  @Benchmark
+  public Large deserializeMethodHandle() {
+    return methodHandleSerializer.deserialize(largeJson);
+  }
+
+  /** {@link Lazy}の部分は読み飛ばして入力の文字列を写し取るのみ */
+  @Benchmark
+  public LazyLarge deserializeLazy() {
+    return lazySerializer.deserialize(lazyJson);
+  }
+
+  @Benchmark
+  public byte[] serializeGzip() {
+    return largeSerializer.serializeGzip(large);
+  }
+
+  @Benchmark
+  public Large deserializeGzip() {
+    return largeSerializer.deserializeGzip(largeGzip);
+  }
+
+  @Benchmark
+  public byte[] serializeBinary() {
+    return largeSerializer.serializeBinary(large);
+  }
+
+  @Benchmark
+  public Large deserializeBinary() {
+    return largeSerializer.deserializeBinary(largeBinary);
+  }
+}
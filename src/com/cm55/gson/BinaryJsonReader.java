@@ -0,0 +1,374 @@
+package com.cm55.gson;
+
+import static com.cm55.gson.BinaryJsonWriter.*;
+
+import java.io.*;
+import java.util.*;
+
+import com.google.gson.internal.*;
+import com.google.gson.stream.*;
+
+/**
+ * {@link BinaryJsonWriter}の書き込んだバイト列を読み込む{@link JsonReader}
+ * <p>
+ * 数値、文字列、真偽値の変換はGsonの{@link JsonReader}に合わせてある。例えば、数値を{@link #nextString()}で読み込めば
+ * JSONで表記した場合と同じ文字列になり、文字列を{@link #nextInt()}で読み込めばその文字列を解析する。
+ * バイト列が壊れている場合には{@link MalformedJsonException}になる。
+ * </p>
+ * @author ysugimura
+ */
+class BinaryJsonReader extends JsonReader {
+
+  /** {@link JsonReader}には入力が必要だが、使用されない */
+  private static final Reader UNREADABLE_READER = new Reader() {
+    @Override public int read(char[] buffer, int offset, int count) {
+      throw new AssertionError();
+    }
+    @Override public void close() {
+      throw new AssertionError();
+    }
+  };
+
+  /** 入力 */
+  private final byte[]bytes;
+  private int pos;
+
+  /** 開いている配列・オブジェクト。オブジェクトはtrue */
+  private boolean[]stack = new boolean[32];
+  private int depth;
+
+  /** 番号／フィールド名 */
+  private final List<String> names = new ArrayList<>();
+
+  /** 値として読み込むように変更されたフィールド名 */
+  private String promotedName;
+
+  BinaryJsonReader(byte[]bytes) throws IOException {
+    super(UNREADABLE_READER);
+    setLenient(true);
+    this.bytes = bytes;
+    if (bytes.length == 0 || bytes[0] != VERSION) throw new MalformedJsonException("Unsupported binary format");
+    pos = 1;
+  }
+
+  /**
+   * 次のフィールド名を文字列の値として読み込めるようにする。
+   * Gsonのマップのアダプタがキーを読み込む際に行う処理と同じ。{@link FixingJsonReader}も扱う。
+   * @param in 入力
+   * @throws IOException
+   */
+  static void promoteNameToValue(JsonReader in) throws IOException {
+    if (in instanceof BinaryJsonReader) {
+      BinaryJsonReader reader = (BinaryJsonReader)in;
+      reader.expect(JsonToken.NAME);
+      reader.promotedName = reader.nextName();
+      return;
+    }
+    if (in instanceof FixingJsonReader) {
+      ((FixingJsonReader)in).promoteNameToValue();
+      return;
+    }
+    JsonReaderInternalAccess.INSTANCE.promoteNameToValue(in);
+  }
+
+  /** 全体が読み込まれたことを確認する */
+  void assertFullConsumption() throws IOException {
+    if (peek() != JsonToken.END_DOCUMENT) throw new MalformedJsonException("Binary document was not fully consumed.");
+  }
+
+  @Override
+  public JsonToken peek() throws IOException {
+    if (promotedName != null) return JsonToken.STRING;
+    if (pos >= bytes.length) return JsonToken.END_DOCUMENT;
+    switch (bytes[pos]) {
+    case NULL: return JsonToken.NULL;
+    case FALSE:
+    case TRUE: return JsonToken.BOOLEAN;
+    case LONG:
+    case DOUBLE:
+    case NUMBER: return JsonToken.NUMBER;
+    case STRING: return JsonToken.STRING;
+    case BEGIN_ARRAY: return JsonToken.BEGIN_ARRAY;
+    case BEGIN_OBJECT: return JsonToken.BEGIN_OBJECT;
+    case END:
+      if (depth == 0) throw syntaxError("Unexpected end");
+      return stack[depth - 1]? JsonToken.END_OBJECT:JsonToken.END_ARRAY;
+    case NAME:
+    case NAME_REF: return JsonToken.NAME;
+    default: throw syntaxError("Unknown tag " + bytes[pos]);
+    }
+  }
+
+  /** 次が指定されたものであることを確認する */
+  private void expect(JsonToken token) throws IOException {
+    JsonToken next = peek();
+    if (next != token) throw new IllegalStateException("Expected " + token + " but was " + next + location());
+  }
+
+  @Override
+  public void beginArray() throws IOException {
+    open(JsonToken.BEGIN_ARRAY, false);
+  }
+
+  @Override
+  public void endArray() throws IOException {
+    expect(JsonToken.END_ARRAY);
+    pos++;
+    depth--;
+  }
+
+  @Override
+  public void beginObject() throws IOException {
+    open(JsonToken.BEGIN_OBJECT, true);
+  }
+
+  @Override
+  public void endObject() throws IOException {
+    expect(JsonToken.END_OBJECT);
+    pos++;
+    depth--;
+  }
+
+  private void open(JsonToken token, boolean object) throws IOException {
+    expect(token);
+    pos++;
+    if (depth == stack.length) stack = Arrays.copyOf(stack, depth * 2);
+    stack[depth++] = object;
+  }
+
+  @Override
+  public boolean hasNext() throws IOException {
+    JsonToken next = peek();
+    return next != JsonToken.END_OBJECT && next != JsonToken.END_ARRAY && next != JsonToken.END_DOCUMENT;
+  }
+
+  @Override
+  public String nextName() throws IOException {
+    expect(JsonToken.NAME);
+    if (bytes[pos++] == NAME) {
+      String name = readString();
+      names.add(name);
+      return name;
+    }
+    int index = (int)readVarint();
+    if (index < 0 || index >= names.size()) throw syntaxError("Unknown name reference " + index);
+    return names.get(index);
+  }
+
+  @Override
+  public String nextString() throws IOException {
+    if (promotedName != null) return takePromotedName();
+    switch (peek()) {
+    case STRING:
+      pos++;
+      return readString();
+    case NUMBER:
+      switch (bytes[pos++]) {
+      case LONG: return Long.toString(readLong());
+      case DOUBLE: return Double.toString(readDouble());
+      default: return readString();
+      }
+    default:
+      throw new IllegalStateException("Expected a string but was " + peek() + location());
+    }
+  }
+
+  @Override
+  public boolean nextBoolean() throws IOException {
+    expect(JsonToken.BOOLEAN);
+    return bytes[pos++] == TRUE;
+  }
+
+  @Override
+  public void nextNull() throws IOException {
+    expect(JsonToken.NULL);
+    pos++;
+  }
+
+  @Override
+  public double nextDouble() throws IOException {
+    JsonToken next = peek();
+    if (next != JsonToken.NUMBER && next != JsonToken.STRING) {
+      throw new IllegalStateException("Expected a double but was " + next + location());
+    }
+    if (promotedName != null) return Double.parseDouble(takePromotedName());
+    switch (bytes[pos++]) {
+    case LONG: return readLong();
+    case DOUBLE: return readDouble();
+    default: return Double.parseDouble(readString());
+    }
+  }
+
+  @Override
+  public long nextLong() throws IOException {
+    JsonToken next = peek();
+    if (next != JsonToken.NUMBER && next != JsonToken.STRING) {
+      throw new IllegalStateException("Expected a long but was " + next + location());
+    }
+    if (promotedName != null) return parseLong(takePromotedName());
+    switch (bytes[pos++]) {
+    case LONG:
+      return readLong();
+    case DOUBLE:
+      double value = readDouble();
+      long result = (long)value;
+      if (result != value) throw new NumberFormatException("Expected a long but was " + value + location());
+      return result;
+    default:
+      return parseLong(readString());
+    }
+  }
+
+  @Override
+  public int nextInt() throws IOException {
+    long value = nextLong();
+    int result = (int)value;
+    if (result != value) throw new NumberFormatException("Expected an int but was " + value + location());
+    return result;
+  }
+
+  /** {@link JsonReader}と同じく、整数として解析できなければ実数として解析し、整数であることを確認する */
+  private long parseLong(String string) {
+    try {
+      return Long.parseLong(string);
+    } catch (NumberFormatException ex) {
+      double value = Double.parseDouble(string);
+      long result = (long)value;
+      if (result != value) throw new NumberFormatException("Expected a long but was " + string + location());
+      return result;
+    }
+  }
+
+  @Override
+  public void skipValue() throws IOException {
+    if (promotedName != null) {
+      promotedName = null;
+      return;
+    }
+    int count = 0;
+    do {
+      switch (peek()) {
+      case BEGIN_ARRAY:
+        beginArray();
+        count++;
+        break;
+      case BEGIN_OBJECT:
+        beginObject();
+        count++;
+        break;
+      case END_ARRAY:
+        endArray();
+        count--;
+        break;
+      case END_OBJECT:
+        endObject();
+        count--;
+        break;
+      case NAME:
+        nextName();
+        break;
+      case END_DOCUMENT:
+        throw syntaxError("Unexpected end");
+      default:
+        skipScalar();
+        break;
+      }
+    } while (count != 0);
+  }
+
+  /** スカラー値を読み飛ばす */
+  private void skipScalar() throws IOException {
+    switch (bytes[pos++]) {
+    case LONG: readVarint(); break;
+    case DOUBLE: pos += 8; break;
+    case STRING:
+    case NUMBER:
+      pos += readLength();
+      break;
+    default:
+      break;
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    pos = bytes.length;
+    depth = 0;
+  }
+
+  @Override
+  public String getPath() {
+    return "$";
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName() + location();
+  }
+
+  private String takePromotedName() {
+    String name = promotedName;
+    promotedName = null;
+    return name;
+  }
+
+  private String location() {
+    return " at offset " + pos;
+  }
+
+  private MalformedJsonException syntaxError(String message) {
+    return new MalformedJsonException(message + location());
+  }
+
+  private long readLong() throws IOException {
+    long value = readVarint();
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  private double readDouble() throws IOException {
+    if (pos + 8 > bytes.length) throw syntaxError("Unexpected end");
+    long bits = 0;
+    for (int i = 0; i < 8; i++) bits = (bits << 8) | (bytes[pos++] & 0xFF);
+    return Double.longBitsToDouble(bits);
+  }
+
+  private long readVarint() throws IOException {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      if (pos >= bytes.length) throw syntaxError("Unexpected end");
+      byte b = bytes[pos++];
+      value |= (long)(b & 0x7F) << shift;
+      if (b >= 0) return value;
+    }
+    throw syntaxError("Malformed varint");
+  }
+
+  /** 文字列のバイト数を読み込む。不正な値で配列を確保したり位置が溢れたりしないよう、残りのバイト数と比較する */
+  private int readLength() throws IOException {
+    long length = readVarint();
+    if (length < 0 || length > bytes.length - pos) throw syntaxError("Unexpected end");
+    return (int)length;
+  }
+
+  private String readString() throws IOException {
+    int length = readLength();
+    int end = pos + length;
+    char[]chars = new char[length];
+    int count = 0;
+    while (pos < end) {
+      int b = bytes[pos++];
+      if (b >= 0) {
+        chars[count++] = (char)b;
+      } else if ((b & 0xE0) == 0xC0) {
+        if (pos >= end) throw syntaxError("Malformed string");
+        chars[count++] = (char)(((b & 0x1F) << 6) | (bytes[pos++] & 0x3F));
+      } else if ((b & 0xF0) == 0xE0) {
+        if (pos + 1 >= end) throw syntaxError("Malformed string");
+        chars[count++] = (char)(((b & 0x0F) << 12) | ((bytes[pos++] & 0x3F) << 6) | (bytes[pos++] & 0x3F));
+      } else {
+        throw syntaxError("Malformed string");
+      }
+    }
+    return new String(chars, 0, count);
+  }
+}
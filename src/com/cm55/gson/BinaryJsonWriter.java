@@ -0,0 +1,294 @@
+package com.cm55.gson;
+
+import java.io.*;
+import java.math.*;
+import java.util.*;
+
+import com.google.gson.*;
+import com.google.gson.internal.*;
+import com.google.gson.stream.*;
+
+/**
+ * JSONと同じ構造をバイナリ形式で書き込む{@link JsonWriter}
+ * <p>
+ * Gsonのアダプタは{@link JsonWriter}に対して書き込むので、これを置き換えることにより、
+ * 同じ{@link Handler}の構成のままバイナリ形式にすることができる。形式は以下の通り。
+ * 先頭に{@link #VERSION}の1バイトがあり、その後に値が一つ続く。各値はタグ1バイトで始まる。
+ * </p>
+ * <ul>
+ * <li>整数は符号をジグザグ変換した可変長整数（7ビットずつ、下位から）
+ * <li>浮動小数点数はIEEE 754の8バイト（ビッグエンディアン）。ただし、floatは10進数表記
+ * <li>文字列は、バイト数を可変長整数とし、各charをUTF-8と同じ方法で1～3バイトにしたもの（サロゲートも一文字ずつ変換する）。
+ * そのため、不正なサロゲートを含む文字列もそのまま復帰される。
+ * <li>配列、オブジェクトは開始タグで始まり、要素の後に終了タグが続く
+ * <li>オブジェクトのフィールド名は、ドキュメント中で最初に現れた時には文字列で書き込み、
+ * 二回目以降は最初に現れた順の番号で参照する
+ * </ul>
+ * <p>
+ * 読み込みは{@link BinaryJsonReader}が行う。
+ * </p>
+ * @author ysugimura
+ */
+class BinaryJsonWriter extends JsonWriter {
+
+  /** 形式のバージョン */
+  static final byte VERSION = 1;
+
+  static final byte NULL = 0;
+  static final byte FALSE = 1;
+  static final byte TRUE = 2;
+  static final byte LONG = 3;
+  static final byte DOUBLE = 4;
+  static final byte STRING = 5;
+  /** 10進数表記の数値。{@link BigDecimal}等 */
+  static final byte NUMBER = 6;
+  static final byte BEGIN_ARRAY = 7;
+  static final byte BEGIN_OBJECT = 8;
+  static final byte END = 9;
+  /** 初めて現れたフィールド名 */
+  static final byte NAME = 10;
+  /** 既出のフィールド名の参照 */
+  static final byte NAME_REF = 11;
+
+  /** {@link JsonWriter}には出力先が必要だが、使用されない */
+  private static final Writer UNWRITABLE_WRITER = new Writer() {
+    @Override public void write(char[] buffer, int offset, int counter) {
+      throw new AssertionError();
+    }
+    @Override public void flush() {
+      throw new AssertionError();
+    }
+    @Override public void close() {
+      throw new AssertionError();
+    }
+  };
+
+  /** 出力バッファ */
+  private byte[]buffer = new byte[256];
+  private int size;
+
+  /** 開いている配列・オブジェクト。オブジェクトはtrue */
+  private boolean[]stack = new boolean[32];
+  private int depth;
+
+  /** 書き込み前のフィールド名 */
+  private String deferredName;
+
+  /** フィールド名／番号 */
+  private final Map<String, Integer> names = new HashMap<>();
+
+  BinaryJsonWriter() {
+    super(UNWRITABLE_WRITER);
+    setLenient(true);
+    buffer[size++] = VERSION;
+  }
+
+  /** 書き込まれたバイト列を取得する */
+  byte[] toByteArray() {
+    if (depth != 0 || deferredName != null) throw new IllegalStateException("Incomplete document");
+    return Arrays.copyOf(buffer, size);
+  }
+
+  @Override
+  public JsonWriter beginArray() throws IOException {
+    return open(false, BEGIN_ARRAY);
+  }
+
+  @Override
+  public JsonWriter endArray() throws IOException {
+    return close(false);
+  }
+
+  @Override
+  public JsonWriter beginObject() throws IOException {
+    return open(true, BEGIN_OBJECT);
+  }
+
+  @Override
+  public JsonWriter endObject() throws IOException {
+    return close(true);
+  }
+
+  private JsonWriter open(boolean object, byte tag) {
+    beforeValue();
+    if (depth == stack.length) stack = Arrays.copyOf(stack, depth * 2);
+    stack[depth++] = object;
+    writeByte(tag);
+    return this;
+  }
+
+  private JsonWriter close(boolean object) {
+    if (depth == 0 || stack[depth - 1] != object) throw new IllegalStateException("Nesting problem.");
+    if (deferredName != null) throw new IllegalStateException("Dangling name: " + deferredName);
+    depth--;
+    writeByte(END);
+    return this;
+  }
+
+  @Override
+  public JsonWriter name(String name) throws IOException {
+    if (name == null) throw new NullPointerException("name == null");
+    if (deferredName != null || depth == 0 || !stack[depth - 1]) throw new IllegalStateException();
+    deferredName = name;
+    return this;
+  }
+
+  /** 値の前に、保留されているフィールド名を書き込む */
+  private void beforeValue() {
+    if (depth > 0 && stack[depth - 1]) {
+      if (deferredName == null) throw new IllegalStateException("Nesting problem.");
+    } else if (depth == 0 && size > 1) {
+      throw new IllegalStateException("JSON must have only one top-level value.");
+    }
+    if (deferredName == null) return;
+    Integer index = names.get(deferredName);
+    if (index == null) {
+      names.put(deferredName, names.size());
+      writeByte(NAME);
+      writeString(deferredName);
+    } else {
+      writeByte(NAME_REF);
+      writeVarint(index);
+    }
+    deferredName = null;
+  }
+
+  @Override
+  public JsonWriter value(String value) throws IOException {
+    if (value == null) return nullValue();
+    beforeValue();
+    writeByte(STRING);
+    writeString(value);
+    return this;
+  }
+
+  @Override
+  public JsonWriter jsonValue(String value) throws IOException {
+    if (value == null) return nullValue();
+    Streams.write(new JsonParser().parse(value), this);
+    return this;
+  }
+
+  @Override
+  public JsonWriter nullValue() throws IOException {
+    if (deferredName != null && !getSerializeNulls()) {
+      // フィールド自体を省略する
+      deferredName = null;
+      return this;
+    }
+    beforeValue();
+    writeByte(NULL);
+    return this;
+  }
+
+  @Override
+  public JsonWriter value(boolean value) throws IOException {
+    beforeValue();
+    writeByte(value? TRUE:FALSE);
+    return this;
+  }
+
+  @Override
+  public JsonWriter value(Boolean value) throws IOException {
+    if (value == null) return nullValue();
+    return value(value.booleanValue());
+  }
+
+  @Override
+  public JsonWriter value(double value) throws IOException {
+    beforeValue();
+    writeByte(DOUBLE);
+    long bits = Double.doubleToRawLongBits(value);
+    ensure(8);
+    for (int shift = 56; shift >= 0; shift -= 8) buffer[size++] = (byte)(bits >>> shift);
+    return this;
+  }
+
+  @Override
+  public JsonWriter value(long value) throws IOException {
+    beforeValue();
+    writeByte(LONG);
+    writeVarint((value << 1) ^ (value >> 63));
+    return this;
+  }
+
+  @Override
+  public JsonWriter value(Number value) throws IOException {
+    if (value == null) return nullValue();
+    if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+      return value(value.longValue());
+    }
+    if (value instanceof Double) {
+      return value(value.doubleValue());
+    }
+    if (value instanceof Float) {
+      float f = value.floatValue();
+      if (f != f || Float.isInfinite(f)) return value((double)f);
+
+      // doubleに拡張すると0.1fが0.10000000149011612となるので、テキストと同じ最短の表記にする
+      beforeValue();
+      writeByte(NUMBER);
+      writeString(Float.toString(f));
+      return this;
+    }
+
+    // LazilyParsedNumber、BigDecimal等は表記のまま
+    beforeValue();
+    writeByte(NUMBER);
+    writeString(value.toString());
+    return this;
+  }
+
+  @Override
+  public void flush() {
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (depth != 0) throw new IOException("Incomplete document");
+  }
+
+  private void writeByte(byte value) {
+    ensure(1);
+    buffer[size++] = value;
+  }
+
+  /** 符号無しの可変長整数 */
+  private void writeVarint(long value) {
+    ensure(10);
+    while ((value & ~0x7FL) != 0) {
+      buffer[size++] = (byte)((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    buffer[size++] = (byte)value;
+  }
+
+  /** バイト数と、各charを1～3バイトにしたもの */
+  private void writeString(String value) {
+    int length = value.length();
+    int bytes = length;
+    for (int i = 0; i < length; i++) {
+      char c = value.charAt(i);
+      if (c >= 0x80) bytes += c < 0x800? 1:2;
+    }
+    writeVarint(bytes);
+    ensure(bytes);
+    for (int i = 0; i < length; i++) {
+      char c = value.charAt(i);
+      if (c < 0x80) {
+        buffer[size++] = (byte)c;
+      } else if (c < 0x800) {
+        buffer[size++] = (byte)(0xC0 | (c >> 6));
+        buffer[size++] = (byte)(0x80 | (c & 0x3F));
+      } else {
+        buffer[size++] = (byte)(0xE0 | (c >> 12));
+        buffer[size++] = (byte)(0x80 | ((c >> 6) & 0x3F));
+        buffer[size++] = (byte)(0x80 | (c & 0x3F));
+      }
+    }
+  }
+
+  private void ensure(int bytes) {
+    if (size + bytes > buffer.length) buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + bytes));
+  }
+}
@@ -0,0 +1,92 @@
+package com.cm55.gson;
+
+import java.io.*;
+import java.lang.reflect.*;
+import java.util.*;
+
+import com.google.gson.*;
+import com.google.gson.internal.*;
+import com.google.gson.internal.bind.*;
+import com.google.gson.reflect.*;
+import com.google.gson.stream.*;
+
+/**
+ * {@link BinaryJsonReader}、{@link FixingJsonReader}から読み込めるマップのアダプタを作成するファクトリ
+ * <p>
+ * Gsonのマップのアダプタは、キーを読み込む際に{@link JsonReader}の内部状態を直接操作するため、
+ * {@link BinaryJsonReader}、{@link FixingJsonReader}を読み込むことができない。
+ * 読み込みのみをGsonと同じ手順で行い、書き込みはGsonのアダプタに任せる。
+ * {@link Serializer}は、これらから読み込むGson（バイナリ形式用、修正しながらの復帰用）にのみ登録する。
+ * </p>
+ * @author ysugimura
+ */
+class BinaryMapAdapterFactory implements TypeAdapterFactory {
+
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  @Override
+  public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> typeToken) {
+    Class<?> raw = typeToken.getRawType();
+    if (!Map.class.isAssignableFrom(raw)) return null;
+    Type[]keyAndValue = $Gson$Types.getMapKeyAndValueTypes(typeToken.getType(), raw);
+    Type keyType = keyAndValue[0];
+    TypeAdapter<?> keyAdapter = keyType == boolean.class || keyType == Boolean.class?
+        TypeAdapters.BOOLEAN_AS_STRING:gson.getAdapter(TypeToken.get(keyType));
+    return new Adapter(gson.getDelegateAdapter(this, typeToken), keyAdapter, gson.getAdapter(TypeToken.get(keyAndValue[1])),
+        new ConstructorConstructor(Collections.emptyMap()).get(typeToken));
+  }
+
+  /**
+   * マップのアダプタ
+   * @param <K> キーの型
+   * @param <V> 値の型
+   */
+  static class Adapter<K, V> extends TypeAdapter<Map<K, V>> {
+    private final TypeAdapter<Map<K, V>> delegate;
+    private final TypeAdapter<K> keyAdapter;
+    private final TypeAdapter<V> valueAdapter;
+    private final ObjectConstructor<? extends Map<K, V>> constructor;
+
+    Adapter(TypeAdapter<Map<K, V>> delegate, TypeAdapter<K> keyAdapter, TypeAdapter<V> valueAdapter,
+        ObjectConstructor<? extends Map<K, V>> constructor) {
+      this.delegate = delegate;
+      this.keyAdapter = keyAdapter;
+      this.valueAdapter = valueAdapter;
+      this.constructor = constructor;
+    }
+
+    @Override
+    public void write(JsonWriter out, Map<K, V> map) throws IOException {
+      delegate.write(out, map);
+    }
+
+    @Override
+    public Map<K, V> read(JsonReader in) throws IOException {
+      if (GeneratedAdapter.skipNull(in)) return null;
+      Map<K, V> map = constructor.construct();
+      if (in.peek() == JsonToken.BEGIN_ARRAY) {
+        // キーと値の組の配列
+        in.beginArray();
+        while (in.hasNext()) {
+          in.beginArray();
+          K key = keyAdapter.read(in);
+          put(map, key, valueAdapter.read(in));
+          in.endArray();
+        }
+        in.endArray();
+      } else {
+        in.beginObject();
+        while (in.hasNext()) {
+          BinaryJsonReader.promoteNameToValue(in);
+          K key = keyAdapter.read(in);
+          put(map, key, valueAdapter.read(in));
+        }
+        in.endObject();
+      }
+      return map;
+    }
+
+    private void put(Map<K, V> map, K key, V value) {
+      if (map.put(key, value) != null) throw new JsonSyntaxException("duplicate key: " + key);
+    }
+  }
+}
@@ -0,0 +1,175 @@
+package com.cm55.gson;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.junit.*;
+
+import com.cm55.gson.JsonMetrics.*;
+import com.cm55.gson.SerializerTest.*;
+import com.google.gson.*;
+
+/**
+ * バイナリ形式による直列化及び復帰のテスト
+ * @author ysugimura
+ */
+public class BinarySerializerTest {
+
+  @Test
+  public void 様々な値() {
+    Serializer<Sample>serializer = new Serializer<>(Sample.class);
+    Sample in = new Sample();
+    byte[]bytes = serializer.serializeBinary(in);
+    Sample out = serializer.deserializeBinary(bytes);
+
+    // テキストで比較する
+    String json = serializer.serialize(in);
+    assertEquals(json, serializer.serialize(out));
+    assertTrue(bytes.length < json.getBytes().length);
+    assertEquals(in.surrogate, out.surrogate);
+    assertEquals(Double.doubleToRawLongBits(-0.0), Double.doubleToRawLongBits(out.doubles[1]));
+  }
+
+  @Test
+  public void マルチハンドラ() {
+    Serializer<Various>serializer = new Serializer<>(VariousHandler.INSTANCE);
+    Various out = serializer.deserializeBinary(serializer.serializeBinary(new Various(123, "abc", new FooTwo())));
+    assertEquals(123, out.i);
+    assertEquals("abc", out.s);
+    assertTrue(out.foo instanceof FooTwo);
+
+    // 複雑なキーのマップ
+    HashMap<Various, String>map = new HashMap<>();
+    map.put(new Various(1, "a", new FooOne()), "one");
+    map.put(new Various(2, "b", new FooTwo()), "two");
+    Serializer<HashMap<Various, String>>mapSerializer = new Serializer<>(VariousHashMapHandler.INSTANCE);
+    assertEquals(map, mapSerializer.deserializeBinary(mapSerializer.serializeBinary(map)));
+  }
+
+  @Test
+  public void 生成アダプタ() {
+    Serializer<JsonGeneratedTest.Gen>serializer = new Serializer<>(JsonGeneratedTest.genHandler());
+    JsonGeneratedTest.Gen gen = new JsonGeneratedTest.Gen();
+    gen.value = "value";
+    assertEquals(serializer.serialize(serializer.deserialize(serializer.serialize(gen))),
+        serializer.serialize(serializer.deserializeBinary(serializer.serializeBinary(gen))));
+  }
+
+  @Test
+  public void フィールド名の参照() {
+    Serializer<ArrayList<Various>>serializer = new Serializer<>(VariousArrayListHandler.INSTANCE);
+    ArrayList<Various>list = new ArrayList<>();
+    for (int i = 0; i < 100; i++) list.add(new Various(i, "s" + i, new FooOne()));
+    byte[]bytes = serializer.serializeBinary(list);
+    assertTrue(bytes.length < serializer.serialize(list).length());
+
+    // フィールド名"one"は一度だけ書き込まれる
+    String text = new String(bytes, java.nio.charset.StandardCharsets.ISO_8859_1);
+    assertEquals(text.indexOf("one"), text.lastIndexOf("one"));
+    assertEquals(list, serializer.deserializeBinary(bytes));
+  }
+
+  @Test
+  public void nullとエラー() {
+    Serializer<Sample>serializer = new Serializer<>(Sample.class);
+    assertNull(serializer.serializeBinary(null));
+    assertNull(serializer.deserializeBinary(null));
+
+    byte[]bytes = serializer.serializeBinary(new Sample());
+    for (byte[]error: new byte[][] {
+      new byte[0],
+      "{}".getBytes(),
+      Arrays.copyOf(bytes, bytes.length / 2),
+      Arrays.copyOf(bytes, bytes.length + 1),
+      // 不正な文字列長
+      new byte[] { 1, 8, 10, (byte)0xFF, (byte)0xFF, (byte)0xFF, (byte)0xFF, 0x07 },
+    }) {
+      try {
+        serializer.deserializeBinary(error);
+        fail();
+      } catch (JsonException ex) {
+        assertEquals(JsonSyntaxException.class, ex.getCause().getClass());
+      }
+    }
+  }
+
+  @Test
+  public void 高速な数値変換() {
+    byte[]expected = new Serializer<>(Sample.class).serializeBinary(new Sample());
+    boolean saved = Settings.FAST_NUMBER_CODEC;
+    Settings.FAST_NUMBER_CODEC = true;
+    try {
+      // バイナリ形式には影響しない。小数はDOUBLEとして格納される
+      Serializer<Sample>serializer = new Serializer<>(Sample.class);
+      byte[]bytes = serializer.serializeBinary(new Sample());
+      assertArrayEquals(expected, bytes);
+      assertEquals(0.1, serializer.deserializeBinary(bytes).d, 0);
+    } finally {
+      Settings.FAST_NUMBER_CODEC = saved;
+    }
+  }
+
+  @Test
+  public void float値() {
+    Serializer<Floats>serializer = new Serializer<>(Floats.class);
+    Floats in = new Floats();
+    in.map.put("value", 1.1f);
+    Floats out = serializer.deserializeBinary(serializer.serializeBinary(in));
+
+    // テキストと同じく、floatの最短の表記が保存される
+    assertEquals(serializer.serialize(in), serializer.serialize(out));
+    assertEquals(0.1f, out.f, 0);
+    assertEquals(1.1, out.map.get("value"));
+    assertTrue(Float.isNaN(out.nan));
+  }
+
+  @Test
+  public void 計測() {
+    JsonStatistics statistics = new JsonStatistics();
+    Serializer<Sample>serializer = new Serializer<>(Sample.class).setMetrics(statistics);
+    byte[]bytes = serializer.serializeBinary(new Sample());
+    serializer.deserializeBinary(bytes);
+    assertEquals(bytes.length, statistics.getSizeOut(Operation.SERIALIZE_BINARY));
+    assertEquals(bytes.length, statistics.getSizeIn(Operation.DESERIALIZE_BINARY));
+  }
+
+  public static enum Color { RED, GREEN }
+
+  public static class Floats {
+    float f = 0.1f;
+    Float boxed = -3.3f;
+    float nan = Float.NaN;
+    Map<String, Object>map = new HashMap<>();
+  }
+
+  public static class Sample {
+    int i = -5;
+    long l = Long.MIN_VALUE;
+    double d = 0.1;
+    float f = 2.5f;
+    boolean z = true;
+    char c = 'あ';
+    String s = "abc\"\\\n日本語";
+    String surrogate = "😀\uD800";
+    String nullString;
+    Integer boxed = 3;
+    double[]doubles = { 1, -0.0, Double.NaN, Double.POSITIVE_INFINITY };
+    int[]ints = { 1, 2, 3 };
+    List<Object>objects = Arrays.asList("x", 1.5, true, null);
+    Map<String, Integer>stringMap = new LinkedHashMap<>();
+    Map<Integer, String>intMap = new HashMap<>();
+    Map<Color, Boolean>enumMap = new EnumMap<>(Color.class);
+    Map<Boolean, String>booleanMap = new HashMap<>();
+    Color color = Color.GREEN;
+    java.math.BigDecimal decimal = new java.math.BigDecimal("123.456789012345678901234567890");
+    JsonElement element = new JsonParser().parse("{\"a\":[1,2.5,\"x\",null,{}]}");
+    Sample() {
+      stringMap.put("one", 1);
+      stringMap.put("null", null);
+      intMap.put(-7, "seven");
+      enumMap.put(Color.RED, false);
+      booleanMap.put(true, "t");
+    }
+  }
+}
@@ -0,0 +1,62 @@
+package com.cm55.gson;
+
+import java.io.*;
+
+/**
+ * 読み込まれた文字数を数える{@link Reader}
+ * <p>
+ * {@link Reader}を入力とする復帰で、{@link JsonMetrics}に通知する入力サイズを得るために用いる。
+ * 入力をもう一度読むことはせず、実際に読み込まれた文字数をそのまま数える。
+ * </p>
+ * @author ysugimura
+ */
+class CountingReader extends FilterReader {
+
+  /** 読み込まれた文字数 */
+  private long count;
+
+  CountingReader(Reader in) {
+    super(in);
+  }
+
+  /** 読み込まれた文字数を取得する */
+  long getCount() {
+    return count;
+  }
+
+  @Override
+  public int read() throws IOException {
+    int c = super.read();
+    if (c >= 0) count++;
+    return c;
+  }
+
+  @Override
+  public int read(char[] buffer, int offset, int length) throws IOException {
+    int size = super.read(buffer, offset, length);
+    if (size > 0) count += size;
+    return size;
+  }
+
+  @Override
+  public long skip(long n) throws IOException {
+    long skipped = super.skip(n);
+    count += skipped;
+    return skipped;
+  }
+
+  @Override
+  public boolean markSupported() {
+    return false;
+  }
+
+  @Override
+  public void mark(int readAheadLimit) throws IOException {
+    throw new IOException("mark() not supported");
+  }
+
+  @Override
+  public void reset() throws IOException {
+    throw new IOException("reset() not supported");
+  }
+}
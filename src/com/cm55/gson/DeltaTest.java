@@ -0,0 +1,120 @@
+package com.cm55.gson;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.junit.*;
+
+import com.cm55.gson.SerializerTest.*;
+
+/**
+ * 差分の作成と適用のテスト
+ * @author ysugimura
+ */
+public class DeltaTest {
+
+  @Test
+  public void 変更無し() {
+    Serializer<Doc>serializer = new Serializer<>(Doc.class);
+    assertEquals("{}", serializer.serializeDelta(new Doc(), new Doc()));
+    Doc result = serializer.applyDelta(new Doc(), "{}");
+    assertEquals(serializer.serialize(new Doc()), serializer.serialize(result));
+  }
+
+  @Test
+  public void フィールドの変更() {
+    Serializer<Doc>serializer = new Serializer<>(Doc.class);
+    Doc baseline = new Doc();
+    Doc current = new Doc();
+    current.inner.value = -0.0;
+    current.title = null;
+    String patch = serializer.serializeDelta(baseline, current);
+    assertEquals("{\"o\":{\"title\":{\"s\":null},\"inner\":{\"o\":{\"value\":{\"s\":-0.0}}}}}", patch);
+    assertDelta(serializer, baseline, current);
+  }
+
+  @Test
+  public void リストとマップ() {
+    Serializer<Doc>serializer = new Serializer<>(Doc.class);
+    Doc baseline = new Doc();
+    for (int i = 0; i < 10; i++) baseline.lines.add("line" + i);
+    Doc current = serializer.deserialize(serializer.serialize(baseline));
+    current.lines.set(3, "changed");
+    current.lines.add("added");
+    current.counts.remove("a");
+    current.counts.put("c", 3);
+    current.counts.put("b", null);
+    String patch = serializer.serializeDelta(baseline, current);
+    assertEquals("{\"o\":{\"lines\":{\"n\":11,\"e\":{\"3\":{\"s\":\"changed\"},\"10\":{\"s\":\"added\"}}},"
+        + "\"counts\":{\"o\":{\"b\":{\"s\":null},\"c\":{\"s\":3}},\"r\":[\"a\"]}}}", patch);
+    assertDelta(serializer, baseline, current);
+
+    // 短くなる場合、大半が変わる場合
+    current.lines = new ArrayList<>(Arrays.asList("x", "y"));
+    assertEquals("{\"o\":{\"lines\":{\"s\":[\"x\",\"y\"]},\"counts\":{\"o\":{\"b\":{\"s\":null},\"c\":{\"s\":3}},\"r\":[\"a\"]}}}",
+        serializer.serializeDelta(baseline, current));
+    assertDelta(serializer, baseline, current);
+    current.lines = new ArrayList<>(baseline.lines.subList(0, 4));
+    assertTrue(serializer.serializeDelta(baseline, current).contains("\"lines\":{\"n\":4}"));
+    assertDelta(serializer, baseline, current);
+  }
+
+  @Test
+  public void マルチハンドラ() {
+    Serializer<Various>serializer = new Serializer<>(VariousHandler.INSTANCE);
+    Various baseline = new Various(1, "a", new FooOne());
+    FooOne one = new FooOne();
+    one.one = 5;
+
+    // 同じクラスであればデータ部分の差分
+    String patch = serializer.serializeDelta(baseline, new Various(1, "a", one));
+    assertEquals("{\"o\":{\"foo\":{\"o\":{\"D\":{\"o\":{\"one\":{\"s\":5}}}}}}}", patch);
+    assertEquals(5, ((FooOne)serializer.applyDelta(baseline, patch).foo).one);
+
+    // クラスが変わる場合は全体
+    patch = serializer.serializeDelta(baseline, new Various(1, "a", new FooTwo()));
+    assertTrue(patch.startsWith("{\"o\":{\"foo\":{\"s\":{\"T\":"));
+    assertTrue(serializer.applyDelta(baseline, patch).foo instanceof FooTwo);
+  }
+
+  @Test
+  public void nullとエラー() {
+    Serializer<Doc>serializer = new Serializer<>(Doc.class);
+    Doc doc = new Doc();
+    assertNull(serializer.applyDelta(doc, null));
+    assertNull(serializer.applyDelta(doc, serializer.serializeDelta(doc, null)));
+    assertDelta(serializer, null, doc);
+    for (String error: new String[] { "", "[1]", "{\"n\":1}", "{\"o\":{\"lines\":{\"n\":3}}}" }) {
+      try {
+        serializer.applyDelta(doc, error);
+        fail(error);
+      } catch (JsonException ex) {
+      }
+    }
+  }
+
+  /** パッチを適用した結果が新しいオブジェクトと同じになること */
+  private static <T>void assertDelta(Serializer<T>serializer, T baseline, T current) {
+    String before = serializer.serialize(baseline);
+    T result = serializer.applyDelta(baseline, serializer.serializeDelta(baseline, current));
+    assertEquals(serializer.serialize(current), serializer.serialize(result));
+    assertEquals(before, serializer.serialize(baseline));
+  }
+
+  public static class Inner {
+    double value = 1.5;
+    String name = "inner";
+  }
+
+  public static class Doc {
+    String title = "title";
+    Inner inner = new Inner();
+    List<String>lines = new ArrayList<>();
+    Map<String, Integer>counts = new LinkedHashMap<>();
+    Doc() {
+      counts.put("a", 1);
+      counts.put("b", 2);
+    }
+  }
+}
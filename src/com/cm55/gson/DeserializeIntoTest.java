@@ -0,0 +1,193 @@
+package com.cm55.gson;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.junit.*;
+
+import com.cm55.gson.SerializerTest.*;
+
+/**
+ * 既存のオブジェクトへの復帰のテスト
+ * @author ysugimura
+ */
+public class DeserializeIntoTest {
+
+  @Test
+  public void オブジェクトの再利用() {
+    Serializer<Tick>serializer = new Serializer<>(Tick.class);
+    Tick source = new Tick();
+    source.price = 12.5;
+    source.header.ts = 100;
+    source.trades.add(new Trade(1, 2));
+    source.trades.add(new Trade(3, 4));
+    source.tags.put("x", new Trade(5, 6));
+    String json = serializer.serialize(source);
+
+    Tick target = new Tick();
+    Header header = target.header;
+    List<Trade>trades = target.trades;
+    Trade first = new Trade(0, 0);
+    trades.add(first);
+    Map<String, Trade>tags = target.tags;
+    Trade tag = new Trade(0, 0);
+    tags.put("x", tag);
+    tags.put("stale", new Trade(0, 0));
+
+    assertSame(target, serializer.deserializeInto(json, target));
+    assertEquals(json, serializer.serialize(target));
+    assertSame(header, target.header);
+    assertSame(trades, target.trades);
+    assertSame(first, target.trades.get(0));
+    assertSame(tags, target.tags);
+    assertSame(tag, target.tags.get("x"));
+    assertFalse(target.tags.containsKey("stale"));
+
+    // 短くなるリスト、nullになるフィールド
+    source.trades.remove(1);
+    source.header = null;
+    assertSame(target, serializer.deserializeInto(serializer.serialize(source), target));
+    assertEquals(1, target.trades.size());
+    assertSame(first, target.trades.get(0));
+    assertNull(target.header);
+  }
+
+  @Test
+  public void 生成アダプタ() {
+    Serializer<JsonGeneratedTest.Gen>serializer = new Serializer<>(JsonGeneratedTest.genHandler());
+    JsonGeneratedTest.Gen gen = new JsonGeneratedTest.Gen();
+    gen.value = "value";
+    String json = serializer.serialize(gen);
+    JsonGeneratedTest.Gen target = new JsonGeneratedTest.Gen();
+    assertSame(target, serializer.deserializeInto(json, target));
+
+    // 通常の復帰と同じ結果になる
+    assertEquals(serializer.serialize(serializer.deserialize(json)), serializer.serialize(target));
+  }
+
+  @Test
+  public void 再帰的な型() {
+    // フィールドの型が自身のクラスでも再利用される
+    Serializer<Node>serializer = new Serializer<>(Node.class);
+    Node target = new Node();
+    target.next = new Node();
+    target.next.keep = "KEEP";
+    Node child = new Node();
+    child.keep = "CHILD";
+    target.children.add(child);
+    Node next = target.next;
+    serializer.deserializeInto("{\"a\":1,\"next\":{\"a\":2},\"children\":[{\"a\":3}]}", target);
+    assertSame(next, target.next);
+    assertEquals(2, target.next.a);
+    assertEquals("KEEP", target.next.keep);
+    assertSame(child, target.children.get(0));
+    assertEquals("CHILD", child.keep);
+
+    // 生成アダプタ
+    Serializer<GenNode>generated = new Serializer<>(GenNode.class);
+    GenNode genTarget = new GenNode();
+    genTarget.next = new GenNode();
+    genTarget.next.keep = "KEEP";
+    GenNode genNext = genTarget.next;
+    generated.deserializeInto("{\"a\":1,\"next\":{\"a\":2}}", genTarget);
+    assertSame(genNext, genTarget.next);
+    assertEquals(2, genTarget.next.a);
+    assertEquals("KEEP", genTarget.next.keep);
+  }
+
+  @Test
+  public void マルチハンドラ() {
+    Serializer<Various>serializer = new Serializer<>(VariousHandler.INSTANCE);
+    FooOne one = new FooOne();
+    Various target = new Various(0, "", one);
+    FooOne source = new FooOne();
+    source.one = 7;
+
+    // 同じクラスであれば再利用される
+    assertSame(target, serializer.deserializeInto(serializer.serialize(new Various(1, "a", source)), target));
+    assertSame(one, target.foo);
+    assertEquals(7, one.one);
+    assertEquals("a", target.s);
+
+    // 異なるクラスであれば新たに作成される
+    serializer.deserializeInto(serializer.serialize(new Various(1, "a", new FooTwo())), target);
+    assertTrue(target.foo instanceof FooTwo);
+  }
+
+  @Test
+  public void nullとエラー() {
+    Serializer<Tick>serializer = new Serializer<>(Tick.class);
+    Tick target = new Tick();
+    assertNull(serializer.deserializeInto((String)null, target));
+    assertNull(serializer.deserializeInto("", target));
+    assertNull(serializer.deserializeInto("null", target));
+    Tick created = serializer.deserializeInto("{\"price\":1.5}", null);
+    assertEquals(1.5, created.price, 0);
+    for (String error: new String[] { "{\"price\":", "{} {}", "{\"tags\":{\"a\":{},\"a\":{}}}" }) {
+      try {
+        serializer.deserializeInto(error, target);
+        fail(error);
+      } catch (JsonException ex) {
+      }
+    }
+  }
+
+  @Test
+  public void 計測() {
+    JsonStatistics statistics = new JsonStatistics();
+    Serializer<Tick>serializer = new Serializer<>(Tick.class).setMetrics(statistics);
+    String json = serializer.serialize(new Tick());
+    serializer.deserializeInto(json, new Tick());
+    serializer.deserializeInto(new java.io.StringReader(json), new Tick());
+    assertEquals(json.length() * 2, statistics.getSizeIn(JsonMetrics.Operation.DESERIALIZE));
+
+    // 参照を扱うシリアライザでは、計測していても使用できない
+    boolean saved = Settings.OBJECT_REFERENCES;
+    Settings.OBJECT_REFERENCES = true;
+    try {
+      serializer = new Serializer<>(Tick.class).setMetrics(statistics);
+    } finally {
+      Settings.OBJECT_REFERENCES = saved;
+    }
+    try {
+      serializer.deserializeInto(json, new Tick());
+      fail();
+    } catch (JsonException ex) {
+    }
+  }
+
+  public static class Header {
+    long ts;
+  }
+
+  public static class Trade {
+    int size;
+    long id;
+    Trade(int size, long id) {
+      this.size = size;
+      this.id = id;
+    }
+  }
+
+  public static class Tick {
+    double price;
+    Header header = new Header();
+    List<Trade>trades = new ArrayList<>();
+    Map<String, Trade>tags = new HashMap<>();
+  }
+
+  public static class Node {
+    int a;
+    String keep = "x";
+    Node next;
+    List<Node>children = new ArrayList<>();
+  }
+
+  @JsonGenerated
+  public static class GenNode {
+    int a;
+    String keep = "x";
+    GenNode next;
+  }
+}
@@ -0,0 +1,571 @@
+package com.cm55.gson;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.charset.*;
+import java.util.*;
+import java.util.function.*;
+import java.util.regex.*;
+
+import com.cm55.gson.JsonFixer.*;
+import com.google.gson.stream.*;
+
+/**
+ * 連結されたJSONドキュメントのストリームを逐次修正するセッション
+ * <p>
+ * ソケット等から連続して届く、連結されたJSONドキュメント（改行区切りを含む）を任意の単位で{@link #feed(ByteBuffer)}
+ * すると、一つのドキュメントが完結する度に{@link JsonFixer}のルールで修正し、{@link #onDocument(Consumer)}で
+ * 指定されたコールバックに修正後のJSON文字列を渡す。
+ * </p>
+ * <p>
+ * 入力はバイト毎にトークンに区切り、{@link PushJsonReader}を介して{@link FixingJsonReader}で修正しながら
+ * その都度書き込む。入力のバイト列はバッファせず、保持するのはネストの状態、読み込み途中のトークン、
+ * {@link FixingJsonReader}の先読みする僅かなトークン、及び修正後のJSON文字列のみである。
+ * 大きなトークンのために拡張されたバッファは、ドキュメントの終了後に解放される。
+ * 個々のドキュメントのトップレベルはJSONオブジェクトあるいはJSON配列でなければならず、
+ * 入力は厳密なJSONでなければならない（コメント、クォートされない文字列等は受け付けない）。
+ * 入力のエンコーディングは作成時の{@link Settings#ENCODING}とし、マルチバイト文字の各バイトはASCII文字と一致しないものとする。
+ * </p>
+ * <p>
+ * ドキュメントが大きすぎる場合や解析できない場合には、そのドキュメントのみを捨てて以降の入力の処理を続け、
+ * 与えられた入力をすべて処理した後に最初のエラーを{@link JsonException}として送出する。
+ * このため、エラーの後も同じセッションを使い続けることができる。
+ * </p>
+ * <pre>
+ * FixerSession session = new FixerSession(root).onDocument(json-&gt;{ ... });
+ * while (channel.read(buffer) &gt;= 0) {
+ *   buffer.flip();
+ *   session.feed(buffer);
+ *   buffer.clear();
+ * }
+ * session.close();
+ * </pre>
+ * <p>
+ * このオブジェクトはスレッドセーフではない。
+ * </p>
+ * @author ysugimura
+ */
+public class FixerSession implements Closeable {
+
+  /** 一つのドキュメントとして許される最大バイト数のデフォルト */
+  private static final int DEFAULT_MAX_DOCUMENT_SIZE = 16 * 1024 * 1024;
+
+  /** トークンのバッファの初期サイズ */
+  private static final int INITIAL_BUFFER_SIZE = 256;
+
+  /** ドキュメントの終了後も保持するバッファの最大サイズ。これより大きなバッファは解放する */
+  private static final int RETAINED_BUFFER_SIZE = 64 * 1024;
+
+  /** 数値の表記 */
+  private static final Pattern NUMBER = Pattern.compile("-?(0|[1-9][0-9]*)(\\.[0-9]+)?([eE][+-]?[0-9]+)?");
+
+  /*
+   * 区切りの状態。オブジェクト・配列の開始直後、値の前、値の後等
+   */
+  private static final byte OBJECT_START = 0;
+  private static final byte OBJECT_NAME = 1;
+  private static final byte OBJECT_COLON = 2;
+  private static final byte OBJECT_VALUE = 3;
+  private static final byte OBJECT_NEXT = 4;
+  private static final byte ARRAY_START = 5;
+  private static final byte ARRAY_VALUE = 6;
+  private static final byte ARRAY_NEXT = 7;
+
+  /** 文字列、数値等の外 */
+  private static final int STRUCTURE = 0;
+  /** 文字列の中 */
+  private static final int STRING = 1;
+  /** 数値、true、false、nullの中 */
+  private static final int LITERAL = 2;
+
+  /** 修正ルール */
+  private final Node root;
+
+  /** 入力のエンコーディング */
+  private final Charset charset = Charset.forName(Settings.ENCODING);
+
+  /** 修正後のドキュメントを受け取るコールバック */
+  private Consumer<String>callback = json-> {};
+
+  /** 一つのドキュメントとして許される最大バイト数 */
+  private int maxDocumentSize = DEFAULT_MAX_DOCUMENT_SIZE;
+
+  /** 開いているオブジェクト・配列の区切りの状態 */
+  private byte[]stack = new byte[32];
+
+  /** 現在のネストの深さ。ゼロの場合はドキュメントの外にいる */
+  private int depth;
+
+  /** 文字列、数値等の中にいるか */
+  private int mode = STRUCTURE;
+
+  /** 文字列中のエスケープ文字の直後にいる */
+  private boolean escaped;
+
+  /** 文字列中の\\uエスケープの残りの桁数と値 */
+  private int unicode;
+  private int code;
+
+  /** 読み込み中の文字列がフィールド名である */
+  private boolean name;
+
+  /** 読み込み中のトークンのバイト列。文字列の場合は、エスケープ以降のもののみ */
+  private byte[]buffer = new byte[INITIAL_BUFFER_SIZE];
+  private int length;
+
+  /** 読み込み中の文字列の、エスケープまでの部分 */
+  private StringBuilder text = new StringBuilder();
+
+  /** 現在のドキュメントのバイト数 */
+  private int size;
+
+  /** 現在のドキュメントのトークン */
+  private PushJsonReader tokens;
+
+  /** 現在のドキュメントを修正しながら読み込む */
+  private FixingJsonReader fixing;
+
+  /** 修正後の現在のドキュメント */
+  private StringWriter writer;
+  private JsonWriter out;
+
+  /** 現在のドキュメントをすべて書き込んだ */
+  private boolean written;
+
+  /** 完結したドキュメントの修正後のJSON文字列。コールバックに渡す前のもの */
+  private String completed;
+
+  /** 大きすぎる、あるいは解析できないドキュメントを、終わりまで読み飛ばしている */
+  private boolean discarding;
+
+  /** 入力の処理中に発生した最初のエラー */
+  private JsonException error;
+
+  /** 計測。入力を与えられる度に取得する */
+  private JsonMetrics metrics;
+
+  /** 現在のドキュメントの処理に要した時間と、計測中の処理の開始時刻 */
+  private long nanos;
+  private long start;
+
+  /**
+   * 修正ルールを指定する
+   * @param root 修正ルール
+   */
+  public FixerSession(Node root) {
+    if (root == null) throw new NullPointerException();
+    this.root = root;
+  }
+
+  /**
+   * 修正後のドキュメントを受け取るコールバックを指定する
+   * @param callback コールバック
+   * @return 本オブジェクト
+   */
+  public FixerSession onDocument(Consumer<String>callback) {
+    if (callback == null) throw new NullPointerException();
+    this.callback = callback;
+    return this;
+  }
+
+  /**
+   * 一つのドキュメントとして許される最大バイト数を指定する。これを超えた場合には{@link JsonException}が発生する。
+   * そのドキュメントの残りは読み飛ばされ、次のドキュメントから処理が続けられる。デフォルトは16MB。
+   * @param maxDocumentSize 最大バイト数
+   * @return 本オブジェクト
+   */
+  public FixerSession setMaxDocumentSize(int maxDocumentSize) {
+    this.maxDocumentSize = maxDocumentSize;
+    return this;
+  }
+
+  /**
+   * 入力バイト列を与える。バッファの残りすべてが消費される。
+   * @param bytes 入力バイト列
+   */
+  public void feed(ByteBuffer bytes) {
+    beginFeed();
+    try {
+      while (bytes.hasRemaining()) {
+        feed(bytes.get());
+      }
+    } finally {
+      endFeed();
+    }
+    throwError();
+  }
+
+  /**
+   * 入力バイト列を与える。
+   * @param bytes バイト配列
+   * @param offset 開始位置
+   * @param count バイト数
+   */
+  public void feed(byte[]bytes, int offset, int count) {
+    beginFeed();
+    try {
+      for (int i = offset; i < offset + count; i++) {
+        feed(bytes[i]);
+      }
+    } finally {
+      endFeed();
+    }
+    throwError();
+  }
+
+  /** 入力の処理を開始する */
+  private void beginFeed() {
+    metrics = JsonFixer.getMetrics();
+    if (metrics != null) start = System.nanoTime();
+  }
+
+  /** 入力の処理を終了する。ドキュメントの途中であれば、その処理時間に加える */
+  private void endFeed() {
+    if (metrics != null && depth > 0) nanos += System.nanoTime() - start;
+    metrics = null;
+  }
+
+  /** 入力の処理中にエラーが発生していれば送出する */
+  private void throwError() {
+    JsonException ex = error;
+    error = null;
+    if (ex != null) throw ex;
+  }
+
+  /** エラーを記録する。最初のもののみを送出する */
+  private void fail(JsonException ex) {
+    if (error == null) error = ex;
+  }
+
+  private void feed(byte b) {
+
+    // ドキュメントの外。空白は読み飛ばし、オブジェクトか配列の開始のみを受け付ける
+    if (depth == 0) {
+      switch (b) {
+      case ' ': case '\t': case '\r': case '\n':
+        return;
+      case '{': case '[':
+        beginDocument();
+        break;
+      default:
+        fail(new JsonException("Unexpected character outside of document:" + (char)(b & 0xff)));
+        return;
+      }
+    }
+    if (discarding) {
+      discard(b);
+      return;
+    }
+    if (++size > maxDocumentSize) {
+      // 残りを読み飛ばす
+      fail(new JsonException("Document too large:" + maxDocumentSize));
+      discarding = true;
+      discard(b);
+      return;
+    }
+
+    // エラーの場合は、このバイトの前の状態から読み飛ばす
+    int depth = this.depth;
+    int mode = this.mode;
+    boolean escaped = this.escaped;
+    try {
+      scan(b);
+    } catch (IOException | RuntimeException ex) {
+      fail(ex instanceof JsonException? (JsonException)ex:new JsonException(ex));
+      this.depth = depth;
+      this.mode = mode;
+      this.escaped = escaped;
+      discarding = true;
+      discard(b);
+      return;
+    }
+    if (completed != null) emit();
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // トークンへの区切り
+  /////////////////////////////////////////////////////////////////////////////
+
+  private void scan(byte b) throws IOException {
+    switch (mode) {
+    case STRING:
+      string(b);
+      return;
+    case LITERAL:
+      if (isLiteral(b)) {
+        append(b);
+        return;
+      }
+      mode = STRUCTURE;
+      literal();
+      break;
+    default:
+      break;
+    }
+    switch (b) {
+    case ' ': case '\t': case '\r': case '\n':
+      return;
+    case '{':
+      value();
+      push(OBJECT_START);
+      token(JsonToken.BEGIN_OBJECT, null);
+      return;
+    case '[':
+      value();
+      push(ARRAY_START);
+      token(JsonToken.BEGIN_ARRAY, null);
+      return;
+    case '}':
+      if (state() != OBJECT_START && state() != OBJECT_NEXT) throw syntaxError("Unexpected '}'");
+      close(JsonToken.END_OBJECT);
+      return;
+    case ']':
+      if (state() != ARRAY_START && state() != ARRAY_NEXT) throw syntaxError("Unexpected ']'");
+      close(JsonToken.END_ARRAY);
+      return;
+    case ':':
+      if (state() != OBJECT_COLON) throw syntaxError("Unexpected ':'");
+      stack[depth - 1] = OBJECT_VALUE;
+      return;
+    case ',':
+      if (state() == OBJECT_NEXT) stack[depth - 1] = OBJECT_NAME;
+      else if (state() == ARRAY_NEXT) stack[depth - 1] = ARRAY_VALUE;
+      else throw syntaxError("Unexpected ','");
+      return;
+    case '"':
+      if (state() == OBJECT_START || state() == OBJECT_NAME) {
+        stack[depth - 1] = OBJECT_COLON;
+        name = true;
+      } else {
+        value();
+        name = false;
+      }
+      mode = STRING;
+      return;
+    default:
+      if (!isLiteral(b)) throw syntaxError("Unexpected character:" + (char)(b & 0xff));
+      value();
+      mode = LITERAL;
+      append(b);
+      return;
+    }
+  }
+
+  /** 現在の区切りの状態 */
+  private byte state() {
+    return stack[depth - 1];
+  }
+
+  /** 値の開始。値を置けない位置であればエラー */
+  private void value() throws IOException {
+    if (depth == 0) return;
+    switch (state()) {
+    case OBJECT_VALUE:
+      stack[depth - 1] = OBJECT_NEXT;
+      return;
+    case ARRAY_START:
+    case ARRAY_VALUE:
+      stack[depth - 1] = ARRAY_NEXT;
+      return;
+    default:
+      throw syntaxError("Unexpected value");
+    }
+  }
+
+  private void push(byte state) {
+    if (depth == stack.length) stack = Arrays.copyOf(stack, depth * 2);
+    stack[depth++] = state;
+  }
+
+  /** オブジェクト・配列を閉じる。ドキュメントの終わりであれば、修正後のJSON文字列を得る */
+  private void close(JsonToken token) throws IOException {
+    depth--;
+    token(token, null);
+    if (depth > 0) return;
+    tokens.complete();
+    write();
+    if (!written) throw new MalformedJsonException("Incomplete document");
+    completed = writer.toString();
+  }
+
+  /** 文字列の中の一バイト */
+  private void string(byte b) throws IOException {
+    if (unicode > 0) {
+      int digit = Character.digit(b, 16);
+      if (digit < 0) throw syntaxError("Invalid escape sequence");
+      code = code * 16 + digit;
+      if (--unicode == 0) text.append((char)code);
+      return;
+    }
+    if (escaped) {
+      escaped = false;
+      switch (b) {
+      case '"': case '\\': case '/': text.append((char)b); return;
+      case 'b': text.append('\b'); return;
+      case 'f': text.append('\f'); return;
+      case 'n': text.append('\n'); return;
+      case 'r': text.append('\r'); return;
+      case 't': text.append('\t'); return;
+      case 'u':
+        unicode = 4;
+        code = 0;
+        return;
+      default:
+        throw syntaxError("Invalid escape sequence");
+      }
+    }
+    switch (b) {
+    case '\\':
+      decode();
+      escaped = true;
+      return;
+    case '"':
+      decode();
+      mode = STRUCTURE;
+      String string = text.toString();
+      text.setLength(0);
+      token(name? JsonToken.NAME:JsonToken.STRING, string);
+      return;
+    default:
+      append(b);
+      return;
+    }
+  }
+
+  /** バッファしたバイト列を文字列にする */
+  private void decode() {
+    if (length == 0) return;
+    text.append(new String(buffer, 0, length, charset));
+    length = 0;
+  }
+
+  /** 数値、true、false、nullの終わり */
+  private void literal() throws IOException {
+    String literal = new String(buffer, 0, length, StandardCharsets.US_ASCII);
+    length = 0;
+    switch (literal) {
+    case "true":
+    case "false":
+      token(JsonToken.BOOLEAN, literal);
+      return;
+    case "null":
+      token(JsonToken.NULL, null);
+      return;
+    default:
+      if (!NUMBER.matcher(literal).matches()) throw syntaxError("Unexpected value:" + literal);
+      token(JsonToken.NUMBER, literal);
+      return;
+    }
+  }
+
+  private static boolean isLiteral(byte b) {
+    return b >= '0' && b <= '9' || b >= 'a' && b <= 'z' || b >= 'A' && b <= 'Z' || b == '-' || b == '+' || b == '.';
+  }
+
+  private void append(byte b) {
+    if (length == buffer.length) {
+      buffer = Arrays.copyOf(buffer, (int)Math.min((long)buffer.length * 2, Integer.MAX_VALUE - 8));
+    }
+    buffer[length++] = b;
+  }
+
+  private MalformedJsonException syntaxError(String message) {
+    return new MalformedJsonException(message + " at byte " + size + " of document");
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // 修正
+  /////////////////////////////////////////////////////////////////////////////
+
+  /** ドキュメントの開始 */
+  private void beginDocument() {
+    tokens = new PushJsonReader();
+    fixing = new FixingJsonReader(tokens, root);
+    writer = new StringWriter();
+    out = new JsonWriter(writer);
+    out.setLenient(true);
+    if (metrics != null) start = System.nanoTime();
+  }
+
+  /** トークンを追加し、読み込める限り修正しながら書き込む */
+  private void token(JsonToken token, String value) throws IOException {
+    tokens.add(token, value);
+    write();
+  }
+
+  private void write() throws IOException {
+    if (written) return;
+    try {
+      JsonFixer.copy(fixing, out);
+      written = true;
+    } catch (PushJsonReader.Starved ex) {
+      // 次のトークンを待つ
+    }
+  }
+
+  /** 完結したドキュメントをコールバックに渡す */
+  private void emit() {
+    String fixed = completed;
+    if (metrics != null) {
+      long now = System.nanoTime();
+      metrics.record(JsonMetrics.Operation.FIX, nanos + now - start, size, fixed.length());
+      start = now;
+    }
+    endDocument();
+    callback.accept(fixed);
+  }
+
+  /** 大きすぎる、あるいは解析できないドキュメントの一バイト。ネストの深さと文字列の状態のみを追う */
+  private void discard(byte b) {
+    if (mode == STRING) {
+      if (escaped) escaped = false;
+      else if (b == '\\') escaped = true;
+      else if (b == '"') mode = STRUCTURE;
+      return;
+    }
+    mode = STRUCTURE;
+    switch (b) {
+    case '"':
+      mode = STRING;
+      return;
+    case '{': case '[':
+      depth++;
+      return;
+    case '}': case ']':
+      if (--depth == 0) endDocument();
+      return;
+    }
+  }
+
+  /** ドキュメントの終わり。スキャナの状態を戻し、大きなバッファを解放する */
+  private void endDocument() {
+    depth = 0;
+    mode = STRUCTURE;
+    escaped = false;
+    unicode = 0;
+    length = 0;
+    text.setLength(0);
+    size = 0;
+    tokens = null;
+    fixing = null;
+    writer = null;
+    out = null;
+    written = false;
+    completed = null;
+    discarding = false;
+    nanos = 0;
+    if (buffer.length > RETAINED_BUFFER_SIZE) buffer = new byte[INITIAL_BUFFER_SIZE];
+    if (text.capacity() > RETAINED_BUFFER_SIZE) text = new StringBuilder();
+  }
+
+  /**
+   * 入力の終了を通知する。ドキュメントの途中であった場合には{@link JsonException}が発生する。
+   */
+  @Override
+  public void close() {
+    if (depth > 0) {
+      endDocument();
+      throw new JsonException("Incomplete document at end of input");
+    }
+  }
+}
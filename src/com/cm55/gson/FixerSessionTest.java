@@ -0,0 +1,137 @@
+package com.cm55.gson;
+
+import static org.junit.Assert.*;
+
+import java.nio.*;
+import java.util.*;
+
+import org.junit.*;
+
+import com.cm55.gson.JsonFixer.*;
+
+public class FixerSessionTest {
+
+  FixRoot root = new FixRoot(
+    new FixNone("orders",
+      new ForceArray("commodity")
+    )
+  );
+
+  @Test
+  public void 一バイトずつ() throws Exception {
+    String[]docs = {
+      "{'orders':{'commodity':{'name':'a{[\\\"'}}}",
+      "{'orders':{'commodity':[{'name':'日本語'}]}}",
+      "[{'x':'}'}]",
+    };
+    String input = toDouble(docs[0] + "\n" + docs[1] + "  \r\n" + docs[2] + docs[0]);
+
+    List<String>fixed = new ArrayList<>();
+    FixerSession session = new FixerSession(root).onDocument(fixed::add);
+    for (byte b: input.getBytes(Settings.ENCODING)) {
+      session.feed(ByteBuffer.wrap(new byte[] { b }));
+    }
+    session.close();
+
+    assertEquals(4, fixed.size());
+    assertEquals(JsonFixer.fix(toDouble(docs[0]), root), fixed.get(0));
+    assertEquals(JsonFixer.fix(toDouble(docs[1]), root), fixed.get(1));
+    assertEquals(JsonFixer.fix(toDouble(docs[2]), root), fixed.get(2));
+    assertEquals(fixed.get(0), fixed.get(3));
+    assertEquals("{'orders':{'commodity':[{'name':'a{[\\''}]}}", toSingle(fixed.get(0)));
+  }
+
+  @Test
+  public void 途中で終了() throws Exception {
+    FixerSession session = new FixerSession(root);
+    session.feed(ByteBuffer.wrap("{\"orders\":".getBytes(Settings.ENCODING)));
+    try {
+      session.close();
+      fail();
+    } catch (JsonException ex) {
+    }
+  }
+
+  @Test
+  public void 最大サイズ() throws Exception {
+    List<String>fixed = new ArrayList<>();
+    FixerSession session = new FixerSession(root).setMaxDocumentSize(16).onDocument(fixed::add);
+    try {
+      session.feed(ByteBuffer.wrap(toDouble("{'orders':{'x':'}}}'}} {'a':1}").getBytes(Settings.ENCODING)));
+      fail();
+    } catch (JsonException ex) {
+    }
+
+    // 同じ入力中の後続のドキュメントも、エラーの後に与えたドキュメントも処理される
+    session.feed(ByteBuffer.wrap(toDouble("{'orders':{}}").getBytes(Settings.ENCODING)));
+    session.close();
+    assertEquals(Arrays.asList("{\"a\":1}", "{\"orders\":{}}"), fixed);
+  }
+
+  @Test
+  public void 解析エラー() throws Exception {
+    List<String>fixed = new ArrayList<>();
+    FixerSession session = new FixerSession(root).onDocument(fixed::add);
+    byte[]bytes = toDouble("{'a' 1} x {'b':[{'c':2}]}").getBytes(Settings.ENCODING);
+    try {
+      session.feed(bytes, 0, bytes.length);
+      fail();
+    } catch (JsonException ex) {
+    }
+    session.close();
+    assertEquals(Arrays.asList("{\"b\":[{\"c\":2}]}"), fixed);
+  }
+
+  @Test
+  public void 全てのルール() throws Exception {
+    FixRoot root = new FixRoot(
+      new FixNone("items",
+        new ForceArray("commodity"),
+        new DropEmptyArray("option"),
+        new DropPrimitive("junk"),
+        new ChangeFieldName("default", "label")
+      ),
+      new DropEmptyArray("empty"),
+      new DropPrimitive("p")
+    );
+    String input = toDouble(
+        "{'items':[{'commodity':{'name':'a\\u0041\\n日本'},'option':[],'junk':1,'default':'v'},"
+      + "{'commodity':[],'option':[1,[]],'junk':{'x':1},'other':true}],"
+      + "'empty':[],'p':'x','q':-1.5e3,'r':null}");
+
+    // 一バイトずつ与えても、フィールド名に続くトークンを待ってから修正する
+    List<String>fixed = new ArrayList<>();
+    FixerSession session = new FixerSession(root).onDocument(fixed::add);
+    for (byte b: input.getBytes(Settings.ENCODING)) {
+      session.feed(new byte[] { b }, 0, 1);
+    }
+    session.close();
+    assertEquals(Arrays.asList(JsonFixer.fix(input, root)), fixed);
+  }
+
+  @Test
+  public void エラー後のバッファ位置() throws Exception {
+    List<String>fixed = new ArrayList<>();
+    FixerSession session = new FixerSession(root).onDocument(fixed::add);
+    ByteBuffer buffer = ByteBuffer.wrap(toDouble("{'a' 1} {'b':2}").getBytes(Settings.ENCODING));
+    try {
+      session.feed(buffer);
+      fail();
+    } catch (JsonException ex) {
+    }
+
+    // すべて消費されているので、再び与えても同じドキュメントは処理されない
+    assertFalse(buffer.hasRemaining());
+    session.feed(buffer);
+    session.close();
+    assertEquals(Arrays.asList("{\"b\":2}"), fixed);
+  }
+
+  private String toDouble(String s) {
+    return s.replace('\'',  '"');
+  }
+
+  private String toSingle(String s) {
+    return s.replace('"',  '\'');
+  }
+}
@@ -0,0 +1,482 @@
+package com.cm55.gson;
+
+import java.io.*;
+import java.util.*;
+
+import com.cm55.gson.JsonFixer.*;
+import com.google.gson.stream.*;
+
+/**
+ * {@link JsonFixer}のルールを適用しながら読み込む{@link JsonReader}
+ * <p>
+ * 元の{@link JsonReader}のトークンを読み込みながら、{@link JsonFixer}のルールによる修正を行ったトークン列を返す。
+ * ツリーも中間のJSON文字列も作成しないため、保持するのはネストの深さ分の状態のみである。
+ * {@link JsonFixer}のすべての修正、{@link Serializer#deserialize(Reader, FixRoot)}、{@link FixerSession}はこれを用いる。
+ * </p>
+ * <ul>
+ * <li>{@link ForceArray}：配列でない値の前後に配列の開始と終了を補う。
+ * <li>{@link DropEmptyArray}：配列の開始を読み込み、空であればフィールドごと読み飛ばす。空でなければ読み込んだ開始を返す。
+ * <li>{@link DropPrimitive}：プリミティブ値であればフィールドごと読み飛ばす。
+ * <li>{@link ChangeFieldName}：フィールド名を変更して返す。変更により同じ名前のフィールドが複数にならないよう、
+ * 名称を変更するノードのオブジェクトでは、同じ名前のフィールドは最初のもののみを返し、以降は読み飛ばす。
+ * </ul>
+ * <p>
+ * Gsonのマップのアダプタは{@link JsonReader}の内部状態を直接操作するため、キーの読み込みには
+ * {@link BinaryJsonReader#promoteNameToValue(JsonReader)}を用いること。
+ * </p>
+ * @author ysugimura
+ */
+class FixingJsonReader extends JsonReader {
+
+  /** {@link JsonReader}には入力が必要だが、使用されない */
+  private static final Reader UNREADABLE_READER = new Reader() {
+    @Override public int read(char[] buffer, int offset, int count) {
+      throw new AssertionError();
+    }
+    @Override public void close() {
+      throw new AssertionError();
+    }
+  };
+
+  /** 配列 */
+  private static final int ARRAY = 0;
+  /** オブジェクト */
+  private static final int OBJECT = 1;
+  /** {@link ForceArray}により補われた配列 */
+  private static final int FORCED = 2;
+
+  /** オブジェクトのフィールド名の位置 */
+  private static final int MEMBER = 0;
+  /** オブジェクトの値の位置、あるいは補われた配列の要素の読み込み後 */
+  private static final int VALUE = 1;
+
+  /** 次の値の前に配列の開始を補わない */
+  private static final int OPEN_NONE = 0;
+  /** 次の値の前に配列の開始を補う */
+  private static final int OPEN_FORCED = 1;
+  /** 次の値の配列の開始は既に読み込まれている */
+  private static final int OPEN_READ = 2;
+
+  /** 元の入力 */
+  private final JsonReader in;
+
+  /** ルートの修正ノード */
+  private final Node root;
+
+  /** 開いている配列・オブジェクトの種類、修正ノード（修正しない場合はnull）、状態 */
+  private int[]kinds = new int[32];
+  private Node[]nodes = new Node[32];
+  private int[]states = new int[32];
+  private int depth;
+
+  /** 名称を変更するノードのオブジェクトで、返したフィールド名。深さごとに再利用する */
+  @SuppressWarnings("unchecked")
+  private Set<String>[]names = new Set[32];
+
+  /** 修正するオブジェクトで、先読みしたフィールド名、その修正ノード、配列の開始の扱い */
+  private String pendingName;
+  private Node pendingNode;
+  private int pendingOpen;
+
+  /** 現在のフィールドの値の修正ノード、配列の開始の扱い */
+  private Node memberNode;
+  private int open;
+
+  /** 値として読み込むように変更されたフィールド名 */
+  private String promotedName;
+
+  FixingJsonReader(JsonReader in, Node root) {
+    super(UNREADABLE_READER);
+    setLenient(true);
+    this.in = in;
+    this.root = root;
+  }
+
+  /**
+   * 次のフィールド名を文字列の値として読み込めるようにする。
+   * {@link BinaryJsonReader#promoteNameToValue(JsonReader)}から呼び出される。
+   */
+  void promoteNameToValue() throws IOException {
+    promotedName = nextName();
+  }
+
+  /** 値の途中であるか。開いている配列・オブジェクトがあればtrue */
+  boolean inValue() {
+    return depth > 0;
+  }
+
+  /** 元の入力から一つの値を読み込む処理 */
+  interface ValueReader<R> {
+    R read(JsonReader in) throws IOException;
+  }
+
+  /**
+   * 次のトークンが、修正の対象とならない値の開始であるか。
+   * そうであれば、{@link #nextRaw(ValueReader)}でその値を元の入力からそのまま読み込める。
+   */
+  boolean atUntouchedValue() throws IOException {
+    if (override() != null || valueNode() != null) return false;
+    JsonToken token = in.peek();
+    return token != JsonToken.NAME && token != JsonToken.END_OBJECT && token != JsonToken.END_ARRAY &&
+        token != JsonToken.END_DOCUMENT;
+  }
+
+  /**
+   * 次の値を修正せずに、元の入力から読み込む。
+   * 修正の対象となる値であれば、その修正は呼び出し側が{@link #elementNode()}等で行わなければならない。
+   * @param reader 元の入力から一つの値を読み込む処理
+   * @return 読み込まれた値
+   * @throws IOException
+   */
+  <R> R nextRaw(ValueReader<R> reader) throws IOException {
+    expectValue("a value");
+    R value = reader.read(in);
+    valueConsumed();
+    return value;
+  }
+
+  /** 配列の中にいる場合、その要素に適用する修正ノード。修正しない場合、あるいは配列の中でない場合はnull */
+  Node elementNode() {
+    return depth > 0 && kinds[depth - 1] != OBJECT? nodes[depth - 1]:null;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // 修正
+  /////////////////////////////////////////////////////////////////////////////
+
+  /** 修正の必要なノードであればそれを、そうでなければnullを返す */
+  private static Node fixing(Node node) {
+    return node != null && node.hasSubMap()? node:null;
+  }
+
+  /** 次の値に適用する修正ノード */
+  private Node valueNode() {
+    if (depth == 0) return fixing(root);
+    if (kinds[depth - 1] == OBJECT) return fixing(memberNode);
+    return nodes[depth - 1];
+  }
+
+  /** 修正するオブジェクトのフィールド名の位置にいるか */
+  private boolean atFixingMember() {
+    return depth > 0 && kinds[depth - 1] == OBJECT && nodes[depth - 1] != null && states[depth - 1] == MEMBER;
+  }
+
+  /**
+   * 修正するオブジェクトの次のフィールドを先読みする。削除するフィールドは読み飛ばす。
+   * 残るフィールドが無ければpendingNameはnullのままとなる。
+   */
+  private void prepareMember() throws IOException {
+    if (pendingName != null) return;
+    Node node = nodes[depth - 1];
+    Set<String> names = node.renames? this.names[depth - 1]:null;
+    while (in.hasNext()) {
+      String name = in.nextName();
+      Node subNode = node.getSubNode(name);
+      if (subNode instanceof ChangeFieldName) name = ((ChangeFieldName)subNode).to;
+      if (names != null && names.contains(name)) {
+        in.skipValue();
+        continue;
+      }
+      int open = OPEN_NONE;
+      if (subNode instanceof DropEmptyArray) {
+        if (in.peek() == JsonToken.BEGIN_ARRAY) {
+          in.beginArray();
+          if (!in.hasNext()) {
+            in.endArray();
+            continue;
+          }
+          open = OPEN_READ;
+        }
+      } else if (subNode instanceof DropPrimitive) {
+        JsonToken token = in.peek();
+        if (token == JsonToken.STRING || token == JsonToken.NUMBER || token == JsonToken.BOOLEAN) {
+          in.skipValue();
+          continue;
+        }
+      } else if (subNode instanceof ForceArray) {
+        if (in.peek() != JsonToken.BEGIN_ARRAY) open = OPEN_FORCED;
+      }
+      if (names != null) names.add(name);
+      pendingName = name;
+      pendingNode = subNode;
+      pendingOpen = open;
+      return;
+    }
+  }
+
+  /**
+   * 元の入力とは異なるトークンを返す場合にそれを取得する。元の入力のトークンをそのまま返す場合はnull
+   */
+  private JsonToken override() throws IOException {
+    if (promotedName != null) return JsonToken.STRING;
+    if (atFixingMember()) {
+      prepareMember();
+      return pendingName != null? JsonToken.NAME:null;
+    }
+    if (open != OPEN_NONE) return JsonToken.BEGIN_ARRAY;
+    if (depth > 0 && kinds[depth - 1] == FORCED && states[depth - 1] == VALUE) return JsonToken.END_ARRAY;
+    return null;
+  }
+
+  /** 元の入力の値をそのまま読み込める位置にいることを確認する */
+  private void expectValue(String expected) throws IOException {
+    JsonToken token = override();
+    if (token != null) throw new IllegalStateException("Expected " + expected + " but was " + token + location());
+  }
+
+  /** 一つの値を読み込んだ */
+  private void valueConsumed() {
+    if (depth == 0) return;
+    switch (kinds[depth - 1]) {
+    case OBJECT:
+      states[depth - 1] = MEMBER;
+      memberNode = null;
+      break;
+    case FORCED:
+      states[depth - 1] = VALUE;
+      break;
+    default:
+      break;
+    }
+  }
+
+  private void push(int kind, Node node) {
+    if (depth == kinds.length) {
+      kinds = Arrays.copyOf(kinds, depth * 2);
+      nodes = Arrays.copyOf(nodes, depth * 2);
+      states = Arrays.copyOf(states, depth * 2);
+      names = Arrays.copyOf(names, depth * 2);
+    }
+    kinds[depth] = kind;
+    nodes[depth] = node;
+    states[depth] = MEMBER;
+    if (kind == OBJECT && node != null && node.renames) {
+      if (names[depth] == null) names[depth] = new HashSet<>();
+      else names[depth].clear();
+    }
+    depth++;
+  }
+
+  private void pop() {
+    nodes[--depth] = null;
+    valueConsumed();
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // JsonReader
+  /////////////////////////////////////////////////////////////////////////////
+
+  @Override
+  public JsonToken peek() throws IOException {
+    JsonToken token = override();
+    return token != null? token:in.peek();
+  }
+
+  @Override
+  public boolean hasNext() throws IOException {
+    JsonToken token = peek();
+    return token != JsonToken.END_OBJECT && token != JsonToken.END_ARRAY && token != JsonToken.END_DOCUMENT;
+  }
+
+  @Override
+  public void beginArray() throws IOException {
+    JsonToken token = override();
+    Node node = valueNode();
+    if (promotedName == null && !atFixingMember()) {
+      switch (open) {
+      case OPEN_FORCED:
+        open = OPEN_NONE;
+        push(FORCED, node);
+        return;
+      case OPEN_READ:
+        open = OPEN_NONE;
+        push(ARRAY, node);
+        return;
+      default:
+        break;
+      }
+    }
+    if (token != null) throw new IllegalStateException("Expected BEGIN_ARRAY but was " + token + location());
+    in.beginArray();
+    push(ARRAY, node);
+  }
+
+  @Override
+  public void endArray() throws IOException {
+    JsonToken token = override();
+    if (token == JsonToken.END_ARRAY) {
+      pop();
+      return;
+    }
+    if (token != null) throw new IllegalStateException("Expected END_ARRAY but was " + token + location());
+    in.endArray();
+    pop();
+  }
+
+  @Override
+  public void beginObject() throws IOException {
+    expectValue("BEGIN_OBJECT");
+    Node node = valueNode();
+    in.beginObject();
+    push(OBJECT, node);
+  }
+
+  @Override
+  public void endObject() throws IOException {
+    expectValue("END_OBJECT");
+    in.endObject();
+    pop();
+  }
+
+  @Override
+  public String nextName() throws IOException {
+    if (promotedName == null && atFixingMember()) {
+      prepareMember();
+      if (pendingName == null) throw new IllegalStateException("Expected a name but was " + in.peek() + location());
+      String name = pendingName;
+      memberNode = pendingNode;
+      open = pendingOpen;
+      pendingName = null;
+      pendingNode = null;
+      states[depth - 1] = VALUE;
+      return name;
+    }
+    expectValue("a name");
+    String name = in.nextName();
+    memberNode = null;
+    states[depth - 1] = VALUE;
+    return name;
+  }
+
+  @Override
+  public String nextString() throws IOException {
+    if (promotedName != null) return takePromotedName();
+    expectValue("a string");
+    String value = in.nextString();
+    valueConsumed();
+    return value;
+  }
+
+  @Override
+  public boolean nextBoolean() throws IOException {
+    expectValue("a boolean");
+    boolean value = in.nextBoolean();
+    valueConsumed();
+    return value;
+  }
+
+  @Override
+  public void nextNull() throws IOException {
+    expectValue("null");
+    in.nextNull();
+    valueConsumed();
+  }
+
+  @Override
+  public double nextDouble() throws IOException {
+    if (promotedName != null) return Double.parseDouble(takePromotedName());
+    expectValue("a double");
+    double value = in.nextDouble();
+    valueConsumed();
+    return value;
+  }
+
+  @Override
+  public long nextLong() throws IOException {
+    if (promotedName != null) return parseLong(takePromotedName());
+    expectValue("a long");
+    long value = in.nextLong();
+    valueConsumed();
+    return value;
+  }
+
+  @Override
+  public int nextInt() throws IOException {
+    if (promotedName != null) {
+      long value = parseLong(takePromotedName());
+      int result = (int)value;
+      if (result != value) throw new NumberFormatException("Expected an int but was " + value + location());
+      return result;
+    }
+    expectValue("an int");
+    int value = in.nextInt();
+    valueConsumed();
+    return value;
+  }
+
+  @Override
+  public void skipValue() throws IOException {
+    if (promotedName != null) {
+      promotedName = null;
+      return;
+    }
+    switch (peek()) {
+    case NAME:
+      nextName();
+      return;
+    case END_ARRAY:
+      endArray();
+      return;
+    case END_OBJECT:
+      endObject();
+      return;
+    case BEGIN_ARRAY:
+      if (open == OPEN_FORCED) {
+        // 補うはずだった配列の中身を読み飛ばす
+        open = OPEN_NONE;
+        in.skipValue();
+        valueConsumed();
+        return;
+      }
+      if (open == OPEN_READ) {
+        open = OPEN_NONE;
+        while (in.hasNext()) in.skipValue();
+        in.endArray();
+        valueConsumed();
+        return;
+      }
+      break;
+    default:
+      break;
+    }
+    in.skipValue();
+    valueConsumed();
+  }
+
+  @Override
+  public void close() throws IOException {
+    in.close();
+  }
+
+  @Override
+  public String getPath() {
+    return in.getPath();
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName() + location();
+  }
+
+  private String takePromotedName() {
+    String name = promotedName;
+    promotedName = null;
+    return name;
+  }
+
+  /** {@link JsonReader}と同じく、整数として解析できなければ実数として解析し、整数であることを確認する */
+  private long parseLong(String string) {
+    try {
+      return Long.parseLong(string);
+    } catch (NumberFormatException ex) {
+      double value = Double.parseDouble(string);
+      long result = (long)value;
+      if (result != value) throw new NumberFormatException("Expected a long but was " + string + location());
+      return result;
+    }
+  }
+
+  private String location() {
+    return " at path " + in.getPath();
+  }
+}
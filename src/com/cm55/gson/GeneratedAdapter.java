@@ -0,0 +1,336 @@
+package com.cm55.gson;
+
+import java.io.*;
+import java.lang.reflect.*;
+import java.util.*;
+
+import com.google.gson.*;
+import com.google.gson.internal.*;
+import com.google.gson.internal.bind.*;
+import com.google.gson.reflect.*;
+import com.google.gson.stream.*;
+
+/**
+ * {@link JsonGenerated}の付けられたクラスについて生成されるアダプタの基底クラス
+ * <p>
+ * 生成されたアダプタはフィールドに直接アクセスし、Gsonのリフレクションによるアダプタ（ReflectiveTypeAdapterFactory）と
+ * 同じJSONを読み書きする。フィールドの順序、nullの扱い、実行時の型によるアダプタの選択、例外の種類は
+ * リフレクションによるアダプタに合わせてある。
+ * </p>
+ * <p>
+ * このクラスはアノテーションプロセッサの生成したコードから使用されるためにpublicになっているが、
+ * ユーザが直接使用するものではない。
+ * </p>
+ * @author ysugimura
+ * @param <T> 対象とするクラスの型
+ */
+public abstract class GeneratedAdapter<T> extends TypeAdapter<T> {
+
+  /** 生成クラス名の接尾辞 */
+  public static final String SUFFIX = "_GsonAdapter";
+
+  /** このアダプタを使用するGson */
+  protected final Gson gson;
+
+  /** 対象とするクラス */
+  private final Class<T> type;
+
+  /** 引数無しのコンストラクタにアクセスできない場合に使用する、Gsonと同じ方法によるオブジェクトの作成 */
+  private ObjectConstructor<T> constructor;
+
+  protected GeneratedAdapter(Gson gson, Class<T> type) {
+    this.gson = gson;
+    this.type = type;
+  }
+
+  /**
+   * オブジェクトを書き込む。
+   * <p>
+   * オブジェクトが対象クラスのサブクラスであり、そのサブクラスがリフレクションによって扱われる場合には、
+   * そちらに書き込ませる。Gsonは、フィールドの宣言型が（生成アダプタの）対象クラスであり、値がリフレクションで扱われる
+   * サブクラスの場合には宣言型のアダプタを選ぶが、元のリフレクションによるアダプタであれば実行時のクラスのアダプタが
+   * 選ばれたはずだからである。
+   * </p>
+   */
+  @SuppressWarnings("unchecked")
+  @Override
+  public void write(JsonWriter out, T value) throws IOException {
+    if (value != null && value.getClass() != type) {
+      TypeAdapter<T> runtimeAdapter = (TypeAdapter<T>)gson.getAdapter(value.getClass());
+      if (runtimeAdapter instanceof ReflectiveTypeAdapterFactory.Adapter) {
+        runtimeAdapter.write(out, value);
+        return;
+      }
+    }
+    writeDeclared(out, value);
+  }
+
+  /**
+   * オブジェクトの実行時のクラスに関わらず、対象クラスのフィールドのみを書き込む。
+   * リフレクションによるアダプタを直接呼び出した場合と同じ動作になる。
+   * @param out 出力
+   * @param value オブジェクト
+   * @throws IOException
+   */
+  public void writeDeclared(JsonWriter out, T value) throws IOException {
+    if (value == null) {
+      out.nullValue();
+      return;
+    }
+    int id = ReferenceAdapterFactory.takeId(value);
+    out.beginObject();
+    if (id >= 0) out.name(ReferenceAdapterFactory.ID).value(id);
+    writeFields(out, value);
+    out.endObject();
+  }
+
+  /**
+   * {@link #writeDeclared(JsonWriter, Object)}を使用して、{@link Gson#toJson(Object, Type)}と同じ設定で文字列にする
+   * @param value オブジェクト
+   * @return JSON文字列
+   */
+  String toJsonDeclared(T value) {
+    StringWriter writer = new StringWriter();
+    try {
+      JsonWriter out = gson.newJsonWriter(writer);
+      out.setLenient(true);
+      out.setHtmlSafe(gson.htmlSafe());
+      writeDeclared(out, value);
+    } catch (IOException ex) {
+      throw new JsonIOException(ex);
+    }
+    return writer.toString();
+  }
+
+  /**
+   * {@link #writeDeclared(JsonWriter, Object)}を使用して、{@link Gson#toJsonTree(Object, Type)}と同じ設定でツリーにする
+   * @param value オブジェクト
+   * @return ツリー
+   */
+  JsonElement toJsonTreeDeclared(T value) {
+    JsonTreeWriter writer = new JsonTreeWriter();
+    writer.setLenient(true);
+    writer.setSerializeNulls(gson.serializeNulls());
+    try {
+      writeDeclared(writer, value);
+    } catch (IOException ex) {
+      throw new JsonIOException(ex);
+    }
+    return writer.get();
+  }
+
+  @Override
+  public T read(JsonReader in) throws IOException {
+    if (in.peek() == JsonToken.NULL) {
+      in.nextNull();
+      return null;
+    }
+    String name;
+    try {
+      in.beginObject();
+      name = in.hasNext()? in.nextName():null;
+    } catch (IllegalStateException ex) {
+      throw new JsonSyntaxException(ex);
+    }
+    return readRemaining(in, name);
+  }
+
+  /**
+   * オブジェクトの開始と最初のフィールド名が読み込まれた状態から、残りを読み込む
+   * @param in 入力
+   * @param name 最初のフィールド名。フィールドが無い場合はnull
+   * @return 読み込まれたオブジェクト
+   * @throws IOException
+   */
+  T readRemaining(JsonReader in, String name) throws IOException {
+    T instance = newInstance();
+    ReferenceAdapterFactory.created(instance);
+    return readFields(in, name, instance);
+  }
+
+  /**
+   * 既存のオブジェクトのフィールドに読み込む。既存のオブジェクトのクラスが対象クラスでない場合は新たに作成する。
+   * JSONに無いフィールドは変更されない。
+   * @param in 入力
+   * @param existing 既存のオブジェクト
+   * @return 読み込まれたオブジェクト
+   * @throws IOException
+   */
+  T readInto(JsonReader in, T existing) throws IOException {
+    if (existing.getClass() != type) return read(in);
+    if (skipNull(in)) return null;
+    String name;
+    try {
+      in.beginObject();
+      name = in.hasNext()? in.nextName():null;
+    } catch (IllegalStateException ex) {
+      throw new JsonSyntaxException(ex);
+    }
+    return readFields(in, name, existing);
+  }
+
+  /** 最初のフィールド名が読み込まれた状態から、オブジェクトの残りのフィールドを読み込む */
+  private T readFields(JsonReader in, String name, T instance) throws IOException {
+    try {
+      if (name != null) {
+        if (!readField(in, name, instance)) in.skipValue();
+        while (in.hasNext()) {
+          if (!readField(in, in.nextName(), instance)) in.skipValue();
+        }
+      }
+    } catch (IllegalStateException ex) {
+      throw new JsonSyntaxException(ex);
+    }
+    in.endObject();
+    return instance;
+  }
+
+  /**
+   * すべてのフィールドを書き込む
+   * @param out 出力
+   * @param value オブジェクト
+   * @throws IOException
+   */
+  protected abstract void writeFields(JsonWriter out, T value) throws IOException;
+
+  /**
+   * 一つのフィールドを読み込む
+   * @param in 入力
+   * @param name フィールド名
+   * @param value オブジェクト
+   * @return 該当するフィールドが無い場合はfalse
+   * @throws IOException
+   */
+  protected abstract boolean readField(JsonReader in, String name, T value) throws IOException;
+
+  /**
+   * 読み込むオブジェクトを作成する。
+   * 生成クラスは、アクセスできる引数無しのコンストラクタがあれば、それを直接呼び出すようにオーバーライドする。
+   * @return 作成されたオブジェクト
+   */
+  protected T newInstance() {
+    if (constructor == null) {
+      constructor = new ConstructorConstructor(Collections.emptyMap()).get(TypeToken.get(type));
+    }
+    return constructor.construct();
+  }
+
+  /**
+   * Gsonの実行時の型によるアダプタ選択（TypeAdapterRuntimeTypeWrapper）と同じ方法でアダプタを選び、値を書き込む
+   * @param out 出力
+   * @param adapter 宣言型のアダプタ
+   * @param declared 宣言型
+   * @param value 値
+   * @throws IOException
+   */
+  protected final void writeValue(JsonWriter out, TypeAdapter<?> adapter, Type declared, Object value) throws IOException {
+    writeValue(gson, out, adapter, declared, value);
+  }
+
+  /**
+   * {@link #writeValue(JsonWriter, TypeAdapter, Type, Object)}と同じ
+   * @param gson 実行時のクラスのアダプタを取得するGson
+   */
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  static void writeValue(Gson gson, JsonWriter out, TypeAdapter adapter, Type declared, Object value) throws IOException {
+    TypeAdapter chosen = adapter;
+    if (value != null && (declared == Object.class || declared instanceof TypeVariable<?> || declared instanceof Class<?>)
+        && value.getClass() != declared) {
+      TypeAdapter runtimeAdapter = gson.getAdapter(value.getClass());
+      if (!(runtimeAdapter instanceof ReflectiveTypeAdapterFactory.Adapter)) {
+        chosen = runtimeAdapter;
+      } else if (!(adapter instanceof ReflectiveTypeAdapterFactory.Adapter)) {
+        chosen = adapter;
+      } else {
+        chosen = runtimeAdapter;
+      }
+    }
+    boolean untyped = ReferenceAdapterFactory.enterUntyped(declared);
+    try {
+      chosen.write(out, value);
+    } finally {
+      if (untyped) ReferenceAdapterFactory.exitUntyped();
+    }
+  }
+
+  /**
+   * 値がオブジェクト自身であるフィールドを書き込む。Gsonと同じく書き込まないが、
+   * {@link Settings#OBJECT_REFERENCES}による参照を扱う場合にはオブジェクトへの参照として書き込む。
+   * @param out 出力
+   * @param name フィールド名
+   * @param declared フィールドの宣言型
+   * @param value オブジェクト
+   * @throws IOException
+   */
+  protected static void writeSelf(JsonWriter out, String name, Type declared, Object value) throws IOException {
+    ReferenceAdapterFactory.writeSelf(out, name, declared, value);
+  }
+
+  /**
+   * フィールドの型を、対象クラスの型パラメータを解決して取得する
+   * @param context 対象クラス
+   * @param declaring フィールドを宣言しているクラス
+   * @param name フィールド名
+   * @return フィールドの型
+   */
+  protected static Type fieldType(Class<?> context, Class<?> declaring, String name) {
+    try {
+      return $Gson$Types.resolve(context, context, declaring.getDeclaredField(name).getGenericType());
+    } catch (NoSuchFieldException ex) {
+      throw new JsonException(ex);
+    }
+  }
+
+  /**
+   * フィールドの値を読み込む。{@link Serializer#deserializeInto(Reader, Object)}の場合には、既存の値を再利用させる
+   * @param adapter フィールドのアダプタ
+   * @param in 入力
+   * @param existing フィールドの既存の値
+   * @return 読み込まれた値
+   * @throws IOException
+   */
+  protected static Object readValue(TypeAdapter<?> adapter, JsonReader in, Object existing) throws IOException {
+    return ReuseAdapterFactory.read(adapter, in, existing);
+  }
+
+  /** Gsonのintアダプタと同じ読み込み */
+  protected static int nextInt(JsonReader in) throws IOException {
+    try {
+      return in.nextInt();
+    } catch (NumberFormatException ex) {
+      throw new JsonSyntaxException(ex);
+    }
+  }
+
+  /** Gsonのlongアダプタと同じ読み込み */
+  protected static long nextLong(JsonReader in) throws IOException {
+    try {
+      return in.nextLong();
+    } catch (NumberFormatException ex) {
+      throw new JsonSyntaxException(ex);
+    }
+  }
+
+  /** Gsonのbooleanアダプタと同じ読み込み */
+  protected static boolean nextBoolean(JsonReader in) throws IOException {
+    if (in.peek() == JsonToken.STRING) {
+      return Boolean.parseBoolean(in.nextString());
+    }
+    return in.nextBoolean();
+  }
+
+  /** GsonのStringアダプタと同じ読み込み。nullの場合は読み込み済であること */
+  protected static String nextString(JsonReader in) throws IOException {
+    if (in.peek() == JsonToken.BOOLEAN) {
+      return Boolean.toString(in.nextBoolean());
+    }
+    return in.nextString();
+  }
+
+  /** 値がnullであれば読み飛ばしてtrueを返す */
+  protected static boolean skipNull(JsonReader in) throws IOException {
+    if (in.peek() != JsonToken.NULL) return false;
+    in.nextNull();
+    return true;
+  }
+}
@@ -0,0 +1,77 @@
+package com.cm55.gson;
+
+import java.lang.reflect.*;
+
+import com.google.gson.*;
+import com.google.gson.reflect.*;
+
+/**
+ * 生成された{@link GeneratedAdapter}をGsonに登録するためのファクトリ
+ * <p>
+ * {@link Handler}は対象とするクラスについて生成アダプタが存在する場合にGsonに登録する。
+ * {@link MultiHandler}のサブクラスについては、Gsonには登録せずに{@link MultiTypeAdapterFactory}が直接使用する。
+ * 生成アダプタの有無はクラスごとに一度だけ調べられる。
+ * </p>
+ * @author ysugimura
+ */
+class GeneratedAdapterFactory implements TypeAdapterFactory {
+
+  /** クラス／生成アダプタのコンストラクタ。生成アダプタが無い場合はnull */
+  private static final ClassValue<Constructor<?>> constructors = new ClassValue<Constructor<?>>() {
+    @Override
+    protected Constructor<?> computeValue(Class<?> clazz) {
+      Class<?> adapterClass;
+      try {
+        adapterClass = Class.forName(clazz.getName() + GeneratedAdapter.SUFFIX, false, clazz.getClassLoader());
+      } catch (ClassNotFoundException ex) {
+        return null;
+      }
+      try {
+        return adapterClass.getConstructor(Gson.class);
+      } catch (NoSuchMethodException ex) {
+        throw new JsonException(ex);
+      }
+    }
+  };
+
+  /** 対象とするクラス */
+  private final Class<?> target;
+
+  /** 生成アダプタのコンストラクタ */
+  private final Constructor<?> constructor;
+
+  private GeneratedAdapterFactory(Class<?> target, Constructor<?> constructor) {
+    this.target = target;
+    this.constructor = constructor;
+  }
+
+  /**
+   * 指定されたタイプについて生成アダプタがあれば、そのファクトリを取得する。
+   * ジェネリクス型は対象外。{@link Settings#USE_GENERATED_ADAPTERS}がfalseの場合はnullを返す。
+   * @param typeToken 対象タイプ
+   * @return ファクトリ。無い場合はnull
+   */
+  static GeneratedAdapterFactory of(TypeToken<?> typeToken) {
+    if (!Settings.USE_GENERATED_ADAPTERS) return null;
+    if (!(typeToken.getType() instanceof Class)) return null;
+    Class<?> clazz = typeToken.getRawType();
+    Constructor<?> constructor = constructors.get(clazz);
+    if (constructor == null) return null;
+    return new GeneratedAdapterFactory(clazz, constructor);
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public <C> TypeAdapter<C> create(Gson gson, TypeToken<C> typeToken) {
+    if (typeToken.getType() != target) return null;
+    try {
+      return (TypeAdapter<C>) constructor.newInstance(gson);
+    } catch (InvocationTargetException ex) {
+      Throwable cause = ex.getCause();
+      if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+      throw new JsonException(cause);
+    } catch (ReflectiveOperationException ex) {
+      throw new JsonException(ex);
+    }
+  }
+}
@@ -1,5 +1,6 @@
 package com.cm55.gson;
 
+import java.lang.invoke.*;
 import java.util.*;
 
 import com.google.gson.*;
@@ -35,10 +36,21 @@ public class Handler<T> {
    * </p>
    */
   private final List<Handler<?>> subHandlers;
+  
+  /** 
+   * {@link MethodHandle}でフィールドにアクセスするアダプタを使用する。
+   * nullの場合は{@link Settings#USE_METHOD_HANDLE_ADAPTERS}に従う
+   */
+  private final Boolean methodHandleAccess;
 
   protected Handler(TypeToken<T> typeToken, List<Handler<?>> subHandlers) {
+    this(typeToken, subHandlers, null);
+  }
+
+  Handler(TypeToken<T> typeToken, List<Handler<?>> subHandlers, Boolean methodHandleAccess) {
     this.typeToken = typeToken;
     this.subHandlers = subHandlers;
+    this.methodHandleAccess = methodHandleAccess;
   }
 
   /**
@@ -56,6 +68,9 @@ public class Handler<T> {
   protected void registerToBuilder(GsonBuilder builder) {
 
     // T型に関する特殊処理はサブクラスで定義される。
+    
+    // T型のフィールドに直接アクセスするアダプタがあれば登録する
+    registerFieldAdapters(builder);
 
     // サブハンドラがもしあれば、これらについての特殊処理を行う。
     if (subHandlers == null)
@@ -64,4 +79,42 @@ public class Handler<T> {
       subHandler.registerToBuilder(builder);
     }
   }
+  
+  /**
+   * 対象タイプについて、フィールドに直接アクセスするアダプタを登録する。
+   * @param builder {@link GsonBuilder}
+   */
+  void registerFieldAdapters(GsonBuilder builder) {
+    TypeAdapterFactory factory = fieldAdapterFactory(typeToken);
+    if (factory != null) builder.registerTypeAdapterFactory(factory);
+  }
+  
+  /**
+   * 指定されたタイプについて、{@link JsonGenerated}により生成されたアダプタがあればそのファクトリを取得する。
+   * 無い場合、{@link MethodHandle}によるアダプタを使用するのであればそのファクトリを取得する。
+   * @param fieldTypeToken 対象タイプ
+   * @return ファクトリ。いずれも使用しない場合はnull
+   */
+  TypeAdapterFactory fieldAdapterFactory(TypeToken<?> fieldTypeToken) {
+    TypeAdapterFactory factory = GeneratedAdapterFactory.of(fieldTypeToken);
+    if (factory != null) return factory;
+    boolean methodHandles = methodHandleAccess != null? methodHandleAccess:Settings.USE_METHOD_HANDLE_ADAPTERS;
+    if (methodHandles) return MethodHandleAdapter.Factory.of(fieldTypeToken);
+    return null;
+  }
+  
+  /**
+   * {@link #registerToBuilder(GsonBuilder)}で登録した特殊処理について、最初の使用時に行われる準備をあらかじめ行う。
+   * @param gson 登録したビルダから作成された{@link Gson}
+   */
+  protected void warmUp(Gson gson) {
+    
+    // T型に関する準備はサブクラスで定義される。
+    
+    if (subHandlers == null)
+      return;
+    for (Handler<?> subHandler : subHandlers) {
+      subHandler.warmUp(gson);
+    }
+  }
 }
@@ -1,5 +1,6 @@
 package com.cm55.gson;
 
+import java.lang.invoke.*;
 import java.util.*;
 
 import com.google.gson.reflect.*;
@@ -23,6 +24,9 @@ public class HandlerBuilder<T> {
    * </p>
    */
   protected List<Handler<?>> subHandlers = null;
+  
+  /** {@link MethodHandle}によるアダプタを使用する。nullの場合は{@link Settings#USE_METHOD_HANDLE_ADAPTERS}に従う */
+  protected Boolean methodHandleAccess;
 
   /** クラスを指定する */
   public HandlerBuilder(Class<T> targetClass) {
@@ -52,13 +56,29 @@ public class HandlerBuilder<T> {
     return this;
   }
 
+  /**
+   * 対象クラスの直列化・復帰に、フィールドに{@link MethodHandle}でアクセスするアダプタを使用するかを指定する。
+   * <p>
+   * Gsonのリフレクションによるアダプタは値ごとに{@link java.lang.reflect.Field}でアクセスするが、
+   * これはクラスごとに一度だけ{@link MethodHandle}を作成して使用する。出力されるJSONは同一である。
+   * コード生成を行わないので、{@link JsonGenerated}を使用できない環境での代替になる。
+   * {@link JsonGenerated}による生成アダプタがある場合はそちらが優先される。
+   * </p>
+   * @param value 使用する場合はtrue。nullの場合は{@link Settings#USE_METHOD_HANDLE_ADAPTERS}に従う（デフォルト）
+   * @return 本オブジェクト
+   */
+  public HandlerBuilder<T> setMethodHandleAccess(Boolean value) {
+    methodHandleAccess = value;
+    return this;
+  }
+
   /**
    * {@link Handler}をビルドする
    * @return {@link Handler}
    */
   public Handler<T> build() {
     if (typeToken == null) throw new IllegalStateException();
-    Handler<T>handler = new Handler<T>(typeToken, subHandlers);
+    Handler<T>handler = new Handler<T>(typeToken, subHandlers, methodHandleAccess);
     typeToken = null;
     subHandlers = null;
     return handler;
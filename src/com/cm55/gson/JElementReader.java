@@ -0,0 +1,208 @@
+package com.cm55.gson;
+
+import java.io.*;
+import java.util.*;
+
+import com.cm55.gson.Json.*;
+import com.google.gson.stream.*;
+
+/**
+ * {@link JElement}のツリーを読み込む{@link JsonReader}
+ * <p>
+ * Gsonの{@link com.google.gson.internal.bind.JsonTreeReader}と同じく、ツリーをトークン列として返す。
+ * {@link JsonFixer#fix(JElement, FixRoot)}が{@link FixingJsonReader}の入力として用いる。
+ * 数値は元の表記のままの文字列として返す。
+ * </p>
+ * @author ysugimura
+ */
+class JElementReader extends JsonReader {
+
+  /** {@link JsonReader}には入力が必要だが、使用されない */
+  private static final Reader UNREADABLE_READER = new Reader() {
+    @Override public int read(char[] buffer, int offset, int count) {
+      throw new AssertionError();
+    }
+    @Override public void close() {
+      throw new AssertionError();
+    }
+  };
+
+  /** 開いているオブジェクトのメンバ、配列の要素の{@link Iterator}。オブジェクトの場合はtrue */
+  private Iterator<?>[]iterators = new Iterator<?>[32];
+  private boolean[]objects = new boolean[32];
+  private int depth;
+
+  /** 次に読み込む値。無い場合はnull */
+  private JElement next;
+
+  JElementReader(JElement element) {
+    super(UNREADABLE_READER);
+    setLenient(true);
+    next = element;
+  }
+
+  @Override
+  public JsonToken peek() throws IOException {
+    if (next != null) {
+      switch (next.getType()) {
+      case OBJECT: return JsonToken.BEGIN_OBJECT;
+      case ARRAY: return JsonToken.BEGIN_ARRAY;
+      case NULL: return JsonToken.NULL;
+      default:
+        JPrimitive primitive = next.asPrimitive();
+        if (primitive.isString()) return JsonToken.STRING;
+        if (primitive.isNumber()) return JsonToken.NUMBER;
+        return JsonToken.BOOLEAN;
+      }
+    }
+    if (depth == 0) return JsonToken.END_DOCUMENT;
+    Iterator<?> iterator = iterators[depth - 1];
+    if (!iterator.hasNext()) return objects[depth - 1]? JsonToken.END_OBJECT:JsonToken.END_ARRAY;
+    if (objects[depth - 1]) return JsonToken.NAME;
+    next = (JElement)iterator.next();
+    return peek();
+  }
+
+  @Override
+  public boolean hasNext() throws IOException {
+    JsonToken token = peek();
+    return token != JsonToken.END_OBJECT && token != JsonToken.END_ARRAY && token != JsonToken.END_DOCUMENT;
+  }
+
+  @Override
+  public void beginArray() throws IOException {
+    expect(JsonToken.BEGIN_ARRAY);
+    push(next.asArray().iterator(), false);
+  }
+
+  @Override
+  public void endArray() throws IOException {
+    expect(JsonToken.END_ARRAY);
+    pop();
+  }
+
+  @Override
+  public void beginObject() throws IOException {
+    expect(JsonToken.BEGIN_OBJECT);
+    push(next.asObject().entrySet().iterator(), true);
+  }
+
+  @Override
+  public void endObject() throws IOException {
+    expect(JsonToken.END_OBJECT);
+    pop();
+  }
+
+  @Override
+  public String nextName() throws IOException {
+    expect(JsonToken.NAME);
+    Map.Entry<?, ?> entry = (Map.Entry<?, ?>)iterators[depth - 1].next();
+    next = (JElement)entry.getValue();
+    return (String)entry.getKey();
+  }
+
+  @Override
+  public String nextString() throws IOException {
+    JsonToken token = peek();
+    if (token != JsonToken.STRING && token != JsonToken.NUMBER) {
+      throw new IllegalStateException("Expected a string but was " + token);
+    }
+    return nextElement().asPrimitive().asString();
+  }
+
+  @Override
+  public boolean nextBoolean() throws IOException {
+    expect(JsonToken.BOOLEAN);
+    return nextElement().asPrimitive().asBoolean(false);
+  }
+
+  @Override
+  public void nextNull() throws IOException {
+    expect(JsonToken.NULL);
+    nextElement();
+  }
+
+  @Override
+  public double nextDouble() throws IOException {
+    return Double.parseDouble(nextString());
+  }
+
+  @Override
+  public long nextLong() throws IOException {
+    String string = nextString();
+    try {
+      return Long.parseLong(string);
+    } catch (NumberFormatException ex) {
+      double value = Double.parseDouble(string);
+      long result = (long)value;
+      if (result != value) throw new NumberFormatException("Expected a long but was " + string);
+      return result;
+    }
+  }
+
+  @Override
+  public int nextInt() throws IOException {
+    long value = nextLong();
+    int result = (int)value;
+    if (result != value) throw new NumberFormatException("Expected an int but was " + value);
+    return result;
+  }
+
+  @Override
+  public void skipValue() throws IOException {
+    if (peek() == JsonToken.NAME) {
+      nextName();
+      return;
+    }
+    nextElement();
+  }
+
+  /**
+   * 次の値を、その中身を読み込まずに{@link JElement}として取得する
+   * @return 値
+   * @throws IOException
+   */
+  JElement nextElement() throws IOException {
+    JsonToken token = peek();
+    if (next == null) throw new IllegalStateException("Expected a value but was " + token);
+    JElement element = next;
+    next = null;
+    return element;
+  }
+
+  @Override
+  public void close() {
+    depth = 0;
+    next = null;
+  }
+
+  @Override
+  public String getPath() {
+    return "$";
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName();
+  }
+
+  private void expect(JsonToken expected) throws IOException {
+    JsonToken token = peek();
+    if (token != expected) throw new IllegalStateException("Expected " + expected + " but was " + token);
+  }
+
+  private void push(Iterator<?> iterator, boolean object) {
+    if (depth == iterators.length) {
+      iterators = Arrays.copyOf(iterators, depth * 2);
+      objects = Arrays.copyOf(objects, depth * 2);
+    }
+    iterators[depth] = iterator;
+    objects[depth] = object;
+    depth++;
+    next = null;
+  }
+
+  private void pop() {
+    iterators[--depth] = null;
+  }
+}
@@ -1,15 +1,60 @@
 package com.cm55.gson;
 
+import java.io.*;
 import java.util.*;
+import java.util.function.*;
+import java.util.stream.*;
 
 import com.google.gson.*;
+import com.google.gson.internal.*;
+import com.google.gson.internal.bind.*;
+import com.google.gson.stream.*;
 
 public class Json {
 
   
   public static <T extends JElement>T get(String jsonString) {      
     Gson gson = new Gson();
-    return wrap(gson.fromJson(jsonString, JsonObject.class));      
+    return wrap(gson.fromJson(jsonString, JsonObject.class), true);      
+  }
+
+  /**
+   * {@link #get(String)}と同じくJSON文字列を解析するが、値ごとのオブジェクトを作成せず、
+   * 平坦な配列（テープ）に記録する。各値の{@link JElement}は辿られた時に初めて作成される。
+   * 大きなJSONの一部のみを参照する場合に、メモリの使用量と解析時間を大きく減らすことができる。
+   * 入力は厳密なJSONでなければならない。詳細は{@link JsonTape}を参照のこと。
+   * @param jsonString JSON文字列。ルートはオブジェクトでなければならない
+   * @return ルートのオブジェクト
+   */
+  @SuppressWarnings("unchecked")
+  public static <T extends JElement>T tape(String jsonString) {
+    JElement root = JsonTape.parse(jsonString);
+    if (root.getType() != JType.OBJECT) throw new JsonSyntaxException("Expected an object: " + root.getType());
+    return (T)root;
+  }
+
+  /**
+   * ルートが配列であるJSONを、要素を一つずつ解析しながら返すストリームを作成する。
+   * 配列全体を保持しないため、巨大な配列でもメモリの使用量は最大の要素の大きさで決まる。
+   * 要素はストリームを辿るにつれて読み込まれる。readerのクローズは呼び出し側で行うこと。
+   * 並列に処理する場合は{@link #forEach(Reader, int, Consumer)}を使用する。
+   * @param reader 入力
+   * @return 要素のストリーム
+   */
+  public static Stream<JElement> stream(Reader reader) {
+    return StreamSupport.stream(new JsonArrayReader(reader), false);
+  }
+
+  /**
+   * {@link #stream(Reader)}と同じく配列の要素を一つずつ解析し、指定数のスレッドで並列に処理する。
+   * 処理の順序は保証されない。処理待ちの要素はスレッド数の二倍までに制限される。
+   * すべての要素の処理が終わるまで戻らず、処理中の例外はそのまま送出される。
+   * @param reader 入力
+   * @param parallelism スレッド数
+   * @param consumer 要素の処理
+   */
+  public static void forEach(Reader reader, int parallelism, Consumer<? super JElement> consumer) {
+    new JsonArrayReader(reader).forEach(parallelism, consumer);
   }
   
   
@@ -20,22 +65,38 @@ public class Json {
     NULL;
   }
   
-  @SuppressWarnings("unchecked")
   public static  <T extends JElement>T wrap(JsonElement element) {
+    return wrap(element, false);
+  }
+
+  /**
+   * {@link JsonElement}をラップする
+   * @param element 対象
+   * @param memoize {@link JElement#getJson()}の結果を保持する。ツリーが以降変更されない場合のみtrueにする
+   * @return ラップしたもの
+   */
+  @SuppressWarnings("unchecked")
+  static  <T extends JElement>T wrap(JsonElement element, boolean memoize) {
     if (element instanceof JsonObject) {
-      return (T)new JObjectImpl((JsonObject)element);
+      return (T)new JObjectImpl((JsonObject)element, memoize);
     }
     if (element instanceof JsonArray) {
-      return (T)new JArrayImpl((JsonArray)element);
+      return (T)new JArrayImpl((JsonArray)element, memoize);
     }
     if (element instanceof JsonPrimitive) {
-      return (T)new JPrimitiveImpl((JsonPrimitive)element);
+      return (T)new JPrimitiveImpl((JsonPrimitive)element, memoize);
     }
     if (element instanceof JsonNull) {
-      return (T)new JNullImpl((JsonNull)element);
+      return (T)new JNullImpl((JsonNull)element, memoize);
     }
     throw new RuntimeException();
   }
+
+  /** {@link #wrap(JsonElement)}の逆。ラップされている{@link JsonElement}を取得する */
+  static JsonElement unwrap(JElement element) {
+    if (element instanceof JsonTape.TElement) return ((JsonTape.TElement)element).toJsonElement();
+    return ((JElementImpl<?>)element).element;
+  }
   
   public interface JElement {    
     public JType getType();
@@ -58,8 +119,68 @@ public class Json {
      * @return
      */
     public Integer asInteger();
+
+    /**
+     * この要素をJPrimitiveに変換し、その値をintとして取得する。
+     * ただし、JNullの場合や、文字列が空文字列の場合にはデフォルト値を返す。
+     * それ以外の場合は{@link #asInteger()}と同じく例外が発生する。ボクシングを行わない。
+     * @param defaultValue デフォルト値
+     * @return 値
+     */
+    public default int asInt(int defaultValue) {
+      if (getType() == JType.NULL) return defaultValue;
+      return asPrimitive().asInt(defaultValue);
+    }
+
+    /**
+     * {@link #asInt(int)}と同じ。longとして取得する。
+     * @param defaultValue デフォルト値
+     * @return 値
+     */
+    public default long asLong(long defaultValue) {
+      if (getType() == JType.NULL) return defaultValue;
+      return asPrimitive().asLong(defaultValue);
+    }
+
+    /**
+     * {@link #asInt(int)}と同じ。doubleとして取得する。
+     * @param defaultValue デフォルト値
+     * @return 値
+     */
+    public default double asDouble(double defaultValue) {
+      if (getType() == JType.NULL) return defaultValue;
+      return asPrimitive().asDouble(defaultValue);
+    }
+
+    /**
+     * {@link #asInt(int)}と同じ。booleanとして取得する。文字列は{@link Boolean#parseBoolean(String)}と同じく扱う。
+     * @param defaultValue デフォルト値
+     * @return 値
+     */
+    public default boolean asBoolean(boolean defaultValue) {
+      if (getType() == JType.NULL) return defaultValue;
+      return asPrimitive().asBoolean(defaultValue);
+    }
     
     public String getJson();
+
+    /**
+     * {@link #getJson()}と同じJSONを、文字列を作成せずに書き込む
+     * @param out 出力
+     * @throws IOException
+     */
+    public default void writeJson(Appendable out) throws IOException {
+      out.append(getJson());
+    }
+
+    /**
+     * この要素を値として書き込む
+     * @param out 出力
+     * @throws IOException
+     */
+    public default void writeJson(JsonWriter out) throws IOException {
+      out.jsonValue(getJson());
+    }
   }
   
   public interface JObject extends JElement {
@@ -76,6 +197,16 @@ public class Json {
     public boolean isEmpty();
     public String asString();
     public Integer asInteger();
+    public int asInt(int defaultValue);
+    public long asLong(long defaultValue);
+    public double asDouble(double defaultValue);
+    public boolean asBoolean(boolean defaultValue);
+
+    /** 数値であるか */
+    public boolean isNumber();
+
+    /** 文字列であるか */
+    public boolean isString();
   }
 
   public interface JNull extends JElement {
@@ -85,9 +216,17 @@ public class Json {
   public static class JElementImpl<T extends JsonElement> implements JElement {
     private JType type;
     protected T element;
-    private JElementImpl(JType type, T element) {
+
+    /** {@link #getJson()}の結果を保持する */
+    private final boolean memoize;
+
+    /** 保持された{@link #getJson()}の結果。未作成の場合はnull */
+    private String json;
+
+    private JElementImpl(JType type, T element, boolean memoize) {
       this.type = type;
       this.element = element;
+      this.memoize = memoize;
     }
     public JType getType() {
       return type;
@@ -107,18 +246,43 @@ public class Json {
       return Integer.parseInt(s);
     }
     
+    /**
+     * JSON文字列を取得する。{@link Json#get(String)}によるものであれば、最初に作成したものを保持する
+     */
     public String getJson() {
-      return element.toString();
+      if (!memoize) return element.toString();
+      String result = json;
+      if (result == null) json = result = element.toString();
+      return result;
+    }
+
+    @Override
+    public void writeJson(Appendable out) throws IOException {
+      String result = json;
+      if (result != null) {
+        out.append(result);
+        return;
+      }
+      // JsonElement#toString()と同じ設定で書き込む
+      JsonWriter writer = new JsonWriter(Streams.writerForAppendable(out));
+      writer.setLenient(true);
+      Streams.write(element, writer);
+      writer.flush();
+    }
+
+    @Override
+    public void writeJson(JsonWriter out) throws IOException {
+      TypeAdapters.JSON_ELEMENT.write(out, element);
     }
   }
   
   public static class JObjectImpl extends JElementImpl<JsonObject> implements JObject {
     private Map<String, JElement>map;
-    private JObjectImpl(JsonObject object) {
-      super(JType.OBJECT, object);
-      map = new HashMap<String, JElement>();
+    private JObjectImpl(JsonObject object, boolean memoize) {
+      super(JType.OBJECT, object, memoize);
+      map = new LinkedHashMap<String, JElement>();
       for (Map.Entry<String, JsonElement>e: element.entrySet()) {
-        map.put(e.getKey(), wrap(e.getValue()));
+        map.put(e.getKey(), wrap(e.getValue(), memoize));
       }      
     }
     
@@ -135,11 +299,11 @@ public class Json {
   
   public static class JArrayImpl extends JElementImpl<JsonArray> implements JArray {
     private List<JElement>list;
-    private JArrayImpl(JsonArray array) {
-      super(JType.ARRAY, array);
+    private JArrayImpl(JsonArray array, boolean memoize) {
+      super(JType.ARRAY, array, memoize);
       list = new ArrayList<JElement>();
       for (JsonElement e: element) {
-        list.add(wrap(e));
+        list.add(wrap(e, memoize));
       }      
     }
 
@@ -156,8 +320,8 @@ public class Json {
   }
   
   public static class JPrimitiveImpl extends JElementImpl<JsonPrimitive> implements JPrimitive  {
-    private JPrimitiveImpl(JsonPrimitive primitive) {
-      super(JType.PRIMITIVE, primitive);
+    private JPrimitiveImpl(JsonPrimitive primitive, boolean memoize) {
+      super(JType.PRIMITIVE, primitive, memoize);
     }
     
     /**
@@ -177,11 +341,51 @@ public class Json {
     public Integer asInteger() {
       return Integer.parseInt(asString());
     }
+
+    /*
+     * 以下は、Gsonの保持している文字列（数値の場合は解析時の表記）を直接解析する
+     */
+
+    @Override
+    public int asInt(int defaultValue) {
+      String s = element.getAsString();
+      return s.isEmpty()? defaultValue:Integer.parseInt(s);
+    }
+
+    @Override
+    public long asLong(long defaultValue) {
+      String s = element.getAsString();
+      return s.isEmpty()? defaultValue:Long.parseLong(s);
+    }
+
+    @Override
+    public double asDouble(double defaultValue) {
+      if (element.isNumber()) return element.getAsDouble();
+      String s = element.getAsString();
+      return s.isEmpty()? defaultValue:Double.parseDouble(s);
+    }
+
+    @Override
+    public boolean asBoolean(boolean defaultValue) {
+      if (element.isBoolean()) return element.getAsBoolean();
+      String s = element.getAsString();
+      return s.isEmpty()? defaultValue:Boolean.parseBoolean(s);
+    }
+
+    @Override
+    public boolean isNumber() {
+      return element.isNumber();
+    }
+
+    @Override
+    public boolean isString() {
+      return element.isString();
+    }
   }
   
   public static class JNullImpl extends JElementImpl<JsonNull> implements JNull {
-    private JNullImpl(JsonNull n) {
-      super(JType.NULL, n);
+    private JNullImpl(JsonNull n, boolean memoize) {
+      super(JType.NULL, n, memoize);
     }
   }
 }
@@ -0,0 +1,130 @@
+package com.cm55.gson;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+
+import com.cm55.gson.Json.*;
+import com.google.gson.*;
+import com.google.gson.internal.bind.*;
+import com.google.gson.stream.*;
+
+/**
+ * ルートが配列であるJSONを、要素を一つずつ読み込むもの
+ * <p>
+ * 配列全体を保持せず、一度に保持するのは読み込み中の要素のみである。
+ * このため、メモリの使用量は最大の要素の大きさで決まる。{@link Json#stream(Reader)}、
+ * {@link Json#forEach(Reader, int, Consumer)}から使用される。
+ * 入力は{@link Json#get(String)}と同じく寛容に解析するが、配列の後に値があればエラーとする。
+ * 例外は{@link Json#get(String)}と同じく、Gsonの{@link JsonSyntaxException}あるいは{@link JsonIOException}となる。
+ * </p>
+ * @author ysugimura
+ */
+class JsonArrayReader extends Spliterators.AbstractSpliterator<JElement> {
+
+  private final JsonReader in;
+
+  /** 配列の開始を読み込んだか */
+  private boolean started;
+
+  /** 配列の終わりに達したか */
+  private boolean finished;
+
+  JsonArrayReader(Reader reader) {
+    super(Long.MAX_VALUE, ORDERED | NONNULL);
+    in = new JsonReader(reader);
+    in.setLenient(true);
+  }
+
+  @Override
+  public boolean tryAdvance(Consumer<? super JElement> action) {
+    JElement element = next();
+    if (element == null) return false;
+    action.accept(element);
+    return true;
+  }
+
+  /**
+   * 次の要素を読み込む
+   * @return 要素。配列の終わりに達した場合はnull
+   */
+  JElement next() {
+    if (finished) return null;
+    try {
+      if (!started) {
+        if (in.peek() != JsonToken.BEGIN_ARRAY) throw new JsonSyntaxException("Expected an array: " + in.peek());
+        in.beginArray();
+        started = true;
+      }
+      if (!in.hasNext()) {
+        in.endArray();
+        if (in.peek() != JsonToken.END_DOCUMENT) throw new JsonSyntaxException("Unexpected value after the array");
+        finished = true;
+        return null;
+      }
+
+      // 要素はこれ以降変更されないため、getJson()を保持する
+      return Json.wrap(TypeAdapters.JSON_ELEMENT.read(in), true);
+    } catch (JsonParseException ex) {
+      finished = true;
+      throw ex;
+    } catch (MalformedJsonException | EOFException | IllegalStateException | NumberFormatException ex) {
+      finished = true;
+      throw new JsonSyntaxException(ex);
+    } catch (IOException ex) {
+      finished = true;
+      throw new JsonIOException(ex);
+    }
+  }
+
+  /**
+   * すべての要素を、指定数のスレッドで並列に処理する。
+   * 読み込みは呼び出したスレッドで行い、処理待ちの要素はスレッド数の二倍までとする。
+   * 処理中に例外が発生した場合は以降の読み込みを中止し、最初の例外を送出する。
+   * 読み込みのエラーの場合は処理待ちの要素を処理せず、いずれの場合も処理中の要素の終了を待ってから送出する。
+   * @param parallelism スレッド数
+   * @param consumer 要素の処理
+   */
+  void forEach(int parallelism, Consumer<? super JElement> consumer) {
+    if (parallelism < 1) throw new IllegalArgumentException("parallelism:" + parallelism);
+    int capacity = parallelism * 2;
+    Semaphore permits = new Semaphore(capacity);
+    AtomicReference<Throwable> failure = new AtomicReference<>();
+    ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+    try {
+      try {
+        JElement element;
+        while (failure.get() == null && (element = next()) != null) {
+          permits.acquire();
+          JElement target = element;
+          executor.execute(() -> {
+            try {
+              if (failure.get() == null) consumer.accept(target);
+            } catch (Throwable th) {
+              failure.compareAndSet(null, th);
+            } finally {
+              permits.release();
+            }
+          });
+        }
+      } catch (RuntimeException | Error ex) {
+        // 読み込みのエラー
+        failure.compareAndSet(null, ex);
+      }
+
+      // すべての処理の終了を待つ
+      permits.acquire(capacity);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new JsonException(ex);
+    } finally {
+      executor.shutdown();
+    }
+    Throwable th = failure.get();
+    if (th instanceof RuntimeException) throw (RuntimeException)th;
+    if (th instanceof Error) throw (Error)th;
+    if (th != null) throw new JsonException(th);
+  }
+}
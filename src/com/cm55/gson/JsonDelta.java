@@ -0,0 +1,186 @@
+package com.cm55.gson;
+
+import java.util.*;
+
+import com.google.gson.*;
+
+/**
+ * 二つの{@link JsonElement}ツリーの差分（パッチ）の作成と適用
+ * <p>
+ * {@link Serializer#serializeDelta(Object, Object)}、{@link Serializer#applyDelta(Object, String)}が使用する。
+ * パッチの各ノードは以下のいずれかのJSONオブジェクトになる。
+ * </p>
+ * <ul>
+ * <li>{@code {}} 変更無し（ルートのみ）
+ * <li>{@code {"s":値}} 値を置き換える
+ * <li>{@code {"o":{"名前":ノード,...},"r":["名前",...]}} オブジェクトのフィールドを変更・追加し、"r"のフィールドを削除する。
+ * "o"、"r"は無い場合は省略される
+ * <li>{@code {"n":長さ,"e":{"インデックス":ノード,...}}} 配列を指定の長さにし、指定の要素を変更する
+ * </ul>
+ * <p>
+ * {@link MultiHandler}による値（{@code {"T":..,"D":..}}）は、型が変わった場合には全体を置き換え、
+ * 同じ型であればデータ部分の差分となる。数値はJSON上の表記が異なれば異なるものとする（0.0と-0.0は異なる）。
+ * </p>
+ * @author ysugimura
+ */
+class JsonDelta {
+
+  static final String SET = "s";
+  static final String OBJECT = "o";
+  static final String REMOVE = "r";
+  static final String LENGTH = "n";
+  static final String ELEMENTS = "e";
+
+  private JsonDelta() {
+  }
+
+  /**
+   * 差分を作成する
+   * @param base 元のツリー
+   * @param current 新しいツリー
+   * @return パッチ
+   */
+  static JsonObject diff(JsonElement base, JsonElement current) {
+    JsonObject patch = node(base, current);
+    return patch == null? new JsonObject():patch;
+  }
+
+  /**
+   * 差分を適用する。元のツリーは変更されない。
+   * @param base 元のツリー
+   * @param patch パッチ
+   * @return 新しいツリー
+   */
+  static JsonElement apply(JsonElement base, JsonObject patch) {
+    if (patch.size() == 0) return base;
+    return applyNode(base, patch);
+  }
+
+  /** 一つの値の差分。同じ場合はnull */
+  private static JsonObject node(JsonElement base, JsonElement current) {
+    if (same(base, current)) return null;
+    if (base.isJsonObject() && current.isJsonObject() && !typeChanged(base.getAsJsonObject(), current.getAsJsonObject())) {
+      return objectNode(base.getAsJsonObject(), current.getAsJsonObject());
+    }
+    if (base.isJsonArray() && current.isJsonArray()) {
+      JsonObject patch = arrayNode(base.getAsJsonArray(), current.getAsJsonArray());
+      if (patch != null) return patch;
+    }
+    return set(current);
+  }
+
+  private static JsonObject set(JsonElement value) {
+    JsonObject patch = new JsonObject();
+    patch.add(SET, value);
+    return patch;
+  }
+
+  /** {@link MultiHandler}による値で、型が変わったか */
+  private static boolean typeChanged(JsonObject base, JsonObject current) {
+    String marker = Settings.MULTIHANDLER_TYPE_MARKER;
+    if (!base.has(marker) || !current.has(marker)) return false;
+    if (base.size() != 2 || current.size() != 2 || !base.has(Settings.MULTIHANDLER_DATA_MARKER)) return false;
+    return !same(base.get(marker), current.get(marker));
+  }
+
+  private static JsonObject objectNode(JsonObject base, JsonObject current) {
+    JsonObject members = new JsonObject();
+    for (Map.Entry<String, JsonElement> entry: current.entrySet()) {
+      JsonElement old = base.get(entry.getKey());
+      JsonObject member = old == null? set(entry.getValue()):node(old, entry.getValue());
+      if (member != null) members.add(entry.getKey(), member);
+    }
+    JsonArray removed = new JsonArray();
+    for (String name: base.keySet()) {
+      if (!current.has(name)) removed.add(name);
+    }
+    JsonObject patch = new JsonObject();
+    if (members.size() > 0) patch.add(OBJECT, members);
+    if (removed.size() > 0) patch.add(REMOVE, removed);
+    return patch;
+  }
+
+  /** 配列の差分。要素の半数以上が変わる場合は全体を置き換えるためnull */
+  private static JsonObject arrayNode(JsonArray base, JsonArray current) {
+    int common = Math.min(base.size(), current.size());
+    JsonObject elements = new JsonObject();
+    int changed = current.size() - common;
+    for (int i = 0; i < current.size(); i++) {
+      JsonObject element = i < common? node(base.get(i), current.get(i)):set(current.get(i));
+      if (element == null) continue;
+      if (i < common && ++changed * 2 > current.size()) return null;
+      elements.add(Integer.toString(i), element);
+    }
+    JsonObject patch = new JsonObject();
+    patch.addProperty(LENGTH, current.size());
+    if (elements.size() > 0) patch.add(ELEMENTS, elements);
+    return patch;
+  }
+
+  /** 同一の値か */
+  private static boolean same(JsonElement a, JsonElement b) {
+    if (a.isJsonPrimitive() && b.isJsonPrimitive()) {
+      JsonPrimitive pa = a.getAsJsonPrimitive(), pb = b.getAsJsonPrimitive();
+      return pa.isNumber() == pb.isNumber() && pa.isString() == pb.isString() && pa.getAsString().equals(pb.getAsString());
+    }
+    if (a.isJsonNull() || b.isJsonNull()) return a.isJsonNull() && b.isJsonNull();
+    if (a.isJsonObject() && b.isJsonObject()) {
+      JsonObject oa = a.getAsJsonObject(), ob = b.getAsJsonObject();
+      if (oa.size() != ob.size()) return false;
+      for (Map.Entry<String, JsonElement> entry: oa.entrySet()) {
+        JsonElement other = ob.get(entry.getKey());
+        if (other == null || !same(entry.getValue(), other)) return false;
+      }
+      return true;
+    }
+    if (a.isJsonArray() && b.isJsonArray()) {
+      JsonArray aa = a.getAsJsonArray(), ab = b.getAsJsonArray();
+      if (aa.size() != ab.size()) return false;
+      for (int i = 0; i < aa.size(); i++) {
+        if (!same(aa.get(i), ab.get(i))) return false;
+      }
+      return true;
+    }
+    return false;
+  }
+
+  private static JsonElement applyNode(JsonElement base, JsonObject patch) {
+    if (patch.has(SET)) return patch.get(SET);
+    if (patch.has(LENGTH)) {
+      if (!base.isJsonArray()) throw new JsonSyntaxException("Array patch for non-array value");
+      JsonArray array = base.getAsJsonArray();
+      int length = patch.get(LENGTH).getAsInt();
+      JsonObject elements = patch.has(ELEMENTS)? patch.getAsJsonObject(ELEMENTS):new JsonObject();
+      JsonArray result = new JsonArray();
+      for (int i = 0; i < length; i++) {
+        JsonObject element = elements.has(Integer.toString(i))? elements.getAsJsonObject(Integer.toString(i)):null;
+        if (element == null) {
+          if (i >= array.size()) throw new JsonSyntaxException("Missing array element in patch: " + i);
+          result.add(array.get(i));
+        } else {
+          result.add(applyNode(i < array.size()? array.get(i):JsonNull.INSTANCE, element));
+        }
+      }
+      return result;
+    }
+    if (!base.isJsonObject()) throw new JsonSyntaxException("Object patch for non-object value");
+    JsonObject object = base.getAsJsonObject();
+    JsonObject members = patch.has(OBJECT)? patch.getAsJsonObject(OBJECT):new JsonObject();
+    Set<String> removed = new HashSet<>();
+    if (patch.has(REMOVE)) {
+      for (JsonElement name: patch.getAsJsonArray(REMOVE)) removed.add(name.getAsString());
+    }
+
+    // フィールドの順序を保つ
+    JsonObject result = new JsonObject();
+    for (Map.Entry<String, JsonElement> entry: object.entrySet()) {
+      if (removed.contains(entry.getKey())) continue;
+      JsonElement member = members.get(entry.getKey());
+      result.add(entry.getKey(), member == null? entry.getValue():applyNode(entry.getValue(), member.getAsJsonObject()));
+    }
+    for (Map.Entry<String, JsonElement> entry: members.entrySet()) {
+      if (!object.has(entry.getKey())) result.add(entry.getKey(), applyNode(JsonNull.INSTANCE, entry.getValue().getAsJsonObject()));
+    }
+    return result;
+  }
+}
@@ -1,8 +1,14 @@
 package com.cm55.gson;
 
+import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 import com.cm55.gson.Json.*;
+import com.google.gson.*;
+import com.google.gson.internal.*;
+import com.google.gson.internal.bind.*;
+import com.google.gson.stream.*;
 
 
 /**
@@ -14,6 +20,19 @@ import com.cm55.gson.Json.*;
  * <p>
  * 空配列があった場合にそれをオブジェクトに変換する。
  * </p>
+ * <p>
+ * 修正はすべて{@link FixingJsonReader}が読み込みながら行い、{@link #fix(String, Node)}、{@link #fix(JElement, FixRoot)}は
+ * その結果を{@link JsonWriter}に書き込む。{@link Serializer#deserialize(Reader, FixRoot)}、{@link FixerSession}も
+ * 同じものを用いるので、いずれの入口でも修正結果は同じになる。
+ * 修正の対象でない部分は入力のまま書き込まれ、名称を変更するノードのオブジェクトでは、
+ * 同じ名前のフィールドは最初のもののみが残る。
+ * </p>
+ * <p>
+ * {@link #fix(String, Node, ForkJoinPool)}で{@link ForkJoinPool}を指定した場合、要素数が
+ * {@link Settings#FIXER_PARALLEL_THRESHOLD}以上の修正する配列は要素範囲に分割して並列に修正し、元の順序のまま結合する。
+ * 並列に修正するのはこの呼び出しのみであり、読み込みながら修正する{@link Serializer#deserialize(Reader, FixRoot)}、
+ * {@link FixerSession}は並列処理を行わない。
+ * </p>
  * @author ysugimura
  */
 
@@ -25,6 +44,9 @@ public class JsonFixer {
   public abstract static class Node {
     String name;
     private Map<String, Node> subNodeMap;
+
+    /** 下位のノードに{@link ChangeFieldName}がある */
+    boolean renames;
     
     public Node(String name, Node... nodes) {
       this.name = name;
@@ -37,6 +59,7 @@ public class JsonFixer {
         subNodeMap = new HashMap<String, Node>();
       for (Node node : nodes) {
         subNodeMap.put(node.name, node);
+        if (node instanceof ChangeFieldName) renames = true;
       }     
     }
     
@@ -118,7 +141,7 @@ public class JsonFixer {
    * </p>
    */
   public static class ChangeFieldName extends Node {
-    private String to;
+    String to;
     public ChangeFieldName(String from, String to, Node...nodes) {
       super(from, nodes);
       this.to = to;
@@ -129,126 +152,239 @@ public class JsonFixer {
   //
   ////////////////////////////////////////////////////////////////////////////
   
+  /** 計測。nullの場合は計測しない */
+  private static volatile JsonMetrics metrics;
+  
+  /**
+   * {@link #fix(String, Node)}等の計測を指定する。nullを指定すると計測しない（デフォルト）。
+   * @param metrics 計測
+   */
+  public static void setMetrics(JsonMetrics metrics) {
+    JsonFixer.metrics = metrics;
+  }
+  
+  static JsonMetrics getMetrics() {
+    return metrics;
+  }
+  
   public static String fix(String json, Node node) {
-    return fix((JElement)Json.get(json), node);
+    return fix(json, node, null);
   }
 
   /**
-   * 
-   * @param element
-   * @param node
-   * @return
+   * {@link #fix(String, Node)}と同じだが、大きな配列の修正を指定された{@link ForkJoinPool}で並列に行う。
+   * @param json JSON文字列
+   * @param node ルートノード
+   * @param pool 並列処理に用いるプール。nullの場合は並列処理しない
+   * @return 修正後のJSON文字列
    */
-  public static String fix(JElement element, FixRoot root) {
-    return fix(element, root);
-  }
-  
-  private static String fix(JElement parent, Node node) {
-    // ystem.out.println("parent:" + element.getJson());
-    if (!node.hasSubMap()) {
-      return parent.getJson();
+  public static String fix(String json, Node node, ForkJoinPool pool) {
+    JsonMetrics metrics = JsonFixer.metrics;
+    long start = metrics == null? 0:System.nanoTime();
+    String fixed = fixString(json, node, pool);
+    if (metrics != null) {
+      metrics.record(JsonMetrics.Operation.FIX, System.nanoTime() - start, json.length(), fixed.length());
     }
+    return fixed;
+  }
 
-    // この要素が配列のとき
-    if (parent instanceof JArray) {
-      return fixArray((JArray)parent, node);
+  /**
+   * {@link JsonParser#parse(String)}と同じく読み込みながら修正し、{@link JsonElement#toString()}と同じく書き込む。
+   * 空の入力は"null"とする。
+   */
+  private static String fixString(String json, Node node, ForkJoinPool pool) {
+    JsonReader reader = new JsonReader(new StringReader(json));
+    reader.setLenient(true);
+    StringWriter fixed = new StringWriter(json.length());
+    JsonWriter out = new JsonWriter(fixed);
+    out.setLenient(true);
+    try {
+      try {
+        reader.peek();
+      } catch (EOFException ex) {
+        return "null";
+      }
+      FixingJsonReader in = new FixingJsonReader(reader, node);
+      if (pool == null) copy(in, out);
+      else copyParallel(in, out, pool);
+      if (reader.peek() != JsonToken.END_DOCUMENT) throw new JsonSyntaxException("Did not consume the entire document.");
+    } catch (MalformedJsonException | IllegalStateException | NumberFormatException ex) {
+      throw new JsonSyntaxException(ex);
+    } catch (IOException ex) {
+      throw new JsonIOException(ex);
     }
-
-    // マップのとき
-    return fixObject((JObject)parent, node);
+    return fixed.toString();
   }
 
-  private static String fixObject(JObject object, Node node) {
-    Stocker s = new Stocker();
-    for (Map.Entry<String, JElement> e : object.entrySet()) {
-      String childName = e.getKey();
-      JElement childElement = e.getValue();
-      Node subNode = node.getSubNode(childName);
-      fixChild(s, childName, childElement, subNode);
+  /**
+   * 既に解析済の{@link JElement}を修正し、JSON文字列として返す。
+   * <p>
+   * ツリーを作り直すことはせず、要素をたどりながら書き込む。修正の必要の無い部分は{@link JElement#writeJson(JsonWriter)}で
+   * そのまま書き込むので、{@link Json#tape(String)}によるものであれば元の表記のままとなる。
+   * </p>
+   * @param element 修正対象
+   * @param root ルートノード
+   * @return 修正後のJSON文字列
+   */
+  public static String fix(JElement element, FixRoot root) {
+    JsonMetrics metrics = JsonFixer.metrics;
+    long start = metrics == null? 0:System.nanoTime();
+    String fixed = fixElement(element, root);
+    if (metrics != null) {
+      long nanos = System.nanoTime() - start;
+      metrics.record(JsonMetrics.Operation.FIX, nanos, sizeOf(element), fixed.length());
     }
-    return s.asObjectString();    
-  }
-  
-  private static void fixChild(Stocker s, String childName, JElement childElement, Node subNode) {        
-    if (subNode == null) {
-      s.addItemJson(childName, childElement.getJson());
-      return;
-    }    
-    fixMap.get(subNode.getClass()).fix(s, childName, childElement, subNode);
-  }
-  
-  private static Map<Class<? extends Node>, Executer>fixMap = new HashMap<Class<? extends Node>, Executer>();
-  {
-    fixMap.put(FixNone.class,  new FixNoneExecuter());
-    fixMap.put(DropEmptyArray.class, new DropEmptyArrayExecuter());
-    fixMap.put(DropPrimitive.class, new DropPrimitiveExecuter());
-    fixMap.put(ForceArray.class, new ForceArrayExecuter());
-    fixMap.put(ChangeFieldName.class,  new ChangeFieldNameExecuter());
+    return fixed;
   }
-  
-  public static class Executer {
-    public void fix(Stocker s, String childName, JElement childElement, Node subNode) {
-      s.addItemJson(childName, JsonFixer.fix(childElement, subNode));     
+
+  /** 要素を修正し、JSON文字列として返す */
+  private static String fixElement(JElement element, Node node) {
+    StringWriter fixed = new StringWriter();
+    JsonWriter out = new JsonWriter(fixed);
+    out.setLenient(true);
+    try {
+      FixingJsonReader in = new FixingJsonReader(new JElementReader(element), node);
+      do {
+        if (in.atUntouchedValue()) {
+          in.nextRaw(source -> ((JElementReader)source).nextElement()).writeJson(out);
+        } else {
+          copyToken(in, out);
+        }
+      } while (in.inValue());
+    } catch (IOException ex) {
+      throw new JsonException(ex);
     }
+    return fixed.toString();
   }
-  
-  static class FixNoneExecuter extends Executer {
-  }
-  
-  static class DropEmptyArrayExecuter extends Executer {
-    public void fix(Stocker s, String childName, JElement childElement, Node subNode) {
-      // このノードを無視する
-      if (childElement instanceof JArray && ((JArray)childElement).size() == 0)
-        return;
-      super.fix(s, childName, childElement, subNode);
+
+  /**
+   * 要素のJSON表記の文字数を求める。文字列は作成しない。
+   * {@link Json#tape(String)}によるもの、{@link JElement#getJson()}の結果が保持されているものは元の表記の長さとなる。
+   */
+  private static long sizeOf(JElement element) {
+    long[]count = new long[1];
+    try {
+      element.writeJson(new Appendable() {
+        @Override public Appendable append(CharSequence s) { count[0] += s.length(); return this; }
+        @Override public Appendable append(CharSequence s, int start, int end) { count[0] += end - start; return this; }
+        @Override public Appendable append(char c) { count[0]++; return this; }
+      });
+    } catch (IOException ex) {
+      throw new JsonException(ex);
     }
+    return count[0];
   }
-  
-  static class DropPrimitiveExecuter extends Executer {
-    public void fix(Stocker s, String childName, JElement childElement, Node subNode) {
-      // このノードを無視する
-      if (childElement instanceof JPrimitive)
-        return;
-      super.fix(s, childName, childElement, subNode);
-    }
+
+  /**
+   * {@link FixingJsonReader}から修正しながら一つの値を読み込み、そのまま書き込む。ツリーは作成しない。
+   * 数値の表記は変更されない。
+   * <p>
+   * 入力の読み込みが例外で中断した場合、入力と出力の状態はそのトークンの直前のままである。
+   * {@link PushJsonReader}による入力では、トークンを追加した後に再び呼び出すと続きから書き込む。
+   * </p>
+   * @param in 入力
+   * @param out 出力
+   * @throws IOException
+   */
+  static void copy(FixingJsonReader in, JsonWriter out) throws IOException {
+    do {
+      copyToken(in, out);
+    } while (in.inValue());
   }
 
-  static class ForceArrayExecuter extends Executer {
-    public void fix(Stocker s, String childName, JElement childElement, Node subNode) {
-      if (!(childElement instanceof JArray))
-        s.addItemJson(childName, "[" + JsonFixer.fix(childElement, subNode) + "]");
-      else
-        super.fix(s, childName, childElement, subNode);  
+  /** 一つのトークンを読み込んで書き込む */
+  private static void copyToken(FixingJsonReader in, JsonWriter out) throws IOException {
+    switch (in.peek()) {
+    case BEGIN_ARRAY:
+      in.beginArray();
+      out.beginArray();
+      break;
+    case END_ARRAY:
+      in.endArray();
+      out.endArray();
+      break;
+    case BEGIN_OBJECT:
+      in.beginObject();
+      out.beginObject();
+      break;
+    case END_OBJECT:
+      in.endObject();
+      out.endObject();
+      break;
+    case NAME:
+      out.name(in.nextName());
+      break;
+    case STRING:
+      out.value(in.nextString());
+      break;
+    case NUMBER:
+      out.value(new LazilyParsedNumber(in.nextString()));
+      break;
+    case BOOLEAN:
+      out.value(in.nextBoolean());
+      break;
+    case NULL:
+      in.nextNull();
+      out.nullValue();
+      break;
+    default:
+      throw new JsonSyntaxException("Unexpected token: " + in.peek());
     }
   }
-  
-  static class ChangeFieldNameExecuter extends Executer {
-    public void fix(Stocker s, String childName, JElement childElement, Node subNode) {
-      ChangeFieldName node = (ChangeFieldName)subNode;
-      assert childName.equals(node.name);
-      s.addItemJson(node.to, JsonFixer.fix(childElement, subNode));     
-    }
+
+  /**
+   * {@link #copy(FixingJsonReader, JsonWriter)}と同じだが、修正する配列は要素を読み込んでから修正し、
+   * 要素数が{@link Settings#FIXER_PARALLEL_THRESHOLD}以上であれば並列に修正する
+   */
+  private static void copyParallel(FixingJsonReader in, JsonWriter out, ForkJoinPool pool) throws IOException {
+    do {
+      boolean array = in.peek() == JsonToken.BEGIN_ARRAY;
+      copyToken(in, out);
+      Node node = array? in.elementNode():null;
+      if (node == null) continue;
+      List<JsonElement> elements = new ArrayList<>();
+      while (in.hasNext()) elements.add(in.nextRaw(TypeAdapters.JSON_ELEMENT::read));
+      if (elements.size() < Settings.FIXER_PARALLEL_THRESHOLD) {
+        for (JsonElement element: elements) {
+          copyParallel(new FixingJsonReader(new JsonTreeReader(element), node), out, pool);
+        }
+        continue;
+      }
+
+      // 要素範囲に分割して並列に修正し、元の順序で結合する
+      String[]fixed = new String[elements.size()];
+      FixRange task = new FixRange(elements, node, pool, fixed, 0, fixed.length);
+      if (ForkJoinTask.getPool() == pool) {
+        // 既にこのプールのタスク内であれば、そのままフォーク・ジョインする
+        task.invoke();
+      } else {
+        pool.invoke(task);
+      }
+      for (String element: fixed) {
+        out.jsonValue(element);
+      }
+    } while (in.inValue());
   }
 
   /**
-   * 配列を修正する
-   * @param array
-   * @param node
-   * @return
+   * 子要素を修正して{@link Stocker}に追加する
+   * @deprecated 修正は{@link FixingJsonReader}によってトークン列に対して行われ、これは使用されない。
+   * {@link JsonFixer#fix(JElement, FixRoot)}を使用すること。
    */
-  private static String fixArray(JArray array, Node node) {
-    Stocker s = new Stocker();
-    array.forEach(element-> {
-      s.addJson(fix(element, node));
-    });      
-    return s.asArrayString();
+  @Deprecated
+  public static class Executer {
+    public void fix(Stocker s, String childName, JElement childElement, Node subNode) {
+      s.addItemJson(childName, fixElement(childElement, subNode));     
+    }
   }
 
   /**
    * JSON文字列のストッカ
+   * @deprecated 修正結果の組み立てには使用されない
    * @author ysugimura
    *
    */
+  @Deprecated
   public static class Stocker {
     StringBuilder s = new StringBuilder();
 
@@ -270,4 +406,50 @@ public class JsonFixer {
       return "[" + s.toString() + "]";
     }
   }
+
+  /**
+   * 配列の要素範囲[from, to)を修正するタスク。
+   * 範囲が{@link Settings#FIXER_PARALLEL_CHUNK}以下になるまで二分割する。
+   */
+  @SuppressWarnings("serial")
+  private static class FixRange extends RecursiveAction {
+    private final List<JsonElement> elements;
+    private final Node node;
+    private final ForkJoinPool pool;
+    private final String[]fixed;
+    private final int from;
+    private final int to;
+    
+    private FixRange(List<JsonElement> elements, Node node, ForkJoinPool pool, String[]fixed, int from, int to) {
+      this.elements = elements;
+      this.node = node;
+      this.pool = pool;
+      this.fixed = fixed;
+      this.from = from;
+      this.to = to;
+    }
+    
+    @Override
+    protected void compute() {
+      if (to - from <= Math.max(1, Settings.FIXER_PARALLEL_CHUNK)) {
+        for (int i = from; i < to; i++) {
+          StringWriter element = new StringWriter();
+          JsonWriter out = new JsonWriter(element);
+          out.setLenient(true);
+          try {
+            copyParallel(new FixingJsonReader(new JsonTreeReader(elements.get(i)), node), out, pool);
+          } catch (IOException ex) {
+            throw new JsonIOException(ex);
+          }
+          fixed[i] = element.toString();
+        }
+        return;
+      }
+      int middle = (from + to) >>> 1;
+      invokeAll(
+        new FixRange(elements, node, pool, fixed, from, middle),
+        new FixRange(elements, node, pool, fixed, middle, to)
+      );
+    }
+  }
 }
@@ -2,9 +2,15 @@ package com.cm55.gson;
 
 import static org.junit.Assert.*;
 
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
 import org.junit.*;
 
+import com.cm55.gson.Json.*;
 import com.cm55.gson.JsonFixer.*;
+import com.google.gson.reflect.*;
 
 
 public class JsonFixerTest {
@@ -105,6 +111,157 @@ public class JsonFixerTest {
     );
   }
   
+  @Test
+  public void fixAndDeserialize() {
+    String input = toDouble(
+        "{'orders':{'commodities':{'commodity':{'name':'sample'}},'default':'x'}}");
+    FixRoot root = new FixRoot(
+      new FixNone("orders", 
+        new FixNone("commodities",
+          new ForceArray("commodity")
+        ),
+        new ChangeFieldName("default", "defaultValue")
+      )
+    );
+    Serializer<Top>serializer = new Serializer<>(Top.class);
+    Top top = serializer.deserialize(new StringReader(input), root);
+    assertEquals(1, top.orders.commodities.commodity.size());
+    assertEquals("sample", top.orders.commodities.commodity.get(0).name);
+    assertEquals("x", top.orders.defaultValue);
+    
+    // 文字列を経由した場合と同じ結果
+    assertEquals(
+      serializer.serialize(serializer.deserialize(JsonFixer.fix(input, root))),
+      serializer.serialize(top)
+    );
+  }
+  
+  @Test
+  public void fixWhileReading() {
+    String input = toDouble(
+        "{'items':[{'commodity':{'name':'a'},'option':[],'extra':{'x':[1,{'y':2}]}},"
+      + "{'commodity':[{'name':'b'}],'option':[1,2],'name':'n'}],"
+      + "'counts':{'p':3,'q':[1,2]},'names':{'1':'one','2':'two'},'junk':'x','tags':'single','none':null,"
+      + "'default':'v','unknown':{'commodity':{'name':'c'}},'empty':[]}");
+    FixRoot root = new FixRoot(
+      new FixNone("items", new ForceArray("commodity"), new DropEmptyArray("option")),
+      new FixNone("counts", new ForceArray("p")),
+      new DropPrimitive("junk"),
+      new ForceArray("tags"),
+      new ForceArray("none"),
+      new ChangeFieldName("default", "label"),
+      new ForceArray("unknown", new ForceArray("commodity")),
+      new DropEmptyArray("empty")
+    );
+    Serializer<Doc>serializer = new Serializer<>(Doc.class);
+    Doc doc = serializer.deserialize(new StringReader(input), root);
+    assertEquals("a", doc.items.get(0).commodity.get(0).name);
+    assertNull(doc.items.get(0).option);
+    assertEquals(2, doc.items.get(1).option.length);
+    assertEquals(Arrays.asList(3), doc.counts.get("p"));
+    assertEquals("two", doc.names.get(2));
+    assertEquals(Arrays.asList("single"), doc.tags);
+    assertEquals(Arrays.asList((String)null), doc.none);
+    assertEquals("v", doc.label);
+    assertNull(doc.junk);
+
+    // 文字列を経由した場合と同じ結果
+    assertEquals(
+      serializer.serialize(serializer.deserialize(JsonFixer.fix(input, root))),
+      serializer.serialize(doc)
+    );
+    assertNull(serializer.deserialize(new StringReader(" "), root));
+
+    // ルートが配列の場合
+    Serializer<List<Item>>listSerializer = new Serializer<>(new TypeToken<List<Item>>() {});
+    List<Item>items = listSerializer.deserialize(
+        new StringReader(toDouble("[{'commodity':{'name':'a'}},{'commodity':[]}]")), new FixRoot(new ForceArray("commodity")));
+    assertEquals(1, items.get(0).commodity.size());
+    assertEquals(0, items.get(1).commodity.size());
+  }
+
+  public static class Doc {
+    List<Item>items;
+    Map<String, List<Integer>>counts;
+    Map<Integer, String>names;
+    String junk;
+    List<String>tags;
+    List<String>none;
+    String label;
+  }
+  public static class Item {
+    ArrayList<Commodity>commodity;
+    int[]option;
+    String name;
+  }
+
+  public static class Top {
+    Orders orders;
+  }
+  public static class Orders {
+    Commodities commodities;
+    String defaultValue;
+  }
+  public static class Commodities {
+    ArrayList<Commodity>commodity;
+  }
+  public static class Commodity {
+    String name;
+  }
+  
+  @Test
+  public void parallel() {
+    StringBuilder s = new StringBuilder("[");
+    for (int i = 0; i < 20000; i++) {
+      if (i > 0) s.append(",");
+      if (i % 3 == 0)
+        s.append("{'commodity':{'name':'n" + i + "'},'option':[]}");
+      else
+        s.append("{'commodity':[{'name':'n" + i + "'}],'option':[1]}");
+    }
+    String input = toDouble(s.append("]").toString());
+    FixRoot root = new FixRoot(
+      new ForceArray("commodity", new FixNone("name")),
+      new DropEmptyArray("option")
+    );
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      assertEquals(JsonFixer.fix(input, root), JsonFixer.fix(input, root, pool));
+    } finally {
+      pool.shutdown();
+    }
+  }
+  
+  @Test
+  public void 重複するフィールド名() {
+    // 名称の変更で同じ名前になる場合、いずれの入口でも最初のもののみが残る
+    String input = toDouble("{'old':1,'new':2,'x':{'old':3,'new':4}}");
+    FixRoot root = new FixRoot(new ChangeFieldName("old", "new"), new FixNone("x", new ChangeFieldName("old", "new")));
+    String expected = "{'new':1,'x':{'new':3}}";
+    assertEquals(expected, toSingle(JsonFixer.fix(input, root)));
+    JElement element = Json.get(input);
+    assertEquals(expected, toSingle(JsonFixer.fix(element, root)));
+    element = Json.tape(input);
+    assertEquals(expected, toSingle(JsonFixer.fix(element, root)));
+
+    // マップでも重複キーのエラーにならない
+    Serializer<Map<String, Object>>serializer = new Serializer<>(new TypeToken<Map<String, Object>>() {});
+    Map<String, Object>map = serializer.deserialize(new StringReader(input), root);
+    assertEquals(1.0, map.get("new"));
+    assertEquals(Collections.singletonMap("new", 3.0), map.get("x"));
+    assertEquals(map, serializer.deserialize(JsonFixer.fix(input, root)));
+  }
+
+  @SuppressWarnings("deprecation")
+  @Test
+  public void executerAndStocker() {
+    JsonFixer.Stocker stocker = new JsonFixer.Stocker();
+    new JsonFixer.Executer().fix(stocker, "commodity",
+        Json.get(toDouble("{'name':'sample','option':[]}")), new FixNone("commodity", new DropEmptyArray("option")));
+    stocker.addItemJson("count", "1");
+    assertEquals("{'commodity':{'name':'sample'},'count':1}", toSingle(stocker.asObjectString()));
+  }
+  
   private String toDouble(String s) {
     return s.replace('\'',  '"');
   }
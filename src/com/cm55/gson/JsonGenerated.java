@@ -0,0 +1,32 @@
+package com.cm55.gson;
+
+import java.lang.annotation.*;
+
+/**
+ * 直列化・復帰用のアダプタをコンパイル時に生成することを示すアノテーション
+ * <p>
+ * アノテーションプロセッサ（{@link com.cm55.gson.processor.JsonGeneratedProcessor}）が、同じパッケージに
+ * フィールドへ直接アクセスするアダプタ（クラス名に{@link GeneratedAdapter#SUFFIX}を付加したもの）を生成する。
+ * {@link HandlerBuilder}の対象クラス、あるいは{@link MultiHandlerBuilder}に登録したサブクラスであれば、
+ * 実行時に自動的にGsonのリフレクションによるアダプタの代わりに使用される。出力されるJSONは同一である。
+ * {@link Settings#USE_GENERATED_ADAPTERS}をfalseにすると、生成アダプタは使用されない。
+ * </p>
+ * <p>
+ * 生成アダプタから直接アクセスするため、直列化対象のフィールド（static、transient以外）はprivateあるいはfinalであってはならない。
+ * 他のパッケージのスーパークラスのフィールドはpublicでなければならない。また、クラス自体は型パラメータを持つことはできない。
+ * これらに違反する場合はコンパイルエラーになる。
+ * </p>
+ * <pre>
+ * &#64;JsonGenerated
+ * public class Sample {
+ *   int a;
+ *   String b;
+ * }
+ * </pre>
+ * @author ysugimura
+ */
+@Documented
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface JsonGenerated {
+}
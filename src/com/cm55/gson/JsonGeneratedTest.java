@@ -0,0 +1,220 @@
+package com.cm55.gson;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+import java.util.function.*;
+
+import org.junit.*;
+
+import com.google.gson.*;
+import com.google.gson.annotations.*;
+
+public class JsonGeneratedTest {
+
+  @Test
+  public void 生成アダプタの使用() {
+    GsonBuilder builder = new GsonBuilder();
+    genHandler().registerToBuilder(builder);
+    Gson gson = builder.create();
+    assertTrue(gson.getAdapter(Gen.class) instanceof GeneratedAdapter);
+    assertTrue(gson.getAdapter(Inner.class) instanceof GeneratedAdapter);
+    assertFalse(gson.getAdapter(Plain.class) instanceof GeneratedAdapter);
+
+    boolean saved = Settings.USE_GENERATED_ADAPTERS;
+    Settings.USE_GENERATED_ADAPTERS = false;
+    try {
+      builder = new GsonBuilder();
+      genHandler().registerToBuilder(builder);
+      assertFalse(builder.create().getAdapter(Gen.class) instanceof GeneratedAdapter);
+    } finally {
+      Settings.USE_GENERATED_ADAPTERS = saved;
+    }
+  }
+
+  @Test
+  public void 同一の出力() {
+    String[]json = both(()->new Serializer<>(genHandler()), s->s.serialize(new Gen()));
+    assertEquals(json[0], json[1]);
+    assertTrue(json[0].startsWith("{\"i\":1,\"l\":2,"));
+    assertTrue(json[0].contains("\"renamed\":9"));
+    assertFalse(json[0].contains("skipped"));
+
+    // 値を変えたもの
+    Gen gen = new Gen();
+    gen.str = null;
+    gen.d = Double.NEGATIVE_INFINITY;
+    gen.any = "string";
+    gen.list = null;
+    gen.self = new Gen();
+    gen.value = "value";
+    json = both(()->new Serializer<>(genHandler()), s->s.serialize(gen));
+    assertEquals(json[0], json[1]);
+
+    // 宣言型のみのフィールドを書き込む
+    json = both(()->new Serializer<>(innerHandler()), s->s.serialize(new InnerSub()));
+    assertEquals(json[0], json[1]);
+    assertEquals("{\"name\":\"in\"}", json[0]);
+  }
+
+  @Test
+  public void 復帰() {
+    Serializer<Gen>serializer = new Serializer<>(genHandler());
+    Gen gen = new Gen();
+    gen.value = "value";
+    String json = serializer.serialize(gen);
+    String[]again = both(()->new Serializer<>(genHandler()), s->s.serialize(s.deserialize(json)));
+    assertEquals(again[0], again[1]);
+
+    Gen result = serializer.deserialize("{\"old\":3,\"i\":null,\"str\":true,\"unknown\":[1,{}],\"value\":\"v\"}");
+    assertEquals(3, result.named);
+    assertEquals(1, result.i);
+    assertEquals("true", result.str);
+    assertEquals("v", result.value);
+    assertEquals(10, result.skipped);
+
+    String[]errors = {
+      "{\"i\":\"abc\"}",
+      "{\"l\":1.5}",
+      "{\"i\":[]}",
+    };
+    for (String error: errors) {
+      for (Serializer<Gen>s: Arrays.asList(serializer, reflective(()->new Serializer<>(genHandler())))) {
+        try {
+          s.deserialize(error);
+          fail(error);
+        } catch (JsonException ex) {
+          assertEquals(JsonSyntaxException.class, ex.getCause().getClass());
+        }
+      }
+    }
+  }
+
+  @Test
+  public void マルチハンドラ() {
+    Supplier<Serializer<GenShape>>supplier = ()->new Serializer<>(new MultiHandlerBuilder<>(GenShape.class)
+        .addSubClasses(GenCircle.class, GenSquare.class).setResolveSubclasses(true).build());
+    for (GenShape shape: new GenShape[] { new GenCircle(), new GenSquare(), new GenCircleChild() }) {
+      String[]json = both(supplier, s->s.serialize(shape));
+      assertEquals(json[0], json[1]);
+    }
+    
+    // 宣言型が基底クラスのフィールドでは、マルチハンドラが使われる
+    Supplier<Serializer<ShapeHolder>>holder = ()->new Serializer<>(new HandlerBuilder<>(ShapeHolder.class)
+        .addSubHandler(new MultiHandlerBuilder<>(GenShape.class).addSubClasses(GenCircle.class, GenSquare.class).build())
+        .build());
+    String[]json = both(holder, s->s.serialize(new ShapeHolder()));
+    assertEquals(json[0], json[1]);
+    assertEquals("{\"shape\":{\"T\":\"GenCircle\",\"D\":{\"radius\":2,\"name\":\"shape\"}}}", json[0]);
+    
+    Serializer<GenShape>serializer = supplier.get();
+    assertEquals("{\"T\":\"GenCircle\",\"D\":{\"radius\":2,\"name\":\"shape\"}}",
+        serializer.serialize(new GenCircleChild()));
+    assertEquals(GenSquare.class, serializer.deserialize(serializer.serialize(new GenSquare())).getClass());
+  }
+
+  /** 生成アダプタを使用した場合、使用しない場合の結果を取得する */
+  private static <T>String[]both(Supplier<Serializer<T>>supplier, Function<Serializer<T>, String>function) {
+    return new String[] { function.apply(supplier.get()), function.apply(reflective(supplier)) };
+  }
+
+  /** 生成アダプタを使用しないシリアライザを作成する */
+  private static <T>Serializer<T>reflective(Supplier<Serializer<T>>supplier) {
+    boolean saved = Settings.USE_GENERATED_ADAPTERS;
+    Settings.USE_GENERATED_ADAPTERS = false;
+    try {
+      return supplier.get();
+    } finally {
+      Settings.USE_GENERATED_ADAPTERS = saved;
+    }
+  }
+
+  static Handler<Gen>genHandler() {
+    return new HandlerBuilder<>(Gen.class).addSubHandler(innerHandler()).build();
+  }
+
+  static Handler<Inner>innerHandler() {
+    return new HandlerBuilder<>(Inner.class).build();
+  }
+
+  public static class GenBase<V> {
+    V value;
+    int base = 5;
+  }
+
+  @JsonGenerated
+  public static class Gen extends GenBase<String> {
+    int i = 1;
+    long l = 2;
+    short s = 3;
+    byte b = 4;
+    boolean z = true;
+    String str = "a\"<b>";
+    String nullString;
+    double d = 1.5;
+    float f = 2.25f;
+    char c = 'x';
+    double nan = Double.NaN;
+    Integer boxed = 7;
+    List<String>list = Arrays.asList("x", "y");
+    Map<String, Integer>map = new HashMap<>(Collections.singletonMap("k", 1));
+    Plain plain = new Plain();
+    Plain sub = new PlainSub();
+    Object any = new Plain();
+    Inner inner = new Inner();
+    Inner innerSub = new InnerSub();
+    int[]ints = { 1, 2 };
+    Gen self;
+    @SerializedName(value = "renamed", alternate = { "old" })
+    int named = 9;
+    transient int skipped = 10;
+    static int constant = 11;
+  }
+
+  @JsonGenerated
+  public static class Inner {
+    String name = "in";
+    protected Inner() {
+    }
+  }
+
+  public static class InnerSub extends Inner {
+    int extra = 1;
+  }
+
+  public static class Plain {
+    int p = 1;
+  }
+
+  public static class PlainSub extends Plain {
+    int q = 2;
+  }
+
+  public static abstract class GenShape {
+    String name = "shape";
+  }
+
+  @JsonGenerated
+  public static class GenCircle extends GenShape {
+    int radius = 2;
+  }
+
+  @JsonGenerated
+  public static class GenSquare extends GenShape {
+    int side;
+    GenSquare(int side) {
+      this.side = side;
+    }
+    GenSquare() {
+      this(3);
+    }
+  }
+
+  public static class ShapeHolder {
+    GenShape shape = new GenCircle();
+  }
+
+  public static class GenCircleChild extends GenCircle {
+    int child = 1;
+  }
+}
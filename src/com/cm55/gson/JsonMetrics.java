@@ -0,0 +1,58 @@
+package com.cm55.gson;
+
+/**
+ * {@link Serializer}及び{@link JsonFixer}の計測用SPI
+ * <p>
+ * {@link Serializer#setMetrics(JsonMetrics)}、{@link JsonFixer#setMetrics(JsonMetrics)}で指定すると、
+ * 呼び出しの度に通知される。指定されていない場合（デフォルト）には時刻の取得すら行わない。
+ * 通知は呼び出し元のスレッドで行われるので、実装はスレッドセーフかつ高速でなければならない。
+ * 標準の実装として{@link JsonStatistics}がある。
+ * </p>
+ * @author ysugimura
+ */
+public interface JsonMetrics {
+
+  /** 計測対象の操作 */
+  public static enum Operation {
+    /** {@link Serializer#serialize(Object)}、{@link Serializer#serializeToBytes(Object)} */
+    SERIALIZE,
+    /**
+     * {@link Serializer#deserialize(String)}、{@link Serializer#deserializeFromBytes(byte[])}等。
+     * {@link java.io.Reader}を入力とする場合は、読み込まれた文字数を入力サイズとする
+     */
+    DESERIALIZE,
+    /** {@link Serializer#serializeGzip(Object)} */
+    SERIALIZE_GZIP,
+    /** {@link Serializer#deserializeGzip(byte[])} */
+    DESERIALIZE_GZIP,
+    /** {@link Serializer#serializeBinary(Object)} */
+    SERIALIZE_BINARY,
+    /** {@link Serializer#deserializeBinary(byte[])} */
+    DESERIALIZE_BINARY,
+    /**
+     * {@link JsonFixer#fix(String, JsonFixer.Node)}、{@link JsonFixer#fix(Json.JElement, JsonFixer.FixRoot)}、
+     * {@link FixerSession}の一ドキュメント等
+     */
+    FIX;
+  }
+
+  /**
+   * 一回の呼び出しを通知する。
+   * <p>
+   * 入出力のサイズは、文字列を扱う場合は文字数、バイト配列を扱う場合はバイト数になる。
+   * GZIPの場合には、入力側・出力側のいずれかが圧縮後のバイト数、他方が圧縮前のバイト数になる。
+   * 不明な場合はゼロ。
+   * </p>
+   * @param operation 操作
+   * @param nanos 所要時間（ナノ秒）
+   * @param sizeIn 入力サイズ
+   * @param sizeOut 出力サイズ
+   */
+  public void record(Operation operation, long nanos, long sizeIn, long sizeOut);
+
+  /**
+   * 復帰時に{@link JsonClassNotFoundException}が発生したことを通知する。
+   * @param returnedNull nullIfClassNotFoundによりnullを返した場合はtrue、例外を送出した場合はfalse
+   */
+  public void classNotFound(boolean returnedNull);
+}
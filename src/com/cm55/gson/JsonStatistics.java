@@ -0,0 +1,191 @@
+package com.cm55.gson;
+
+import java.lang.management.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+import javax.management.*;
+
+import com.cm55.gson.JsonMetrics.*;
+
+/**
+ * {@link JsonMetrics}の標準実装
+ * <p>
+ * 呼び出し回数、入出力サイズ、所要時間のヒストグラムを操作ごとに集計する。
+ * すべて{@link LongAdder}によるカウンタであり、ヒストグラムは2のべき乗の固定バケットなので、記録時にアロケーションは発生しない。
+ * {@link #registerMBean(String)}でプラットフォームMBeanサーバに登録すれば、追加のライブラリ無しにJMXで参照できる。
+ * </p>
+ * <pre>
+ * JsonStatistics statistics = new JsonStatistics();
+ * statistics.registerMBean("orders");
+ * Serializer&lt;Foo&gt;serializer = new Serializer&lt;&gt;(Foo.class).setMetrics(statistics);
+ * </pre>
+ * @author ysugimura
+ */
+public class JsonStatistics implements JsonMetrics, JsonStatisticsMXBean {
+
+  /** ヒストグラムのバケット数。バケットiは[2^(i-1), 2^i)ナノ秒、バケット0はゼロナノ秒 */
+  public static final int BUCKETS = 65;
+
+  private static final Operation[]OPERATIONS = Operation.values();
+
+  /** 操作ごとの集計値 */
+  private final Counters[]counters = new Counters[OPERATIONS.length];
+
+  private final LongAdder classNotFoundCount = new LongAdder();
+  private final LongAdder nullResultCount = new LongAdder();
+
+  public JsonStatistics() {
+    for (int i = 0; i < counters.length; i++) {
+      counters[i] = new Counters();
+    }
+  }
+
+  /** 一つの操作の集計値 */
+  private static class Counters {
+    final LongAdder count = new LongAdder();
+    final LongAdder sizeIn = new LongAdder();
+    final LongAdder sizeOut = new LongAdder();
+    final LongAdder[]latency = new LongAdder[BUCKETS];
+    Counters() {
+      for (int i = 0; i < latency.length; i++) {
+        latency[i] = new LongAdder();
+      }
+    }
+    void reset() {
+      count.reset();
+      sizeIn.reset();
+      sizeOut.reset();
+      for (LongAdder bucket: latency) bucket.reset();
+    }
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // JsonMetrics
+  /////////////////////////////////////////////////////////////////////////////
+
+  @Override
+  public void record(Operation operation, long nanos, long sizeIn, long sizeOut) {
+    Counters c = counters[operation.ordinal()];
+    c.count.increment();
+    c.sizeIn.add(sizeIn);
+    c.sizeOut.add(sizeOut);
+    c.latency[64 - Long.numberOfLeadingZeros(Math.max(0, nanos))].increment();
+  }
+
+  @Override
+  public void classNotFound(boolean returnedNull) {
+    classNotFoundCount.increment();
+    if (returnedNull) nullResultCount.increment();
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // 取得
+  /////////////////////////////////////////////////////////////////////////////
+
+  /** 呼び出し回数を取得する */
+  public long getCount(Operation operation) {
+    return counters[operation.ordinal()].count.sum();
+  }
+
+  /** 入力サイズの合計を取得する */
+  public long getSizeIn(Operation operation) {
+    return counters[operation.ordinal()].sizeIn.sum();
+  }
+
+  /** 出力サイズの合計を取得する */
+  public long getSizeOut(Operation operation) {
+    return counters[operation.ordinal()].sizeOut.sum();
+  }
+
+  /**
+   * 所要時間のヒストグラムを取得する。
+   * 要素数は{@link #BUCKETS}であり、インデックスiの値は所要時間が2^(i-1)ナノ秒以上2^iナノ秒未満の呼び出し回数。
+   * @param operation 操作
+   * @return ヒストグラム
+   */
+  public long[] getLatencyHistogram(Operation operation) {
+    LongAdder[]latency = counters[operation.ordinal()].latency;
+    long[]result = new long[latency.length];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = latency[i].sum();
+    }
+    return result;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // JsonStatisticsMXBean
+  /////////////////////////////////////////////////////////////////////////////
+
+  @Override
+  public Map<String, Long> getCounts() {
+    Map<String, Long>map = new LinkedHashMap<>();
+    for (Operation operation: OPERATIONS) map.put(operation.name(), getCount(operation));
+    return map;
+  }
+
+  @Override
+  public Map<String, Long> getSizesIn() {
+    Map<String, Long>map = new LinkedHashMap<>();
+    for (Operation operation: OPERATIONS) map.put(operation.name(), getSizeIn(operation));
+    return map;
+  }
+
+  @Override
+  public Map<String, Long> getSizesOut() {
+    Map<String, Long>map = new LinkedHashMap<>();
+    for (Operation operation: OPERATIONS) map.put(operation.name(), getSizeOut(operation));
+    return map;
+  }
+
+  @Override
+  public Map<String, long[]> getLatencyHistograms() {
+    Map<String, long[]>map = new LinkedHashMap<>();
+    for (Operation operation: OPERATIONS) map.put(operation.name(), getLatencyHistogram(operation));
+    return map;
+  }
+
+  @Override
+  public double getGzipCompressionRatio() {
+    long uncompressed = getSizeIn(Operation.SERIALIZE_GZIP);
+    if (uncompressed == 0) return Double.NaN;
+    return (double)getSizeOut(Operation.SERIALIZE_GZIP) / uncompressed;
+  }
+
+  @Override
+  public long getClassNotFoundCount() {
+    return classNotFoundCount.sum();
+  }
+
+  @Override
+  public long getNullResultCount() {
+    return nullResultCount.sum();
+  }
+
+  @Override
+  public void reset() {
+    for (Counters c: counters) c.reset();
+    classNotFoundCount.reset();
+    nullResultCount.reset();
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // JMX
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * プラットフォームMBeanサーバに登録する。
+   * オブジェクト名は「com.cm55.gson:type=JsonStatistics,name=名称」となる。
+   * @param name 名称
+   * @return 登録されたオブジェクト名
+   */
+  public ObjectName registerMBean(String name) {
+    try {
+      ObjectName objectName = new ObjectName("com.cm55.gson:type=JsonStatistics,name=" + ObjectName.quote(name));
+      ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+      return objectName;
+    } catch (JMException ex) {
+      throw new JsonException(ex);
+    }
+  }
+}
@@ -0,0 +1,35 @@
+package com.cm55.gson;
+
+import java.util.*;
+
+/**
+ * {@link JsonStatistics}をJMXで公開するためのインターフェース。
+ * マップのキーは{@link JsonMetrics.Operation}の名称。
+ * @author ysugimura
+ */
+public interface JsonStatisticsMXBean {
+
+  /** 操作ごとの呼び出し回数 */
+  public Map<String, Long> getCounts();
+
+  /** 操作ごとの入力サイズの合計 */
+  public Map<String, Long> getSizesIn();
+
+  /** 操作ごとの出力サイズの合計 */
+  public Map<String, Long> getSizesOut();
+
+  /** 操作ごとの所要時間のヒストグラム。バケットの意味は{@link JsonStatistics#getLatencyHistogram(JsonMetrics.Operation)}を参照 */
+  public Map<String, long[]> getLatencyHistograms();
+
+  /** {@link Serializer#serializeGzip(Object)}の圧縮率（圧縮後／圧縮前）。呼び出しが無い場合はNaN */
+  public double getGzipCompressionRatio();
+
+  /** {@link JsonClassNotFoundException}の発生回数 */
+  public long getClassNotFoundCount();
+
+  /** {@link JsonClassNotFoundException}によりnullを返した回数 */
+  public long getNullResultCount();
+
+  /** すべての計測値をクリアする */
+  public void reset();
+}
@@ -0,0 +1,108 @@
+package com.cm55.gson;
+
+import static org.junit.Assert.*;
+
+import java.lang.management.*;
+
+import javax.management.*;
+
+import org.junit.*;
+
+import com.cm55.gson.JsonFixer.*;
+import com.cm55.gson.JsonMetrics.*;
+import com.cm55.gson.MultiHandlerTest.*;
+
+public class JsonStatisticsTest {
+
+  JsonStatistics statistics;
+  
+  @Before
+  public void before() {
+    statistics = new JsonStatistics();
+  }
+  
+  @After
+  public void after() {
+    JsonFixer.setMetrics(null);
+  }
+  
+  @Test
+  public void シリアライザ() {
+    Serializer<Foo>serializer = new Serializer<Foo>(FooHandler.INSTANCE).setMetrics(statistics);
+    String json = serializer.serialize(new FooTwo());
+    serializer.deserialize(json);
+    serializer.deserializeGzip(serializer.serializeGzip(new FooOne()));
+
+    assertEquals(1, statistics.getCount(Operation.SERIALIZE));
+    assertEquals(json.length(), statistics.getSizeOut(Operation.SERIALIZE));
+    assertEquals(1, statistics.getCount(Operation.DESERIALIZE));
+    assertEquals(json.length(), statistics.getSizeIn(Operation.DESERIALIZE));
+    assertEquals(1, statistics.getCount(Operation.SERIALIZE_GZIP));
+    assertEquals(1, statistics.getCount(Operation.DESERIALIZE_GZIP));
+    assertEquals(
+      statistics.getSizeIn(Operation.SERIALIZE_GZIP), 
+      statistics.getSizeOut(Operation.DESERIALIZE_GZIP)
+    );
+    assertTrue(statistics.getGzipCompressionRatio() > 0);
+    
+    long total = 0;
+    for (long count: statistics.getLatencyHistogram(Operation.SERIALIZE)) total += count;
+    assertEquals(1, total);
+  }
+  
+  @Test
+  public void クラスが見つからない() {
+    String json = "{\"T\":\"FooFour\",\"D\":{\"two\":2}}";
+    Serializer<Foo>serializer = new Serializer<Foo>(FooHandler.INSTANCE).setMetrics(statistics);
+    assertNull(serializer.deserialize(json));
+    serializer.setNullIfClassNotFound(false);
+    try {
+      serializer.deserialize(json);
+      fail();
+    } catch (JsonClassNotFoundException ex) {      
+    }
+    assertEquals(2, statistics.getClassNotFoundCount());
+    assertEquals(1, statistics.getNullResultCount());
+  }
+  
+  @Test
+  public void フィクサ() {
+    JsonFixer.setMetrics(statistics);
+    String input = "{\"option\":[]}";
+    String fixed = JsonFixer.fix(input, new FixRoot(new DropEmptyArray("option")));
+    assertEquals(1, statistics.getCount(Operation.FIX));
+    assertEquals(input.length(), statistics.getSizeIn(Operation.FIX));
+    assertEquals(fixed.length(), statistics.getSizeOut(Operation.FIX));
+
+    // 解析済の要素の修正
+    JsonFixer.fix(Json.<Json.JObject>tape(input), new FixRoot(new DropEmptyArray("option")));
+    assertEquals(2, statistics.getCount(Operation.FIX));
+    assertEquals(input.length() * 2, statistics.getSizeIn(Operation.FIX));
+    assertEquals(fixed.length() * 2, statistics.getSizeOut(Operation.FIX));
+  }
+
+  @Test
+  public void 修正しながら復帰() {
+    Serializer<Foo>serializer = new Serializer<Foo>(FooHandler.INSTANCE).setMetrics(statistics);
+    String json = serializer.serialize(new FooTwo());
+    serializer.deserialize(new java.io.StringReader(json), new FixRoot());
+    serializer.projection("D").deserialize(new java.io.StringReader(json));
+    assertEquals(2, statistics.getCount(Operation.DESERIALIZE));
+    assertEquals(json.length() * 2, statistics.getSizeIn(Operation.DESERIALIZE));
+  }
+  
+  @Test
+  public void JMX() throws Exception {
+    ObjectName name = statistics.registerMBean("test");
+    try {
+      new Serializer<Foo>(FooHandler.INSTANCE).setMetrics(statistics).serialize(new FooOne());
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      assertEquals(0L, server.getAttribute(name, "ClassNotFoundCount"));
+      assertNotNull(server.getAttribute(name, "Counts"));
+      server.invoke(name, "reset", new Object[0], new String[0]);
+      assertEquals(0, statistics.getCount(Operation.SERIALIZE));
+    } finally {
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+    }
+  }
+}
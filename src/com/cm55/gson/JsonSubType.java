@@ -0,0 +1,36 @@
+package com.cm55.gson;
+
+import java.lang.annotation.*;
+
+/**
+ * {@link MultiHandler}に登録するサブクラスであることを示すアノテーション
+ * <p>
+ * コンパイル時にアノテーションプロセッサ（{@link com.cm55.gson.processor.JsonSubTypeProcessor}）が
+ * 基底クラスごとに登録用のクラス（{@link JsonSubTypeRegistry}）を生成する。
+ * 実行時には{@link MultiHandlerBuilder#addAnnotatedSubClasses()}でそれを読み込むだけなので、
+ * クラスパスのスキャンやリフレクションによる探索は行われない。
+ * </p>
+ * <pre>
+ * &#64;JsonSubType("a")
+ * public class SampleA extends Sample { ... }
+ * &#64;JsonSubType(value="b", base=Sample.class)
+ * public class SampleB extends SampleBase { ... }
+ * ...
+ * new MultiHandlerBuilder&lt;&gt;(Sample.class).addAnnotatedSubClasses().build();
+ * </pre>
+ * @author ysugimura
+ */
+@Documented
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface JsonSubType {
+
+  /** 登録名称。省略した場合は{@link Class#getSimpleName()} */
+  String value() default "";
+
+  /** 
+   * 登録先の{@link MultiHandler}の対象クラス。省略した場合は直接のスーパークラス。
+   * インターフェースに対して登録する場合には指定しなければならない。
+   */
+  Class<?> base() default Object.class;
+}
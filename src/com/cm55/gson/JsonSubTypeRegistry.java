@@ -0,0 +1,22 @@
+package com.cm55.gson;
+
+/**
+ * {@link JsonSubType}から生成される登録用クラスのインターフェース
+ * <p>
+ * 生成されるクラスの名称は、基底クラスのバイナリ名に{@link #SUFFIX}を付加したものになる。
+ * 例えば、com.foo.Outer$Sampleの場合にはcom.foo.Outer$Sample_JsonSubTypesとなる。
+ * </p>
+ * @author ysugimura
+ * @param <T> 基底クラス
+ */
+public interface JsonSubTypeRegistry<T> {
+
+  /** 生成されるクラスの名称の接尾辞 */
+  public static final String SUFFIX = "_JsonSubTypes";
+
+  /**
+   * {@link JsonSubType}の付けられたすべてのサブクラスをビルダに登録する
+   * @param builder ビルダ
+   */
+  public void register(MultiHandlerBuilder<T> builder);
+}
@@ -0,0 +1,64 @@
+package com.cm55.gson;
+
+import static org.junit.Assert.*;
+
+import org.junit.*;
+
+/**
+ * {@link JsonSubType}による登録のテスト。テストのコンパイル時にアノテーションプロセッサが動作している必要がある。
+ * @author ysugimura
+ */
+public class JsonSubTypeTest {
+
+  @Test
+  public void 登録() {
+    MultiHandler<Shape>handler = new MultiHandlerBuilder<>(Shape.class).addAnnotatedSubClasses().build();
+    assertEquals(3, handler.subClassCount());
+    
+    Serializer<Shape>serializer = new Serializer<>(handler);
+    assertEquals("{\"T\":\"circle\",\"D\":{\"r\":1}}", serializer.serialize(new Circle()));
+    assertEquals("{\"T\":\"Square\",\"D\":{\"a\":2}}", serializer.serialize(new Square()));
+    assertEquals("{\"T\":\"rounded\",\"D\":{\"c\":3,\"a\":2}}", serializer.serialize(new RoundedSquare()));
+    assertEquals(RoundedSquare.class, serializer.deserialize(serializer.serialize(new RoundedSquare())).getClass());
+  }
+  
+  @Test
+  public void インターフェース() {
+    MultiHandler<Named>handler = new MultiHandlerBuilder<>(Named.class).addAnnotatedSubClasses().build();
+    assertEquals(1, handler.subClassCount());
+  }
+  
+  @Test
+  public void 生成クラスが無い() {
+    try {
+      new MultiHandlerBuilder<>(Object.class).addAnnotatedSubClasses();
+      fail();
+    } catch (JsonException ex) {      
+    }
+  }
+  
+  public static abstract class Shape {
+  }
+  
+  @JsonSubType("circle")
+  public static class Circle extends Shape {
+    int r = 1;
+  }
+  
+  @JsonSubType
+  public static class Square extends Shape {
+    int a = 2;
+  }
+  
+  @JsonSubType(value = "rounded", base = Shape.class)
+  public static class RoundedSquare extends Square {
+    int c = 3;
+  }
+  
+  public interface Named {
+  }
+
+  @JsonSubType(base = Named.class)
+  public static class Person implements Named {
+  }
+}
@@ -0,0 +1,554 @@
+package com.cm55.gson;
+
+import java.io.*;
+import java.util.*;
+
+import com.cm55.gson.Json.*;
+import com.google.gson.*;
+import com.google.gson.internal.bind.*;
+import com.google.gson.stream.*;
+
+/**
+ * JSON文字列を平坦な配列（テープ）として解析した結果
+ * <p>
+ * {@link Json#tape(String)}で作成する。{@link Json#get(String)}のように値ごとにオブジェクトを作成せず、
+ * 各値について、種類、元の文字列中の位置等の三つのintのみをテープに記録する。
+ * 値を表す{@link JElement}は、{@link JObject#get(String)}や{@link JArray#iterator()}によって
+ * 辿られた時に初めて作成される小さなオブジェクトであり、文字列は{@link JElement#asString()}で初めて作成される。
+ * </p>
+ * <p>
+ * テープ上の値の配置は以下の通り。オブジェクトのメンバは、キー（文字列）と値の順に並ぶ。
+ * </p>
+ * <ul>
+ * <li>オブジェクト、配列: 種類と要素数、開き括弧の位置、次の値のテープ上の位置。要素はこの直後に並び、
+ * その後に終わりを表す種類、閉じ括弧の直後の位置、0が続く
+ * <li>文字列: 種類、ダブルクォートの直後の位置、閉じるダブルクォートの位置
+ * <li>数値、true、false、null: 種類、開始位置、終了位置
+ * </ul>
+ * <p>
+ * {@link JElement#getJson()}、{@link JElement#writeJson(Appendable)}は、元の文字列の該当部分をそのまま返す（空白、エスケープも元のまま）。
+ * 入力は厳密なJSONでなければならない（{@link Json#get(String)}の受け付けるコメント、クォートされない文字列等は受け付けない）。
+ * オブジェクトのメンバの検索はメンバを順に比較する。同じ名前のメンバがある場合は最後のものとなる。
+ * </p>
+ * @author ysugimura
+ */
+final class JsonTape {
+
+  static final int OBJECT = 0;
+  static final int ARRAY = 1;
+  static final int STRING = 2;
+  /** エスケープを含む文字列 */
+  static final int ESCAPED = 3;
+  static final int NUMBER = 4;
+  static final int TRUE = 5;
+  static final int FALSE = 6;
+  static final int NULL = 7;
+  /** コンテナの終わり */
+  static final int END = 8;
+
+  /** 種類を取り出すマスク。コンテナの要素数はその上位に格納する */
+  private static final int TYPE_MASK = 0xf;
+  private static final int COUNT_SHIFT = 4;
+
+  /** 一つの値の占めるテープ上の長さ */
+  private static final int SLOT = 3;
+
+  /** 元の文字列 */
+  private final String json;
+
+  /** テープ */
+  private int[] tape;
+
+  /** テープの使用済の長さ */
+  private int size;
+
+  private JsonTape(String json) {
+    this.json = json;
+    tape = new int[Math.max(SLOT * 4, json.length() / 2)];
+  }
+
+  /**
+   * 解析する
+   * @param json JSON文字列
+   * @return ルートの値
+   * @throws JsonSyntaxException JSONとして不正な場合
+   */
+  static JElement parse(String json) {
+    JsonTape result = new JsonTape(json);
+    result.parse();
+    if (result.tape.length > result.size + result.size / 4) result.tape = Arrays.copyOf(result.tape, result.size);
+    return result.element(0);
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // 解析
+  /////////////////////////////////////////////////////////////////////////////
+
+  private void parse() {
+    int[] stack = new int[32];
+    int depth = 0;
+    int i = skipWhitespace(0);
+    while (true) {
+      // 値を読み込む
+      switch (charAt(i)) {
+      case '{':
+      case '[': {
+        boolean object = json.charAt(i) == '{';
+        int node = add(object? OBJECT:ARRAY, i, 0);
+        if (depth == stack.length) stack = Arrays.copyOf(stack, depth * 2);
+        stack[depth++] = node;
+        i = skipWhitespace(i + 1);
+        if (charAt(i) == (object? '}':']')) {
+          close(node, ++i);
+          depth--;
+          break;
+        }
+        if (object) i = member(i);
+        continue;
+      }
+      case '"':
+        i = string(i);
+        break;
+      case 't':
+        i = literal(i, "true", TRUE);
+        break;
+      case 'f':
+        i = literal(i, "false", FALSE);
+        break;
+      case 'n':
+        i = literal(i, "null", NULL);
+        break;
+      default:
+        i = number(i);
+        break;
+      }
+
+      // 値の後。閉じられたコンテナは、その親にとっての値の後となる
+      while (true) {
+        i = skipWhitespace(i);
+        if (depth == 0) {
+          if (i != json.length()) throw error("JSON document was not fully consumed", i);
+          return;
+        }
+        int container = stack[depth - 1];
+        boolean object = (tape[container] & TYPE_MASK) == OBJECT;
+        char c = charAt(i);
+        tape[container] += 1 << COUNT_SHIFT;
+        if (c == ',') {
+          i = skipWhitespace(i + 1);
+          if (object) i = member(i);
+          break;
+        }
+        if (c != (object? '}':']')) throw error("Unexpected character", i);
+        close(container, ++i);
+        depth--;
+      }
+    }
+  }
+
+  /** コンテナを閉じる */
+  private void close(int node, int end) {
+    add(END, end, 0);
+    tape[node + 2] = size;
+  }
+
+  /** メンバのキーとコロンを読み込み、値の位置を返す */
+  private int member(int i) {
+    if (charAt(i) != '"') throw error("Expected name", i);
+    i = skipWhitespace(string(i));
+    if (charAt(i) != ':') throw error("Expected ':'", i);
+    return skipWhitespace(i + 1);
+  }
+
+  private int string(int start) {
+    boolean escaped = false;
+    int i = start + 1;
+    while (true) {
+      char c = charAt(i);
+      if (c == '"') break;
+      if (c < 0x20) throw error("Unescaped control character", i);
+      if (c == '\\') {
+        escaped = true;
+        char e = charAt(++i);
+        if (e == 'u') {
+          for (int k = 1; k <= 4; k++) {
+            if (Character.digit(charAt(i + k), 16) < 0) throw error("Invalid escape sequence", i);
+          }
+          i += 4;
+        } else if ("\"\\/bfnrt".indexOf(e) < 0) {
+          throw error("Invalid escape sequence", i);
+        }
+      }
+      i++;
+    }
+    add(escaped? ESCAPED:STRING, start + 1, i);
+    return i + 1;
+  }
+
+  private int literal(int i, String literal, int type) {
+    if (!json.startsWith(literal, i)) throw error("Unexpected character", i);
+    add(type, i, i + literal.length());
+    return i + literal.length();
+  }
+
+  private int number(int start) {
+    int i = start;
+    if (peek(i) == '-') i++;
+    if (peek(i) == '0') {
+      i++;
+    } else {
+      int digits = digits(i);
+      if (digits == i) throw error("Unexpected character", start);
+      i = digits;
+    }
+    if (peek(i) == '.') {
+      int digits = digits(i + 1);
+      if (digits == i + 1) throw error("Malformed number", start);
+      i = digits;
+    }
+    if (peek(i) == 'e' || peek(i) == 'E') {
+      i++;
+      if (peek(i) == '+' || peek(i) == '-') i++;
+      int digits = digits(i);
+      if (digits == i) throw error("Malformed number", start);
+      i = digits;
+    }
+    add(NUMBER, start, i);
+    return i;
+  }
+
+  private int digits(int i) {
+    while (i < json.length() && json.charAt(i) >= '0' && json.charAt(i) <= '9') i++;
+    return i;
+  }
+
+  private int skipWhitespace(int i) {
+    while (i < json.length()) {
+      char c = json.charAt(i);
+      if (c != ' ' && c != '\t' && c != '\n' && c != '\r') break;
+      i++;
+    }
+    return i;
+  }
+
+  /** 指定位置の文字。入力の終わりの場合は例外 */
+  private char charAt(int i) {
+    if (i >= json.length()) throw error("End of input", i);
+    return json.charAt(i);
+  }
+
+  /** 指定位置の文字。入力の終わりの場合は0 */
+  private char peek(int i) {
+    return i < json.length()? json.charAt(i):0;
+  }
+
+  private int add(int type, int a, int b) {
+    if (size + SLOT > tape.length) tape = Arrays.copyOf(tape, tape.length * 2);
+    int node = size;
+    tape[size++] = type;
+    tape[size++] = a;
+    tape[size++] = b;
+    return node;
+  }
+
+  private static JsonSyntaxException error(String message, int position) {
+    return new JsonSyntaxException(message + " at position " + position);
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // 参照
+  /////////////////////////////////////////////////////////////////////////////
+
+  /** 指定位置の値の種類 */
+  private int type(int node) {
+    return tape[node] & TYPE_MASK;
+  }
+
+  /** 指定位置の次の値の位置 */
+  private int next(int node) {
+    int type = type(node);
+    return type == OBJECT || type == ARRAY? tape[node + 2]:node + SLOT;
+  }
+
+  /** 指定位置のコンテナの終わりの位置 */
+  private int end(int node) {
+    return tape[node + 2] - SLOT;
+  }
+
+  /** 指定位置の値を表す{@link JElement} */
+  private JElement element(int node) {
+    switch (type(node)) {
+    case OBJECT: return new TObject(node);
+    case ARRAY: return new TArray(node);
+    case NULL: return new TNull(node);
+    default: return new TPrimitive(node);
+    }
+  }
+
+  /** 指定位置の文字列の中身が、指定された文字列と等しいか */
+  private boolean stringEquals(int node, String string) {
+    int start = tape[node + 1], end = tape[node + 2];
+    if (type(node) == STRING) return end - start == string.length() && json.regionMatches(start, string, 0, string.length());
+    return text(node).equals(string);
+  }
+
+  /** 指定位置の値の文字列。文字列はエスケープを解除したもの、その他は表記そのもの */
+  private String text(int node) {
+    int start = tape[node + 1], end = tape[node + 2];
+    if (type(node) != ESCAPED) return json.substring(start, end);
+    StringBuilder s = new StringBuilder(end - start);
+    for (int i = start; i < end; i++) {
+      char c = json.charAt(i);
+      if (c != '\\') {
+        s.append(c);
+        continue;
+      }
+      c = json.charAt(++i);
+      switch (c) {
+      case 'b': s.append('\b'); break;
+      case 'f': s.append('\f'); break;
+      case 'n': s.append('\n'); break;
+      case 'r': s.append('\r'); break;
+      case 't': s.append('\t'); break;
+      case 'u':
+        s.append((char)Integer.parseInt(json.substring(i + 1, i + 5), 16));
+        i += 4;
+        break;
+      default: s.append(c); break;
+      }
+    }
+    return s.toString();
+  }
+
+  /**
+   * 指定位置の値を、文字列を作成せずに整数として解析する。
+   * 整数の表記でない場合や範囲外の場合は{@link Long#parseLong(String)}と同じく{@link NumberFormatException}とする。
+   */
+  private long parseLong(int node, long min, long max) {
+    int type = type(node), i = tape[node + 1], end = tape[node + 2];
+    if ((type == STRING || type == NUMBER) && i < end) {
+      boolean negative = json.charAt(i) == '-';
+      if (negative || json.charAt(i) == '+') i++;
+      long limit = negative? min:-max;
+      long value = 0;
+      boolean valid = i < end;
+      for (; valid && i < end; i++) {
+        int digit = json.charAt(i) - '0';
+        if (digit < 0 || digit > 9 || value < limit / 10 || value * 10 < limit + digit) valid = false;
+        else value = value * 10 - digit;
+      }
+      if (valid) return negative? value:-value;
+    }
+    String text = text(node);
+    if (type == ESCAPED) {
+      long value = Long.parseLong(text);
+      if (min <= value && value <= max) return value;
+    }
+    throw new NumberFormatException("For input string: \"" + text + "\"");
+  }
+
+  /** 指定位置の値をdoubleとして解析する。整数表記の数値は文字列を作成しない */
+  private double parseDouble(int node) {
+    int start = tape[node + 1], end = tape[node + 2];
+    if (type(node) == NUMBER && end - start <= 16) {
+      boolean integral = true;
+      for (int i = start; integral && i < end; i++) {
+        char c = json.charAt(i);
+        integral = c != '.' && c != 'e' && c != 'E';
+      }
+      if (integral) {
+        long value = parseLong(node, Long.MIN_VALUE, Long.MAX_VALUE);
+        return value == 0 && json.charAt(start) == '-'? -0.0:value;
+      }
+    }
+    return Double.parseDouble(text(node));
+  }
+
+  /** 指定位置の値をbooleanとして解析する。文字列は{@link Boolean#parseBoolean(String)}と同じ */
+  private boolean parseBoolean(int node) {
+    int start = tape[node + 1], end = tape[node + 2];
+    switch (type(node)) {
+    case TRUE: return true;
+    case STRING: return end - start == 4 && json.regionMatches(true, start, "true", 0, 4);
+    case ESCAPED: return Boolean.parseBoolean(text(node));
+    default: return false;
+    }
+  }
+
+  /** 指定位置の値のJSON表記の開始位置 */
+  private int spanStart(int node) {
+    int type = type(node);
+    return type == STRING || type == ESCAPED? tape[node + 1] - 1:tape[node + 1];
+  }
+
+  /** 指定位置の値のJSON表記の終了位置 */
+  private int spanEnd(int node) {
+    switch (type(node)) {
+    case OBJECT:
+    case ARRAY:
+      return tape[end(node) + 1];
+    case STRING:
+    case ESCAPED:
+      return tape[node + 2] + 1;
+    default:
+      return tape[node + 2];
+    }
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // 値
+  /////////////////////////////////////////////////////////////////////////////
+
+  /** テープ上の値 */
+  abstract class TElement implements JElement {
+    final int node;
+    TElement(int node) {
+      this.node = node;
+    }
+    public JPrimitive asPrimitive() { return (JPrimitive)this; }
+    public JArray asArray() { return (JArray)this; }
+    public JObject asObject() { return (JObject)this; }
+    public String asString() {
+      if (getType() == JType.NULL) return null;
+      String s = asPrimitive().asString();
+      if (s.length() == 0) return null;
+      return s;
+    }
+    public Integer asInteger() {
+      String s = asString();
+      if (s == null) return null;
+      return Integer.parseInt(s);
+    }
+    public String getJson() {
+      return json.substring(spanStart(node), spanEnd(node));
+    }
+    public void writeJson(Appendable out) throws IOException {
+      out.append(json, spanStart(node), spanEnd(node));
+    }
+    public void writeJson(JsonWriter out) throws IOException {
+      // ツリーへの書き込みは文字列を受け付けない
+      if (out instanceof JsonTreeWriter) TypeAdapters.JSON_ELEMENT.write(out, toJsonElement());
+      else out.jsonValue(getJson());
+    }
+
+    /** {@link JsonElement}に変換する */
+    JsonElement toJsonElement() {
+      return new JsonParser().parse(getJson());
+    }
+  }
+
+  class TObject extends TElement implements JObject {
+    TObject(int node) {
+      super(node);
+    }
+    public JType getType() {
+      return JType.OBJECT;
+    }
+    @SuppressWarnings("unchecked")
+    @Override
+    public <T extends JElement> T get(String fieldName) {
+      int found = -1;
+      int end = end(node);
+      for (int key = node + SLOT; key < end; key = next(key + SLOT)) {
+        if (stringEquals(key, fieldName)) found = key + SLOT;
+      }
+      return found < 0? null:(T)element(found);
+    }
+    @Override
+    public Set<Map.Entry<String, JElement>> entrySet() {
+      Map<String, JElement> map = new LinkedHashMap<>();
+      int end = end(node);
+      for (int key = node + SLOT; key < end; key = next(key + SLOT)) {
+        map.put(text(key), element(key + SLOT));
+      }
+      return map.entrySet();
+    }
+  }
+
+  class TArray extends TElement implements JArray {
+    TArray(int node) {
+      super(node);
+    }
+    public JType getType() {
+      return JType.ARRAY;
+    }
+    @Override
+    public int size() {
+      return tape[node] >>> COUNT_SHIFT;
+    }
+    @Override
+    public Iterator<JElement> iterator() {
+      return new Iterator<JElement>() {
+        int current = node + SLOT;
+        final int end = end(node);
+        public boolean hasNext() {
+          return current < end;
+        }
+        public JElement next() {
+          if (current >= end) throw new NoSuchElementException();
+          JElement element = element(current);
+          current = JsonTape.this.next(current);
+          return element;
+        }
+      };
+    }
+  }
+
+  class TPrimitive extends TElement implements JPrimitive {
+    TPrimitive(int node) {
+      super(node);
+    }
+    public JType getType() {
+      return JType.PRIMITIVE;
+    }
+    /**
+     * JSON用のダブルクォートされた文字列ではなく、中身の文字列を取得する
+     */
+    @Override
+    public String asString() {
+      return text(node);
+    }
+    @Override
+    public boolean isEmpty() {
+      return tape[node + 1] == tape[node + 2];
+    }
+    @Override
+    public Integer asInteger() {
+      return Integer.parseInt(asString());
+    }
+    @Override
+    public int asInt(int defaultValue) {
+      return isEmpty()? defaultValue:(int)parseLong(node, Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
+    @Override
+    public long asLong(long defaultValue) {
+      return isEmpty()? defaultValue:parseLong(node, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+    @Override
+    public double asDouble(double defaultValue) {
+      return isEmpty()? defaultValue:parseDouble(node);
+    }
+    @Override
+    public boolean asBoolean(boolean defaultValue) {
+      return isEmpty()? defaultValue:parseBoolean(node);
+    }
+    @Override
+    public boolean isNumber() {
+      return type(node) == NUMBER;
+    }
+    @Override
+    public boolean isString() {
+      int type = type(node);
+      return type == STRING || type == ESCAPED;
+    }
+  }
+
+  class TNull extends TElement implements JNull {
+    TNull(int node) {
+      super(node);
+    }
+    public JType getType() {
+      return JType.NULL;
+    }
+  }
+}
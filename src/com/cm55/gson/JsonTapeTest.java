@@ -0,0 +1,149 @@
+package com.cm55.gson;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.junit.*;
+
+import com.cm55.gson.Json.*;
+import com.google.gson.*;
+
+/**
+ * {@link Json#tape(String)}のテスト
+ * @author ysugimura
+ */
+public class JsonTapeTest {
+
+  static final String JSON = "{ \"header\" : {\"id\":\"12345\",\"ts\":\"\",\"n\":null},\n"
+      + "\"records\":[{\"no\":1,\"name\":\"a\\\"b\\u3042\\n\",\"flag\":true},{\"no\":-2.5e3,\"flag\":false},[],{}],"
+      + "\"dup\":1,\"dup\":2, \"es\\u0063aped\":\"x\"}";
+
+  @Test
+  public void 同じ結果() {
+    assertSame(Json.get(JSON), Json.tape(JSON));
+  }
+
+  @Test
+  public void 値の取得() {
+    JObject object = Json.tape(JSON);
+    JObject header = object.get("header");
+    assertEquals("12345", header.get("id").asString());
+    assertEquals(Integer.valueOf(12345), header.get("id").asInteger());
+    assertEquals("", header.get("ts").asString());
+    assertTrue(header.get("ts").asPrimitive().isEmpty());
+    assertNull(header.get("n").asString());
+    assertEquals(JType.NULL, header.get("n").getType());
+    assertNull(header.get("none"));
+
+    JArray records = object.get("records");
+    assertEquals(4, records.size());
+    Iterator<JElement>iterator = records.iterator();
+    assertEquals("a\"bあ\n", iterator.next().asObject().get("name").asString());
+    assertEquals("-2.5e3", iterator.next().asObject().get("no").asString());
+    assertEquals(0, iterator.next().asArray().size());
+    assertTrue(iterator.next().asObject().entrySet().isEmpty());
+    assertFalse(iterator.hasNext());
+
+    assertEquals("2", object.get("dup").asString());
+    assertEquals("x", object.get("escaped").asString());
+    assertEquals("{\"no\":-2.5e3,\"flag\":false}", iterator(records, 1).getJson());
+  }
+
+  @Test
+  public void 元の表記() throws Exception {
+    JObject object = Json.tape(JSON);
+    assertEquals(JSON, object.getJson());
+    StringBuilder s = new StringBuilder();
+    object.get("records").writeJson(s);
+    s.append('|');
+    object.asObject().get("escaped").writeJson(s);
+    assertEquals("[{\"no\":1,\"name\":\"a\\\"b\\u3042\\n\",\"flag\":true},{\"no\":-2.5e3,\"flag\":false},[],{}]|\"x\"",
+        s.toString());
+
+    // JsonWriterへの書き込み
+    java.io.StringWriter writer = new java.io.StringWriter();
+    com.google.gson.stream.JsonWriter out = new com.google.gson.stream.JsonWriter(writer);
+    out.beginArray();
+    object.get("header").writeJson(out);
+    out.endArray();
+    assertEquals("[{\"id\":\"12345\",\"ts\":\"\",\"n\":null}]", writer.toString());
+  }
+
+  @Test
+  public void 修正() {
+    // 修正の必要の無い部分は元の表記のまま書き込まれる
+    JsonFixer.FixRoot root = new JsonFixer.FixRoot();
+    assertEquals(JSON, JsonFixer.fix(Json.<JObject>tape(JSON), root));
+
+    JsonParser parser = new JsonParser();
+    root = new JsonFixer.FixRoot(
+      new JsonFixer.ForceArray("header"),
+      new JsonFixer.FixNone("records", new JsonFixer.ChangeFieldName("no", "number"), new JsonFixer.DropEmptyArray("x")),
+      new JsonFixer.DropPrimitive("dup")
+    );
+    String fixed = JsonFixer.fix(Json.<JObject>tape(JSON), root);
+    assertEquals(parser.parse(JsonFixer.fix(JSON, root)), parser.parse(fixed));
+    assertEquals(parser.parse(JsonFixer.fix(Json.<JObject>get(JSON), root)), parser.parse(fixed));
+    assertEquals("{\"header\":[{\"id\":\"12345\",\"ts\":\"\",\"n\":null}],"
+        + "\"records\":[{\"number\":1,\"name\":\"a\\\"b\\u3042\\n\",\"flag\":true},{\"number\":-2.5e3,\"flag\":false},[],{}],"
+        + "\"escaped\":\"x\"}", fixed);
+  }
+
+  @Test
+  public void エラー() {
+    for (String error: new String[] {
+      "", "[]", "\"s\"", "{", "{\"a\"}", "{\"a\":}", "{\"a\":1,}", "{\"a\":[1,]}", "{\"a\":01}", "{\"a\":1.}",
+      "{\"a\":tru}", "{\"a\":\"\\x\"}", "{\"a\":\"\n\"}", "{} {}", "{'a':1}", "{\"a\":1}]"
+    }) {
+      try {
+        Json.tape(error);
+        fail(error);
+      } catch (JsonSyntaxException ex) {
+      }
+    }
+  }
+
+  @Test
+  public void 深いネスト() {
+    StringBuilder s = new StringBuilder("{\"a\":");
+    for (int i = 0; i < 10000; i++) s.append('[');
+    for (int i = 0; i < 10000; i++) s.append(']');
+    JObject object = Json.tape(s.append('}').toString());
+    assertEquals(1, object.get("a").asArray().size());
+  }
+
+  private static JElement iterator(JArray array, int index) {
+    Iterator<JElement>iterator = array.iterator();
+    for (int i = 0; i < index; i++) iterator.next();
+    return iterator.next();
+  }
+
+  /** 二つの要素が同じ内容を持つ */
+  private static void assertSame(JElement expected, JElement actual) {
+    assertEquals(expected.getType(), actual.getType());
+    assertEquals(new JsonParser().parse(expected.getJson()), new JsonParser().parse(actual.getJson()));
+    switch (expected.getType()) {
+    case OBJECT:
+      Map<String, JElement>map = new HashMap<>();
+      for (Map.Entry<String, JElement>e: actual.asObject().entrySet()) map.put(e.getKey(), e.getValue());
+      assertEquals(expected.asObject().entrySet().size(), map.size());
+      for (Map.Entry<String, JElement>e: expected.asObject().entrySet()) {
+        assertSame(e.getValue(), map.get(e.getKey()));
+        assertSame(e.getValue(), actual.asObject().get(e.getKey()));
+      }
+      break;
+    case ARRAY:
+      assertEquals(expected.asArray().size(), actual.asArray().size());
+      Iterator<JElement>iterator = actual.asArray().iterator();
+      for (JElement e: expected.asArray()) assertSame(e, iterator.next());
+      break;
+    case PRIMITIVE:
+      assertEquals(expected.asPrimitive().asString(), actual.asPrimitive().asString());
+      assertEquals(expected.asString(), actual.asString());
+      break;
+    default:
+      break;
+    }
+  }
+}
@@ -0,0 +1,150 @@
+package com.cm55.gson;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import java.util.stream.*;
+
+import org.junit.*;
+
+import com.cm55.gson.Json.*;
+import com.google.gson.*;
+import com.google.gson.stream.*;
+
+/**
+ * {@link Json}のテスト
+ * @author ysugimura
+ */
+public class JsonTest {
+
+  static final String JSON = "{\"header\":{\"id\":\"12345\",\"n\":null},\"records\":[{\"no\":1,\"name\":\"a\\u003cb\"},2.50]}";
+
+  @Test
+  public void getJsonの保持() {
+    JObject object = Json.get(JSON);
+    JObject header = object.get("header");
+    String json = header.getJson();
+    assertEquals("{\"id\":\"12345\",\"n\":null}", json);
+    assertSame(json, header.getJson());
+
+    // wrapしたものは元のツリーの変更を反映する
+    JsonObject tree = new JsonParser().parse("{\"a\":1}").getAsJsonObject();
+    JObject wrapped = Json.wrap(tree);
+    assertEquals("{\"a\":1}", wrapped.getJson());
+    tree.addProperty("b", 2);
+    assertEquals("{\"a\":1,\"b\":2}", wrapped.getJson());
+  }
+
+  @Test
+  public void 書き込み() throws Exception {
+    JObject object = Json.get(JSON);
+    for (JElement element: new JElement[] { object, object.get("records"), object.get("header").asObject().get("n") }) {
+      StringBuilder s = new StringBuilder();
+      element.writeJson(s);
+      assertEquals(element.getJson(), s.toString());
+    }
+
+    StringWriter writer = new StringWriter();
+    JsonWriter out = new JsonWriter(writer);
+    out.beginObject().name("r");
+    object.get("records").writeJson(out);
+    out.endObject();
+    assertEquals("{\"r\":[{\"no\":1,\"name\":\"a<b\"},2.50]}", writer.toString());
+  }
+
+  @Test
+  public void プリミティブの取得() {
+    String json = "{\"i\":-2147483648,\"l\":9223372036854775807,\"d\":-2.5e3,\"z\":-0,\"s\":\"42\",\"x\":\"\\u0034\",\"e\":\"\","
+        + "\"n\":null,\"t\":true,\"ts\":\"TRUE\",\"f\":1.5,\"o\":2147483648}";
+    for (JObject object: new JObject[] { Json.get(json), Json.tape(json) }) {
+      assertEquals(Integer.MIN_VALUE, object.get("i").asInt(0));
+      assertEquals(Long.MAX_VALUE, object.get("l").asLong(0));
+      assertEquals(-2500.0, object.get("d").asDouble(0), 0);
+      assertEquals(Double.doubleToLongBits(-0.0), Double.doubleToLongBits(object.get("z").asDouble(0)));
+      assertEquals(42, object.get("s").asInt(0));
+      assertEquals(4L, object.get("x").asLong(0));
+      assertEquals(42.0, object.get("s").asDouble(0), 0);
+      assertTrue(object.get("t").asBoolean(false));
+      assertTrue(object.get("ts").asBoolean(false));
+      assertFalse(object.get("s").asBoolean(true));
+
+      // 空文字列とnullはデフォルト値
+      assertEquals(7, object.get("e").asInt(7));
+      assertEquals(7, object.get("n").asLong(7));
+      assertEquals(7.0, object.get("n").asDouble(7), 0);
+      assertTrue(object.get("e").asBoolean(true));
+
+      assertTrue(object.get("d").asPrimitive().isNumber());
+      assertFalse(object.get("d").asPrimitive().isString());
+      assertTrue(object.get("x").asPrimitive().isString());
+      assertFalse(object.get("t").asPrimitive().isNumber());
+
+      // 整数でないもの、範囲外のもの
+      for (String name: new String[] { "f", "o", "t", "d" }) {
+        try {
+          object.get(name).asInt(0);
+          fail(name);
+        } catch (NumberFormatException ex) {
+        }
+      }
+    }
+  }
+
+  @Test
+  public void ストリーム() {
+    String json = "[{\"a\":1}, 2, \"x\", null, [true]]";
+    List<String>list = Json.stream(new StringReader(json)).map(JElement::getJson).collect(Collectors.toList());
+    assertEquals(Arrays.asList("{\"a\":1}", "2", "\"x\"", "null", "[true]"), list);
+    assertEquals(0, Json.stream(new StringReader(" [ ] ")).count());
+
+    // 必要な分だけ読み込む
+    assertEquals(JType.OBJECT, Json.stream(new StringReader("[{}, 1, }")).findFirst().get().getType());
+
+    for (String error: new String[] { "", "{}", "[1", "[1,}", "[1] 2" }) {
+      try {
+        Json.stream(new StringReader(error)).count();
+        fail(error);
+      } catch (JsonSyntaxException ex) {
+      }
+    }
+  }
+
+  @Test
+  public void 並列処理() {
+    StringBuilder s = new StringBuilder("[");
+    for (int i = 1; i <= 1000; i++) s.append(i == 1? "":",").append("{\"n\":").append(i).append('}');
+    String json = s.append(']').toString();
+    AtomicLong sum = new AtomicLong();
+    Json.forEach(new StringReader(json), 4, e -> sum.addAndGet(e.asObject().get("n").asInt(0)));
+    assertEquals(500500, sum.get());
+
+    // 処理中の例外
+    try {
+      Json.forEach(new StringReader(json), 4, e -> {
+        if (e.asObject().get("n").asInt(0) == 10) throw new IllegalStateException("10");
+      });
+      fail();
+    } catch (IllegalStateException ex) {
+      assertEquals("10", ex.getMessage());
+    }
+
+    // 読み込みのエラー。送出された時には処理中の要素は終了している
+    AtomicInteger running = new AtomicInteger();
+    try {
+      Json.forEach(new StringReader(json.substring(0, json.length() - 10) + "x"), 4, e -> {
+        running.incrementAndGet();
+        try {
+          Thread.sleep(1);
+        } catch (InterruptedException ex) {
+          throw new IllegalStateException(ex);
+        }
+        running.decrementAndGet();
+      });
+      fail();
+    } catch (JsonSyntaxException ex) {
+      assertEquals(0, running.get());
+    }
+  }
+}
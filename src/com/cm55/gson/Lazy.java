@@ -0,0 +1,114 @@
+package com.cm55.gson;
+
+import java.io.*;
+
+import com.google.gson.*;
+import com.google.gson.stream.*;
+
+/**
+ * 最初に使用される時に復帰される値
+ * <p>
+ * 大きく、あまり参照されないフィールドの型として用いる。例えば、
+ * </p>
+ * <pre>
+ * public static class Record {
+ *   int id;
+ *   Lazy&lt;Details&gt; details;
+ * }
+ * </pre>
+ * <p>
+ * とすると、{@link Serializer}による復帰時にはdetailsの部分のJSONが文字列として保持されるのみで、Detailsオブジェクトは作成されない。
+ * 最初に{@link #get()}が呼び出された時に、Details用のアダプタ（{@link Handler}の設定によるもの）で復帰される。
+ * {@link #get()}が呼び出されないまま再び直列化された場合には、保持されたJSONがそのまま書き込まれる。
+ * </p>
+ * <p>
+ * 値に含まれる{@link Settings#OBJECT_REFERENCES}による参照は、値の内部でのみ有効である。
+ * このオブジェクトはスレッドセーフである。
+ * </p>
+ * @author ysugimura
+ * @param <V> 値の型
+ */
+public final class Lazy<V> {
+
+  /** 保持されたJSON。復帰後、あるいは値が指定された場合はnull */
+  private String json;
+
+  /** JSONを復帰するアダプタ。復帰後、あるいは値が指定された場合はnull */
+  private TypeAdapter<V> adapter;
+
+  /** 値 */
+  private V value;
+
+  private Lazy(String json, TypeAdapter<V> adapter, V value) {
+    this.json = json;
+    this.adapter = adapter;
+    this.value = value;
+  }
+
+  /**
+   * 指定された値を持つオブジェクトを作成する
+   * @param value 値
+   * @return {@link Lazy}
+   */
+  public static <V> Lazy<V> of(V value) {
+    return new Lazy<>(null, null, value);
+  }
+
+  /**
+   * 保持されたJSONを持つオブジェクトを作成する
+   * @param json JSON
+   * @param adapter 復帰するアダプタ
+   * @return {@link Lazy}
+   */
+  static <V> Lazy<V> ofJson(String json, TypeAdapter<V> adapter) {
+    return new Lazy<>(json, adapter, null);
+  }
+
+  /**
+   * 値を取得する。最初の呼び出し時に、保持されたJSONから復帰する。
+   * @return 値
+   */
+  public synchronized V get() {
+    if (json != null) {
+      value = decode(json, adapter);
+      json = null;
+      adapter = null;
+    }
+    return value;
+  }
+
+  /**
+   * 値が復帰済か、あるいは指定されたものであるか
+   * @return 保持されたJSONが未だ復帰されていない場合はfalse
+   */
+  public synchronized boolean isLoaded() {
+    return json == null;
+  }
+
+  /** 未だ復帰されていなければ保持されたJSONを、そうでなければnullを取得する */
+  synchronized String json() {
+    return json;
+  }
+
+  private static <V> V decode(String json, TypeAdapter<V> adapter) {
+    return ReferenceAdapterFactory.with(true, () -> {
+      try {
+        JsonReader in = new JsonReader(new StringReader(json));
+        in.setLenient(true);
+        return adapter.read(in);
+      } catch (JsonException ex) {
+        throw ex;
+      } catch (IOException | RuntimeException ex) {
+        throw new JsonException(ex);
+      }
+    });
+  }
+
+  @Override
+  public String toString() {
+    synchronized (this) {
+      if (json != null) return "Lazy(" + json + ")";
+    }
+    return "Lazy[" + value + "]";
+  }
+}
@@ -0,0 +1,138 @@
+package com.cm55.gson;
+
+import java.io.*;
+import java.lang.reflect.*;
+
+import com.google.gson.*;
+import com.google.gson.internal.*;
+import com.google.gson.internal.bind.*;
+import com.google.gson.reflect.*;
+import com.google.gson.stream.*;
+
+/**
+ * {@link Lazy}のアダプタを作成するファクトリ
+ * <p>
+ * 復帰時には値の部分のJSONをそのまま文字列に写し取り、値の型のアダプタと共に{@link Lazy}に保持させる。
+ * 入力が{@link RawJsonReader}であれば、オブジェクト・配列は読み飛ばして入力中の文字列をそのまま取得し、解析し直すことはしない。
+ * そうでない場合（バイナリ形式、ツリー、修正しながらの復帰等）には、解析したトークンを書き込んで写し取る。
+ * 書き込み時には、未だ復帰されていなければ保持された文字列をそのまま書き込み、そうでなければ値の型のアダプタで書き込む。
+ * {@link Serializer}が常に登録する。
+ * </p>
+ * @author ysugimura
+ */
+class LazyAdapterFactory implements TypeAdapterFactory {
+
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  @Override
+  public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> typeToken) {
+    if (typeToken.getRawType() != Lazy.class) return null;
+    Type type = typeToken.getType();
+    Type valueType = type instanceof ParameterizedType?
+        $Gson$Types.canonicalize(((ParameterizedType)type).getActualTypeArguments()[0]):Object.class;
+    return new Adapter(gson, valueType, gson.getAdapter(TypeToken.get(valueType)));
+  }
+
+  /**
+   * 読み込んだ値を文字列としてそのまま写し取る。数値の表記は変更されない。
+   * @param in 入力
+   * @param out 出力
+   * @throws IOException
+   */
+  static void copy(JsonReader in, JsonWriter out) throws IOException {
+    switch (in.peek()) {
+    case BEGIN_ARRAY:
+      in.beginArray();
+      out.beginArray();
+      while (in.hasNext()) copy(in, out);
+      in.endArray();
+      out.endArray();
+      break;
+    case BEGIN_OBJECT:
+      in.beginObject();
+      out.beginObject();
+      while (in.hasNext()) {
+        out.name(in.nextName());
+        copy(in, out);
+      }
+      in.endObject();
+      out.endObject();
+      break;
+    case STRING:
+      out.value(in.nextString());
+      break;
+    case NUMBER:
+      out.value(new LazilyParsedNumber(in.nextString()));
+      break;
+    case BOOLEAN:
+      out.value(in.nextBoolean());
+      break;
+    case NULL:
+      in.nextNull();
+      out.nullValue();
+      break;
+    default:
+      throw new JsonSyntaxException("Unexpected token: " + in.peek());
+    }
+  }
+
+  /**
+   * {@link Lazy}のアダプタ
+   * @param <V> 値の型
+   */
+  static class Adapter<V> extends TypeAdapter<Lazy<V>> {
+    private final Gson gson;
+    private final Type valueType;
+    private final TypeAdapter<V> valueAdapter;
+
+    Adapter(Gson gson, Type valueType, TypeAdapter<V> valueAdapter) {
+      this.gson = gson;
+      this.valueType = valueType;
+      this.valueAdapter = valueAdapter;
+    }
+
+    @Override
+    public void write(JsonWriter out, Lazy<V> lazy) throws IOException {
+      if (lazy == null) {
+        out.nullValue();
+        return;
+      }
+      String json = lazy.json();
+      if (json != null) {
+        // 保持されたJSONをそのまま書き込む。ツリーへの書き込みは文字列を受け付けない
+        if (out instanceof JsonTreeWriter) TypeAdapters.JSON_ELEMENT.write(out, new JsonParser().parse(json));
+        else out.jsonValue(json);
+        return;
+      }
+      writeValue(out, lazy.get());
+    }
+
+    /** 値を書き込む。値の内部の参照は値の内部でのみ有効とする */
+    private void writeValue(JsonWriter out, V value) throws IOException {
+      try {
+        ReferenceAdapterFactory.with(true, () -> {
+          try {
+            GeneratedAdapter.writeValue(gson, out, valueAdapter, valueType, value);
+            return null;
+          } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+          }
+        });
+      } catch (UncheckedIOException ex) {
+        throw ex.getCause();
+      }
+    }
+
+    @Override
+    public Lazy<V> read(JsonReader in) throws IOException {
+      if (GeneratedAdapter.skipNull(in)) return null;
+      String raw = in instanceof RawJsonReader? ((RawJsonReader)in).nextRaw():null;
+      if (raw != null) return Lazy.ofJson(raw, valueAdapter);
+      StringWriter writer = new StringWriter();
+      JsonWriter out = new JsonWriter(writer);
+      out.setLenient(true);
+      out.setSerializeNulls(true);
+      copy(in, out);
+      return Lazy.ofJson(writer.toString(), valueAdapter);
+    }
+  }
+}
@@ -0,0 +1,133 @@
+package com.cm55.gson;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.*;
+
+import com.cm55.gson.SerializerTest.*;
+import com.google.gson.reflect.*;
+
+/**
+ * {@link Lazy}のテスト
+ * @author ysugimura
+ */
+public class LazyTest {
+
+  @Test
+  public void 遅延復帰() {
+    Serializer<Record>serializer = new Serializer<>(Record.class);
+    String json = "{\"id\":1,\"details\":{\"values\":[1.50,2e3,-0.0],\"names\":{\"a\":\"x\\u0041\"}}}";
+    Record record = serializer.deserialize(json);
+    assertFalse(record.details.isLoaded());
+
+    // 触れていなければ入力の文字列がそのまま書き込まれる
+    assertEquals(json, serializer.serialize(record));
+    assertFalse(record.details.isLoaded());
+
+    // 最初のget()で復帰される
+    Details details = record.details.get();
+    assertTrue(record.details.isLoaded());
+    assertSame(details, record.details.get());
+    assertEquals(Arrays.asList(1.5, 2000.0, -0.0), details.values);
+    details.names.put("b", "y");
+    assertEquals("{\"id\":1,\"details\":{\"values\":[1.5,2000.0,-0.0],\"names\":{\"a\":\"xA\",\"b\":\"y\"}}}",
+        serializer.serialize(record));
+  }
+
+  @Test
+  public void 入力の写し取り() throws Exception {
+    Serializer<Record>serializer = new Serializer<>(Record.class);
+    String details = "{\"values\":[1.50,\n  2e3],\r\n  \"names\":{\"a\":\"[}\\\"\\n\"}}";
+
+    // 改行を含む入力、BOM付きの入力
+    for (String json: new String[] {
+      "{\n  \"id\" : 1,\n  \"details\" :\n  " + details + "\n}",
+      "\uFEFF{\"details\":" + details + ",\"id\":1}",
+    }) {
+      Record record = serializer.deserialize(json);
+      assertEquals(1, record.id);
+      assertEquals(details, record.details.json());
+      assertEquals(Arrays.asList(1.5, 2000.0), record.details.get().values);
+    }
+
+    // 入力がReaderで、読み込まれた文字を全て保持しない大きさのもの
+    StringBuilder values = new StringBuilder("{\"values\":[");
+    for (int i = 0; i < 5000; i++) values.append(i == 0? "":",\n").append(i);
+    values.append("]}");
+    StringBuilder json = new StringBuilder("[");
+    for (int i = 0; i < 20; i++) json.append(i == 0? "":",").append("{\"id\":" + i + ",\"details\":" + values + "}");
+    json.append("]");
+    Serializer<ArrayList<Record>>listSerializer = new Serializer<>(new TypeToken<ArrayList<Record>>() {});
+    ArrayList<Record>records = listSerializer.deserializeInto(new StringReader(json.toString()), null);
+    assertEquals(20, records.size());
+    for (int i = 0; i < 20; i++) {
+      assertEquals(i, records.get(i).id);
+      assertEquals(values.toString(), records.get(i).details.json());
+    }
+    assertEquals(5000, records.get(19).details.get().values.size());
+  }
+
+  @Test
+  public void 値の指定とnull() {
+    Serializer<Record>serializer = new Serializer<>(Record.class);
+    Record record = new Record();
+    assertEquals("{\"id\":0,\"details\":null}", serializer.serialize(record));
+    assertNull(serializer.deserialize("{\"id\":0,\"details\":null}").details);
+
+    record.details = Lazy.of(new Details());
+    assertTrue(record.details.isLoaded());
+    String json = serializer.serialize(record);
+    assertEquals("{\"id\":0,\"details\":{\"values\":[],\"names\":{}}}", json);
+    assertEquals(json, serializer.serialize(serializer.deserialize(json)));
+  }
+
+  @Test
+  public void マルチハンドラとバイナリ() {
+    Serializer<Holder>serializer = new Serializer<>(new HandlerBuilder<>(Holder.class)
+        .addSubHandler(FooHandler.INSTANCE).build());
+    Holder holder = new Holder();
+    holder.foo = Lazy.of(new FooTwo());
+    holder.foos = Lazy.of(new ArrayList<>(Arrays.asList(new FooOne(), new FooTwo())));
+    String json = serializer.serialize(holder);
+
+    Holder result = serializer.deserialize(json);
+    assertEquals(json, serializer.serialize(result));
+    assertTrue(result.foo.get() instanceof FooTwo);
+    assertTrue(result.foos.get().get(0) instanceof FooOne);
+
+    // バイナリ形式、差分
+    result = serializer.deserializeBinary(serializer.serializeBinary(serializer.deserialize(json)));
+    assertEquals(json, serializer.serialize(result));
+    assertTrue(result.foo.get() instanceof FooTwo);
+    assertEquals("{}", serializer.serializeDelta(holder, serializer.deserialize(json)));
+  }
+
+  @Test
+  public void 復帰エラー() {
+    Serializer<Record>serializer = new Serializer<>(Record.class);
+    Record record = serializer.deserialize("{\"details\":{\"values\":\"x\"}}");
+    try {
+      record.details.get();
+      fail();
+    } catch (JsonException ex) {
+    }
+  }
+
+  public static class Details {
+    List<Double>values = new ArrayList<>();
+    Map<String, String>names = new LinkedHashMap<>();
+  }
+
+  public static class Record {
+    int id;
+    Lazy<Details>details;
+  }
+
+  public static class Holder {
+    Lazy<Foo>foo;
+    Lazy<ArrayList<Foo>>foos;
+  }
+}
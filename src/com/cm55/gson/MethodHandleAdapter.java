@@ -0,0 +1,298 @@
+package com.cm55.gson;
+
+import java.io.*;
+import java.lang.invoke.*;
+import java.lang.reflect.*;
+import java.util.*;
+
+import com.google.gson.*;
+import com.google.gson.annotations.*;
+import com.google.gson.internal.*;
+import com.google.gson.internal.bind.*;
+import com.google.gson.reflect.*;
+import com.google.gson.stream.*;
+
+/**
+ * {@link MethodHandle}でフィールドにアクセスするアダプタ
+ * <p>
+ * コード生成を行わずに、リフレクションによる{@link Field}アクセスを値ごとに行うことを避けるためのもの。
+ * フィールドのゲッタ・セッタはクラスごとに一度だけ作成される。フィールドの選択、順序、名称、nullの扱い等は
+ * {@link GeneratedAdapter}と同じく、Gsonのリフレクションによるアダプタに合わせてある。
+ * int、long、short、byte、boolean、Stringのフィールドは直接読み書きし、その他はGsonのアダプタを使用するので、
+ * {@link Settings#SERIALIZE_NULLS}や{@link Settings#SERIALIZE_SPECIAL_FLOATING_POINT_VALUES}もそのまま反映される。
+ * </p>
+ * <p>
+ * {@link HandlerBuilder#setMethodHandleAccess(Boolean)}あるいは{@link Settings#USE_METHOD_HANDLE_ADAPTERS}で有効にする。
+ * Gsonがリフレクションで扱うクラスのみが対象であり、フィールドに{@link JsonAdapter}が付けられている場合は対象外になる。
+ * </p>
+ * @author ysugimura
+ * @param <T> 対象とするクラスの型
+ */
+class MethodHandleAdapter<T> extends GeneratedAdapter<T> {
+
+  /** 書き込むフィールド。順序はGsonと同じ */
+  private final BoundField[] writeFields;
+
+  /** JSON中の名称／読み込むフィールド。別名を含む */
+  private final Map<String, BoundField> readFields;
+
+  private MethodHandleAdapter(Gson gson, Class<T> type, BoundField[] writeFields, Map<String, BoundField> readFields) {
+    super(gson, type);
+    this.writeFields = writeFields;
+    this.readFields = readFields;
+  }
+
+  @Override
+  protected void writeFields(JsonWriter out, T value) throws IOException {
+    try {
+      for (BoundField field: writeFields) {
+        field.write(this, out, value);
+      }
+    } catch (IOException | RuntimeException | Error ex) {
+      throw ex;
+    } catch (Throwable th) {
+      throw new JsonException(th);
+    }
+  }
+
+  @Override
+  protected boolean readField(JsonReader in, String name, T value) throws IOException {
+    BoundField field = readFields.get(name);
+    if (field == null) return false;
+    try {
+      field.read(in, value);
+    } catch (IOException | RuntimeException | Error ex) {
+      throw ex;
+    } catch (Throwable th) {
+      throw new JsonException(th);
+    }
+    return true;
+  }
+
+  /** 一つのフィールド */
+  private static abstract class BoundField {
+    final String name;
+    final MethodHandle getter;
+    final MethodHandle setter;
+    BoundField(String name, MethodHandle getter, MethodHandle setter) {
+      this.name = name;
+      this.getter = getter;
+      this.setter = setter;
+    }
+    abstract void write(MethodHandleAdapter<?> adapter, JsonWriter out, Object object) throws Throwable;
+    abstract void read(JsonReader in, Object object) throws Throwable;
+  }
+
+  /**
+   * Gsonのアダプタを作成する
+   */
+  static class Factory implements TypeAdapterFactory {
+
+    /** 対象とするクラス */
+    private final Class<?> target;
+
+    Factory(Class<?> target) {
+      this.target = target;
+    }
+
+    /**
+     * 指定されたタイプについてファクトリを取得する。ジェネリクス型、インターフェース、配列、enumは対象外。
+     * @param typeToken 対象タイプ
+     * @return ファクトリ。対象外の場合はnull
+     */
+    static Factory of(TypeToken<?> typeToken) {
+      if (!(typeToken.getType() instanceof Class)) return null;
+      Class<?> clazz = typeToken.getRawType();
+      if (clazz.isInterface() || clazz.isArray() || clazz.isEnum() || clazz.isPrimitive()) return null;
+      return new Factory(clazz);
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    @Override
+    public <C> TypeAdapter<C> create(Gson gson, TypeToken<C> typeToken) {
+      if (typeToken.getType() != target) return null;
+
+      // Gsonがリフレクションで扱うクラスのみ。その他はGsonのアダプタをそのまま使う
+      if (!(gson.getDelegateAdapter(this, typeToken) instanceof ReflectiveTypeAdapterFactory.Adapter)) return null;
+      return new Builder(gson, target).build();
+    }
+  }
+
+  /**
+   * Gsonの{@code ReflectiveTypeAdapterFactory.getBoundFields}と同じ手順でフィールドを集めてアダプタを作成する
+   * @param <T> 対象とするクラスの型
+   */
+  private static class Builder<T> {
+    private static final MethodHandle FIELD_SET;
+    static {
+      try {
+        FIELD_SET = MethodHandles.lookup().findVirtual(Field.class, "set",
+            MethodType.methodType(void.class, Object.class, Object.class));
+      } catch (ReflectiveOperationException ex) {
+        throw new ExceptionInInitializerError(ex);
+      }
+    }
+
+    private final Gson gson;
+    private final Class<T> raw;
+    private final List<BoundField> writeFields = new ArrayList<>();
+    private final Map<String, BoundField> readFields = new HashMap<>();
+
+    Builder(Gson gson, Class<T> raw) {
+      this.gson = gson;
+      this.raw = raw;
+    }
+
+    /** アダプタを作成する。フィールドに{@link JsonAdapter}がある場合はnull */
+    MethodHandleAdapter<T> build() {
+      Type type = raw;
+      Class<?> c = raw;
+      try {
+        while (c != Object.class) {
+          for (Field field: c.getDeclaredFields()) {
+            if (excluded(field)) continue;
+            if (field.isAnnotationPresent(JsonAdapter.class)) return null;
+            field.setAccessible(true);
+            Type fieldType = $Gson$Types.resolve(type, c, field.getGenericType());
+            List<String> names = names(field);
+            BoundField bound = bind(names.get(0), field, fieldType);
+            writeFields.add(bound);
+            for (String name: names) {
+              if (readFields.put(name, bound) != null) {
+                throw new IllegalArgumentException(raw + " declares multiple JSON fields named " + name);
+              }
+            }
+          }
+          type = $Gson$Types.resolve(type, c, c.getGenericSuperclass());
+          c = $Gson$Types.getRawType(type);
+        }
+      } catch (IllegalAccessException ex) {
+        throw new JsonException(ex);
+      }
+      return new MethodHandleAdapter<T>(gson, raw, writeFields.toArray(new BoundField[0]), readFields);
+    }
+
+    /** Gsonのデフォルトの除外条件 */
+    private static boolean excluded(Field field) {
+      int modifiers = field.getModifiers();
+      if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || field.isSynthetic()) return true;
+      Class<?> type = field.getType();
+      return !Enum.class.isAssignableFrom(type) && (type.isAnonymousClass() || type.isLocalClass());
+    }
+
+    /** JSON中の名称。最初のものが書き込み用、残りは読み込み用の別名 */
+    private static List<String> names(Field field) {
+      SerializedName annotation = field.getAnnotation(SerializedName.class);
+      if (annotation == null) return Collections.singletonList(field.getName());
+      List<String> names = new ArrayList<>();
+      names.add(annotation.value());
+      names.addAll(Arrays.asList(annotation.alternate()));
+      return names;
+    }
+
+    /** フィールドの型に応じた{@link BoundField}を作成する */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private BoundField bind(String name, Field field, Type fieldType) throws IllegalAccessException {
+      MethodHandles.Lookup lookup = MethodHandles.lookup();
+      Class<?> fieldClass = $Gson$Types.getRawType(fieldType);
+      Class<?> slot = field.getType().isPrimitive()? field.getType():Object.class;
+      MethodHandle getter = lookup.unreflectGetter(field).asType(MethodType.methodType(slot, Object.class));
+      MethodHandle setter;
+      try {
+        setter = lookup.unreflectSetter(field);
+      } catch (IllegalAccessException ex) {
+        // finalフィールドはField#setで書き込む
+        setter = FIELD_SET.bindTo(field);
+      }
+      setter = setter.asType(MethodType.methodType(void.class, Object.class, slot));
+
+      if (fieldClass == int.class || fieldClass == short.class || fieldClass == byte.class) {
+        return new BoundField(name, getter, setter) {
+          void write(MethodHandleAdapter<?> adapter, JsonWriter out, Object object) throws Throwable {
+            long value = fieldClass == int.class? (int)getter.invokeExact(object):
+              fieldClass == short.class? (short)getter.invokeExact(object):(byte)getter.invokeExact(object);
+            out.name(name).value(value);
+          }
+          void read(JsonReader in, Object object) throws Throwable {
+            if (skipNull(in)) return;
+            int value = nextInt(in);
+            if (fieldClass == int.class) setter.invokeExact(object, value);
+            else if (fieldClass == short.class) setter.invokeExact(object, (short)value);
+            else setter.invokeExact(object, (byte)value);
+          }
+        };
+      }
+      if (fieldClass == long.class) {
+        return new BoundField(name, getter, setter) {
+          void write(MethodHandleAdapter<?> adapter, JsonWriter out, Object object) throws Throwable {
+            out.name(name).value((long)getter.invokeExact(object));
+          }
+          void read(JsonReader in, Object object) throws Throwable {
+            if (!skipNull(in)) setter.invokeExact(object, nextLong(in));
+          }
+        };
+      }
+      if (fieldClass == boolean.class) {
+        return new BoundField(name, getter, setter) {
+          void write(MethodHandleAdapter<?> adapter, JsonWriter out, Object object) throws Throwable {
+            out.name(name).value((boolean)getter.invokeExact(object));
+          }
+          void read(JsonReader in, Object object) throws Throwable {
+            if (!skipNull(in)) setter.invokeExact(object, nextBoolean(in));
+          }
+        };
+      }
+      if (fieldClass == String.class) {
+        return new BoundField(name, getter, setter) {
+          void write(MethodHandleAdapter<?> adapter, JsonWriter out, Object object) throws Throwable {
+            out.name(name).value((String)(Object)getter.invokeExact(object));
+          }
+          void read(JsonReader in, Object object) throws Throwable {
+            setter.invokeExact(object, (Object)(skipNull(in)? null:nextString(in)));
+          }
+        };
+      }
+
+      // その他はGsonのアダプタを使う
+      TypeAdapter typeAdapter = gson.getAdapter(TypeToken.get(fieldType));
+      MethodHandle boxedGetter = getter.asType(MethodType.methodType(Object.class, Object.class));
+      MethodHandle boxedSetter = setter.asType(MethodType.methodType(void.class, Object.class, Object.class));
+      if (fieldClass.isPrimitive()) {
+        return new BoundField(name, boxedGetter, boxedSetter) {
+          void write(MethodHandleAdapter<?> adapter, JsonWriter out, Object object) throws Throwable {
+            out.name(name);
+            typeAdapter.write(out, (Object)getter.invokeExact(object));
+          }
+          void read(JsonReader in, Object object) throws Throwable {
+            Object value = typeAdapter.read(in);
+            if (value != null) setter.invokeExact(object, value);
+          }
+        };
+      }
+      return new BoundField(name, boxedGetter, boxedSetter) {
+        /**
+         * 読み込みに使うアダプタ。再帰的な型では、作成時に得られるのはGsonの仮のアダプタであり、
+         * 既存の値を再利用できるかが判断できないので、最初の読み込み時に取得し直す
+         */
+        TypeAdapter reader;
+        void write(MethodHandleAdapter<?> adapter, JsonWriter out, Object object) throws Throwable {
+          Object value = (Object)getter.invokeExact(object);
+          if (value == object) {
+            writeSelf(out, name, fieldType, value);
+            return;
+          }
+          out.name(name);
+          adapter.writeValue(out, typeAdapter, fieldType, value);
+        }
+        void read(JsonReader in, Object object) throws Throwable {
+          TypeAdapter adapter = reader;
+          if (adapter == null) reader = adapter = gson.getAdapter(TypeToken.get(fieldType));
+
+          // 既存の値を再利用できる場合のみ取得する
+          Object existing = adapter instanceof ReuseAdapterFactory.Adapter? (Object)getter.invokeExact(object):null;
+          setter.invokeExact(object, readValue(adapter, in, existing));
+        }
+      };
+    }
+  }
+}
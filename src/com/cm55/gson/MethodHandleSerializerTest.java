@@ -0,0 +1,91 @@
+package com.cm55.gson;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.junit.*;
+
+import com.google.gson.*;
+import com.google.gson.annotations.*;
+
+/**
+ * {@link MethodHandleAdapter}を使用して{@link SerializerTest}のすべてのテストを行う
+ * @author ysugimura
+ */
+public class MethodHandleSerializerTest extends SerializerTest {
+
+  boolean saved;
+  
+  @Before
+  public void before() {
+    saved = Settings.USE_METHOD_HANDLE_ADAPTERS;
+    Settings.USE_METHOD_HANDLE_ADAPTERS = true;
+  }
+  
+  @After
+  public void after() {
+    Settings.USE_METHOD_HANDLE_ADAPTERS = saved;
+  }
+  
+  @SuppressWarnings("unchecked")
+  @Test
+  public void 使用されるアダプタ() {
+    GsonBuilder builder = new GsonBuilder();
+    new HandlerBuilder<>(Fields.class).build().registerToBuilder(builder);
+    assertTrue(builder.create().getAdapter(Fields.class) instanceof MethodHandleAdapter);
+    
+    builder = new GsonBuilder();
+    new HandlerBuilder<>(Fields.class).setMethodHandleAccess(false).build().registerToBuilder(builder);
+    assertFalse(builder.create().getAdapter(Fields.class) instanceof MethodHandleAdapter);
+    
+    // マルチハンドラのサブクラスはGsonには登録されない
+    builder = new GsonBuilder();
+    new MultiHandlerBuilder<>(Fields.class).addSubClass(Fields.class).build().registerToBuilder(builder);
+    Gson gson = builder.create();
+    assertFalse(gson.getAdapter(Fields.class) instanceof MethodHandleAdapter);
+    assertTrue(((MultiTypeAdapterFactory.GsonTypeAdapter<Fields>)gson.getAdapter(Fields.class)).getSubTypeAdapter(0)
+        instanceof MethodHandleAdapter);
+  }
+  
+  @Test
+  public void 同一の出力() {
+    Serializer<Fields>methodHandle = new Serializer<>(new HandlerBuilder<>(Fields.class).build());
+    Serializer<Fields>reflective = new Serializer<>(new HandlerBuilder<>(Fields.class).setMethodHandleAccess(false).build());
+    
+    Fields fields = new Fields(1);
+    String json = reflective.serialize(fields);
+    assertEquals(json, methodHandle.serialize(fields));
+    assertTrue(json.contains("\"nothing\":null"));
+    assertTrue(json.contains("NaN"));
+    
+    String input = "{\"fin\":5,\"old\":3,\"s\":7,\"b\":8,\"value\":\"v\",\"d\":null,\"unknown\":{}}";
+    assertEquals(reflective.serialize(reflective.deserialize(input)), methodHandle.serialize(methodHandle.deserialize(input)));
+    Fields result = methodHandle.deserialize(input);
+    assertEquals(5, result.fin);
+    assertEquals(3, result.named);
+    assertEquals("v", result.value);
+  }
+  
+  public static class FieldsBase<V> {
+    V value;
+    private List<V>values = new ArrayList<>();
+  }
+  
+  public static class Fields extends FieldsBase<String> {
+    private final int fin;
+    private short s = 1;
+    private byte b = 2;
+    private boolean z;
+    private char c = 'c';
+    private float f = 0.1f;
+    double d = Double.NaN;
+    String nothing;
+    Object any = 1L;
+    @SerializedName(value = "renamed", alternate = "old")
+    int named = 1;
+    Fields(int fin) {
+      this.fin = fin;
+    }
+  }
+}
@@ -53,16 +53,25 @@ import com.google.gson.reflect.*;
  */
 public class MultiHandler<T> extends Handler<T> {
 
-  /** TypeTokenのマップ */
+  /** TypeTokenのマップ。変更不可 */
   private final TypeTokenNameMap typeTokenMap;
   
+  /** サブクラスごとの統計。取らない場合はnull */
+  private final SubTypeStatistics statistics;
+  
+  /** 未登録のサブクラスを登録済の祖先クラスとして扱う */
+  private final boolean resolveSubclasses;
+  
   /** 
    * 処理対象タイプを指定する
    * @param targetType
    */
-   MultiHandler(TypeToken<T> targetType,  List<Handler<?>>subHandlers, TypeTokenNameMap typeTokenMap) {
-    super(targetType, subHandlers);
+   MultiHandler(TypeToken<T> targetType,  List<Handler<?>>subHandlers, TypeTokenNameMap typeTokenMap,
+       SubTypeStatistics statistics, boolean resolveSubclasses, Boolean methodHandleAccess) {
+    super(targetType, subHandlers, methodHandleAccess);
     this.typeTokenMap = typeTokenMap;
+    this.statistics = statistics;
+    this.resolveSubclasses = resolveSubclasses;
   }
   
   /**
@@ -71,6 +80,16 @@ public class MultiHandler<T> extends Handler<T> {
   public int subClassCount() {
     return typeTokenMap.count();
   }
+  
+  /**
+   * サブクラスごとの統計のスナップショットを取得する。読み書き回数の多い順に並べられる。
+   * このハンドラを使用するすべての{@link Serializer}の合計になる。
+   * @return 登録名称／統計値のマップ。{@link MultiHandlerBuilder#setStatistics(boolean)}で有効にしていない場合はnull
+   */
+  public Map<String, SubTypeStatistics.Entry> subClassStatistics() {
+    if (statistics == null) return null;
+    return statistics.snapshot();
+  }
     
   /**
    * Gsonビルダに登録する
@@ -82,12 +101,40 @@ public class MultiHandler<T> extends Handler<T> {
       throw new JsonException("typeTokenMap empty");
     }
     
-    // 環境＝TypeHandlerFactoryをGsonに登録する
+    // サブクラスのフィールドに直接アクセスするアダプタのファクトリ。
+    // Gsonには登録しない。登録するとサブクラスのアダプタがリフレクションによるものではなくなり、
+    // 宣言型がT型のフィールドの値についてGsonがこのハンドラではなくサブクラスのアダプタを選ぶようになってしまう。
+    TypeAdapterFactory[] subTypeFactories = typeTokenMap.allTypeTokens()
+        .map(this::fieldAdapterFactory).toArray(TypeAdapterFactory[]::new);
+    
+    // 環境＝TypeHandlerFactoryをGsonに登録する。マップは変更不可なので複製されずに共有される
     builder.registerTypeAdapterFactory(new MultiTypeAdapterFactory<T>(
         typeToken,
-        this.typeTokenMap.duplicate()
+        this.typeTokenMap.duplicate(),
+        statistics,
+        resolveSubclasses,
+        subTypeFactories
     ));
     
     super.registerToBuilder(builder);
   }
+  
+  /**
+   * 対象タイプはこのハンドラ自身が扱う。サブクラスのアダプタは{@link MultiTypeAdapterFactory}が直接作成する
+   */
+  @Override
+  void registerFieldAdapters(GsonBuilder builder) {
+  }
+  
+  /**
+   * すべてのサブクラス用のアダプタを取得しておく
+   */
+  @Override
+  protected void warmUp(Gson gson) {
+    TypeAdapter<T> adapter = ReferenceAdapterFactory.unwrap(gson.getAdapter(typeToken));
+    if (adapter instanceof MultiTypeAdapterFactory.GsonTypeAdapter) {
+      ((MultiTypeAdapterFactory.GsonTypeAdapter<T>)adapter).warmUp();
+    }
+    super.warmUp(gson);
+  }
 }
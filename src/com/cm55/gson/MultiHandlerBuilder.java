@@ -11,6 +11,12 @@ import com.google.gson.reflect.*;
 public class MultiHandlerBuilder<T> extends HandlerBuilder<T> {
   
   private TypeTokenNameMap typeTokenMap = new TypeTokenNameMap();
+  
+  /** サブクラスごとの統計を取る */
+  private boolean statistics;
+  
+  /** 未登録のサブクラスを登録済の祖先クラスとして扱う */
+  private boolean resolveSubclasses;
 
   public MultiHandlerBuilder(Class<T> targetType) {
     super(targetType);
@@ -34,6 +40,32 @@ public class MultiHandlerBuilder<T> extends HandlerBuilder<T> {
     return this;
   }
 
+  /**
+   * {@link JsonSubType}の付けられたサブクラスをすべて登録する。
+   * <p>
+   * コンパイル時に生成された{@link JsonSubTypeRegistry}の実装クラスを名前で一つ読み込むだけであり、
+   * クラスパスのスキャンは行わない。生成クラスが無い場合には例外が発生する。
+   * </p>
+   * @return 本オブジェクト
+   */
+  @SuppressWarnings("unchecked")
+  public MultiHandlerBuilder<T> addAnnotatedSubClasses() {
+    Class<? super T>rawType = typeToken.getRawType();
+    String registryName = rawType.getName() + JsonSubTypeRegistry.SUFFIX;
+    JsonSubTypeRegistry<T>registry;
+    try {
+      registry = (JsonSubTypeRegistry<T>)Class.forName(registryName, true, rawType.getClassLoader())
+          .getDeclaredConstructor().newInstance();
+    } catch (ClassNotFoundException ex) {
+      throw new JsonException("No @JsonSubType classes generated for " + rawType.getName() + 
+          ", check that the annotation processor is enabled");
+    } catch (ReflectiveOperationException ex) {
+      throw new JsonException(ex);
+    }
+    registry.register(this);
+    return this;
+  }
+
   /**
    * 登録するタイプを指定する。名称は{@link Class#getSimpleName()}となる。
    * 
@@ -79,6 +111,38 @@ public class MultiHandlerBuilder<T> extends HandlerBuilder<T> {
     return this;
   }
 
+  /**
+   * サブクラスごとの統計を取るかを指定する。デフォルトでは取らない。
+   * 結果は{@link MultiHandler#subClassStatistics()}で取得する。
+   * @param value 統計を取る場合はtrue
+   */
+  public MultiHandlerBuilder<T> setStatistics(boolean value) {
+    statistics = value;
+    return this;
+  }
+
+  /**
+   * 直列化しようとするオブジェクトのクラスが未登録の場合に、クラス階層をさかのぼって最も近い登録済の祖先クラスとして
+   * 扱うかを指定する。デフォルトでは扱わず、例外になる。
+   * <p>
+   * プロキシクラスや無名クラス、後から追加された子クラスのオブジェクトを、登録済のクラスとして直列化するためのもの。
+   * 祖先クラスのフィールドのみが直列化され、復帰時には祖先クラスのオブジェクトになる。
+   * 探索結果はクラスごとにキャッシュされるので、探索はクラスごとに一度しか行われない。
+   * </p>
+   * @param value 祖先クラスとして扱う場合はtrue
+   */
+  public MultiHandlerBuilder<T> setResolveSubclasses(boolean value) {
+    resolveSubclasses = value;
+    return this;
+  }
+
+  /**
+   * 登録したサブクラスの直列化・復帰に、{@link java.lang.invoke.MethodHandle}によるアダプタを使用するかを指定する
+   */
+  public MultiHandlerBuilder<T> setMethodHandleAccess(Boolean value) {
+    return (MultiHandlerBuilder<T>)super.setMethodHandleAccess(value);
+  }
+
   /**
    * サブハンドラを登録する
    */
@@ -91,7 +155,9 @@ public class MultiHandlerBuilder<T> extends HandlerBuilder<T> {
    */
   public MultiHandler<T> build() {
     if (typeToken == null) throw new IllegalStateException();
-    MultiHandler<T>handler = new MultiHandler<T>(typeToken, subHandlers, typeTokenMap);
+    typeTokenMap.freeze();
+    MultiHandler<T>handler = new MultiHandler<T>(typeToken, subHandlers, typeTokenMap,
+        statistics? new SubTypeStatistics(typeTokenMap.allTypeNames()):null, resolveSubclasses, methodHandleAccess);
     typeToken = null;
     subHandlers = null;
     typeTokenMap = null;
@@ -2,8 +2,12 @@ package com.cm55.gson;
 
 import static org.junit.Assert.*;
 
+import java.util.*;
+import java.util.concurrent.*;
+
 import org.junit.*;
 
+import com.google.gson.*;
 import com.google.gson.reflect.*;
 
 public class MultiHandlerTest {
@@ -106,6 +110,118 @@ public class MultiHandlerTest {
     assertEquals(1, handler.build().subClassCount());
   }
   
+  @Test
+  public void サブクラスごとの統計() {
+    MultiHandler<Bar>handler = new MultiHandlerBuilder<Bar>(Bar.class)
+        .addSubClasses(BarOne.class, BarTwo.class).setStatistics(true).build();
+    Serializer<Bar>serializer = new Serializer<>(handler);
+    String json = serializer.serialize(new BarTwo());
+    serializer.serialize(new BarTwo());
+    serializer.serialize(new BarOne());
+    serializer.deserialize(json);
+    
+    Map<String, SubTypeStatistics.Entry>stats = handler.subClassStatistics();
+    assertEquals(Arrays.asList("BarTwo", "BarOne"), new ArrayList<>(stats.keySet()));
+    SubTypeStatistics.Entry two = stats.get("BarTwo");
+    assertEquals(2, two.getWrites());
+    assertEquals(1, two.getReads());
+    assertEquals("{\"b\":2}".length() * 2, two.getWrittenSize());
+    assertEquals("{\"b\":2}".length(), two.getReadSize());
+    assertEquals(1, stats.get("BarOne").getWrites());
+    
+    assertNull(((MultiHandler<Bar>)BarHandler.INSTANCE).subClassStatistics());
+  }
+  
+  @Test
+  public void 未登録のサブクラス() {
+    Serializer<Foo>exact = new Serializer<>(FooHandler.INSTANCE);
+    try {
+      exact.serialize(new FooTwo() {});
+      fail();
+    } catch (JsonException ex) {
+    }
+    
+    Serializer<Foo>serializer = new Serializer<>(new MultiHandlerBuilder<>(Foo.class)
+        .addSubClasses(FooOne.class, FooTwo.class).setResolveSubclasses(true).build());
+    assertEquals("{\"T\":\"FooTwo\",\"D\":{\"two\":2}}", serializer.serialize(new FooTwo() {}));
+    assertEquals("{\"T\":\"FooTwo\",\"D\":{\"two\":2}}", serializer.serialize(new FooTwoChild()));
+    assertEquals("{\"T\":\"FooOne\",\"D\":{\"one\":1}}", serializer.serialize(new FooOne()));
+    assertEquals(FooTwo.class, serializer.deserialize(serializer.serialize(new FooTwoChild())).getClass());
+    try {
+      serializer.serialize(new Foo());
+      fail();
+    } catch (JsonException ex) {
+    }
+  }
+  
+  @SuppressWarnings("unchecked")
+  @Test
+  public void サブクラスアダプタの遅延取得() {
+    Handler<Foo>handler = new MultiHandlerBuilder<>(Foo.class)
+        .addSubClasses(FooOne.class, FooTwo.class, FooThree.class).build();
+    GsonBuilder builder = new GsonBuilder();
+    handler.registerToBuilder(builder);
+    Gson gson = builder.create();
+    MultiTypeAdapterFactory.GsonTypeAdapter<Foo>adapter =
+        (MultiTypeAdapterFactory.GsonTypeAdapter<Foo>)gson.getAdapter(Foo.class);
+    assertEquals(0, adapter.resolvedCount());
+    assertEquals("{\"T\":\"FooOne\",\"D\":{\"one\":1}}", gson.toJson(new FooOne(), Foo.class));
+    assertEquals(1, adapter.resolvedCount());
+    assertEquals(FooOne.class, gson.fromJson("{\"T\":\"FooOne\",\"D\":{\"one\":1}}", Foo.class).getClass());
+    assertEquals(1, adapter.resolvedCount());
+    handler.warmUp(gson);
+    assertEquals(3, adapter.resolvedCount());
+    
+    new Serializer<>(FooHandler.INSTANCE).warmUp();
+  }
+  
+  @Test
+  public void サブハンドラ登録後の連鎖() {
+    // addSubHandlerの戻り値はMultiHandlerBuilderなので、続けてaddSubClassを呼び出せる
+    Handler<Foo>handler = new MultiHandlerBuilder<>(Foo.class)
+        .addSubHandler(BarHandler.INSTANCE).addSubClass(FooOne.class).addSubClass(FooThree.class).build();
+    Serializer<Foo>serializer = new Serializer<>(handler);
+    FooThree three = (FooThree)serializer.deserialize(serializer.serialize(new FooThree(new BarTwo())));
+    assertEquals(BarTwo.class, three.value.getClass());
+    assertEquals(FooOne.class, serializer.deserialize(serializer.serialize(new FooOne())).getClass());
+  }
+  
+  @Test
+  public void 複数スレッドからの同時使用() throws Exception {
+    Handler<Foo>handler = new MultiHandlerBuilder<>(Foo.class)
+        .addSubClasses(FooOne.class, FooTwo.class, FooThree.class).addSubHandler(BarHandler.INSTANCE).build();
+    for (int round = 0; round < 10; round++) {
+      
+      // 一つのハンドラを共有する二つのシリアライザを、同時に初めて使用する
+      List<Serializer<Foo>>serializers = Arrays.asList(new Serializer<>(handler), new Serializer<>(handler));
+      int threads = 8;
+      CyclicBarrier barrier = new CyclicBarrier(threads);
+      ExecutorService executor = Executors.newFixedThreadPool(threads);
+      try {
+        List<Future<?>>futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+          Serializer<Foo>serializer = serializers.get(t % 2);
+          futures.add(executor.submit(()-> {
+            barrier.await();
+            for (int i = 0; i < 100; i++) {
+              Foo foo = i % 3 == 0? new FooOne():i % 3 == 1? new FooTwo():new FooThree(new BarTwo());
+              Foo result = serializer.deserialize(serializer.serialize(foo));
+              assertEquals(foo.getClass(), result.getClass());
+            }
+            return null;
+          }));
+        }
+        for (Future<?>future: futures) future.get();
+      } finally {
+        executor.shutdown();
+      }
+    }
+  }
+  
+  public static class FooTwoChild extends FooTwo {
+    int child = 3;
+  }
+  
   public static class FooHandler  {
     public static final Handler<Foo> INSTANCE = 
         new MultiHandlerBuilder<>(Foo.class).addSubClasses(FooOne.class, FooTwo.class, FooThree.class)
@@ -1,14 +1,20 @@
 package com.cm55.gson;
 
 import java.io.*;
-import java.util.*;
+import java.util.concurrent.atomic.*;
 
 import com.google.gson.*;
+import com.google.gson.internal.bind.*;
 import com.google.gson.reflect.*;
 import com.google.gson.stream.*;
 
 /**
- * 特定のGsonオブジェクト用の実行環境
+ * {@link MultiHandler}の登録内容からGson用のタイプアダプタを作成するファクトリ
+ * <p>
+ * このオブジェクトは作成後に変更されない。一つのファクトリが複数のGsonオブジェクトから使用されても、
+ * 同時に複数のスレッドから使用されてもよい。Gsonオブジェクトごとに解決される状態（サブクラス用のアダプタ等）は、
+ * {@link #create(Gson, TypeToken)}の度に作成される{@link GsonTypeAdapter}が保持する。
+ * </p>
  * @author ysugimura
  *
  * @param <T>
@@ -16,14 +22,60 @@ import com.google.gson.stream.*;
 class MultiTypeAdapterFactory<T> implements TypeAdapterFactory {
 
 
-  TypeToken<T> topType;
-  TypeTokenNameMap typeTokenMap;
-  Map<TypeToken<? extends T>, TypeAdapter<T>> subTypeAdapters;
-  TypeAdapter<JsonElement> elementAdapter;
+  final TypeToken<T> topType;
+  
+  /** 登録済のTypeTokenのマップ。変更不可であり、その序数をサブクラスのインデックスとする */
+  final TypeTokenNameMap typeTokenMap;
+  
+  /** サブクラスごとの統計。取らない場合はnull */
+  final SubTypeStatistics statistics;
+  
+  /** 
+   * クラス／そのクラスとして扱う登録済のTypeTokenの序数のキャッシュ。見つからない場合は-1。
+   * 未登録のサブクラスを登録済の祖先クラスとして扱わない場合はnull 
+   */
+  final ClassValue<Integer> resolvedOrdinals;
+
+  /** 
+   * 序数／サブクラスのフィールドに直接アクセスするアダプタのファクトリ。Gsonには登録されていない。
+   * 使用しないサブクラスの要素はnull
+   */
+  final TypeAdapterFactory[] subTypeFactories;
 
-  public MultiTypeAdapterFactory(TypeToken<T> topType, TypeTokenNameMap typeTokenMap) {
+  public MultiTypeAdapterFactory(TypeToken<T> topType, TypeTokenNameMap typeTokenMap, SubTypeStatistics statistics,
+      boolean resolveSubclasses, TypeAdapterFactory[] subTypeFactories) {
     this.topType = topType;
-    this.typeTokenMap = typeTokenMap;
+    this.subTypeFactories = subTypeFactories;
+    this.typeTokenMap = typeTokenMap.freeze();
+    this.statistics = statistics;
+    if (!resolveSubclasses) {
+      resolvedOrdinals = null;
+      return;
+    }
+    resolvedOrdinals = new ClassValue<Integer>() {
+      @Override
+      protected Integer computeValue(Class<?> clazz) {
+        // クラス階層をさかのぼり、最も近い登録済のクラスを探す
+        for (Class<?> c = clazz; c != null; c = c.getSuperclass()) {
+          int ordinal = typeTokenMap.ordinalOf(c);
+          if (ordinal >= 0) return ordinal;
+        }
+        return -1;
+      }
+    };
+  }
+  
+  /**
+   * 直列化するオブジェクトのクラスから、登録済のTypeTokenの序数を取得する。
+   * @param clazz オブジェクトのクラス
+   * @return 登録済のTypeTokenの序数
+   */
+  int resolve(Class<?> clazz) {
+    int ordinal = resolvedOrdinals == null? typeTokenMap.ordinalOf(clazz):resolvedOrdinals.get(clazz);
+    if (ordinal < 0) {
+      throw new JsonException("Unregistered class in MultiTypeAdapter:" + clazz.getName());
+    }
+    return ordinal;
   }
 
   @SuppressWarnings("unchecked")
@@ -32,39 +84,16 @@ class MultiTypeAdapterFactory<T> implements TypeAdapterFactory {
     if (!typeToken.equals(topType))
       return null;
 
-    // サブクラス用のTypeAdapterを取得する
-    subTypeAdapters = getSubTypeAdapters(gson, this);
-
-    // JsonElement用のTypeAdapterを取得する
-    elementAdapter = gson.getAdapter(JsonElement.class);
-
-    return (TypeAdapter<C>) new GsonTypeAdapter<T>(this);
-  }
-
-  /**
-   * typeTokenMapに登録されているすべての{@link TypeToken}について、その直列化・復帰を行う
-   * {@link TypeAdapter}を取得し、マップにして返す。
-   * 
-   * @param gson
-   * @param adapterFactory
-   * @return
-   */
-  @SuppressWarnings("unchecked")
-  Map<TypeToken<? extends T>, TypeAdapter<T>> getSubTypeAdapters(Gson gson, TypeAdapterFactory adapterFactory) {
-
-    Map<TypeToken<? extends T>, TypeAdapter<T>> subTypeAdapters = new HashMap<>();
-
-    typeTokenMap.allTypeTokens().forEach(typeToken -> {
-      TypeToken<? extends T> tt = (TypeToken<? extends T>) typeToken;
-      TypeAdapter<T> adapter = (TypeAdapter<T>) gson.getDelegateAdapter(adapterFactory, tt);
-      subTypeAdapters.put(tt, adapter);
-    });
-    return subTypeAdapters;
+    return (TypeAdapter<C>) new GsonTypeAdapter<T>(this, gson);
   }
 
   /**
    * Gson用のタイプアダプタ
-   * 
+   * <p>
+   * 一つのGsonオブジェクトに対して作成され、そのGsonで解決される状態を保持する。
+   * finalでないのはサブクラス用アダプタの配列要素のみであり、これは{@link AtomicReferenceArray}で公開されるので、
+   * 複数のスレッドから同時に使用してよい。
+   * </p>
    * @author ysugimura
    *
    * @param <T>
@@ -72,41 +101,120 @@ class MultiTypeAdapterFactory<T> implements TypeAdapterFactory {
   public static class GsonTypeAdapter<T> extends TypeAdapter<T> {
 
     /** タイプアダプタの実行環境 */
-    private MultiTypeAdapterFactory<T> env;
-
-    /** 実行環境を指定する */
-    public GsonTypeAdapter(MultiTypeAdapterFactory<T> env) {
+    private final MultiTypeAdapterFactory<T> env;
+    
+    /** このアダプタを作成したGson */
+    private final Gson gson;
+    
+    /** JsonElement用のTypeAdapter */
+    private final TypeAdapter<JsonElement> elementAdapter;
+    
+    /** サブクラス用のTypeAdapter。インデックスは{@link TypeTokenNameMap}の序数。未取得のものはnull */
+    private final AtomicReferenceArray<TypeAdapter<T>> subTypeAdapters;
+
+    /** 実行環境と、このアダプタを使用するGsonを指定する */
+    public GsonTypeAdapter(MultiTypeAdapterFactory<T> env, Gson gson) {
       this.env = env;
+      this.gson = gson;
+      elementAdapter = gson.getAdapter(JsonElement.class);
+      subTypeAdapters = new AtomicReferenceArray<>(env.typeTokenMap.count());
+    }
+    
+    /**
+     * 指定された序数の{@link TypeToken}の直列化・復帰を行う{@link TypeAdapter}を取得する。
+     * <p>
+     * 使用されないサブクラスの（リフレクションによる）アダプタを作成しないよう、最初に必要になった時点でGsonから取得し、
+     * 以降はそれを使用する。複数のスレッドが同時に取得した場合でも、Gsonから得られるアダプタはいずれも同じ働きをするので、
+     * 最初に格納されたものを使う。
+     * </p>
+     * @param ordinal 登録済の{@link TypeToken}の序数
+     * @return {@link TypeAdapter}
+     */
+    @SuppressWarnings("unchecked")
+    TypeAdapter<T> getSubTypeAdapter(int ordinal) {
+      TypeAdapter<T> adapter = subTypeAdapters.get(ordinal);
+      if (adapter != null) return adapter;
+      TypeToken<T> typeToken = (TypeToken<T>) env.typeTokenMap.getTypeToken(ordinal);
+      adapter = gson.getDelegateAdapter(env, typeToken);
+      
+      // Gsonのリフレクションによるアダプタであれば、フィールドに直接アクセスするアダプタに置き換える
+      TypeAdapterFactory factory = env.subTypeFactories[ordinal];
+      if (factory != null && adapter instanceof ReflectiveTypeAdapterFactory.Adapter) {
+        TypeAdapter<T> fieldAdapter = factory.create(gson, typeToken);
+        if (fieldAdapter != null) adapter = fieldAdapter;
+      }
+      if (subTypeAdapters.compareAndSet(ordinal, null, adapter)) return adapter;
+      return subTypeAdapters.get(ordinal);
+    }
+    
+    /** すべてのサブクラス用アダプタを取得しておく */
+    void warmUp() {
+      for (int ordinal = 0; ordinal < subTypeAdapters.length(); ordinal++) {
+        getSubTypeAdapter(ordinal);
+      }
+    }
+    
+    /** 取得済のサブクラス用アダプタの数 */
+    int resolvedCount() {
+      int count = 0;
+      for (int i = 0; i < subTypeAdapters.length(); i++) {
+        if (subTypeAdapters.get(i) != null) count++;
+      }
+      return count;
     }
 
     /**
-     * オブジェクトを直列化して書き込む
+     * 登録済クラスのアダプタでツリーに変換する。
+     * 未登録のサブクラスを祖先クラスとして扱う場合に、生成アダプタが実行時のクラスに委譲しないようにする。
      */
     @SuppressWarnings("unchecked")
+    private JsonElement toJsonTree(TypeAdapter<T> typeAdapter, T value) {
+      if (typeAdapter instanceof GeneratedAdapter) {
+        return ((GeneratedAdapter<T>)typeAdapter).toJsonTreeDeclared(value);
+      }
+      return typeAdapter.toJsonTree(value);
+    }
+
+    /**
+     * オブジェクトを直列化して書き込む
+     */
     @Override
     public void write(JsonWriter writer, T value) throws IOException {
 
       // オブジェクトしか与えられないため、正確なTypeTokenを得ることは不可能。
       // このため、MultiTypeAdapterではジェネリクスは使用できない。
-      TypeToken<? extends T> typeToken = (TypeToken<? extends T>) TypeToken.get(value.getClass());
+      int ordinal = env.resolve(value.getClass());
 
       // タイプ名称を取得
-      String typeName = env.typeTokenMap.getTypeName(typeToken);
+      String typeName = env.typeTokenMap.getTypeName(ordinal);
+
+      // 参照を扱う場合の番号を、データ部分のオブジェクトに取られないように先に取得
+      int id = ReferenceAdapterFactory.takeId(value);
 
       // タイプアダプタを取得し、値をJsonElementに変換
-      TypeAdapter<T> typeAdapter = env.subTypeAdapters.get(typeToken);
-      JsonElement tree = typeAdapter.toJsonTree(value);
+      TypeAdapter<T> typeAdapter = getSubTypeAdapter(ordinal);
+      SubTypeStatistics statistics = env.statistics;
+      long start = statistics == null? 0:System.nanoTime();
+      JsonElement tree = toJsonTree(typeAdapter, value);
+      long nanos = statistics == null? 0:System.nanoTime() - start;
 
 
       // オブジェクト書き込み開始
       writer.beginObject();
+      if (id >= 0) writer.name(ReferenceAdapterFactory.ID).value(id);
 
       // 型フィールドを書き込み
       writer.name(Settings.MULTIHANDLER_TYPE_MARKER).value(typeName);
 
-      // データフィールドを書き込み
+      // データフィールドを書き込み。統計を取る場合は書き込みながら文字数を数える
       writer.name(Settings.MULTIHANDLER_DATA_MARKER);
-      env.elementAdapter.write(writer, tree);
+      if (statistics == null) {
+        elementAdapter.write(writer, tree);
+      } else {
+        SubTypeStatistics.Counter counter = new SubTypeStatistics.Counter();
+        counter.write(writer, tree);
+        statistics.written(ordinal, nanos, counter.size);
+      }
 
       // オブジェクト書き込み終了
       writer.endObject();
@@ -116,16 +224,42 @@ class MultiTypeAdapterFactory<T> implements TypeAdapterFactory {
     /**
      * オブジェクトを復帰する。
      */
-    @SuppressWarnings("unchecked")
     @Override
     public T read(JsonReader reader) throws IOException {
 
       // オブジェクトの読み出し開始
       reader.beginObject();
+      return readRemaining(reader, reader.nextName());
+    }
+
+    /**
+     * オブジェクトの開始と最初のフィールド名が読み込まれた状態から、残りを読み込む
+     * @param reader 入力
+     * @param typeField 最初のフィールド名
+     * @return 復帰されたオブジェクト
+     * @throws IOException
+     */
+    T readRemaining(JsonReader reader, String typeField) throws IOException {
+      return readRemaining(reader, typeField, null);
+    }
+
+    /**
+     * 既存のオブジェクトを再利用して復帰する。タイプマーカのクラスが既存のオブジェクトのクラスと同じであり、
+     * そのアダプタがフィールドに直接アクセスするものであれば、既存のオブジェクトに上書きする。
+     * @param reader 入力
+     * @param existing 既存のオブジェクト
+     * @return 復帰されたオブジェクト
+     * @throws IOException
+     */
+    T readInto(JsonReader reader, T existing) throws IOException {
+      reader.beginObject();
+      return readRemaining(reader, reader.nextName(), existing);
+    }
+
+    private T readRemaining(JsonReader reader, String typeField, T existing) throws IOException {
 
       // 型フィールド、データフィールドを読み出し
-      String typeField = reader.nextName();
-      if (!typeField.equals(Settings.MULTIHANDLER_TYPE_MARKER)) {
+      if (!Settings.MULTIHANDLER_TYPE_MARKER.equals(typeField)) {
         // assertにしてしまうと復旧ができないので例外にする
         throw new JsonException("Invalid TYPE FIELD Marker in MultiTypeAdapter:" + typeField);
       }
@@ -135,23 +269,38 @@ class MultiTypeAdapterFactory<T> implements TypeAdapterFactory {
         // assertにしてしまうと復旧ができないので例外にする
         throw new JsonException("Invalid DATA FIELD Marker in MultiTypeAdapter:" + dataField);
       }
-      JsonElement tree = (JsonElement) env.elementAdapter.read(reader);
+      // 統計を取る場合は読み込みながら文字数を数える
+      SubTypeStatistics statistics = env.statistics;
+      SubTypeStatistics.Counter counter = statistics == null? null:new SubTypeStatistics.Counter();
+      JsonElement tree = counter == null? (JsonElement) elementAdapter.read(reader):counter.read(reader);
 
       // オブジェクトの読み出し終了
       reader.endObject();
 
-      // タイプ名称からTypeTokenを取得する
-      TypeToken<? extends T> typeToken = (TypeToken<? extends T>) env.typeTokenMap.getTypeToken(typeName);
+      // タイプ名称からTypeTokenの序数を取得する
+      int ordinal = env.typeTokenMap.ordinalOf(typeName);
 
       // タイプ名称が未登録の場合
-      if (typeToken == null)
+      if (ordinal < 0)
         throw new JsonClassNotFoundException();
 
-      // TypeTokenからアダプタを取得
-      TypeAdapter<T> typeAdapter = env.subTypeAdapters.get(typeToken);
+      // 序数からアダプタを取得
+      TypeAdapter<T> typeAdapter = getSubTypeAdapter(ordinal);
 
       // アダプタにJsonElementツリーを解析させていオブジェクトを取得
-      T result = (T) typeAdapter.fromJsonTree(tree);
+      long start = statistics == null? 0:System.nanoTime();
+      T result;
+      Class<?> raw = env.typeTokenMap.getTypeToken(ordinal).getRawType();
+      GeneratedAdapter<T> reuseAdapter = existing == null || existing.getClass() != raw? null:
+        ReuseAdapterFactory.fieldAdapter(gson, typeAdapter, raw);
+      if (reuseAdapter != null) {
+        result = reuseAdapter.readInto(new JsonTreeReader(tree), existing);
+      } else {
+        result = typeAdapter.fromJsonTree(tree);
+      }
+      if (statistics != null) {
+        statistics.read(ordinal, System.nanoTime() - start, counter.size);
+      }
 
       return result;
     }
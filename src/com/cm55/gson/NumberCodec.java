@@ -0,0 +1,197 @@
+package com.cm55.gson;
+
+import java.io.*;
+
+import com.google.gson.*;
+import com.google.gson.internal.*;
+import com.google.gson.reflect.*;
+import com.google.gson.stream.*;
+
+/**
+ * double、floatの高速な数値コーデック
+ * <p>
+ * Gsonは浮動小数点数を{@link Double#toString(double)}で書き込み、読み込み時には数値部分を一旦{@link String}にしてから
+ * {@link Double#parseDouble(String)}を行う。このコーデックは以下のように書き込む。
+ * </p>
+ * <ul>
+ * <li>整数値（-0.0を除く、絶対値が2<sup>53</sup>未満のもの）は整数として書き込む。例えば2.0は{@code 2}になる。
+ * {@link JsonReader}は整数をバッファから直接解析するので、読み込み時に{@link String}が作成されない。
+ * <li>{@link Double#toString(double)}が固定小数点で表記する範囲（絶対値が10<sup>-3</sup>以上10<sup>7</sup>未満）の値は、
+ * 元の値に正確に戻る最も桁数の少ない固定小数点表現を探し、その数字列を直接組み立てる。
+ * <li>見つからない場合、範囲外の値、及びNaN、Infinityは従来通り{@link Double#toString(double)}による。
+ * </ul>
+ * <p>
+ * いずれも読み込めば元の値と全く同じになる（-0.0も保持される）が、整数値の表記が変わるため、
+ * {@link Settings#FAST_NUMBER_CODEC}をtrueにした場合のみ{@link Serializer}が登録する。
+ * 読み込み自体はGsonのアダプタと同じである。
+ * </p>
+ * @author ysugimura
+ */
+class NumberCodec implements TypeAdapterFactory {
+
+  /** 整数として書き込む値の上限（これ未満） */
+  private static final double INTEGRAL_LIMIT = 1L << 53;
+
+  /** 固定小数点で書き込む範囲 */
+  private static final double FIXED_MIN = 1e-3, FIXED_MAX = 1e7;
+
+  /** 10のべき乗。いずれもdoubleで正確に表現される */
+  private static final double[]POWERS = new double[18];
+  static {
+    POWERS[0] = 1;
+    for (int i = 1; i < POWERS.length; i++) POWERS[i] = POWERS[i - 1] * 10;
+  }
+
+  /** NaN、Infinityを書き込めるか */
+  private final boolean specialFloatingPointValues;
+
+  NumberCodec(boolean specialFloatingPointValues) {
+    this.specialFloatingPointValues = specialFloatingPointValues;
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> typeToken) {
+    Class<?> raw = typeToken.getRawType();
+    if (raw == double.class || raw == Double.class) return (TypeAdapter<T>)new DoubleAdapter(specialFloatingPointValues);
+    if (raw == float.class || raw == Float.class) return (TypeAdapter<T>)new FloatAdapter(specialFloatingPointValues);
+    return null;
+  }
+
+  /**
+   * doubleの値を書き込む
+   * @param out 出力
+   * @param value 値
+   * @throws IOException
+   */
+  static void writeDouble(JsonWriter out, double value) throws IOException {
+    if (value != value || Double.isInfinite(value)) {
+      out.value(value);
+      return;
+    }
+    if (isIntegral(value)) {
+      out.value((long)value);
+      return;
+    }
+    String text = fixed(value, false);
+    if (text == null) out.value(value);
+    else out.value(new LazilyParsedNumber(text));
+  }
+
+  /**
+   * floatの値を書き込む。Gsonと同じく、読み込み時にはdoubleとして解析してからfloatにされるものとする。
+   * @param out 出力
+   * @param value 値
+   * @throws IOException
+   */
+  static void writeFloat(JsonWriter out, float value) throws IOException {
+    if (value != value || Float.isInfinite(value)) {
+      out.value(Float.valueOf(value));
+      return;
+    }
+    if (isIntegral(value)) {
+      out.value((long)value);
+      return;
+    }
+    String text = fixed(value, true);
+    if (text == null) out.value(Float.valueOf(value));
+    else out.value(new LazilyParsedNumber(text));
+  }
+
+  /** -0.0以外の、longとして正確に書き込める整数値か */
+  private static boolean isIntegral(double value) {
+    return value == Math.rint(value) && Math.abs(value) < INTEGRAL_LIMIT
+        && (value != 0 || Double.doubleToRawLongBits(value) == 0);
+  }
+
+  /**
+   * 元の値に正確に戻る、最も小数桁数の少ない固定小数点表現を取得する。
+   * 仮数m（2<sup>53</sup>未満）と小数桁数kについて、m/10<sup>k</sup>の除算は正しく丸められるため、
+   * これが元の値に等しければ、文字列からの解析結果も元の値に等しい。
+   * @param value 値。有限であり、整数ではないこと
+   * @param asFloat floatとして元に戻ればよい
+   * @return 文字列。見つからない場合、範囲外の場合はnull
+   */
+  static String fixed(double value, boolean asFloat) {
+    double abs = Math.abs(value);
+    if (abs < FIXED_MIN || abs >= FIXED_MAX) return null;
+    for (int k = 1; k < POWERS.length; k++) {
+      double scaled = Math.rint(abs * POWERS[k]);
+      if (scaled >= INTEGRAL_LIMIT) return null;
+      double restored = scaled / POWERS[k];
+      if (asFloat? (float)restored == (float)abs : restored == abs) {
+        return format(value < 0, (long)scaled, k);
+      }
+    }
+    return null;
+  }
+
+  /** 仮数と小数桁数から文字列を組み立てる */
+  private static String format(boolean negative, long mantissa, int fractionDigits) {
+    char[]buffer = new char[24];
+    int pos = buffer.length;
+    for (int i = 0; i < fractionDigits; i++) {
+      buffer[--pos] = (char)('0' + mantissa % 10);
+      mantissa /= 10;
+    }
+    buffer[--pos] = '.';
+    do {
+      buffer[--pos] = (char)('0' + mantissa % 10);
+      mantissa /= 10;
+    } while (mantissa != 0);
+    if (negative) buffer[--pos] = '-';
+    return new String(buffer, pos, buffer.length - pos);
+  }
+
+  /** NaN、Infinityを書き込めない場合の、Gsonと同じ例外 */
+  static void checkValidFloatingPoint(double value) {
+    if (Double.isNaN(value) || Double.isInfinite(value)) {
+      throw new IllegalArgumentException(value + " is not a valid double value as per JSON specification. To override this"
+          + " behavior, use GsonBuilder.serializeSpecialFloatingPointValues() method.");
+    }
+  }
+
+  /** double、Doubleのアダプタ */
+  static class DoubleAdapter extends TypeAdapter<Double> {
+    private final boolean specialFloatingPointValues;
+    DoubleAdapter(boolean specialFloatingPointValues) {
+      this.specialFloatingPointValues = specialFloatingPointValues;
+    }
+    @Override
+    public void write(JsonWriter out, Double value) throws IOException {
+      if (value == null) {
+        out.nullValue();
+        return;
+      }
+      if (!specialFloatingPointValues) checkValidFloatingPoint(value);
+      writeDouble(out, value);
+    }
+    @Override
+    public Double read(JsonReader in) throws IOException {
+      if (GeneratedAdapter.skipNull(in)) return null;
+      return in.nextDouble();
+    }
+  }
+
+  /** float、Floatのアダプタ */
+  static class FloatAdapter extends TypeAdapter<Float> {
+    private final boolean specialFloatingPointValues;
+    FloatAdapter(boolean specialFloatingPointValues) {
+      this.specialFloatingPointValues = specialFloatingPointValues;
+    }
+    @Override
+    public void write(JsonWriter out, Float value) throws IOException {
+      if (value == null) {
+        out.nullValue();
+        return;
+      }
+      if (!specialFloatingPointValues) checkValidFloatingPoint(value);
+      writeFloat(out, value);
+    }
+    @Override
+    public Float read(JsonReader in) throws IOException {
+      if (GeneratedAdapter.skipNull(in)) return null;
+      return (float)in.nextDouble();
+    }
+  }
+}
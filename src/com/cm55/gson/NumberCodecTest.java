@@ -0,0 +1,155 @@
+package com.cm55.gson;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+import java.util.function.*;
+
+import org.junit.*;
+
+import com.google.gson.*;
+import com.google.gson.stream.*;
+
+public class NumberCodecTest {
+
+  /** 各性質について試す値の数 */
+  static final int COUNT = 100000;
+
+  @Test
+  public void 表記() throws IOException {
+    assertEquals("2", doubleText(2.0));
+    assertEquals("-3", doubleText(-3.0));
+    assertEquals("-0.0", doubleText(-0.0));
+    assertEquals("0.1", doubleText(0.1));
+    assertEquals("-1.25", doubleText(-1.25));
+    assertEquals("0.001", doubleText(0.001));
+    assertEquals("NaN", doubleText(Double.NaN));
+    assertEquals("-Infinity", doubleText(Double.NEGATIVE_INFINITY));
+    assertEquals("1.0E-4", doubleText(1e-4));
+    assertEquals("1.0E300", doubleText(1e300));
+    assertEquals("2.25", floatText(2.25f));
+    assertEquals("0.1", floatText(0.1f));
+    assertEquals("3", floatText(3f));
+  }
+
+  @Test
+  public void 任意のビット列() throws IOException {
+    Random random = new Random(1);
+    forAll(random, r->Double.longBitsToDouble(r.nextLong()));
+  }
+
+  @Test
+  public void 短い小数() throws IOException {
+    long[]scales = { 1, 10, 100, 1000, 10000, 100000, 1000000, 10000000 };
+    forAll(new Random(2), r->(r.nextInt(2000000000) - 1000000000) / (double)scales[r.nextInt(scales.length)]);
+  }
+
+  @Test
+  public void 範囲内の実数() throws IOException {
+    forAll(new Random(3), r->(r.nextDouble() - 0.5) * Math.pow(10, r.nextInt(12) - 3));
+  }
+
+  @Test
+  public void 整数() throws IOException {
+    forAll(new Random(4), r->(double)(r.nextLong() >> r.nextInt(64)));
+  }
+
+  @Test
+  public void 境界値() throws IOException {
+    double[]values = {
+      0.0, -0.0, Double.MIN_VALUE, -Double.MIN_VALUE, Double.MAX_VALUE, Double.MIN_NORMAL,
+      1L << 53, (1L << 53) - 1, -(1L << 53), 0.001, Math.nextDown(0.001), 1e7, Math.nextDown(1e7),
+      Math.PI, Math.E, 1.0 / 3, 2.0 / 3, 0.1 + 0.2, Long.MAX_VALUE, Long.MIN_VALUE,
+    };
+    for (double value: values) {
+      checkDouble(value);
+      checkFloat((float)value);
+    }
+  }
+
+  @Test
+  public void シリアライザ() {
+    boolean saved = Settings.FAST_NUMBER_CODEC;
+    Settings.FAST_NUMBER_CODEC = true;
+    Serializer<Sample>serializer;
+    try {
+      serializer = new Serializer<>(Sample.class);
+    } finally {
+      Settings.FAST_NUMBER_CODEC = saved;
+    }
+    Sample sample = new Sample();
+    String json = serializer.serialize(sample);
+    assertEquals("{\"d\":2,\"boxed\":0.1,\"f\":2.5,\"array\":[1,-0.0,0.3,NaN],\"list\":[4,1.0E-5,null]}", json);
+
+    Sample result = serializer.deserialize(json);
+    assertEquals(2.0, result.d, 0);
+    assertEquals(Double.valueOf(0.1), result.boxed);
+    assertEquals(2.5f, result.f, 0);
+    assertArrayEquals(sample.array, result.array, 0);
+    assertEquals(Double.doubleToRawLongBits(-0.0), Double.doubleToRawLongBits(result.array[1]));
+    assertEquals(sample.list, result.list);
+
+    // 従来の表記も読み込める
+    assertEquals(json, serializer.serialize(new Serializer<>(Sample.class).deserialize(new Serializer<>(Sample.class).serialize(sample))));
+  }
+
+  /** 生成される値のすべてについて、doubleとfloatの往復を確認する */
+  private static void forAll(Random random, Function<Random, Double>generator) throws IOException {
+    for (int i = 0; i < COUNT; i++) {
+      double value = generator.apply(random);
+      checkDouble(value);
+      checkFloat((float)value);
+    }
+  }
+
+  /** JDKの解析で元の値に戻り、JDKの表記より長くならないこと */
+  private static void checkDouble(double value) throws IOException {
+    String text = doubleText(value);
+    assertEquals(text, Double.doubleToLongBits(value), Double.doubleToLongBits(Double.parseDouble(text)));
+    assertEquals(text, Double.doubleToLongBits(value), Double.doubleToLongBits(readDouble(text)));
+    if (value != Math.rint(value)) assertTrue(text, text.length() <= Double.toString(value).length());
+  }
+
+  /** Gsonと同じくdoubleとして解析してからfloatにすると、元の値に戻ること */
+  private static void checkFloat(float value) throws IOException {
+    String text = floatText(value);
+    assertEquals(text, Float.floatToIntBits(value), Float.floatToIntBits((float)Double.parseDouble(text)));
+    if (value != Math.rint(value)) assertTrue(text, text.length() <= Float.toString(value).length());
+  }
+
+  private static String doubleText(double value) throws IOException {
+    return write(out->NumberCodec.writeDouble(out, value));
+  }
+
+  private static String floatText(float value) throws IOException {
+    return write(out->NumberCodec.writeFloat(out, value));
+  }
+
+  private static double readDouble(String text) throws IOException {
+    JsonReader in = new JsonReader(new StringReader(text));
+    in.setLenient(true);
+    return in.nextDouble();
+  }
+
+  private interface Writing {
+    void write(JsonWriter out) throws IOException;
+  }
+
+  private static String write(Writing writing) throws IOException {
+    StringWriter writer = new StringWriter();
+    JsonWriter out = new JsonWriter(writer);
+    out.setLenient(true);
+    writing.write(out);
+    out.flush();
+    return writer.toString();
+  }
+
+  public static class Sample {
+    double d = 2;
+    Double boxed = 0.1;
+    float f = 2.5f;
+    double[]array = { 1, -0.0, 0.3, Double.NaN };
+    List<Double>list = Arrays.asList(4.0, 1e-5, null);
+  }
+}
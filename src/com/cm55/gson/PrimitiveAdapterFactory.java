@@ -0,0 +1,236 @@
+package com.cm55.gson;
+
+import java.io.*;
+import java.lang.reflect.*;
+import java.util.*;
+
+import com.google.gson.*;
+import com.google.gson.internal.*;
+import com.google.gson.reflect.*;
+import com.google.gson.stream.*;
+
+/**
+ * プリミティブ配列及びプリミティブをキーとするマップのアダプタを作成するファクトリ
+ * <p>
+ * {@code int[]}、{@code long[]}、{@code double[]}の要素、{@code Map<Integer, V>}、{@code Map<Long, V>}のキーを、
+ * ボクシングや{@link JsonElement}を経由せずに直接読み書きする。
+ * Gsonの標準のアダプタは、配列要素を一旦ボクシングしてリストに格納し、マップのキーはツリー（{@link JsonElement}）に変換してから
+ * 名前にする。
+ * </p>
+ * <p>
+ * 出力されるJSONはGsonの標準のアダプタと同一であり、既存のデータもそのまま読み込むことができる。
+ * マップはキーを文字列とするオブジェクトとして書き込み、読み込み時には、キーと値の組の配列による形式
+ * （{@link Settings#ENABLE_COMPLEX_MAP_KEY_SERIALIZATION}で複雑なキーがある場合の形式）も受け付ける。
+ * {@link Settings#USE_PRIMITIVE_ADAPTERS}がtrueの場合に{@link Serializer}が登録する。
+ * </p>
+ * @author ysugimura
+ */
+class PrimitiveAdapterFactory implements TypeAdapterFactory {
+
+  /** NaN、Infinityを書き込めるか */
+  private final boolean specialFloatingPointValues;
+
+  /** doubleを{@link NumberCodec}で書き込む */
+  private final boolean fastNumbers;
+
+  PrimitiveAdapterFactory(boolean specialFloatingPointValues, boolean fastNumbers) {
+    this.specialFloatingPointValues = specialFloatingPointValues;
+    this.fastNumbers = fastNumbers;
+  }
+
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  @Override
+  public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> typeToken) {
+    Class<?> raw = typeToken.getRawType();
+    if (raw == int[].class) return (TypeAdapter<T>)new IntArrayAdapter();
+    if (raw == long[].class) return (TypeAdapter<T>)new LongArrayAdapter();
+    if (raw == double[].class) return (TypeAdapter<T>)new DoubleArrayAdapter(specialFloatingPointValues, fastNumbers);
+    if (!Map.class.isAssignableFrom(raw)) return null;
+
+    // キーがIntegerあるいはLongのマップ
+    Type type = typeToken.getType();
+    if (!(type instanceof ParameterizedType)) return null;
+    Type[]keyAndValue = $Gson$Types.getMapKeyAndValueTypes(type, raw);
+    if (keyAndValue[0] != Integer.class && keyAndValue[0] != Long.class) return null;
+    return new PrimitiveKeyMapAdapter(gson, keyAndValue[0] == Long.class, keyAndValue[1],
+        gson.getAdapter(TypeToken.get(keyAndValue[1])),
+        new ConstructorConstructor(Collections.emptyMap()).get(typeToken));
+  }
+
+  /** 配列要素がnullの場合。Gsonと同じくIllegalArgumentExceptionとする */
+  private static IllegalArgumentException nullElement() {
+    return new IllegalArgumentException("null element in primitive array");
+  }
+
+  /** int[]のアダプタ */
+  static class IntArrayAdapter extends TypeAdapter<int[]> {
+    @Override
+    public void write(JsonWriter out, int[] value) throws IOException {
+      if (value == null) {
+        out.nullValue();
+        return;
+      }
+      out.beginArray();
+      for (int v: value) out.value(v);
+      out.endArray();
+    }
+
+    @Override
+    public int[] read(JsonReader in) throws IOException {
+      if (GeneratedAdapter.skipNull(in)) return null;
+      int[]array = new int[16];
+      int size = 0;
+      in.beginArray();
+      while (in.hasNext()) {
+        if (in.peek() == JsonToken.NULL) throw nullElement();
+        if (size == array.length) array = Arrays.copyOf(array, size * 2);
+        array[size++] = GeneratedAdapter.nextInt(in);
+      }
+      in.endArray();
+      return Arrays.copyOf(array, size);
+    }
+  }
+
+  /** long[]のアダプタ */
+  static class LongArrayAdapter extends TypeAdapter<long[]> {
+    @Override
+    public void write(JsonWriter out, long[] value) throws IOException {
+      if (value == null) {
+        out.nullValue();
+        return;
+      }
+      out.beginArray();
+      for (long v: value) out.value(v);
+      out.endArray();
+    }
+
+    @Override
+    public long[] read(JsonReader in) throws IOException {
+      if (GeneratedAdapter.skipNull(in)) return null;
+      long[]array = new long[16];
+      int size = 0;
+      in.beginArray();
+      while (in.hasNext()) {
+        if (in.peek() == JsonToken.NULL) throw nullElement();
+        if (size == array.length) array = Arrays.copyOf(array, size * 2);
+        array[size++] = GeneratedAdapter.nextLong(in);
+      }
+      in.endArray();
+      return Arrays.copyOf(array, size);
+    }
+  }
+
+  /** double[]のアダプタ */
+  static class DoubleArrayAdapter extends TypeAdapter<double[]> {
+
+    /** NaN、Infinityを書き込めるか */
+    private final boolean specialFloatingPointValues;
+
+    /** {@link NumberCodec}で書き込む */
+    private final boolean fastNumbers;
+
+    DoubleArrayAdapter(boolean specialFloatingPointValues, boolean fastNumbers) {
+      this.specialFloatingPointValues = specialFloatingPointValues;
+      this.fastNumbers = fastNumbers;
+    }
+
+    @Override
+    public void write(JsonWriter out, double[] value) throws IOException {
+      if (value == null) {
+        out.nullValue();
+        return;
+      }
+      out.beginArray();
+      for (double v: value) {
+        if (!specialFloatingPointValues) NumberCodec.checkValidFloatingPoint(v);
+        if (fastNumbers) NumberCodec.writeDouble(out, v);
+        else out.value(v);
+      }
+      out.endArray();
+    }
+
+    @Override
+    public double[] read(JsonReader in) throws IOException {
+      if (GeneratedAdapter.skipNull(in)) return null;
+      double[]array = new double[16];
+      int size = 0;
+      in.beginArray();
+      while (in.hasNext()) {
+        if (in.peek() == JsonToken.NULL) throw nullElement();
+        if (size == array.length) array = Arrays.copyOf(array, size * 2);
+        array[size++] = in.nextDouble();
+      }
+      in.endArray();
+      return Arrays.copyOf(array, size);
+    }
+  }
+
+  /**
+   * キーがIntegerあるいはLongのマップのアダプタ
+   * @param <V> 値の型
+   */
+  static class PrimitiveKeyMapAdapter<V> extends TypeAdapter<Map<Object, V>> {
+    private final Gson gson;
+    private final boolean longKey;
+    private final Type valueType;
+    private final TypeAdapter<V> valueAdapter;
+    private final ObjectConstructor<? extends Map<Object, V>> constructor;
+
+    PrimitiveKeyMapAdapter(Gson gson, boolean longKey, Type valueType, TypeAdapter<V> valueAdapter,
+        ObjectConstructor<? extends Map<Object, V>> constructor) {
+      this.gson = gson;
+      this.longKey = longKey;
+      this.valueType = valueType;
+      this.valueAdapter = valueAdapter;
+      this.constructor = constructor;
+    }
+
+    @Override
+    public void write(JsonWriter out, Map<Object, V> map) throws IOException {
+      if (map == null) {
+        out.nullValue();
+        return;
+      }
+      out.beginObject();
+      for (Map.Entry<Object, V> entry: map.entrySet()) {
+        out.name(String.valueOf(entry.getKey()));
+        GeneratedAdapter.writeValue(gson, out, valueAdapter, valueType, entry.getValue());
+      }
+      out.endObject();
+    }
+
+    @Override
+    public Map<Object, V> read(JsonReader in) throws IOException {
+      if (GeneratedAdapter.skipNull(in)) return null;
+      Map<Object, V> map = constructor.construct();
+      if (in.peek() == JsonToken.BEGIN_ARRAY) {
+        // キーと値の組の配列
+        in.beginArray();
+        while (in.hasNext()) {
+          in.beginArray();
+          Object key = GeneratedAdapter.skipNull(in)? null:readKey(in);
+          put(map, key, valueAdapter.read(in));
+          in.endArray();
+        }
+        in.endArray();
+      } else {
+        in.beginObject();
+        while (in.hasNext()) {
+          BinaryJsonReader.promoteNameToValue(in);
+          Object key = readKey(in);
+          put(map, key, valueAdapter.read(in));
+        }
+        in.endObject();
+      }
+      return map;
+    }
+
+    private Object readKey(JsonReader in) throws IOException {
+      return longKey? (Object)GeneratedAdapter.nextLong(in):(Object)GeneratedAdapter.nextInt(in);
+    }
+
+    private void put(Map<Object, V> map, Object key, V value) {
+      if (map.put(key, value) != null) throw new JsonSyntaxException("duplicate key: " + key);
+    }
+  }
+}
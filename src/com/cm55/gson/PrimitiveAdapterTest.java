@@ -0,0 +1,124 @@
+package com.cm55.gson;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+import java.util.function.*;
+
+import org.junit.*;
+
+import com.google.gson.*;
+import com.google.gson.reflect.*;
+
+public class PrimitiveAdapterTest {
+
+  @Test
+  public void 使用されるアダプタ() {
+    Gson gson = new GsonBuilder().registerTypeAdapterFactory(new PrimitiveAdapterFactory(true, false)).create();
+    assertTrue(gson.getAdapter(int[].class) instanceof PrimitiveAdapterFactory.IntArrayAdapter);
+    assertTrue(gson.getAdapter(long[].class) instanceof PrimitiveAdapterFactory.LongArrayAdapter);
+    assertTrue(gson.getAdapter(double[].class) instanceof PrimitiveAdapterFactory.DoubleArrayAdapter);
+    assertTrue(gson.getAdapter(new TypeToken<Map<Integer, String>>() {})
+        instanceof PrimitiveAdapterFactory.PrimitiveKeyMapAdapter);
+    assertFalse(gson.getAdapter(new TypeToken<Map<String, String>>() {})
+        instanceof PrimitiveAdapterFactory.PrimitiveKeyMapAdapter);
+  }
+
+  @Test
+  public void 同一の出力() {
+    String[]json = both(s->s.serialize(new Sample()));
+    assertEquals(json[1], json[0]);
+    assertTrue(json[0].contains("\"ints\":[1,-2,2147483647]"));
+    assertTrue(json[0].contains("\"intMap\":{\"1\":\"a\",\"-2\":null}"));
+
+    Sample sample = new Sample();
+    sample.ints = null;
+    sample.longMap = null;
+    sample.doubles = new double[0];
+    json = both(s->s.serialize(sample));
+    assertEquals(json[1], json[0]);
+  }
+
+  @Test
+  public void 復帰() {
+    Serializer<Sample>serializer = new Serializer<>(Sample.class);
+    Sample sample = serializer.deserialize(serializer.serialize(new Sample()));
+    Sample expected = new Sample();
+    assertArrayEquals(expected.ints, sample.ints);
+    assertArrayEquals(expected.longs, sample.longs);
+    assertArrayEquals(expected.doubles, sample.doubles, 0);
+    assertEquals(Double.doubleToLongBits(-0.0), Double.doubleToLongBits(sample.doubles[1]));
+    assertEquals(expected.intMap, sample.intMap);
+    assertEquals(LinkedHashMap.class, sample.intMap.getClass());
+    assertEquals(expected.longMap.keySet(), sample.longMap.keySet());
+    assertEquals(TreeMap.class, sample.longMap.getClass());
+    assertEquals(Item.class, sample.longMap.get(Long.MIN_VALUE).getClass());
+
+    // キーと値の組の配列による形式
+    sample = serializer.deserialize("{\"intMap\":[[3,\"c\"],[null,\"n\"]],\"longs\":[\"5\",6.0]}");
+    assertEquals("c", sample.intMap.get(3));
+    assertEquals("n", sample.intMap.get(null));
+    assertArrayEquals(new long[] { 5, 6 }, sample.longs);
+
+    // 大きな配列
+    int[]large = new int[1000];
+    for (int i = 0; i < large.length; i++) large[i] = i * 31;
+    sample = new Sample();
+    sample.ints = large;
+    assertArrayEquals(large, serializer.deserialize(serializer.serialize(sample)).ints);
+  }
+
+  @Test
+  public void エラー() {
+    String[]errors = {
+      "{\"ints\":[1.5]}",
+      "{\"ints\":[\"x\"]}",
+      "{\"intMap\":{\"1\":\"a\",\"1\":\"b\"}}",
+      "{\"intMap\":{\"x\":\"a\"}}",
+    };
+    for (String error: errors) {
+      String[]messages = both(s->{
+        try {
+          s.deserialize(error);
+          return "no error";
+        } catch (JsonException ex) {
+          return ex.getCause().getClass().getName();
+        }
+      });
+      assertEquals(error, messages[1], messages[0]);
+      assertEquals(JsonSyntaxException.class.getName(), messages[0]);
+    }
+  }
+
+  /** 専用アダプタを使用した場合、使用しない場合の結果を取得する */
+  private static String[]both(Function<Serializer<Sample>, String>function) {
+    String primitive = function.apply(new Serializer<>(Sample.class));
+    boolean saved = Settings.USE_PRIMITIVE_ADAPTERS;
+    Settings.USE_PRIMITIVE_ADAPTERS = false;
+    Serializer<Sample>standard;
+    try {
+      standard = new Serializer<>(Sample.class);
+    } finally {
+      Settings.USE_PRIMITIVE_ADAPTERS = saved;
+    }
+    return new String[] { primitive, function.apply(standard) };
+  }
+
+  public static class Sample {
+    int[]ints = { 1, -2, Integer.MAX_VALUE };
+    long[]longs = { Long.MIN_VALUE, 0, 3 };
+    double[]doubles = { 1.5, -0.0, 1e300, 2, Double.NaN, Double.NEGATIVE_INFINITY };
+    Map<Integer, String>intMap = new LinkedHashMap<>();
+    SortedMap<Long, Item>longMap = new TreeMap<>();
+    Sample() {
+      intMap.put(1, "a");
+      intMap.put(-2, null);
+      longMap.put(Long.MIN_VALUE, new Item());
+      longMap.put(7L, null);
+    }
+  }
+
+  public static class Item {
+    String name = "item";
+  }
+}
@@ -0,0 +1,166 @@
+package com.cm55.gson;
+
+import java.io.*;
+import java.util.*;
+
+import com.cm55.gson.JsonMetrics.*;
+import com.google.gson.*;
+import com.google.gson.internal.bind.*;
+import com.google.gson.stream.*;
+
+/**
+ * 指定されたフィールドのみを復帰する
+ * <p>
+ * {@link Serializer#projection(String...)}で作成する。フィールドはJSON中の名称を"."で区切ったパスで指定し、
+ * 例えば{@code serializer.projection("id", "header.ts").deserialize(json)}とすると、
+ * ルートのid、及びheaderのtsのみが読み込まれる。指定されなかったフィールドは入力の解析時に{@link JsonReader#skipValue()}で読み飛ばされ、
+ * オブジェクトも作成されない。復帰されたオブジェクトのそれらのフィールドは、コンストラクタによるデフォルト値のままになる。
+ * </p>
+ * <ul>
+ * <li>オブジェクトのフィールドを指定すると、その値全体が読み込まれる。
+ * <li>配列（リスト等）に続くパスは、その各要素に適用される。
+ * <li>{@link MultiHandler}による値に続くパスは、データ部分に適用される。タイプマーカは常に読み込まれる。
+ * {@link MultiHandler}による値とみなすのは、最初のメンバがタイプマーカで、その他にはデータ部分のみを持つオブジェクトである。
+ * <li>マップに続くパスはマップのキーとなる。
+ * </ul>
+ * <p>
+ * {@link Settings#OBJECT_REFERENCES}による参照を扱うシリアライザでは作成できない。
+ * </p>
+ * <p>
+ * このオブジェクトはスレッドセーフであり、作成したシリアライザと同じく複数のスレッドから同時に使用してよい。
+ * </p>
+ * @author ysugimura
+ * @param <T> 対象とする型
+ */
+public class Projection<T> {
+
+  /** 復帰に使用するシリアライザ */
+  private final Serializer<T> serializer;
+
+  /** ルートのノード */
+  private final Node root = new Node();
+
+  Projection(Serializer<T> serializer, String... paths) {
+    this.serializer = serializer;
+    for (String path: paths) {
+      Node node = root;
+      for (String name: path.split("\\.", -1)) {
+        if (name.isEmpty()) throw new IllegalArgumentException("Invalid path: " + path);
+        node = node.children.computeIfAbsent(name, n -> new Node());
+      }
+      node.whole = true;
+    }
+  }
+
+  /**
+   * JSON文字列から、指定されたフィールドのみを復帰する。
+   * JSON文字列がnullの場合はnullを返す。
+   * @param json JSON文字列
+   * @return 復帰されたオブジェクト、あるいはnull
+   */
+  public T deserialize(String json) {
+    if (json == null) return null;
+    return deserialize(new StringReader(json));
+  }
+
+  /**
+   * JSON入力から、指定されたフィールドのみを復帰する。
+   * 入力がnullの場合はnullを返す。
+   * @param reader JSON入力
+   * @return 復帰されたオブジェクト、あるいはnull
+   */
+  public T deserialize(Reader reader) {
+    if (reader == null) return null;
+    JsonMetrics metrics = serializer.getMetrics();
+    if (metrics == null) return serializer.fromTree(() -> read(reader));
+    long start = System.nanoTime();
+    CountingReader counter = new CountingReader(reader);
+    T result = serializer.fromTree(() -> read(counter));
+    metrics.record(Operation.DESERIALIZE, System.nanoTime() - start, counter.getCount(), 0);
+    return result;
+  }
+
+  /**
+   * 入力から、指定されたフィールドのみのツリーを作成する。
+   * {@link Gson#fromJson(Reader, java.lang.reflect.Type)}と同じく、空の入力はnullとし、例外を変換する。
+   */
+  private JsonElement read(Reader reader) {
+    JsonReader in = new JsonReader(reader);
+    in.setLenient(true);
+    try {
+      try {
+        in.peek();
+      } catch (EOFException ex) {
+        return JsonNull.INSTANCE;
+      }
+      JsonElement tree = read(in, root);
+      if (in.peek() != JsonToken.END_DOCUMENT) throw new JsonSyntaxException("JSON document was not fully consumed.");
+      return tree;
+    } catch (MalformedJsonException | IllegalStateException | NumberFormatException ex) {
+      throw new JsonSyntaxException(ex);
+    } catch (IOException ex) {
+      throw new JsonIOException(ex);
+    }
+  }
+
+  /** ノードに従って一つの値を読み込む */
+  private static JsonElement read(JsonReader in, Node node) throws IOException {
+    if (node.whole) return TypeAdapters.JSON_ELEMENT.read(in);
+    switch (in.peek()) {
+    case BEGIN_ARRAY: {
+      JsonArray array = new JsonArray();
+      in.beginArray();
+      while (in.hasNext()) array.add(read(in, node));
+      in.endArray();
+      return array;
+    }
+    case BEGIN_OBJECT: {
+      JsonObject object = new JsonObject();
+      in.beginObject();
+      String name = in.hasNext()? in.nextName():null;
+      if (Settings.MULTIHANDLER_TYPE_MARKER.equals(name) && !node.children.containsKey(name) &&
+          in.peek() == JsonToken.STRING) {
+        String type = in.nextString();
+        name = in.hasNext()? in.nextName():null;
+        if (Settings.MULTIHANDLER_DATA_MARKER.equals(name)) {
+          // MultiHandlerのデータ部分には同じノードを適用する。ただし、三つ目のメンバがあればMultiHandlerによる値ではない。
+          // データ部分という名称のフィールドが指定されている場合は、いずれにも対応できるよう全体を読み込んでおく
+          Node child = node.children.get(name);
+          JsonElement data = child == null? read(in, node):TypeAdapters.JSON_ELEMENT.read(in);
+          if (!in.hasNext()) {
+            object.addProperty(Settings.MULTIHANDLER_TYPE_MARKER, type);
+            object.add(name, child == null? data:read(new JsonTreeReader(data), node));
+            in.endObject();
+            return object;
+          }
+          if (child != null) object.add(name, read(new JsonTreeReader(data), child));
+          name = in.nextName();
+        }
+      }
+      while (name != null) {
+        Node child = node.children.get(name);
+        if (child != null) {
+          object.add(name, read(in, child));
+        } else {
+          in.skipValue();
+        }
+        name = in.hasNext()? in.nextName():null;
+      }
+      in.endObject();
+      return object;
+    }
+    default:
+      return TypeAdapters.JSON_ELEMENT.read(in);
+    }
+  }
+
+  /** パスの一つの要素 */
+  private static class Node {
+
+    /** 値全体を読み込む */
+    boolean whole;
+
+    /** フィールド名／下位のノード */
+    final Map<String, Node> children = new HashMap<>();
+  }
+}
@@ -0,0 +1,162 @@
+package com.cm55.gson;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.*;
+
+import com.cm55.gson.JsonMetrics.*;
+import com.cm55.gson.SerializerTest.*;
+
+/**
+ * 指定されたフィールドのみの復帰のテスト
+ * @author ysugimura
+ */
+public class ProjectionTest {
+
+  @Test
+  public void フィールドの指定() {
+    Serializer<Message>serializer = new Serializer<>(Message.class);
+    String json = serializer.serialize(sample());
+
+    Message result = serializer.projection("id", "header.ts").deserialize(json);
+    assertEquals(42, result.id);
+    assertEquals(1000, result.header.ts);
+    assertEquals("default", result.header.source);
+    assertTrue(result.items.isEmpty());
+    assertNull(result.note);
+
+    // オブジェクト全体、配列の各要素
+    result = serializer.projection("header", "items.price").deserialize(new StringReader(json));
+    assertEquals(0, result.id);
+    assertEquals("feed", result.header.source);
+    assertEquals(100, result.items.size());
+    assertEquals(99.5, result.items.get(99).price, 0);
+    assertNull(result.items.get(99).name);
+
+    // 全体を指定した場合は通常の復帰と同じ
+    assertEquals(json, serializer.serialize(serializer.projection("id", "header", "items", "note").deserialize(json)));
+  }
+
+  @Test
+  public void マルチハンドラ() {
+    Serializer<ArrayList<Various>>serializer = new Serializer<>(VariousArrayListHandler.INSTANCE);
+    ArrayList<Various>list = new ArrayList<>();
+    FooOne one = new FooOne();
+    one.one = 9;
+    list.add(new Various(1, "a", one));
+    list.add(new Various(2, "b", new FooTwo()));
+    ArrayList<Various>result = serializer.projection("foo.one").deserialize(serializer.serialize(list));
+    assertEquals(9, ((FooOne)result.get(0).foo).one);
+    assertEquals(0, result.get(0).i);
+    assertNull(result.get(0).s);
+    assertTrue(result.get(1).foo instanceof FooTwo);
+  }
+
+  @Test
+  public void マルチハンドラでないオブジェクト() {
+    // タイプマーカ、データ部分と同じ名称のフィールドを持つが、MultiHandlerによる値ではない
+    Serializer<Marked>serializer = new Serializer<>(Marked.class);
+    Marked marked = new Marked();
+    marked.T = "t";
+    marked.D.ts = 7;
+    marked.x = 5;
+    String json = serializer.serialize(marked);
+    Marked result = serializer.projection("x").deserialize(json);
+    assertNull(result.T);
+    assertEquals(0, result.D.ts);
+    assertEquals(5, result.x);
+    result = serializer.projection("D.ts").deserialize(json);
+    assertNull(result.T);
+    assertEquals(7, result.D.ts);
+    assertEquals(0, result.x);
+  }
+
+  @Test
+  public void nullとエラー() {
+    Serializer<Message>serializer = new Serializer<>(Message.class);
+    Projection<Message>projection = serializer.projection("id");
+    assertNull(projection.deserialize((String)null));
+    assertNull(projection.deserialize(""));
+    assertNull(projection.deserialize("null"));
+    for (String error: new String[] { "{\"id\":", "{\"id\":\"x\"}", "{} {}" }) {
+      try {
+        projection.deserialize(error);
+        fail(error);
+      } catch (JsonException ex) {
+      }
+    }
+    for (String path: new String[] { "", "a..b", "a." }) {
+      try {
+        serializer.projection(path);
+        fail(path);
+      } catch (IllegalArgumentException ex) {
+      }
+    }
+  }
+
+  @Test
+  public void 参照モード() {
+    boolean saved = Settings.OBJECT_REFERENCES;
+    Settings.OBJECT_REFERENCES = true;
+    Serializer<Message>serializer;
+    try {
+      serializer = new Serializer<>(Message.class);
+    } finally {
+      Settings.OBJECT_REFERENCES = saved;
+    }
+    try {
+      serializer.projection("id");
+      fail();
+    } catch (JsonException ex) {
+    }
+  }
+
+  @Test
+  public void 計測() {
+    JsonStatistics statistics = new JsonStatistics();
+    Serializer<Message>serializer = new Serializer<>(Message.class).setMetrics(statistics);
+    String json = new Serializer<>(Message.class).serialize(sample());
+    serializer.projection("id").deserialize(json);
+    assertEquals(json.length(), statistics.getSizeIn(Operation.DESERIALIZE));
+  }
+
+  private static Message sample() {
+    Message message = new Message();
+    message.id = 42;
+    message.header.ts = 1000;
+    message.header.source = "feed";
+    message.note = "note";
+    for (int i = 0; i < 100; i++) message.items.add(new Item("item" + i, i + 0.5));
+    return message;
+  }
+
+  public static class Header {
+    long ts;
+    String source = "default";
+  }
+
+  public static class Item {
+    String name;
+    double price;
+    Item(String name, double price) {
+      this.name = name;
+      this.price = price;
+    }
+  }
+
+  public static class Marked {
+    String T;
+    Header D = new Header();
+    int x;
+  }
+
+  public static class Message {
+    int id;
+    Header header = new Header();
+    List<Item>items = new ArrayList<>();
+    String note;
+  }
+}
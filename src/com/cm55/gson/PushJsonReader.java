@@ -0,0 +1,230 @@
+package com.cm55.gson;
+
+import java.io.*;
+import java.util.*;
+
+import com.google.gson.stream.*;
+
+/**
+ * 外部から追加されたトークンを読み込む{@link JsonReader}
+ * <p>
+ * {@link FixerSession}が入力を区切ったトークンを{@link #add(JsonToken, String)}で追加し、
+ * {@link FixingJsonReader}がそれを読み込む。追加されたトークンは読み込まれた時点で捨てられるので、
+ * 保持するのは未だ読み込まれていない僅かなトークンのみである。
+ * </p>
+ * <p>
+ * 読み込めるトークンが無い場合には{@link Starved}を送出する。トークンを消費する前に送出されるので、
+ * トークンを追加した後に同じ呼び出しをやり直すことができる。
+ * {@link FixingJsonReader}はフィールド名に続く二つまでのトークンを一度に読み込むことがあるため、
+ * フィールド名は、それに続く二つのトークンが追加されるか、ドキュメントが終了するまで読み込めないものとする。
+ * </p>
+ * @author ysugimura
+ */
+class PushJsonReader extends JsonReader {
+
+  /** {@link JsonReader}には入力が必要だが、使用されない */
+  private static final Reader UNREADABLE_READER = new Reader() {
+    @Override public int read(char[] buffer, int offset, int count) {
+      throw new AssertionError();
+    }
+    @Override public void close() {
+      throw new AssertionError();
+    }
+  };
+
+  /** 読み込めるトークンが無いことを示す例外。スタックトレースを持たない */
+  @SuppressWarnings("serial")
+  static class Starved extends RuntimeException {
+    private Starved() {
+      super("No token available", null, false, false);
+    }
+  }
+
+  /** 唯一の{@link Starved} */
+  private static final Starved STARVED = new Starved();
+
+  /** フィールド名と共に読み込まれることのあるトークンの数 */
+  private static final int LOOKAHEAD = 2;
+
+  /** 追加されたトークンと値（名前、文字列、数値、真偽値の表記） */
+  private JsonToken[]tokens = new JsonToken[8];
+  private String[]values = new String[8];
+
+  /** 先頭のトークンの位置 */
+  private int head;
+
+  /** トークン数 */
+  private int size;
+
+  /** 読み込めるトークン数 */
+  private int available;
+
+  /** ドキュメントが終了した */
+  private boolean complete;
+
+  PushJsonReader() {
+    super(UNREADABLE_READER);
+    setLenient(true);
+  }
+
+  /**
+   * トークンを追加する
+   * @param token トークン
+   * @param value 名前、文字列、数値、真偽値の表記。それ以外はnull
+   */
+  void add(JsonToken token, String value) {
+    if (head + size == tokens.length) {
+      if (head > 0) {
+        System.arraycopy(tokens, head, tokens, 0, size);
+        System.arraycopy(values, head, values, 0, size);
+        Arrays.fill(values, size, head + size, null);
+        head = 0;
+      } else {
+        tokens = Arrays.copyOf(tokens, size * 2);
+        values = Arrays.copyOf(values, size * 2);
+      }
+    }
+    tokens[head + size] = token;
+    values[head + size] = value;
+    size++;
+    release();
+  }
+
+  /** ドキュメントの終了を通知する。以降、残りのトークンはすべて読み込め、その後は{@link JsonToken#END_DOCUMENT}となる */
+  void complete() {
+    complete = true;
+    release();
+  }
+
+  /** フィールド名の後のトークンが揃っていれば読み込めるようにする */
+  private void release() {
+    while (available < size) {
+      if (!complete && tokens[head + available] == JsonToken.NAME && size - available <= LOOKAHEAD) return;
+      available++;
+    }
+  }
+
+  /** 先頭のトークンを取得する。読み込めない場合は{@link Starved}を送出する */
+  private JsonToken head() {
+    if (available > 0) return tokens[head];
+    if (complete) return JsonToken.END_DOCUMENT;
+    throw STARVED;
+  }
+
+  /** 先頭のトークンが指定されたものであることを確認して取り除き、その値を返す */
+  private String take(JsonToken expected) {
+    JsonToken token = head();
+    if (token != expected) throw new IllegalStateException("Expected " + expected + " but was " + token);
+    String value = values[head];
+    values[head] = null;
+    head++;
+    size--;
+    available--;
+    if (size == 0) head = 0;
+    return value;
+  }
+
+  @Override
+  public JsonToken peek() throws IOException {
+    return head();
+  }
+
+  @Override
+  public boolean hasNext() throws IOException {
+    JsonToken token = head();
+    return token != JsonToken.END_OBJECT && token != JsonToken.END_ARRAY && token != JsonToken.END_DOCUMENT;
+  }
+
+  @Override
+  public void beginArray() throws IOException {
+    take(JsonToken.BEGIN_ARRAY);
+  }
+
+  @Override
+  public void endArray() throws IOException {
+    take(JsonToken.END_ARRAY);
+  }
+
+  @Override
+  public void beginObject() throws IOException {
+    take(JsonToken.BEGIN_OBJECT);
+  }
+
+  @Override
+  public void endObject() throws IOException {
+    take(JsonToken.END_OBJECT);
+  }
+
+  @Override
+  public String nextName() throws IOException {
+    return take(JsonToken.NAME);
+  }
+
+  @Override
+  public String nextString() throws IOException {
+    JsonToken token = head();
+    return take(token == JsonToken.NUMBER? token:JsonToken.STRING);
+  }
+
+  @Override
+  public boolean nextBoolean() throws IOException {
+    return Boolean.parseBoolean(take(JsonToken.BOOLEAN));
+  }
+
+  @Override
+  public void nextNull() throws IOException {
+    take(JsonToken.NULL);
+  }
+
+  @Override
+  public double nextDouble() throws IOException {
+    return Double.parseDouble(nextString());
+  }
+
+  @Override
+  public long nextLong() throws IOException {
+    String string = nextString();
+    try {
+      return Long.parseLong(string);
+    } catch (NumberFormatException ex) {
+      double value = Double.parseDouble(string);
+      long result = (long)value;
+      if (result != value) throw new NumberFormatException("Expected a long but was " + string);
+      return result;
+    }
+  }
+
+  @Override
+  public int nextInt() throws IOException {
+    long value = nextLong();
+    int result = (int)value;
+    if (result != value) throw new NumberFormatException("Expected an int but was " + value);
+    return result;
+  }
+
+  @Override
+  public void skipValue() throws IOException {
+    int count = 0;
+    do {
+      JsonToken token = head();
+      if (token == JsonToken.BEGIN_ARRAY || token == JsonToken.BEGIN_OBJECT) count++;
+      else if (token == JsonToken.END_ARRAY || token == JsonToken.END_OBJECT) count--;
+      else if (token == JsonToken.END_DOCUMENT) return;
+      take(token);
+    } while (count > 0);
+  }
+
+  @Override
+  public void close() {
+  }
+
+  @Override
+  public String getPath() {
+    return "$";
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName();
+  }
+}
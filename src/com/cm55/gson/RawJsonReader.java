@@ -0,0 +1,203 @@
+package com.cm55.gson;
+
+import java.io.*;
+
+import com.google.gson.stream.*;
+
+/**
+ * 値の元の文字列を取得できる{@link JsonReader}
+ * <p>
+ * {@link #nextRaw()}により次の値を読み飛ばし、入力中のその値の文字列をそのまま取得する。
+ * {@link Lazy}の復帰時に、値を解析してもう一度JSONにすることなく写し取るために用いる。
+ * </p>
+ * <p>
+ * {@link JsonReader}は入力中の位置を公開していないので、{@link JsonReader#toString()}の行・桁から求める。
+ * 入力が{@link Reader}の場合は、読み込まれた文字のうち{@link JsonReader}が未だ解析していない可能性のある部分のみを保持する。
+ * </p>
+ * @author ysugimura
+ */
+class RawJsonReader extends JsonReader {
+
+  /** {@link JsonReader#toString()}の先頭 */
+  private static final String LOCATION = RawJsonReader.class.getSimpleName() + " at line ";
+
+  /** 入力 */
+  private final Source source;
+
+  /** 文字列を入力とする */
+  RawJsonReader(String json) {
+    this(new Source(json));
+  }
+
+  /** {@link Reader}を入力とする */
+  RawJsonReader(Reader reader) {
+    this(new Source(reader));
+  }
+
+  private RawJsonReader(Source source) {
+    super(source);
+    this.source = source;
+  }
+
+  /**
+   * 次の値を読み飛ばし、入力中のその値の文字列をそのまま取得する。
+   * 対象はオブジェクトと配列のみであり、それ以外の値の場合、あるいは位置が得られない場合には何もせずにnullを返す。
+   * @return 値の文字列、あるいはnull
+   * @throws IOException
+   */
+  String nextRaw() throws IOException {
+    JsonToken token = peek();
+    if (token != JsonToken.BEGIN_OBJECT && token != JsonToken.BEGIN_ARRAY) return null;
+
+    // peek()で開始の括弧は読み込まれている
+    long start = position();
+    if (start < 0) return null;
+    source.capturing = true;
+    try {
+      skipValue();
+      long end = position();
+      if (end < 0) throw new IllegalStateException();
+      return source.substring(start - 1, end);
+    } finally {
+      source.capturing = false;
+    }
+  }
+
+  /** 現在の位置を{@link JsonReader#toString()}の行・桁から求める。得られない場合は-1 */
+  private long position() {
+    String location = super.toString();
+    if (!location.startsWith(LOCATION)) return -1;
+    int column = location.indexOf(" column ", LOCATION.length());
+    int path = column < 0? -1:location.indexOf(" path ", column);
+    if (path < 0) return -1;
+    try {
+      return source.offset(
+        Integer.parseInt(location.substring(LOCATION.length(), column)) - 1,
+        Integer.parseInt(location.substring(column + " column ".length(), path)) - 1
+      );
+    } catch (NumberFormatException ex) {
+      return -1;
+    }
+  }
+
+  /** 読み込まれた文字を保持する入力 */
+  private static class Source extends FilterReader {
+
+    /** 保持する文字数。{@link JsonReader}のバッファの大きさ（1024文字）より大きくなければならない */
+    private static final int WINDOW = 8192;
+
+    /** 文字列を入力とする場合はその文字列。そうでなければnull */
+    private final String json;
+
+    /** {@link Reader}を入力とする場合に、読み込まれた文字のうち保持している部分。そうでなければnull */
+    private final StringBuilder buffer;
+
+    /** bufferの先頭の位置 */
+    private long base;
+
+    /** 改行を数え終えた位置 */
+    private long scanned;
+
+    /** scannedまでの改行の数 */
+    private int lines;
+
+    /** scannedを含む行の開始位置 */
+    private long lineStart;
+
+    /** 先頭にBOMがある。{@link JsonReader}はこれを桁に数えない */
+    private boolean bom;
+
+    /** 値を写し取っている間はtrueとし、保持している文字を捨てない */
+    boolean capturing;
+
+    Source(String json) {
+      super(new StringReader(json));
+      this.json = json;
+      this.buffer = null;
+      bom = json.startsWith("\uFEFF");
+    }
+
+    Source(Reader reader) {
+      super(reader);
+      this.json = null;
+      this.buffer = new StringBuilder();
+    }
+
+    @Override
+    public int read() throws IOException {
+      int c = super.read();
+      if (c >= 0 && buffer != null) {
+        append(new char[] { (char)c }, 0, 1);
+      }
+      return c;
+    }
+
+    @Override
+    public int read(char[] chars, int offset, int length) throws IOException {
+      int size = super.read(chars, offset, length);
+      if (size > 0 && buffer != null) append(chars, offset, size);
+      return size;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      char[]skipped = new char[(int)Math.min(n, 1024)];
+      return Math.max(read(skipped, 0, skipped.length), 0);
+    }
+
+    @Override
+    public boolean markSupported() {
+      return false;
+    }
+
+    @Override
+    public void mark(int readAheadLimit) throws IOException {
+      throw new IOException("mark() not supported");
+    }
+
+    @Override
+    public void reset() throws IOException {
+      throw new IOException("reset() not supported");
+    }
+
+    /** 読み込まれた文字を保持し、不要になった部分を捨てる */
+    private void append(char[] chars, int offset, int length) {
+      if (base == 0 && buffer.length() == 0) bom = chars[offset] == '\uFEFF';
+      buffer.append(chars, offset, length);
+      if (capturing || buffer.length() < WINDOW * 2) return;
+      long to = base + buffer.length() - WINDOW;
+      while (scanned < to) scan();
+      buffer.delete(0, (int)(to - base));
+      base = to;
+    }
+
+    /** 一文字について改行を数える */
+    private void scan() {
+      char c = json != null? json.charAt((int)scanned):buffer.charAt((int)(scanned - base));
+      scanned++;
+      if (c == '\n') {
+        lines++;
+        lineStart = scanned;
+      }
+    }
+
+    /**
+     * 行・桁の位置を求める
+     * @param line 行（0から）
+     * @param column 桁（0から）
+     * @return 位置
+     */
+    long offset(int line, int column) {
+      long end = json != null? json.length():base + buffer.length();
+      while (lines < line && scanned < end) scan();
+      if (lines != line) throw new IllegalStateException("line " + line);
+      return lineStart + column + (line == 0 && bom? 1:0);
+    }
+
+    /** 保持している範囲の文字列を取得する */
+    String substring(long start, long end) {
+      if (json != null) return json.substring((int)start, (int)end);
+      return buffer.substring((int)(start - base), (int)(end - base));
+    }
+  }
+}
@@ -0,0 +1,371 @@
+package com.cm55.gson;
+
+import java.io.*;
+import java.lang.reflect.*;
+import java.util.*;
+import java.util.function.*;
+
+import com.google.gson.*;
+import com.google.gson.internal.*;
+import com.google.gson.internal.bind.*;
+import com.google.gson.reflect.*;
+import com.google.gson.stream.*;
+
+/**
+ * 共有参照・循環参照を扱うアダプタを作成するファクトリ
+ * <p>
+ * {@link Settings#OBJECT_REFERENCES}がtrueの場合に{@link Serializer}が登録する。
+ * 一回の直列化の中で、各オブジェクトには最初に書き込まれた時に0から順に番号が付けられ、
+ * その番号が最初のフィールド{@code "$id":n}として書き込まれる。
+ * 同じオブジェクト（同一性による）が再び現れた場合には、その番号による参照{@code {"$ref":n}}が書き込まれる。
+ * 復帰時には、オブジェクトはフィールドを読み込む前に番号に登録されるので、循環参照も元に戻される。
+ * </p>
+ * <p>
+ * 宣言型が{@link Object}のフィールドや要素型が消去されたコレクション等では、書き込みには実行時のクラスのアダプタが使われるが、
+ * 復帰時には番号を扱わないアダプタ（{@link ObjectTypeAdapter}等）が使われ、その中のオブジェクトを番号に登録できない。
+ * そのため、そのような値の中では番号も参照も書き込まず、参照モードでない場合と同じに書き込む。
+ * その中に現れたオブジェクトは、その外で再び現れた場合にも改めて書き込まれる。
+ * ただし、その中で循環している場合には書き込めないので例外とする。
+ * </p>
+ * <p>
+ * 対象となるのは、Gsonがリフレクションで扱うクラス（{@link MethodHandleAdapter}に置き換えられる）、
+ * {@link JsonGenerated}によるクラス、及び{@link MultiHandler}の対象クラスであり、{@link MultiHandler}の
+ * データ部分の中のオブジェクトも対象になる。{@link MultiHandler}のサブクラスは、その対象クラスとして宣言された
+ * フィールド等に格納されている場合に対象になる。コレクション、マップ、配列、文字列等は従来通り書き込まれる。
+ * オブジェクト自身を値とするフィールドは、Gsonでは書き込まれないが、参照として書き込む。
+ * {@link MultiHandler}のサブクラスがリフレクションで扱われる場合、そのオブジェクト自身への循環参照は復帰できない
+ * （{@link HandlerBuilder#setMethodHandleAccess(Boolean)}あるいは{@link JsonGenerated}を用いること）。
+ * </p>
+ * @author ysugimura
+ */
+class ReferenceAdapterFactory implements TypeAdapterFactory {
+
+  /** 参照を表すフィールド名 */
+  static final String REF = "$ref";
+
+  /** 番号を表すフィールド名 */
+  static final String ID = "$id";
+
+  /** 現在のスレッドで実行中の直列化・復帰の状態 */
+  private static final ThreadLocal<References> CURRENT = new ThreadLocal<>();
+
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  @Override
+  public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> typeToken) {
+    TypeAdapter<T> delegate = gson.getDelegateAdapter(this, typeToken);
+    if (hasUntypedElements(typeToken)) {
+      // 要素は実行時のクラスのアダプタで書き込まれ、番号を扱わないアダプタで読み込まれる
+      return new UntypedAdapter<T>(delegate);
+    }
+    if (!(delegate instanceof MultiTypeAdapterFactory.GsonTypeAdapter) && underMultiHandler(gson, typeToken.getRawType())) {
+      // MultiHandlerのサブクラスは、MultiHandlerのアダプタが扱う
+      return null;
+    }
+    if (delegate instanceof ReflectiveTypeAdapterFactory.Adapter) {
+      // フィールドを読み込む前にオブジェクトを登録できるアダプタに置き換える
+      MethodHandleAdapter.Factory factory = MethodHandleAdapter.Factory.of(typeToken);
+      delegate = factory == null? null:factory.create(gson, typeToken);
+    }
+    if (delegate instanceof GeneratedAdapter || delegate instanceof MultiTypeAdapterFactory.GsonTypeAdapter) {
+      return new Adapter<T>(delegate);
+    }
+    return null;
+  }
+
+  /**
+   * 指定されたクラスの祖先が{@link MultiHandler}の対象クラスであるか。
+   * <p>
+   * Gsonは、フィールドの宣言型がそのようなクラスで値がサブクラスの場合、サブクラスのアダプタがリフレクションによるものであれば
+   * 宣言型のアダプタ（{@link MultiHandler}によるもの）を使う。サブクラスのアダプタを置き換えてしまうと、
+   * サブクラスのアダプタが使われてタイプマーカが書き込まれなくなる。
+   * </p>
+   */
+  private static boolean underMultiHandler(Gson gson, Class<?> raw) {
+    if (raw.isInterface() || raw.isArray() || raw.isPrimitive()) return false;
+    for (Class<?> c = raw; c != null && c != Object.class; c = c.getSuperclass()) {
+      if (c != raw && unwrap(gson.getAdapter(c)) instanceof MultiTypeAdapterFactory.GsonTypeAdapter) return true;
+      for (Class<?> i: c.getInterfaces()) {
+        if (unwrap(gson.getAdapter(i)) instanceof MultiTypeAdapterFactory.GsonTypeAdapter) return true;
+      }
+    }
+    return false;
+  }
+
+  /** {@link Object}型、あるいは要素（マップの場合は値）の型が{@link Object}であるコレクション、マップ、配列か */
+  private static boolean hasUntypedElements(TypeToken<?> typeToken) {
+    Type type = typeToken.getType();
+    Class<?> raw = typeToken.getRawType();
+    Type element;
+    if (raw == Object.class) return true;
+    if (Collection.class.isAssignableFrom(raw)) {
+      element = $Gson$Types.getCollectionElementType(type, raw);
+    } else if (Map.class.isAssignableFrom(raw)) {
+      element = $Gson$Types.getMapKeyAndValueTypes(type, raw)[1];
+    } else if (raw.isArray()) {
+      element = $Gson$Types.getArrayComponentType(type);
+    } else {
+      return false;
+    }
+    return isUntyped(element);
+  }
+
+  /** 宣言型が、番号を扱わないアダプタで読み込まれる{@link Object}（型変数等の消去されたものを含む）であるか */
+  private static boolean isUntyped(Type declared) {
+    return $Gson$Types.getRawType(declared) == Object.class;
+  }
+
+  /**
+   * 参照を扱う状態を用意して処理を行う
+   * @param enabled falseの場合は単に処理を行う
+   * @param supplier 処理
+   * @return 処理結果
+   */
+  static <R> R with(boolean enabled, Supplier<R> supplier) {
+    if (!enabled) return supplier.get();
+    References saved = CURRENT.get();
+    CURRENT.set(new References());
+    try {
+      return supplier.get();
+    } finally {
+      if (saved == null) CURRENT.remove();
+      else CURRENT.set(saved);
+    }
+  }
+
+  /**
+   * 復帰時に、アダプタがオブジェクトを作成した直後に呼び出す。
+   * 番号を予約したアダプタが直接作成したものであれば、その番号に登録する。
+   * @param instance 作成されたオブジェクト
+   */
+  static void created(Object instance) {
+    References references = CURRENT.get();
+    if (references == null || references.pending < 0) return;
+    references.objects.put(references.pending, instance);
+    references.pending = -1;
+  }
+
+  /**
+   * 直列化時に、アダプタがオブジェクトの書き込みを開始する前に呼び出す。
+   * 番号を付けたアダプタが直接書き込むオブジェクトであれば、その番号を取得する。
+   * 取得した場合、アダプタはオブジェクトの最初のフィールドとして{@link #ID}を書き込まなければならない。
+   * @param value 書き込むオブジェクト
+   * @return 番号。無い場合は-1
+   */
+  static int takeId(Object value) {
+    References references = CURRENT.get();
+    if (references == null || references.writing != value) return -1;
+    references.writing = null;
+    return references.ids.get(value);
+  }
+
+  /**
+   * 宣言型のアダプタの代わりに実行時のクラスのアダプタで値を書き込む前に呼び出す。
+   * 宣言型が{@link Object}であれば、{@link #exitUntyped()}を呼び出すまで番号も参照も書き込まないようにする。
+   * @param declared 宣言型
+   * @return {@link #exitUntyped()}を呼び出す必要がある場合はtrue
+   */
+  static boolean enterUntyped(Type declared) {
+    References references = CURRENT.get();
+    if (references == null || !isUntyped(declared)) return false;
+    references.untyped++;
+    return true;
+  }
+
+  /** {@link #enterUntyped(Type)}がtrueを返した場合に、書き込み後に呼び出す */
+  static void exitUntyped() {
+    CURRENT.get().untyped--;
+  }
+
+  /**
+   * 値がオブジェクト自身であるフィールドを、そのオブジェクトへの参照として書き込む
+   * @param out 出力
+   * @param name フィールド名
+   * @param declared フィールドの宣言型
+   * @param value オブジェクト
+   * @throws IOException
+   */
+  static void writeSelf(JsonWriter out, String name, Type declared, Object value) throws IOException {
+    References references = CURRENT.get();
+    if (references == null || references.untyped > 0 || isUntyped(declared)) return;
+
+    // リフレクションによるアダプタに書き込ませた場合等、番号が書き込まれていなければ参照できない
+    Integer id = references.ids.get(value);
+    if (id == null || references.writing == value) return;
+    out.name(name).beginObject().name(REF).value(id).endObject();
+  }
+
+  /** {@link Adapter}の元のアダプタを取得する */
+  @SuppressWarnings("unchecked")
+  static <T> TypeAdapter<T> unwrap(TypeAdapter<T> adapter) {
+    if (adapter instanceof Adapter) return ((Adapter<T>)adapter).delegate;
+    return adapter;
+  }
+
+  /** 一回の直列化・復帰の状態 */
+  private static class References {
+
+    /** 書き込んだオブジェクト／番号 */
+    final Map<Object, Integer> ids = new IdentityHashMap<>();
+
+    /** 次に付ける番号 */
+    int nextId;
+
+    /** 番号を付けたが、まだ番号が書き込まれていないオブジェクト。無い場合はnull */
+    Object writing;
+
+    /** 番号も参照も書き込まない、宣言型が{@link Object}の値の入れ子の数 */
+    int untyped;
+
+    /** 番号を書き込まずに書き込み中のオブジェクト。循環の検出に用いる */
+    final Set<Object> untypedObjects = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    /** 番号／読み込んだオブジェクト。作成前はnull */
+    final Map<Integer, Object> objects = new HashMap<>();
+
+    /** 予約され、まだオブジェクトが作成されていない番号。無い場合は-1 */
+    int pending = -1;
+  }
+
+  /**
+   * 参照を扱うアダプタ
+   * @param <T> 対象とする型
+   */
+  static class Adapter<T> extends TypeAdapter<T> {
+
+    /** 元のアダプタ */
+    private final TypeAdapter<T> delegate;
+
+    Adapter(TypeAdapter<T> delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public void write(JsonWriter out, T value) throws IOException {
+      if (value == null) {
+        out.nullValue();
+        return;
+      }
+      References references = CURRENT.get();
+      if (references == null) {
+        delegate.write(out, value);
+        return;
+      }
+      forget(references);
+      if (references.untyped > 0) {
+        writeUntyped(references, out, value);
+        return;
+      }
+      Integer id = references.ids.get(value);
+      if (id != null) {
+        out.beginObject().name(REF).value(id).endObject();
+        return;
+      }
+      references.ids.put(value, references.nextId++);
+      references.writing = value;
+      delegate.write(out, value);
+      forget(references);
+    }
+
+    /** 番号も参照も書き込まずに、元のアダプタで書き込む */
+    private void writeUntyped(References references, JsonWriter out, T value) throws IOException {
+      if (!references.untypedObjects.add(value)) {
+        throw new JsonIOException("Circular reference in a value declared as Object: " + value.getClass().getName());
+      }
+      try {
+        delegate.write(out, value);
+      } finally {
+        references.untypedObjects.remove(value);
+      }
+    }
+
+    /**
+     * 元のアダプタが番号を取得しなかった場合（リフレクションによるアダプタに書き込ませた場合等）、番号は書き込まれていない。
+     * そのオブジェクトへの参照は書き込めないので、番号を取り消す。
+     */
+    private static void forget(References references) {
+      if (references.writing == null) return;
+      references.ids.remove(references.writing);
+      references.writing = null;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public T read(JsonReader in) throws IOException {
+      if (GeneratedAdapter.skipNull(in)) return null;
+      References references = CURRENT.get();
+      if (references == null || in.peek() != JsonToken.BEGIN_OBJECT) return delegate.read(in);
+
+      // 最初のフィールド名で参照か、番号付きのオブジェクトかを判断する
+      String name;
+      int id = -1;
+      try {
+        in.beginObject();
+        name = in.hasNext()? in.nextName():null;
+        if (REF.equals(name)) {
+          id = GeneratedAdapter.nextInt(in);
+          in.endObject();
+          Object object = references.objects.get(id);
+          if (object == null) throw new JsonSyntaxException("Unresolved reference: " + id);
+          return (T)object;
+        }
+        if (ID.equals(name)) {
+          id = GeneratedAdapter.nextInt(in);
+          name = in.hasNext()? in.nextName():null;
+        }
+      } catch (IllegalStateException ex) {
+        throw new JsonSyntaxException(ex);
+      }
+
+      // 番号を予約し、作成されたオブジェクトを登録させる
+      if (id >= 0) {
+        references.objects.put(id, null);
+        references.pending = id;
+      }
+      T value;
+      if (delegate instanceof GeneratedAdapter) {
+        value = ((GeneratedAdapter<T>)delegate).readRemaining(in, name);
+      } else {
+        value = ((MultiTypeAdapterFactory.GsonTypeAdapter<T>)delegate).readRemaining(in, name);
+      }
+      if (id < 0) return value;
+      if (references.pending == id) references.pending = -1;
+      references.objects.put(id, value);
+      return value;
+    }
+  }
+
+  /**
+   * 宣言型が{@link Object}の値、あるいはそれを要素とするコレクション等のアダプタ。
+   * 書き込み中は番号も参照も書き込まないようにする。
+   * @param <T> 対象とする型
+   */
+  static class UntypedAdapter<T> extends TypeAdapter<T> {
+
+    /** 元のアダプタ */
+    private final TypeAdapter<T> delegate;
+
+    UntypedAdapter(TypeAdapter<T> delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public void write(JsonWriter out, T value) throws IOException {
+      References references = CURRENT.get();
+      if (references == null) {
+        delegate.write(out, value);
+        return;
+      }
+      references.untyped++;
+      try {
+        delegate.write(out, value);
+      } finally {
+        references.untyped--;
+      }
+    }
+
+    @Override
+    public T read(JsonReader in) throws IOException {
+      return delegate.read(in);
+    }
+  }
+}
@@ -0,0 +1,239 @@
+package com.cm55.gson;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+import java.util.function.*;
+
+import org.junit.*;
+
+/**
+ * 共有参照・循環参照のテスト
+ * @author ysugimura
+ */
+public class ReferenceTest {
+
+  @Test
+  public void 共有参照() {
+    Serializer<Graph>serializer = referenceSerializer(()->new Serializer<>(Graph.class));
+    Graph graph = new Graph();
+    String json = serializer.serialize(graph);
+    assertEquals("{\"$id\":0,\"first\":{\"$id\":1,\"name\":\"lookup\",\"values\":[1,2,3]},\"second\":{\"$ref\":1},"
+        + "\"list\":[{\"$ref\":1},{\"$id\":2,\"name\":\"other\",\"values\":[]},{\"$ref\":2}]}", json);
+
+    Graph result = serializer.deserialize(json);
+    assertSame(result.first, result.second);
+    assertSame(result.first, result.list.get(0));
+    assertSame(result.list.get(1), result.list.get(2));
+    assertNotSame(result.first, result.list.get(1));
+    assertEquals("other", result.list.get(1).name);
+
+    // 参照モードでなければ従来通り
+    assertFalse(new Serializer<>(Graph.class).serialize(graph).contains("$ref"));
+  }
+
+  @Test
+  public void 循環参照() {
+    Serializer<Node>serializer = referenceSerializer(()->new Serializer<>(Node.class));
+    Node root = new Node("root");
+    Node child = new Node("child");
+    root.children.add(child);
+    child.parent = root;
+    String json = serializer.serialize(root);
+    assertEquals("{\"$id\":0,\"name\":\"root\",\"parent\":null,\"children\":[{\"$id\":1,\"name\":\"child\",\"parent\":{\"$ref\":0},\"children\":[]}]}",
+        json);
+
+    Node result = serializer.deserialize(json);
+    assertNull(result.parent);
+    assertSame(result, result.children.get(0).parent);
+    assertEquals("child", result.children.get(0).name);
+
+    // バイナリ形式
+    result = serializer.deserializeBinary(serializer.serializeBinary(root));
+    assertSame(result, result.children.get(0).parent);
+  }
+
+  @Test
+  public void マルチハンドラ() {
+    Serializer<Holder>serializer = referenceSerializer(()->new Serializer<>(new HandlerBuilder<>(Holder.class)
+        .addSubHandler(new MultiHandlerBuilder<>(Shape.class).addSubClasses(Circle.class, Square.class).build()).build()));
+    Holder holder = new Holder();
+    String json = serializer.serialize(holder);
+    assertEquals("{\"$id\":0,\"lookup\":{\"$id\":1,\"name\":\"lookup\",\"values\":[1,2,3]},\"shapes\":["
+        + "{\"$id\":2,\"T\":\"Circle\",\"D\":{\"radius\":1,\"owner\":null,\"lookup\":{\"$ref\":1}}},"
+        + "{\"$ref\":2},"
+        + "{\"$id\":3,\"T\":\"Square\",\"D\":{\"side\":2,\"inner\":{\"$id\":4,\"T\":\"Circle\",\"D\":{\"radius\":1,\"owner\":{\"$ref\":3},\"lookup\":null}},"
+        + "\"lookup\":{\"$ref\":1}}}]}", json);
+
+    Holder result = serializer.deserialize(json);
+    assertSame(result.shapes.get(0), result.shapes.get(1));
+    assertSame(result.lookup, result.shapes.get(0).lookup);
+    assertSame(result.lookup, result.shapes.get(2).lookup);
+    Square square = (Square)result.shapes.get(2);
+    assertSame(square, ((Circle)square.inner).owner);
+  }
+
+  @Test
+  public void 宣言型がObjectのフィールド() {
+    // Objectのフィールドは番号を扱わないアダプタで読み込まれるので、その中では番号も参照も書き込まない
+    Serializer<Untyped>serializer = referenceSerializer(()->new Serializer<>(Untyped.class));
+    Lookup x = new Lookup("x");
+    Lookup y = new Lookup("y");
+    Untyped untyped = new Untyped(x, y, y);
+    Untyped result = serializer.deserialize(serializer.serialize(untyped));
+    assertEquals("y", result.b.name);
+    assertSame(result.b, result.c);
+
+    // Objectのフィールドに書き込まれたオブジェクトは、その後に改めて書き込まれる
+    untyped = new Untyped(x, y, x);
+    untyped.list.add(y);
+    String json = serializer.serialize(untyped);
+    assertEquals("{\"$id\":0,\"a\":{\"name\":\"x\",\"values\":[]},\"b\":{\"$id\":1,\"name\":\"y\",\"values\":[]},"
+        + "\"c\":{\"$id\":2,\"name\":\"x\",\"values\":[]},\"list\":[{\"name\":\"y\",\"values\":[]}]}", json);
+    result = serializer.deserialize(json);
+    assertEquals("x", result.c.name);
+    assertEquals("x", ((Map<?, ?>)result.a).get("name"));
+
+    // その中で循環している場合は書き込めない
+    Node root = new Node("root");
+    Node child = new Node("child");
+    root.children.add(child);
+    child.parent = root;
+    untyped = new Untyped(root, y, y);
+    try {
+      serializer.serialize(untyped);
+      fail();
+    } catch (JsonException ex) {
+    }
+  }
+
+  @Test
+  public void 自身への参照() {
+    Serializer<Self>serializer = referenceSerializer(()->new Serializer<>(Self.class));
+    Self self = new Self();
+    self.self = self;
+    String json = serializer.serialize(self);
+    assertEquals("{\"$id\":0,\"name\":\"self\",\"self\":{\"$ref\":0}}", json);
+    Self result = serializer.deserialize(json);
+    assertSame(result, result.self);
+
+    // 生成アダプタ
+    Serializer<GeneratedSelf>generated = referenceSerializer(()->new Serializer<>(GeneratedSelf.class));
+    GeneratedSelf generatedSelf = new GeneratedSelf();
+    generatedSelf.self = generatedSelf;
+    json = generated.serialize(generatedSelf);
+    assertEquals("{\"$id\":0,\"name\":\"self\",\"self\":{\"$ref\":0}}", json);
+    GeneratedSelf generatedResult = generated.deserialize(json);
+    assertSame(generatedResult, generatedResult.self);
+
+    // 参照モードでなければ、Gsonと同じく書き込まれない
+    assertEquals("{\"name\":\"self\"}", new Serializer<>(Self.class).serialize(self));
+  }
+
+  @Test
+  public void 未解決の参照() {
+    Serializer<Graph>serializer = referenceSerializer(()->new Serializer<>(Graph.class));
+    try {
+      serializer.deserialize("{\"first\":{\"$ref\":5}}");
+      fail();
+    } catch (JsonException ex) {
+    }
+  }
+
+  /** 参照モードのシリアライザを作成する */
+  private static <T>Serializer<T>referenceSerializer(Supplier<Serializer<T>>supplier) {
+    boolean saved = Settings.OBJECT_REFERENCES;
+    Settings.OBJECT_REFERENCES = true;
+    try {
+      return supplier.get();
+    } finally {
+      Settings.OBJECT_REFERENCES = saved;
+    }
+  }
+
+  public static class Lookup {
+    String name;
+    int[]values;
+    Lookup(String name, int...values) {
+      this.name = name;
+      this.values = values;
+    }
+  }
+
+  public static class Graph {
+    Lookup first = new Lookup("lookup", 1, 2, 3);
+    Lookup second = first;
+    List<Lookup>list = new ArrayList<>();
+    Graph() {
+      Lookup other = new Lookup("other");
+      list.add(first);
+      list.add(other);
+      list.add(other);
+    }
+  }
+
+  public static class Untyped {
+    Object a;
+    Lookup b;
+    Lookup c;
+    List<Object>list = new ArrayList<>();
+    Untyped(Object a, Lookup b, Lookup c) {
+      this.a = a;
+      this.b = b;
+      this.c = c;
+    }
+  }
+
+  public static class Self {
+    String name = "self";
+    Self self;
+  }
+
+  @JsonGenerated
+  public static class GeneratedSelf {
+    String name = "self";
+    GeneratedSelf self;
+  }
+
+  public static class Node {
+    String name;
+    Node parent;
+    List<Node>children = new ArrayList<>();
+    Node(String name) {
+      this.name = name;
+    }
+  }
+
+  public static abstract class Shape {
+    Lookup lookup;
+  }
+
+  @JsonGenerated
+  public static class Circle extends Shape {
+    int radius = 1;
+    Shape owner;
+  }
+
+  @JsonGenerated
+  public static class Square extends Shape {
+    int side = 2;
+    Shape inner;
+  }
+
+  public static class Holder {
+    Lookup lookup = new Lookup("lookup", 1, 2, 3);
+    List<Shape>shapes = new ArrayList<>();
+    Holder() {
+      Circle circle = new Circle();
+      circle.lookup = lookup;
+      Square square = new Square();
+      square.lookup = lookup;
+      Circle inner = new Circle();
+      inner.owner = square;
+      square.inner = inner;
+      shapes.add(circle);
+      shapes.add(circle);
+      shapes.add(square);
+    }
+  }
+}
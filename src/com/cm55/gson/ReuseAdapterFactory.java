@@ -0,0 +1,253 @@
+package com.cm55.gson;
+
+import java.io.*;
+import java.lang.reflect.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import com.google.gson.*;
+import com.google.gson.internal.*;
+import com.google.gson.internal.bind.*;
+import com.google.gson.reflect.*;
+import com.google.gson.stream.*;
+
+/**
+ * 既存のオブジェクトに読み込むアダプタを作成するファクトリ
+ * <p>
+ * {@link Serializer#deserializeInto(Reader, Object)}用のGsonにのみ登録される。
+ * 作成されるアダプタは、通常の読み込みの他に、既存の値を与えて{@link Adapter#readInto(JsonReader, Object)}で読み込むことができ、
+ * 既存の値を再利用できる場合にはそれに上書きする。各アダプタは、フィールドや要素の既存の値を、
+ * {@link #read(TypeAdapter, JsonReader, Object)}によって再帰的に再利用させる。
+ * </p>
+ * <ul>
+ * <li>Gsonがリフレクションで扱うクラスは{@link MethodHandleAdapter}に置き換えられ、生成アダプタと共に、
+ * 既存のオブジェクトが同じクラスであればそのフィールドに上書きする。JSONに無いフィールドは変更されない。
+ * <li>{@link MultiHandler}による値は、タイプマーカのクラスが既存のオブジェクトのクラスと同じであれば、それに上書きする。
+ * <li>リスト（{@link RandomAccess}なもの）は既存の要素を位置ごとに再利用し、過不足を追加・削除する。その他のコレクションは空にしてから追加する。
+ * <li>マップは同じキーの値を再利用し、JSONに無いキーを削除する。
+ * </ul>
+ * <p>
+ * コレクション、マップは、{@link ArrayList}、{@link HashMap}等の標準の変更可能なクラスのみを再利用する。
+ * 配列、文字列、数値等は常に新たに作成される。
+ * </p>
+ * <p>
+ * 再帰的な型では、アダプタの作成中にその型のアダプタを取得するとGsonの仮のアダプタ（FutureTypeAdapter）が返され、
+ * このファクトリのアダプタであるかが判断できない。そのため、フィールドや要素のアダプタが再利用できるかは、
+ * 作成時ではなく最初の読み込み時に改めて取得したアダプタで判断する。
+ * </p>
+ * @author ysugimura
+ */
+class ReuseAdapterFactory implements TypeAdapterFactory {
+
+  /** 再利用するコレクションのクラス */
+  private static final Set<Class<?>> COLLECTIONS = new HashSet<>(Arrays.asList(
+      ArrayList.class, LinkedList.class, ArrayDeque.class, HashSet.class, LinkedHashSet.class, TreeSet.class));
+
+  /** 再利用するマップのクラス */
+  private static final Set<Class<?>> MAPS = new HashSet<>(Arrays.asList(
+      HashMap.class, LinkedHashMap.class, TreeMap.class, LinkedTreeMap.class, ConcurrentHashMap.class,
+      ConcurrentSkipListMap.class));
+
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  @Override
+  public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> typeToken) {
+    TypeAdapter<T> delegate = gson.getDelegateAdapter(this, typeToken);
+    if (delegate instanceof ReflectiveTypeAdapterFactory.Adapter) {
+      // 既存のオブジェクトのフィールドに書き込めるアダプタに置き換える
+      MethodHandleAdapter.Factory factory = MethodHandleAdapter.Factory.of(typeToken);
+      TypeAdapter<T> fieldAdapter = factory == null? null:factory.create(gson, typeToken);
+      if (fieldAdapter != null) delegate = fieldAdapter;
+    }
+    if (delegate instanceof GeneratedAdapter) {
+      return new Adapter<T>(delegate) {
+        T readInto(JsonReader in, T existing) throws IOException {
+          return ((GeneratedAdapter<T>)delegate).readInto(in, existing);
+        }
+      };
+    }
+    if (delegate instanceof MultiTypeAdapterFactory.GsonTypeAdapter) {
+      return new Adapter<T>(delegate) {
+        T readInto(JsonReader in, T existing) throws IOException {
+          return ((MultiTypeAdapterFactory.GsonTypeAdapter<T>)delegate).readInto(in, existing);
+        }
+      };
+    }
+    Type type = typeToken.getType();
+    Class<?> raw = typeToken.getRawType();
+    if (Collection.class.isAssignableFrom(raw)) {
+      Type elementType = $Gson$Types.getCollectionElementType(type, raw);
+      return new CollectionAdapter(delegate, gson, TypeToken.get(elementType));
+    }
+    if (Map.class.isAssignableFrom(raw)) {
+      Type[]keyAndValue = $Gson$Types.getMapKeyAndValueTypes(type, raw);
+      Type keyType = keyAndValue[0];
+      TypeAdapter<?> keyAdapter = keyType == boolean.class || keyType == Boolean.class?
+          TypeAdapters.BOOLEAN_AS_STRING:gson.getAdapter(TypeToken.get(keyType));
+      return new MapAdapter(delegate, keyAdapter, gson, TypeToken.get(keyAndValue[1]));
+    }
+    return null;
+  }
+
+  /**
+   * 既存の値を再利用できるアダプタであれば再利用させて読み込む
+   * @param adapter アダプタ
+   * @param in 入力
+   * @param existing 既存の値、あるいはnull
+   * @return 読み込まれた値。再利用された場合は既存の値
+   * @throws IOException
+   */
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  static Object read(TypeAdapter adapter, JsonReader in, Object existing) throws IOException {
+    if (existing == null || !(adapter instanceof Adapter)) return adapter.read(in);
+    if (GeneratedAdapter.skipNull(in)) return null;
+    return ((Adapter)adapter).readInto(in, existing);
+  }
+
+  /**
+   * {@link MultiHandler}のサブクラスのデータ部分を既存のオブジェクトに読み込むアダプタを取得する。
+   * サブクラスのアダプタがリフレクションによるものであれば、このファクトリを登録したGsonから置き換えられたものを取得する。
+   * @param gson Gson
+   * @param adapter サブクラスのアダプタ
+   * @param raw サブクラス
+   * @return アダプタ。既存のオブジェクトに読み込めない場合はnull
+   */
+  @SuppressWarnings("unchecked")
+  static <T> GeneratedAdapter<T> fieldAdapter(Gson gson, TypeAdapter<T> adapter, Class<?> raw) {
+    if (adapter instanceof GeneratedAdapter) return (GeneratedAdapter<T>)adapter;
+    TypeAdapter<?> reuse = gson.getAdapter(raw);
+    if (reuse instanceof Adapter && ((Adapter<?>)reuse).delegate instanceof GeneratedAdapter) {
+      return (GeneratedAdapter<T>)((Adapter<?>)reuse).delegate;
+    }
+    return null;
+  }
+
+  /**
+   * 既存の値を再利用できるアダプタ。書き込み及び通常の読み込みは元のアダプタが行う。
+   * @param <T> 対象とする型
+   */
+  abstract static class Adapter<T> extends TypeAdapter<T> {
+
+    /** 元のアダプタ */
+    final TypeAdapter<T> delegate;
+
+    Adapter(TypeAdapter<T> delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public void write(JsonWriter out, T value) throws IOException {
+      delegate.write(out, value);
+    }
+
+    @Override
+    public T read(JsonReader in) throws IOException {
+      return delegate.read(in);
+    }
+
+    /**
+     * 既存の値を再利用して読み込む。入力はnullではない
+     * @param in 入力
+     * @param existing 既存の値
+     * @return 読み込まれた値。再利用できない場合は新たな値
+     * @throws IOException
+     */
+    abstract T readInto(JsonReader in, T existing) throws IOException;
+  }
+
+  /**
+   * コレクションのアダプタ
+   * @param <E> 要素の型
+   */
+  static class CollectionAdapter<E> extends Adapter<Collection<E>> {
+    private final Gson gson;
+    private final TypeToken<E> elementType;
+
+    /** 要素のアダプタ。最初の読み込み時に取得する */
+    private TypeAdapter<E> elementAdapter;
+
+    CollectionAdapter(TypeAdapter<Collection<E>> delegate, Gson gson, TypeToken<E> elementType) {
+      super(delegate);
+      this.gson = gson;
+      this.elementType = elementType;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    Collection<E> readInto(JsonReader in, Collection<E> existing) throws IOException {
+      if (!COLLECTIONS.contains(existing.getClass())) return delegate.read(in);
+      TypeAdapter<E> elementAdapter = this.elementAdapter;
+      if (elementAdapter == null) this.elementAdapter = elementAdapter = gson.getAdapter(elementType);
+      in.beginArray();
+      if (existing instanceof RandomAccess) {
+        List<E> list = (List<E>)existing;
+        int index = 0;
+        for (; in.hasNext(); index++) {
+          if (index < list.size()) list.set(index, (E)ReuseAdapterFactory.read(elementAdapter, in, list.get(index)));
+          else list.add(elementAdapter.read(in));
+        }
+        if (index < list.size()) list.subList(index, list.size()).clear();
+      } else {
+        existing.clear();
+        while (in.hasNext()) existing.add(elementAdapter.read(in));
+      }
+      in.endArray();
+      return existing;
+    }
+  }
+
+  /**
+   * マップのアダプタ。読み込みは{@link BinaryMapAdapterFactory}と同じくGsonと同じ手順で行う
+   * @param <K> キーの型
+   * @param <V> 値の型
+   */
+  static class MapAdapter<K, V> extends Adapter<Map<K, V>> {
+    private final TypeAdapter<K> keyAdapter;
+    private final Gson gson;
+    private final TypeToken<V> valueType;
+
+    /** 値のアダプタ。最初の読み込み時に取得する */
+    private TypeAdapter<V> valueAdapter;
+
+    MapAdapter(TypeAdapter<Map<K, V>> delegate, TypeAdapter<K> keyAdapter, Gson gson, TypeToken<V> valueType) {
+      super(delegate);
+      this.keyAdapter = keyAdapter;
+      this.gson = gson;
+      this.valueType = valueType;
+    }
+
+    @Override
+    Map<K, V> readInto(JsonReader in, Map<K, V> existing) throws IOException {
+      if (!MAPS.contains(existing.getClass())) return delegate.read(in);
+      if (valueAdapter == null) valueAdapter = gson.getAdapter(valueType);
+
+      // 空でなければ、読み込んだキーを記録して残りを削除する
+      Set<K> seen = existing.isEmpty()? null:new HashSet<>();
+      if (in.peek() == JsonToken.BEGIN_ARRAY) {
+        // キーと値の組の配列
+        in.beginArray();
+        while (in.hasNext()) {
+          in.beginArray();
+          put(in, existing, keyAdapter.read(in), seen);
+          in.endArray();
+        }
+        in.endArray();
+      } else {
+        in.beginObject();
+        while (in.hasNext()) {
+          BinaryJsonReader.promoteNameToValue(in);
+          put(in, existing, keyAdapter.read(in), seen);
+        }
+        in.endObject();
+      }
+      if (seen != null && seen.size() < existing.size()) existing.keySet().retainAll(seen);
+      return existing;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void put(JsonReader in, Map<K, V> map, K key, Set<K> seen) throws IOException {
+      if (seen != null && !seen.add(key)) throw new JsonSyntaxException("duplicate key: " + key);
+      V value = (V)ReuseAdapterFactory.read(valueAdapter, in, seen == null? null:map.get(key));
+      if (map.put(key, value) != null && seen == null) throw new JsonSyntaxException("duplicate key: " + key);
+    }
+  }
+}
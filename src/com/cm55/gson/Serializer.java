@@ -1,10 +1,14 @@
 package com.cm55.gson;
 
 import java.io.*;
+import java.util.function.*;
 import java.util.zip.*;
 
+import com.cm55.gson.JsonFixer.*;
+import com.cm55.gson.JsonMetrics.*;
 import com.google.gson.*;
 import com.google.gson.reflect.*;
+import com.google.gson.stream.*;
 
 /**
  * シリアライザ
@@ -41,6 +45,27 @@ import com.google.gson.reflect.*;
  * これでは面倒なので、nullIfClassNotFoundフラグがtrueの場合には単純にnullを返すようにしている。
  *　これはデフォルトでtrueである。
  * </p>
+ * <h2>バイナリ形式</h2>
+ * <p>
+ * {@link #serializeBinary(Object)}、{@link #deserializeBinary(byte[])}は、JSON文字列の代わりに
+ * JSONと同じ構造のコンパクトなバイナリ形式を用いる。同じ{@link Handler}の構成がそのまま使用され、
+ * {@link MultiHandler}によるサブクラスの区別も同じように行われる。形式は{@link BinaryJsonWriter}を参照のこと。
+ * サービス間の通信やキャッシュ等、人が読む必要の無い場合に用いる。
+ * </p>
+ * <h2>差分</h2>
+ * <p>
+ * {@link #serializeDelta(Object, Object)}は、二つのオブジェクトの直列化結果の異なる部分のみを含むパッチを作成し、
+ * {@link #applyDelta(Object, String)}は、元のオブジェクトにパッチを適用したオブジェクトを復帰する。
+ * 大きなオブジェクトのわずかな変更を送信・保存する場合に用いる。パッチの形式は{@link JsonDelta}を参照のこと。
+ * </p>
+ * <h2>スレッドセーフティ</h2>
+ * <p>
+ * このオブジェクトはスレッドセーフであり、一つのオブジェクトを複数のスレッドから同時に使用してよい。
+ * 内部のGsonオブジェクト及び{@link MultiHandler}用のタイプアダプタは作成後に変更されない状態のみを共有し、
+ * 遅延して取得されるサブクラス用のアダプタも安全に公開される。また、一つの{@link Handler}から複数のシリアライザを作成してもよい。
+ * {@link #setNullIfClassNotFound(boolean)}、{@link #setMetrics(JsonMetrics)}による設定は、
+ * 他のスレッドに共有する前に行うことを推奨するが、後から変更した場合にも以降の呼び出しに反映される。
+ * </p>
  * 
  * @author ysugimura
  *
@@ -53,9 +78,36 @@ public class Serializer<T> {
   
   /** Gson実行オブジェクト */
   private final Gson gson;
+
+  /** バイナリ形式用のGson実行オブジェクト。最初に使用される時に作成される */
+  private volatile Gson binaryGson;
+
+  /** バイナリ形式用のGsonを作成する{@link GsonBuilder}。作成後はnull */
+  private GsonBuilder binaryBuilder;
+
+  /** 修正しながらの復帰用のGson実行オブジェクト。最初に使用される時に作成される */
+  private volatile Gson fixingGson;
+
+  /** 修正しながらの復帰用のGsonを作成する{@link GsonBuilder}。作成後はnull */
+  private GsonBuilder fixingBuilder;
+
+  /** 既存のオブジェクトへの復帰用のGson実行オブジェクト。最初に使用される時に作成される */
+  private volatile Gson intoGson;
+
+  /** 既存のオブジェクトへの復帰用のGsonを作成する{@link GsonBuilder}。作成後はnull */
+  private GsonBuilder intoBuilder;
+  
+  /** 作成に使用したハンドラ */
+  private final Handler<T> handler;
   
   /** 復帰時にクラスが見つからない場合はnullを返す */
-  private boolean nullIfClassNotFound = true;
+  private volatile boolean nullIfClassNotFound = true;
+  
+  /** 計測。nullの場合は計測しない */
+  private volatile JsonMetrics metrics;
+
+  /** 共有参照・循環参照を扱う。{@link Settings#OBJECT_REFERENCES} */
+  private final boolean references;
   
   /**
    * 単純なクラスについて{@link BaseHandler}を省略してシリアライザを作成する。
@@ -82,9 +134,24 @@ public class Serializer<T> {
   public Serializer(Handler<T> handler) {
 
     // ハンドラからTypeTokenを取得する
+    this.handler = handler;
     typeToken = handler.getTypeToken();
+    references = Settings.OBJECT_REFERENCES;
     
-    // GsonBuilderを作成する
+    // gsonを作成する。バイナリ形式用、修正しながらの復帰用、既存のオブジェクトへの復帰用は設定のみを行っておく
+    gson = createBuilder(false, false).create();
+    binaryBuilder = createBuilder(true, true);
+    fixingBuilder = createBuilder(false, true);
+    intoBuilder = createBuilder(false, false).registerTypeAdapterFactory(new ReuseAdapterFactory());
+  }
+
+  /**
+   * {@link Settings}及びハンドラに従って{@link GsonBuilder}を作成する
+   * @param binary バイナリ形式用
+   * @param wrapped {@link BinaryJsonReader}、{@link FixingJsonReader}から読み込む
+   * @return {@link GsonBuilder}
+   */
+  private GsonBuilder createBuilder(boolean binary, boolean wrapped) {
     GsonBuilder builder = new GsonBuilder();    
     if (Settings.ENABLE_COMPLEX_MAP_KEY_SERIALIZATION) {
       builder.enableComplexMapKeySerialization();
@@ -95,14 +162,83 @@ public class Serializer<T> {
     if (Settings.SERIALIZE_SPECIAL_FLOATING_POINT_VALUES) {
       builder.serializeSpecialFloatingPointValues();
     }
+    if (wrapped) {
+      // Gsonのマップのアダプタはこれらを読み込めない
+      builder.registerTypeAdapterFactory(new BinaryMapAdapterFactory());
+    }
+    builder.registerTypeAdapterFactory(new LazyAdapterFactory());
+    // 高速な数値変換は数値を文字列として書き込むので、バイナリ形式では使用しない。
+    // 使用すると小数がDOUBLEではなくNUMBER（十進文字列）として格納されてしまう
+    boolean fastNumbers = Settings.FAST_NUMBER_CODEC && !binary;
+    if (fastNumbers) {
+      builder.registerTypeAdapterFactory(new NumberCodec(Settings.SERIALIZE_SPECIAL_FLOATING_POINT_VALUES));
+    }
+    if (Settings.USE_PRIMITIVE_ADAPTERS) {
+      builder.registerTypeAdapterFactory(new PrimitiveAdapterFactory(
+          Settings.SERIALIZE_SPECIAL_FLOATING_POINT_VALUES, fastNumbers));
+    }
     
     // このハンドラ及び複数のサブハンドラの処理をGsonBuilderに登録する。
     handler.registerToBuilder(builder);    
 
-    // gsonを作成する
-    gson = builder.create();
+    // 参照を扱うアダプタは、ハンドラによるものを含むすべてのアダプタを包むため最後に登録する
+    if (references) {
+      builder.registerTypeAdapterFactory(new ReferenceAdapterFactory());
+    }
+    return builder;
+  }
+
+  /** バイナリ形式用のGsonを取得する */
+  private Gson binaryGson() {
+    Gson result = binaryGson;
+    if (result != null) return result;
+    synchronized (this) {
+      if (binaryGson == null) {
+        binaryGson = binaryBuilder.create();
+        binaryBuilder = null;
+      }
+      return binaryGson;
+    }
   }
 
+  /** 修正しながらの復帰用のGsonを取得する */
+  private Gson fixingGson() {
+    Gson result = fixingGson;
+    if (result != null) return result;
+    synchronized (this) {
+      if (fixingGson == null) {
+        fixingGson = fixingBuilder.create();
+        fixingBuilder = null;
+      }
+      return fixingGson;
+    }
+  }
+
+  /** 既存のオブジェクトへの復帰用のGsonを取得する */
+  private Gson intoGson() {
+    Gson result = intoGson;
+    if (result != null) return result;
+    synchronized (this) {
+      if (intoGson == null) {
+        intoGson = intoBuilder.create();
+        intoBuilder = null;
+      }
+      return intoGson;
+    }
+  }
+
+  /**
+   * 最初の使用時に行われる準備をあらかじめ行う。
+   * <p>
+   * {@link MultiHandler}のサブクラス用のアダプタは、そのサブクラスが最初に使用される時に作成される。
+   * 最初の呼び出しの遅延を避けたい場合には、作成直後にこれを呼び出しておく。
+   * </p>
+   * @return 本オブジェクト
+   */
+  public Serializer<T> warmUp() {
+    handler.warmUp(gson);
+    return this;
+  }
   
   /**
    * 復帰時にクラスが見つからない場合にnullを返す。
@@ -113,6 +249,16 @@ public class Serializer<T> {
     return this;
   }
 
+  /**
+   * 計測を指定する。nullを指定すると計測しない（デフォルト）。
+   * @param metrics 計測
+   * @return 本オブジェクト
+   */
+  public Serializer<T> setMetrics(JsonMetrics metrics) {
+    this.metrics = metrics;
+    return this;
+  }
+
   /**
    * 指定されたオブジェクトをJSON文字列に変換する。オブジェクトはT型でなければいけない。
    * 変換対象がnullの場合にはnullを返す。
@@ -121,11 +267,28 @@ public class Serializer<T> {
    */
   public String serialize(T object) {
     if (object == null) return null;
-    try {
-      return gson.toJson(object, typeToken.getType());
-    } catch (RuntimeException ex) {
-      throw new JsonException(ex);
-    }
+    JsonMetrics metrics = this.metrics;
+    if (metrics == null) return toJson(object);
+    long start = System.nanoTime();
+    String json = toJson(object);
+    metrics.record(Operation.SERIALIZE, System.nanoTime() - start, 0, json.length());
+    return json;
+  }
+  
+  @SuppressWarnings("unchecked")
+  private String toJson(T object) {
+    return ReferenceAdapterFactory.with(references, () -> {
+      try {
+        if (object.getClass() != typeToken.getType()) {
+          // 生成アダプタが実行時のクラスに委譲しないようにする
+          TypeAdapter<T> adapter = gson.getAdapter(typeToken);
+          if (adapter instanceof GeneratedAdapter) return ((GeneratedAdapter<T>)adapter).toJsonDeclared(object);
+        }
+        return gson.toJson(object, typeToken.getType());
+      } catch (RuntimeException ex) {
+        throw new JsonException(ex);
+      }
+    });
   }
   
   /**
@@ -136,8 +299,17 @@ public class Serializer<T> {
    */
   public byte[]serializeToBytes(T object) {
     if (object == null) return null;
+    JsonMetrics metrics = this.metrics;
+    if (metrics == null) return toBytes(object);
+    long start = System.nanoTime();
+    byte[]bytes = toBytes(object);
+    metrics.record(Operation.SERIALIZE, System.nanoTime() - start, 0, bytes.length);
+    return bytes;
+  }
+
+  private byte[]toBytes(T object) {
     try {
-      return serialize(object).getBytes(Settings.ENCODING);
+      return toJson(object).getBytes(Settings.ENCODING);
     } catch (Exception ex) {
       throw new JsonException(ex);
     }
@@ -167,13 +339,195 @@ public class Serializer<T> {
    * @param json JSON文字列
    * @return 復帰されたオブジェクト、あるいはnull
    */
-  @SuppressWarnings("unchecked")
   public T deserialize(String json) {
     if (json == null) return null;
+    JsonMetrics metrics = this.metrics;
+    if (metrics == null) return fromString(json);
+    long start = System.nanoTime();
+    T result = fromString(json);
+    metrics.record(Operation.DESERIALIZE, System.nanoTime() - start, json.length(), 0);
+    return result;
+  }
+
+  private T fromString(String json) {
+    return fromJson(() -> read(gson, new RawJsonReader(json)));
+  }
+
+  /**
+   * {@link JsonFixer}で修正しながら復帰する。
+   * <p>
+   * {@code deserialize(JsonFixer.fix(json, root))}と同じ結果になる。修正はいずれも{@link FixingJsonReader}によるが、
+   * こちらは読み込みながら修正するため、修正後のJSON文字列は作成されない。
+   * </p>
+   * <p>
+   * 修正は読み込みと同じスレッドで順に行われ、{@link JsonFixer#fix(String, Node, java.util.concurrent.ForkJoinPool)}
+   * のような並列処理は行わない。大きな配列の修正を並列に行う場合は、そちらで修正した文字列を{@link #deserialize(String)}する。
+   * </p>
+   * @param reader JSON入力
+   * @param root 修正ルール
+   * @return 復帰されたオブジェクト、あるいはnull
+   */
+  public T deserialize(Reader reader, FixRoot root) {
+    if (reader == null) return null;
+    JsonMetrics metrics = this.metrics;
+    if (metrics == null) return fromJson(() -> readFixed(reader, root));
+    long start = System.nanoTime();
+    CountingReader counter = new CountingReader(reader);
+    T result = fromJson(() -> readFixed(counter, root));
+    metrics.record(Operation.DESERIALIZE, System.nanoTime() - start, counter.getCount(), 0);
+    return result;
+  }
+
+  private Object readFixed(Reader reader, FixRoot root) {
+    Gson gson = fixingGson();
+    return read(gson, new FixingJsonReader(gson.newJsonReader(reader), root));
+  }
+
+  /** {@link Gson#fromJson(Reader, java.lang.reflect.Type)}と同じく、空の入力はnullとし、例外を変換する */
+  private Object read(Gson gson, JsonReader in) {
+    Object result = gson.fromJson(in, typeToken.getType());
+    try {
+      if (result != null && in.peek() != JsonToken.END_DOCUMENT) throw new JsonIOException("JSON document was not fully consumed.");
+    } catch (MalformedJsonException ex) {
+      throw new JsonSyntaxException(ex);
+    } catch (IOException ex) {
+      throw new JsonIOException(ex);
+    }
+    return result;
+  }
+
+  /**
+   * 指定されたフィールドのみを復帰する{@link Projection}を作成する。
+   * <p>
+   * 大きなオブジェクトの一部のフィールドのみが必要な場合に用いる。指定されなかったフィールドは読み飛ばされ、
+   * オブジェクトも作成されない。例えば{@code serializer.projection("id", "header.ts").deserialize(json)}とする。
+   * </p>
+   * <p>
+   * {@link Settings#OBJECT_REFERENCES}による参照を扱うシリアライザでは使用できない。
+   * 参照先のオブジェクトが読み飛ばされた部分にあり得る上、共有されたオブジェクトに必要なフィールドは、
+   * そのすべての出現箇所のパスを合わせたものになるからである。
+   * </p>
+   * @param paths JSON中のフィールド名を"."で区切ったパス
+   * @return {@link Projection}
+   */
+  public Projection<T> projection(String... paths) {
+    if (references) throw new JsonException("projection is not available with object references");
+    return new Projection<>(this, paths);
+  }
+
+  /** 計測を取得する */
+  JsonMetrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * {@link JsonElement}ツリーから復帰する
+   * @param tree ツリーを作成する処理
+   * @return 復帰されたオブジェクト、あるいはnull
+   */
+  T fromTree(Supplier<JsonElement> tree) {
+    return fromJson(() -> gson.fromJson(tree.get(), typeToken.getType()));
+  }
+
+  /**
+   * {@link #deserialize(Reader, FixRoot)}と同じ。JSON文字列を入力とする。
+   * @param json JSON文字列
+   * @param root 修正ルール
+   * @return 復帰されたオブジェクト、あるいはnull
+   */
+  public T deserialize(String json, FixRoot root) {
+    if (json == null) return null;
+    return deserialize(new StringReader(json), root);
+  }
+
+  /**
+   * 既存のオブジェクトに上書きして復帰する。オブジェクトはT型でなければいけない。
+   * <p>
+   * 既存のオブジェクトのフィールドに読み込み、ネストしたオブジェクト、コレクション、マップが既に存在すればそれらも再利用する。
+   * 新たなオブジェクトが作成されるのは、既存のオブジェクトに無い部分のみである。
+   * {@link MultiHandler}による値は、タイプマーカのクラスが既存のオブジェクトのクラスと同じであれば再利用される。
+   * JSONに無いフィールドは変更されない。詳細は{@link ReuseAdapterFactory}を参照のこと。
+   * 同じ形のオブジェクトを繰り返し復帰する場合に、オブジェクトの作成を減らすために用いる。
+   * </p>
+   * <p>
+   * 通常は指定されたオブジェクトそのものを返すが、再利用できない場合（クラスが異なる、JSONがnull等）には
+   * 新たなオブジェクトあるいはnullを返すので、常に戻り値を使用すること。
+   * {@link Settings#OBJECT_REFERENCES}による参照を扱うシリアライザでは使用できない。
+   * </p>
+   * @param reader JSON入力
+   * @param target 上書きするオブジェクト。nullの場合は新たに作成する
+   * @return 復帰されたオブジェクト、あるいはnull
+   */
+  public T deserializeInto(Reader reader, T target) {
+    if (reader == null) return null;
+    return deserializeInto(null, reader, target);
+  }
+
+  /**
+   * {@link #deserializeInto(Reader, Object)}と同じ。JSON文字列を入力とする。
+   * @param json JSON文字列
+   * @param target 上書きするオブジェクト。nullの場合は新たに作成する
+   * @return 復帰されたオブジェクト、あるいはnull
+   */
+  public T deserializeInto(String json, T target) {
+    if (json == null) return null;
+    return deserializeInto(json, null, target);
+  }
+
+  /**
+   * {@link #deserializeInto(Reader, Object)}の処理を行い、計測する
+   * @param json JSON文字列。{@link Reader}を入力とする場合はnull
+   * @param reader JSON入力。文字列を入力とする場合はnull
+   * @param target 上書きするオブジェクト。nullの場合は新たに作成する
+   * @return 復帰されたオブジェクト、あるいはnull
+   */
+  private T deserializeInto(String json, Reader reader, T target) {
+    if (references) throw new JsonException("deserializeInto is not available with object references");
+    JsonMetrics metrics = this.metrics;
+    if (metrics == null) {
+      return fromJson(() -> readInto(json != null? new RawJsonReader(json):new RawJsonReader(reader), target));
+    }
+    long start = System.nanoTime();
+    CountingReader counter = json == null? new CountingReader(reader):null;
+    T result = fromJson(() -> readInto(counter == null? new RawJsonReader(json):new RawJsonReader(counter), target));
+    metrics.record(Operation.DESERIALIZE, System.nanoTime() - start, counter == null? json.length():counter.getCount(), 0);
+    return result;
+  }
+
+  /** {@link Gson#fromJson(Reader, java.lang.reflect.Type)}と同じく、空の入力はnullとし、例外を変換する */
+  @SuppressWarnings("unchecked")
+  private T readInto(JsonReader in, T target) {
+    Gson gson = intoGson();
+    in.setLenient(true);
     try {
-      return (T)gson.fromJson(json, typeToken.getType());
+      try {
+        in.peek();
+      } catch (EOFException ex) {
+        return null;
+      }
+      T result = (T)ReuseAdapterFactory.read(gson.getAdapter(typeToken), in, target);
+      if (in.peek() != JsonToken.END_DOCUMENT) throw new JsonIOException("JSON document was not fully consumed.");
+      return result;
+    } catch (MalformedJsonException | IllegalStateException ex) {
+      throw new JsonSyntaxException(ex);
+    } catch (IOException ex) {
+      throw new JsonIOException(ex);
+    }
+  }
+
+  /**
+   * Gsonによる復帰を行い、例外を変換する。
+   * @param fromJson Gsonの復帰処理
+   * @return 復帰されたオブジェクト、あるいはnull
+   */
+  @SuppressWarnings("unchecked")
+  private T fromJson(Supplier<Object> fromJson) {
+    try {
+      return (T)ReferenceAdapterFactory.with(references, fromJson);
     } catch (JsonClassNotFoundException ex) {
       // 復帰時にクラスが見つからない場合
+      JsonMetrics metrics = this.metrics;
+      if (metrics != null) metrics.classNotFound(nullIfClassNotFound);
       if (nullIfClassNotFound) return null;          
       throw ex;
     } catch (JsonException ex) {
@@ -193,8 +547,17 @@ public class Serializer<T> {
    */
   public T deserializeFromBytes(byte[]bytes) {
     if (bytes == null) return null;
+    JsonMetrics metrics = this.metrics;
+    if (metrics == null) return fromBytes(bytes);
+    long start = System.nanoTime();
+    T result = fromBytes(bytes);
+    metrics.record(Operation.DESERIALIZE, System.nanoTime() - start, bytes.length, 0);
+    return result;
+  }
+
+  private T fromBytes(byte[]bytes) {
     try {
-      return deserialize(new String(bytes, Settings.ENCODING));
+      return fromString(new String(bytes, Settings.ENCODING));
     } catch (Exception ex) {
       throw new JsonException(ex);
     }
@@ -209,16 +572,85 @@ public class Serializer<T> {
    */
   public byte[] serializeGzip(T object) {
     if (object == null) return null;
-    byte[]bytes = serializeToBytes(object);
+    JsonMetrics metrics = this.metrics;
+    long start = metrics == null? 0:System.nanoTime();
+    byte[]bytes = toBytes(object);
+    byte[]compressed;
     try {
       ByteArrayOutputStream bout = new ByteArrayOutputStream();
       GZIPOutputStream gout = new GZIPOutputStream(bout);
       gout.write(bytes);
       gout.close();
-      return bout.toByteArray();
+      compressed = bout.toByteArray();
     } catch (Exception ex) {
       throw new JsonException(ex);
     }
+    if (metrics != null) metrics.record(Operation.SERIALIZE_GZIP, System.nanoTime() - start, bytes.length, compressed.length);
+    return compressed;
+  }
+
+  /**
+   * 指定されたオブジェクトをバイナリ形式に変換する。オブジェクトはT型でなければいけない。
+   * 変換対象がnullの場合にはnullを返す。
+   * @param object 変換対象オブジェクト
+   * @return バイナリ形式のバイト配列、またはnull
+   */
+  public byte[] serializeBinary(T object) {
+    if (object == null) return null;
+    JsonMetrics metrics = this.metrics;
+    if (metrics == null) return toBinary(object);
+    long start = System.nanoTime();
+    byte[]bytes = toBinary(object);
+    metrics.record(Operation.SERIALIZE_BINARY, System.nanoTime() - start, 0, bytes.length);
+    return bytes;
+  }
+
+  @SuppressWarnings("unchecked")
+  private byte[] toBinary(T object) {
+    return ReferenceAdapterFactory.with(references, () -> {
+      try {
+        Gson gson = binaryGson();
+        BinaryJsonWriter out = new BinaryJsonWriter();
+        out.setSerializeNulls(gson.serializeNulls());
+        TypeAdapter<T> adapter = gson.getAdapter(typeToken);
+        if (object.getClass() != typeToken.getType() && adapter instanceof GeneratedAdapter) {
+          // 生成アダプタが実行時のクラスに委譲しないようにする
+          ((GeneratedAdapter<T>)adapter).writeDeclared(out, object);
+        } else {
+          adapter.write(out, object);
+        }
+        return out.toByteArray();
+      } catch (IOException | RuntimeException ex) {
+        throw new JsonException(ex);
+      }
+    });
+  }
+
+  /**
+   * {@link #serializeBinary(Object)}によるバイナリ形式から元のオブジェクトを復帰する。オブジェクトはT型でなければいけない。
+   * バイト列がnullの場合にはnullを返す。
+   * @param bytes バイナリ形式のバイト配列
+   * @return 復帰されたオブジェクト、あるいはnull
+   */
+  public T deserializeBinary(byte[]bytes) {
+    if (bytes == null) return null;
+    JsonMetrics metrics = this.metrics;
+    long start = metrics == null? 0:System.nanoTime();
+    T result = fromJson(() -> fromBinary(bytes));
+    if (metrics != null) metrics.record(Operation.DESERIALIZE_BINARY, System.nanoTime() - start, bytes.length, 0);
+    return result;
+  }
+
+  /** {@link Gson#fromJson(com.google.gson.stream.JsonReader, java.lang.reflect.Type)}と同じく例外を変換する */
+  private T fromBinary(byte[]bytes) {
+    try {
+      BinaryJsonReader in = new BinaryJsonReader(bytes);
+      T result = binaryGson().getAdapter(typeToken).read(in);
+      in.assertFullConsumption();
+      return result;
+    } catch (IllegalStateException | IOException ex) {
+      throw new JsonSyntaxException(ex);
+    }
   }
 
   /**
@@ -230,6 +662,9 @@ public class Serializer<T> {
   public T deserializeGzip(byte[]bytes) {
     if (bytes == null)
       return null;
+    JsonMetrics metrics = this.metrics;
+    long start = metrics == null? 0:System.nanoTime();
+    byte[]uncompressed;
     try {
       ByteArrayInputStream bin = new ByteArrayInputStream(bytes);
       GZIPInputStream gin = new GZIPInputStream(bin);
@@ -241,10 +676,68 @@ public class Serializer<T> {
         bout.write(buffer, 0, size);
       }
       bout.close();
-      return deserializeFromBytes(bout.toByteArray());
+      uncompressed = bout.toByteArray();
     } catch (Exception ex) {
       throw new JsonException(ex);
     }
+    T result = fromBytes(uncompressed);
+    if (metrics != null) metrics.record(Operation.DESERIALIZE_GZIP, System.nanoTime() - start, bytes.length, uncompressed.length);
+    return result;
+  }
+
+  /**
+   * 元のオブジェクトから新しいオブジェクトへの差分を表すパッチを作成する。オブジェクトはT型でなければいけない。
+   * <p>
+   * パッチには、異なるフィールドのみが含まれる。ネストしたオブジェクト、マップ、リスト、{@link MultiHandler}による値は
+   * 再帰的に比較され、{@link MultiHandler}による値のクラスが変わった場合にはその値全体が含まれる。
+   * 同じ場合は{@code "{}"}となる。
+   * </p>
+   * @param baseline 元のオブジェクト、あるいはnull
+   * @param current 新しいオブジェクト、あるいはnull
+   * @return パッチ
+   */
+  public String serializeDelta(T baseline, T current) {
+    JsonElement base = toTree(baseline);
+    JsonElement patch = JsonDelta.diff(base, toTree(current));
+    try {
+      return gson.toJson(patch);
+    } catch (RuntimeException ex) {
+      throw new JsonException(ex);
+    }
+  }
+
+  /**
+   * 元のオブジェクトに{@link #serializeDelta(Object, Object)}によるパッチを適用したオブジェクトを復帰する。
+   * 元のオブジェクトは変更されない。パッチがnullの場合はnullを返す。
+   * @param baseline パッチを作成した時と同じ内容の元のオブジェクト、あるいはnull
+   * @param patch パッチ
+   * @return 復帰されたオブジェクト、あるいはnull
+   */
+  public T applyDelta(T baseline, String patch) {
+    if (patch == null) return null;
+    return fromJson(() -> {
+      JsonObject delta = gson.fromJson(patch, JsonObject.class);
+      if (delta == null) throw new JsonSyntaxException("Empty patch");
+      return gson.fromJson(JsonDelta.apply(toTree(baseline), delta), typeToken.getType());
+    });
+  }
+
+  /** オブジェクトを{@link JsonElement}ツリーにする。nullの場合は{@link JsonNull} */
+  @SuppressWarnings("unchecked")
+  private JsonElement toTree(T object) {
+    if (object == null) return JsonNull.INSTANCE;
+    return ReferenceAdapterFactory.with(references, () -> {
+      try {
+        if (object.getClass() != typeToken.getType()) {
+          // 生成アダプタが実行時のクラスに委譲しないようにする
+          TypeAdapter<T> adapter = gson.getAdapter(typeToken);
+          if (adapter instanceof GeneratedAdapter) return ((GeneratedAdapter<T>)adapter).toJsonTreeDeclared(object);
+        }
+        return gson.toJsonTree(object, typeToken.getType());
+      } catch (RuntimeException ex) {
+        throw new JsonException(ex);
+      }
+    });
   }
 
 }
@@ -71,5 +71,65 @@ public class Settings {
    * </p>
    */
   public static boolean SERIALIZE_SPECIAL_FLOATING_POINT_VALUES = true;
+
+  /**
+   * <p>
+   * {@link JsonFixer}に{@link java.util.concurrent.ForkJoinPool}を指定した場合に、並列に修正する配列の最小要素数。
+   * これより小さな配列は分割のオーバーヘッドの方が大きいため、一つのスレッドで修正する。
+   * </p>
+   */
+  public static int FIXER_PARALLEL_THRESHOLD = 8192;
   
+  /**
+   * <p>
+   * {@link JsonFixer}が並列に修正する場合の、一つのタスクが受け持つ配列要素数の上限。
+   * </p>
+   */
+  public static int FIXER_PARALLEL_CHUNK = 1024;
+
+  /**
+   * <p>
+   * {@link JsonGenerated}によってコンパイル時に生成されたアダプタを使用する。
+   * falseにすると、生成アダプタがあってもGsonのリフレクションによるアダプタを使用する。
+   * {@link Serializer}の作成時に参照される。
+   * </p>
+   */
+  public static boolean USE_GENERATED_ADAPTERS = true;
+
+  /**
+   * <p>
+   * {@link HandlerBuilder#setMethodHandleAccess(Boolean)}で指定されていないハンドラについて、
+   * {@link java.lang.invoke.MethodHandle}でフィールドにアクセスするアダプタを使用するか。
+   * {@link Serializer}の作成時に参照される。
+   * </p>
+   */
+  public static boolean USE_METHOD_HANDLE_ADAPTERS = false;
+
+  /**
+   * <p>
+   * {@code int[]}、{@code long[]}、{@code double[]}、キーがIntegerあるいはLongのマップを、
+   * ボクシングを行わない専用のアダプタで読み書きする。出力されるJSONは変わらない。
+   * {@link Serializer}の作成時に参照される。
+   * </p>
+   */
+  public static boolean USE_PRIMITIVE_ADAPTERS = true;
+
+  /**
+   * <p>
+   * double、floatを{@link NumberCodec}で書き込む。整数値は小数点無しで書き込まれる（2.0は2になる）ため、
+   * 出力されるJSONの表記は変わるが、読み込んだ値は元の値と全く同じになる。
+   * {@link Serializer}の作成時に参照される。
+   * </p>
+   */
+  public static boolean FAST_NUMBER_CODEC = false;
+
+  /**
+   * <p>
+   * 同じオブジェクトが複数個所から参照されている場合に、最初に番号{@code "$id":n}を付けて書き込み、
+   * 二回目以降を参照{@code {"$ref":n}}として書き込む。
+   * 循環参照のあるオブジェクトも直列化・復帰できるようになる。詳細は{@link ReferenceAdapterFactory}を参照のこと。
+   * {@link Serializer}の作成時に参照される。
+   * </p>
+   */
+  public static boolean OBJECT_REFERENCES = false;
 }
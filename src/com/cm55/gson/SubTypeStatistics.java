@@ -0,0 +1,271 @@
+package com.cm55.gson;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+import com.google.gson.*;
+import com.google.gson.internal.*;
+import com.google.gson.internal.bind.*;
+import com.google.gson.stream.*;
+
+/**
+ * {@link MultiHandler}のサブクラスごとの統計
+ * <p>
+ * {@link MultiHandlerBuilder#setStatistics(boolean)}で有効にした場合にのみ作成され、登録名称ごとに読み書きの回数、
+ * データ部分（"D"フィールドの値）のサイズ、サブクラス用アダプタの所要時間を集計する。
+ * カウンタは{@link LongAdder}であり、ロック無しに複数のスレッドから更新される。
+ * サイズはデータ部分をコンパクトなJSONとした場合の文字数であり、実際に読み書きするトークンから数える（{@link Counter}）。
+ * </p>
+ * <p>
+ * 集計結果は{@link MultiHandler#subClassStatistics()}でスナップショットとして得られ、
+ * 多く使われているサブクラスから順に並べられている。
+ * </p>
+ * @author ysugimura
+ */
+public class SubTypeStatistics {
+
+  /** 序数／登録名称。作成後は変更されない */
+  private final String[]typeNames;
+  
+  /** 序数／カウンタ。作成後は変更されない */
+  private final Counters[]counters;
+
+  /**
+   * 登録名称を{@link TypeTokenNameMap}の序数の順に指定する
+   * @param typeNames 登録名称のリスト
+   */
+  SubTypeStatistics(List<String>typeNames) {
+    this.typeNames = typeNames.toArray(new String[0]);
+    counters = new Counters[this.typeNames.length];
+    for (int i = 0; i < counters.length; i++) {
+      counters[i] = new Counters();
+    }
+  }
+
+  /** 一つのサブクラスのカウンタ */
+  private static class Counters {
+    final LongAdder reads = new LongAdder();
+    final LongAdder writes = new LongAdder();
+    final LongAdder readSize = new LongAdder();
+    final LongAdder writtenSize = new LongAdder();
+    final LongAdder readNanos = new LongAdder();
+    final LongAdder writtenNanos = new LongAdder();
+  }
+
+  /** 読み込みを記録する */
+  void read(int ordinal, long nanos, long size) {
+    Counters c = counters[ordinal];
+    c.reads.increment();
+    c.readNanos.add(nanos);
+    c.readSize.add(size);
+  }
+
+  /** 書き込みを記録する */
+  void written(int ordinal, long nanos, long size) {
+    Counters c = counters[ordinal];
+    c.writes.increment();
+    c.writtenNanos.add(nanos);
+    c.writtenSize.add(size);
+  }
+
+  /**
+   * 現在の値のスナップショットを取得する。読み書き回数の多い順に並べられる。
+   * @return 登録名称／統計値のマップ
+   */
+  public Map<String, Entry> snapshot() {
+    List<Entry>entries = new ArrayList<>();
+    for (int i = 0; i < counters.length; i++) {
+      entries.add(new Entry(typeNames[i], counters[i]));
+    }
+    entries.sort((a, b)->Long.compare(b.getReads() + b.getWrites(), a.getReads() + a.getWrites()));
+    Map<String, Entry>map = new LinkedHashMap<>();
+    for (Entry entry: entries) map.put(entry.getTypeName(), entry);
+    return map;
+  }
+
+  /**
+   * すべてのカウンタをクリアする
+   */
+  public void reset() {
+    for (Counters c: counters) {
+      c.reads.reset();
+      c.writes.reset();
+      c.readSize.reset();
+      c.writtenSize.reset();
+      c.readNanos.reset();
+      c.writtenNanos.reset();
+    }
+  }
+
+  /**
+   * 一つのサブクラスの統計値
+   */
+  public static class Entry {
+    private final String typeName;
+    private final long reads;
+    private final long writes;
+    private final long readSize;
+    private final long writtenSize;
+    private final long readNanos;
+    private final long writtenNanos;
+
+    private Entry(String typeName, Counters c) {
+      this.typeName = typeName;
+      this.reads = c.reads.sum();
+      this.writes = c.writes.sum();
+      this.readSize = c.readSize.sum();
+      this.writtenSize = c.writtenSize.sum();
+      this.readNanos = c.readNanos.sum();
+      this.writtenNanos = c.writtenNanos.sum();
+    }
+
+    /** 登録名称 */
+    public String getTypeName() { return typeName; }
+    /** 読み込み回数 */
+    public long getReads() { return reads; }
+    /** 書き込み回数 */
+    public long getWrites() { return writes; }
+    /** 読み込んだデータ部分の文字数の合計 */
+    public long getReadSize() { return readSize; }
+    /** 書き込んだデータ部分の文字数の合計 */
+    public long getWrittenSize() { return writtenSize; }
+    /** 読み込みでサブクラス用アダプタに要した時間の合計（ナノ秒） */
+    public long getReadNanos() { return readNanos; }
+    /** 書き込みでサブクラス用アダプタに要した時間の合計（ナノ秒） */
+    public long getWrittenNanos() { return writtenNanos; }
+
+    @Override
+    public String toString() {
+      return typeName + "{reads=" + reads + ",writes=" + writes + ",readSize=" + readSize +
+          ",writtenSize=" + writtenSize + ",readNanos=" + readNanos + ",writtenNanos=" + writtenNanos + "}";
+    }
+  }
+
+  /**
+   * データ部分のツリーを読み書きしながら、コンパクトなJSONとした場合の文字数を数える。
+   * <p>
+   * 読み書きは{@link TypeAdapters#JSON_ELEMENT}と同じ手順で行い、その際に扱ったトークンの文字数を足していく。
+   * もう一度JSONにすることはしない。文字列はエスケープ後の文字数とする。
+   * </p>
+   */
+  static class Counter {
+
+    /** 数えた文字数 */
+    long size;
+
+    /** ツリーを書き込む */
+    void write(JsonWriter out, JsonElement tree) throws IOException {
+      if (tree == null || tree.isJsonNull()) {
+        out.nullValue();
+        size += 4;
+      } else if (tree.isJsonPrimitive()) {
+        JsonPrimitive primitive = tree.getAsJsonPrimitive();
+        if (primitive.isNumber()) {
+          Number number = primitive.getAsNumber();
+          out.value(number);
+          size += number.toString().length();
+        } else if (primitive.isBoolean()) {
+          boolean value = primitive.getAsBoolean();
+          out.value(value);
+          size += value? 4:5;
+        } else {
+          String value = primitive.getAsString();
+          out.value(value);
+          size += quotedLength(value);
+        }
+      } else if (tree.isJsonArray()) {
+        out.beginArray();
+        size += 2;
+        boolean first = true;
+        for (JsonElement element: tree.getAsJsonArray()) {
+          if (first) first = false;
+          else size++;
+          write(out, element);
+        }
+        out.endArray();
+      } else {
+        out.beginObject();
+        size += 2;
+        boolean first = true;
+        for (Map.Entry<String, JsonElement> e: tree.getAsJsonObject().entrySet()) {
+          if (first) first = false;
+          else size++;
+          out.name(e.getKey());
+          size += quotedLength(e.getKey()) + 1;
+          write(out, e.getValue());
+        }
+        out.endObject();
+      }
+    }
+
+    /** ツリーを読み込む */
+    JsonElement read(JsonReader in) throws IOException {
+      switch (in.peek()) {
+      case STRING: {
+        String value = in.nextString();
+        size += quotedLength(value);
+        return new JsonPrimitive(value);
+      }
+      case NUMBER: {
+        String number = in.nextString();
+        size += number.length();
+        return new JsonPrimitive(new LazilyParsedNumber(number));
+      }
+      case BOOLEAN: {
+        boolean value = in.nextBoolean();
+        size += value? 4:5;
+        return new JsonPrimitive(value);
+      }
+      case NULL:
+        in.nextNull();
+        size += 4;
+        return JsonNull.INSTANCE;
+      case BEGIN_ARRAY: {
+        JsonArray array = new JsonArray();
+        in.beginArray();
+        size += 2;
+        while (in.hasNext()) {
+          if (array.size() > 0) size++;
+          array.add(read(in));
+        }
+        in.endArray();
+        return array;
+      }
+      case BEGIN_OBJECT: {
+        JsonObject object = new JsonObject();
+        in.beginObject();
+        size += 2;
+        boolean first = true;
+        while (in.hasNext()) {
+          if (first) first = false;
+          else size++;
+          String name = in.nextName();
+          size += quotedLength(name) + 1;
+          object.add(name, read(in));
+        }
+        in.endObject();
+        return object;
+      }
+      default:
+        throw new IllegalArgumentException();
+      }
+    }
+
+    /** {@link JsonWriter}が引用符で囲み、エスケープした場合の文字数 */
+    private static int quotedLength(String value) {
+      int length = value.length() + 2;
+      for (int i = 0; i < value.length(); i++) {
+        char c = value.charAt(i);
+        if (c < 0x20) {
+          length += c == '\t' || c == '\b' || c == '\n' || c == '\r' || c == '\f'? 1:5;
+        } else if (c == '"' || c == '\\') {
+          length++;
+        } else if (c == '\u2028' || c == '\u2029') {
+          length += 5;
+        }
+      }
+      return length;
+    }
+  }
+}
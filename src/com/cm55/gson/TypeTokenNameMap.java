@@ -11,30 +11,56 @@ import com.google.gson.reflect.*;
  * 単純に任意のT型のTypeTokenと名称文字列を結びつけておくためのもの。
  * これは{@link MultiHandler}内部で使用される。
  * </p>
+ * <p>
+ * 登録された順に0から始まる連続した番号（序数）が与えられ、名称とTypeTokenは序数をインデックスとする配列に格納される。
+ * {@link #freeze()}の後は変更できなくなり、複数のスレッドから同時に参照してよい。この状態では{@link #duplicate()}は
+ * 自身を返す。序数は{@link MultiTypeAdapterFactory}のアダプタ表や{@link SubTypeStatistics}のカウンタのインデックスとして共有される。
+ * </p>
  * @author ysugimura
  */
 class TypeTokenNameMap {
   
-  /** 名称/TypeTokenのマップ */
-  private Map<String, TypeToken<?>> nameToToken = new HashMap<>();
+  /** 序数／名称 */
+  private String[] names = new String[8];
+  
+  /** 序数／TypeToken */
+  private TypeToken<?>[] tokens = new TypeToken<?>[8];
+  
+  /** 登録数 */
+  private int count;
+  
+  /** 名称／序数のマップ */
+  private Map<String, Integer> nameOrdinals = new HashMap<>();
 
-  /** TypeToken/名称のマップ */
-  private Map<TypeToken<?>, String> tokenToName = new HashMap<>();
+  /** TypeToken／序数のマップ */
+  private Map<TypeToken<?>, Integer> tokenOrdinals = new HashMap<>();
+  
+  /** 
+   * 単純なクラスのTypeTokenについての、クラス／序数のマップ。
+   * 直列化時にオブジェクトのクラスからTypeTokenを作成せずに検索するためのもの。{@link #freeze()}で作成される。
+   */
+  private IdentityHashMap<Class<?>, Integer> classOrdinals;
+  
+  /** 変更不可 */
+  private boolean frozen;
   
   /** タイプを追加する */
   void addType(String typeName, TypeToken<?>typeToken) {
+    if (frozen) throw new IllegalStateException("frozen");
     
-    TypeToken<?>registeredToken = nameToToken.get(typeName);
-    String registeredName = tokenToName.get(typeToken);
-    if (registeredToken != null) {
+    Integer registeredByName = nameOrdinals.get(typeName);
+    Integer registeredByToken = tokenOrdinals.get(typeToken);
+    if (registeredByName != null) {
       // この名前で既に登録のある場合、クラスが同一でなければエラー。
+      TypeToken<?>registeredToken = tokens[registeredByName];
       if (!registeredToken.equals(typeToken)) {
         throw new IllegalArgumentException(
           "duplicate definition of typeName:" + typeName + "..." + registeredToken + " and " + typeToken);
       }
     }  
-    if (registeredName != null) {
+    if (registeredByToken != null) {
       // このクラスで既に登録のある場合、名称が同一でなければエラー。
+      String registeredName = names[registeredByToken];
       if (!registeredName.equals(typeName)) {
         throw new IllegalArgumentException(
           "duplicate definition of typeClass:" + typeToken + "..." + registeredName + " and " + typeName);
@@ -42,13 +68,86 @@ class TypeTokenNameMap {
     }
     
     // 同一名称、同一クラスで既登録の場合、何もしない
-    if (registeredToken != null && registeredName != null) {
+    if (registeredByName != null && registeredByToken != null) {
       return;
     }
     
     // 未登録の場合、登録する
-    nameToToken.put(typeName, typeToken);
-    tokenToName.put(typeToken, typeName);      
+    if (count == names.length) {
+      names = Arrays.copyOf(names, count * 2);
+      tokens = Arrays.copyOf(tokens, count * 2);
+    }
+    names[count] = typeName;
+    tokens[count] = typeToken;
+    nameOrdinals.put(typeName, count);
+    tokenOrdinals.put(typeToken, count);
+    count++;
+  }
+  
+  /**
+   * 変更不可にする。配列を登録数に切り詰め、クラスの索引を作成する。
+   * @return 本オブジェクト
+   */
+  TypeTokenNameMap freeze() {
+    if (frozen) return this;
+    names = Arrays.copyOf(names, count);
+    tokens = Arrays.copyOf(tokens, count);
+    classOrdinals = new IdentityHashMap<>(count);
+    for (int i = 0; i < count; i++) {
+      if (tokens[i].getType() instanceof Class) classOrdinals.put(tokens[i].getRawType(), i);
+    }
+    frozen = true;
+    return this;
+  }
+
+  /**
+   * 指定されたTypeTokenの序数を取得する。存在しない場合は-1を返す。
+   * @param typeToken {@link TypeToken}
+   * @return 序数
+   */
+  int ordinalOf(TypeToken<?>typeToken) {
+    Integer ordinal = tokenOrdinals.get(typeToken);
+    return ordinal == null? -1:ordinal;
+  }
+  
+  /**
+   * 指定されたクラスそのものとして登録された序数を取得する。存在しない場合は-1を返す。
+   * {@link #ordinalOf(TypeToken)}に{@link TypeToken#get(Class)}を与えた場合と同じ結果になる。
+   * @param clazz クラス
+   * @return 序数
+   */
+  int ordinalOf(Class<?>clazz) {
+    if (!frozen) return ordinalOf(TypeToken.get(clazz));
+    Integer ordinal = classOrdinals.get(clazz);
+    return ordinal == null? -1:ordinal;
+  }
+
+  /**
+   * 指定された名称の序数を取得する。存在しない場合は-1を返す。
+   * @param typeName 名称
+   * @return 序数
+   */
+  int ordinalOf(String typeName) {
+    Integer ordinal = nameOrdinals.get(typeName);
+    return ordinal == null? -1:ordinal;
+  }
+  
+  /**
+   * 指定された序数の名称を取得する
+   * @param ordinal 序数
+   * @return 名称
+   */
+  String getTypeName(int ordinal) {
+    return names[ordinal];
+  }
+  
+  /**
+   * 指定された序数のTypeTokenを取得する
+   * @param ordinal 序数
+   * @return {@link TypeToken}
+   */
+  TypeToken<?>getTypeToken(int ordinal) {
+    return tokens[ordinal];
   }
 
   /** 
@@ -57,7 +156,8 @@ class TypeTokenNameMap {
    * @return 名称
    */
   String getTypeName(TypeToken<?>typeToken) {
-    return tokenToName.get(typeToken);
+    int ordinal = ordinalOf(typeToken);
+    return ordinal < 0? null:names[ordinal];
   }
 
   /** 
@@ -66,7 +166,8 @@ class TypeTokenNameMap {
    * @return {@link TypeToken}
    */
   TypeToken<?>getTypeToken(String typeName) {
-    return nameToToken.get(typeName);
+    int ordinal = ordinalOf(typeName);
+    return ordinal < 0? null:tokens[ordinal];
   }
 
   /**
@@ -74,27 +175,37 @@ class TypeTokenNameMap {
    * @return 登録数
    */
   int count() {
-    int count = nameToToken.size();
-    assert count == tokenToName.size();
     return count;
   }
 
   /**
-   * 登録済のすべての{@link TypeToken}の集合を得る
+   * 登録済のすべての{@link TypeToken}を序数の順に得る
    * @return
    */
   Stream<TypeToken<?>>allTypeTokens() {
-    return tokenToName.keySet().stream();
+    return Arrays.stream(tokens, 0, count);
+  }
+
+  /**
+   * 登録済のすべての名称を序数の順に得る
+   * @return
+   */
+  List<String>allTypeNames() {
+    return Collections.unmodifiableList(Arrays.asList(names).subList(0, count));
   }
   
   /**
-   * 複製する
+   * 複製する。変更不可の場合は自身を返す。
    * @return
    */
   TypeTokenNameMap duplicate() {
+    if (frozen) return this;
     TypeTokenNameMap that = new TypeTokenNameMap();
-    that.nameToToken = new HashMap<>(this.nameToToken);
-    that.tokenToName = new HashMap<>(this.tokenToName);
+    that.names = this.names.clone();
+    that.tokens = this.tokens.clone();
+    that.count = this.count;
+    that.nameOrdinals = new HashMap<>(this.nameOrdinals);
+    that.tokenOrdinals = new HashMap<>(this.tokenOrdinals);
     return that;
   }
 }
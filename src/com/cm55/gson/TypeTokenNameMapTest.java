@@ -0,0 +1,72 @@
+package com.cm55.gson;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+import java.util.stream.*;
+
+import org.junit.*;
+
+import com.google.gson.reflect.*;
+
+public class TypeTokenNameMapTest {
+
+  @Test
+  public void 序数() {
+    TypeTokenNameMap map = new TypeTokenNameMap();
+    for (int i = 0; i < 20; i++) {
+      map.addType("n" + i, token(i));
+    }
+    map.addType("n3", token(3));
+    assertEquals(20, map.count());
+    
+    TypeTokenNameMap frozen = map.freeze();
+    assertSame(map, frozen);
+    assertSame(frozen, frozen.duplicate());
+    for (int i = 0; i < 20; i++) {
+      assertEquals(i, frozen.ordinalOf("n" + i));
+      assertEquals(i, frozen.ordinalOf(token(i)));
+      assertEquals("n" + i, frozen.getTypeName(i));
+      assertEquals(token(i), frozen.getTypeToken(i));
+    }
+    assertEquals(0, frozen.ordinalOf(String.class));
+    assertEquals(-1, frozen.ordinalOf(Object.class));
+    assertEquals(-1, frozen.ordinalOf("none"));
+    assertEquals(Arrays.asList("n0", "n1", "n2"), frozen.allTypeNames().subList(0, 3));
+    assertEquals(20, frozen.allTypeTokens().collect(Collectors.toList()).size());
+    
+    try {
+      frozen.addType("n20", TypeToken.get(Object.class));
+      fail();
+    } catch (IllegalStateException ex) {
+    }
+  }
+  
+  @Test
+  public void 重複() {
+    TypeTokenNameMap map = new TypeTokenNameMap();
+    map.addType("a", TypeToken.get(String.class));
+    try {
+      map.addType("a", TypeToken.get(Integer.class));
+      fail();
+    } catch (IllegalArgumentException ex) {
+    }
+    try {
+      map.addType("b", TypeToken.get(String.class));
+      fail();
+    } catch (IllegalArgumentException ex) {
+    }
+    TypeTokenNameMap copy = map.duplicate();
+    copy.addType("b", TypeToken.get(Integer.class));
+    assertEquals(1, map.count());
+    assertEquals(2, copy.count());
+  }
+  
+  static final Class<?>[]classes = { String.class, Integer.class, Long.class, Double.class };
+  
+  /** 単純なクラスとジェネリクス型を混ぜる */
+  static TypeToken<?>token(int i) {
+    if (i < classes.length) return TypeToken.get(classes[i]);
+    return TypeToken.getParameterized(HashMap.class, classes[i % classes.length], classes[(i / classes.length) % classes.length]);
+  }
+}
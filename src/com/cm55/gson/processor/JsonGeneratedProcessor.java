@@ -0,0 +1,333 @@
+package com.cm55.gson.processor;
+
+import java.io.*;
+import java.util.*;
+
+import javax.annotation.processing.*;
+import javax.lang.model.*;
+import javax.lang.model.element.*;
+import javax.lang.model.type.*;
+import javax.lang.model.util.*;
+import javax.tools.*;
+
+import com.cm55.gson.*;
+
+/**
+ * {@link JsonGenerated}のアノテーションプロセッサ
+ * <p>
+ * {@link JsonGenerated}の付けられたクラスごとに、同じパッケージに{@link GeneratedAdapter}のサブクラスを生成する。
+ * フィールドの選択と順序はGsonのリフレクションによるアダプタと同じであり、サブクラスのフィールドが先、
+ * スーパークラスのフィールドが後になる。static及びtransientのフィールドは対象外。
+ * フィールド名には{@code com.google.gson.annotations.SerializedName}の指定が反映される。
+ * </p>
+ * <p>
+ * int、long、short、byte、boolean、Stringのフィールドは、Gsonのアダプタを介さずに直接読み書きする。
+ * その他のフィールドは、生成アダプタの作成時にGsonから取得したアダプタで読み書きする。
+ * </p>
+ * @author ysugimura
+ */
+@SupportedAnnotationTypes("com.cm55.gson.JsonGenerated")
+public class JsonGeneratedProcessor extends AbstractProcessor {
+
+  private static final String SERIALIZED_NAME = "com.google.gson.annotations.SerializedName";
+  private static final String JSON_ADAPTER = "com.google.gson.annotations.JsonAdapter";
+
+  @Override
+  public SourceVersion getSupportedSourceVersion() {
+    return SourceVersion.latestSupported();
+  }
+
+  @Override
+  public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+    for (Element element: roundEnv.getElementsAnnotatedWith(JsonGenerated.class)) {
+      if (element.getKind() != ElementKind.CLASS) {
+        error(element, "@JsonGenerated must be placed on a class");
+        continue;
+      }
+      TypeElement clazz = (TypeElement)element;
+      if (!check(clazz)) continue;
+      List<FieldInfo>fields = collectFields(clazz);
+      if (fields == null) continue;
+      generate(clazz, fields);
+    }
+    return true;
+  }
+
+  /** クラス自体の条件を調べる */
+  private boolean check(TypeElement clazz) {
+    if (clazz.getModifiers().contains(Modifier.ABSTRACT)) {
+      error(clazz, "@JsonGenerated class must not be abstract");
+      return false;
+    }
+    if (!clazz.getTypeParameters().isEmpty()) {
+      error(clazz, "@JsonGenerated class must not have type parameters");
+      return false;
+    }
+    for (Element e = clazz; e instanceof TypeElement; e = e.getEnclosingElement()) {
+      TypeElement t = (TypeElement)e;
+      if (t.getModifiers().contains(Modifier.PRIVATE)) {
+        error(clazz, "@JsonGenerated class must not be private");
+        return false;
+      }
+      if (t.getNestingKind() == NestingKind.MEMBER && !t.getModifiers().contains(Modifier.STATIC)) {
+        error(clazz, "@JsonGenerated class must be a top level or static nested class");
+        return false;
+      }
+      if (t.getNestingKind() == NestingKind.LOCAL || t.getNestingKind() == NestingKind.ANONYMOUS) {
+        error(clazz, "@JsonGenerated class must be a top level or static nested class");
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** 一つのフィールドの情報 */
+  private static class FieldInfo {
+    /** フィールドを宣言しているクラス */
+    TypeElement declaring;
+    /** フィールド名 */
+    String fieldName;
+    /** JSON中の名称 */
+    String jsonName;
+    /** 復帰時にのみ使用する別名 */
+    List<String>alternates = new ArrayList<>();
+    /** 対象クラスのメンバとしての型 */
+    TypeMirror type;
+  }
+
+  /** 対象フィールドを、Gsonと同じくサブクラスから順に集める。エラーの場合はnull */
+  private List<FieldInfo>collectFields(TypeElement clazz) {
+    Elements elements = processingEnv.getElementUtils();
+    Types types = processingEnv.getTypeUtils();
+    PackageElement pkg = elements.getPackageOf(clazz);
+    List<FieldInfo>fields = new ArrayList<>();
+    Map<String, FieldInfo>names = new HashMap<>();
+    boolean ok = true;
+    for (TypeElement c = clazz; c != null && !c.getQualifiedName().contentEquals(Object.class.getName()); c = superclass(c)) {
+      boolean samePackage = elements.getPackageOf(c).equals(pkg);
+      for (VariableElement field: ElementFilter.fieldsIn(c.getEnclosedElements())) {
+        Set<Modifier>modifiers = field.getModifiers();
+        if (modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.TRANSIENT)) continue;
+        if (modifiers.contains(Modifier.PRIVATE)) {
+          error(clazz, "@JsonGenerated field must not be private:" + c + "." + field);
+          ok = false;
+          continue;
+        }
+        if (modifiers.contains(Modifier.FINAL)) {
+          error(clazz, "@JsonGenerated field must not be final:" + c + "." + field);
+          ok = false;
+          continue;
+        }
+        if (!samePackage && (!modifiers.contains(Modifier.PUBLIC) || !c.getModifiers().contains(Modifier.PUBLIC))) {
+          error(clazz, "@JsonGenerated field in another package must be public:" + c + "." + field);
+          ok = false;
+          continue;
+        }
+        if (getAnnotation(field, JSON_ADAPTER) != null) {
+          error(clazz, "@JsonAdapter is not supported by @JsonGenerated:" + c + "." + field);
+          ok = false;
+          continue;
+        }
+        FieldInfo info = new FieldInfo();
+        info.declaring = c;
+        info.fieldName = field.getSimpleName().toString();
+        info.jsonName = info.fieldName;
+        info.type = types.asMemberOf((DeclaredType)clazz.asType(), field);
+        AnnotationMirror serializedName = getAnnotation(field, SERIALIZED_NAME);
+        if (serializedName != null) {
+          for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue>e:
+              elements.getElementValuesWithDefaults(serializedName).entrySet()) {
+            String key = e.getKey().getSimpleName().toString();
+            if (key.equals("value")) info.jsonName = (String)e.getValue().getValue();
+            if (key.equals("alternate")) {
+              for (Object v: (List<?>)e.getValue().getValue()) {
+                info.alternates.add((String)((AnnotationValue)v).getValue());
+              }
+            }
+          }
+        }
+        List<String>all = new ArrayList<>();
+        all.add(info.jsonName);
+        all.addAll(info.alternates);
+        for (String name: all) {
+          FieldInfo previous = names.put(name, info);
+          if (previous != null) {
+            error(clazz, clazz + " declares multiple JSON fields named " + name);
+            ok = false;
+          }
+        }
+        fields.add(info);
+      }
+    }
+    return ok? fields:null;
+  }
+
+  /** スーパークラスを取得する。無い場合はnull */
+  private TypeElement superclass(TypeElement c) {
+    TypeMirror superclass = c.getSuperclass();
+    if (superclass.getKind() != TypeKind.DECLARED) return null;
+    return (TypeElement)processingEnv.getTypeUtils().asElement(superclass);
+  }
+
+  /** 指定された名前のアノテーションを取得する。Gsonのクラスはプロセッサの実行時には不要 */
+  private AnnotationMirror getAnnotation(Element element, String name) {
+    for (AnnotationMirror mirror: element.getAnnotationMirrors()) {
+      if (((TypeElement)mirror.getAnnotationType().asElement()).getQualifiedName().contentEquals(name)) return mirror;
+    }
+    return null;
+  }
+
+  /** アダプタを生成する */
+  private void generate(TypeElement clazz, List<FieldInfo>fields) {
+    Elements elements = processingEnv.getElementUtils();
+    Types types = processingEnv.getTypeUtils();
+    String binaryName = elements.getBinaryName(clazz).toString();
+    String packageName = elements.getPackageOf(clazz).getQualifiedName().toString();
+    String className = (packageName.isEmpty()? binaryName:binaryName.substring(packageName.length() + 1))
+        + GeneratedAdapter.SUFFIX;
+    String target = clazz.getQualifiedName().toString();
+
+    List<String>declarations = new ArrayList<>();
+    List<String>initializers = new ArrayList<>();
+    List<String>writes = new ArrayList<>();
+    List<String>reads = new ArrayList<>();
+    int index = 0;
+    for (FieldInfo field: fields) {
+      String name = quote(field.jsonName);
+      String access = "value." + field.fieldName;
+      TypeKind kind = field.type.getKind();
+      List<String>read = new ArrayList<>();
+      if (kind == TypeKind.INT || kind == TypeKind.SHORT || kind == TypeKind.BYTE || kind == TypeKind.LONG ||
+          kind == TypeKind.BOOLEAN) {
+        String next = kind == TypeKind.LONG? "nextLong(in)":kind == TypeKind.BOOLEAN? "nextBoolean(in)":
+          kind == TypeKind.INT? "nextInt(in)":"(" + field.type + ")nextInt(in)";
+        writes.add("    out.name(" + name + ").value(" + access + ");");
+        read.add("      if (!skipNull(in)) " + access + " = " + next + ";");
+      } else if (isString(field.type)) {
+        writes.add("    out.name(" + name + ").value(" + access + ");");
+        read.add("      " + access + " = skipNull(in)? null:nextString(in);");
+      } else if (kind.isPrimitive()) {
+        String adapter = "adapter" + index;
+        String boxed = types.boxedClass((PrimitiveType)field.type).getQualifiedName().toString();
+        declarations.add("  private final com.google.gson.TypeAdapter<" + boxed + "> " + adapter + ";");
+        initializers.add("    " + adapter + " = gson.getAdapter(" + field.type + ".class);");
+        writes.add("    out.name(" + name + ");");
+        writes.add("    " + adapter + ".write(out, " + access + ");");
+        read.add("      " + boxed + " v = " + adapter + ".read(in);");
+        read.add("      if (v != null) " + access + " = v;");
+      } else {
+        String adapter = "adapter" + index;
+        String type = "type" + index;
+        declarations.add("  private final java.lang.reflect.Type " + type + ";");
+        declarations.add("  private final com.google.gson.TypeAdapter " + adapter + ";");
+        initializers.add("    " + type + " = fieldType(" + target + ".class, " +
+            field.declaring.getQualifiedName() + ".class, " + quote(field.fieldName) + ");");
+        initializers.add("    " + adapter + " = gson.getAdapter(com.google.gson.reflect.TypeToken.get(" + type + "));");
+        // Object型のフィールドにキャストを付けると冗長なキャストの警告になる
+        String erasure = types.erasure(field.type).toString();
+        boolean object = erasure.equals(Object.class.getName());
+        writes.add("    if (" + (object? "":"(Object)") + access + " != value) {");
+        writes.add("      out.name(" + name + ");");
+        writes.add("      writeValue(out, " + adapter + ", " + type + ", " + access + ");");
+        writes.add("    } else {");
+        writes.add("      writeSelf(out, " + name + ", " + type + ", value);");
+        writes.add("    }");
+        // 再帰的な型では、コンストラクタで取得したアダプタはGsonの仮のものであり、既存の値を再利用できるかが
+        // 判断できないので、読み込みには最初の読み込み時に取得し直したものを使う
+        String reader = "reader" + index;
+        declarations.add("  private com.google.gson.TypeAdapter " + reader + ";");
+        read.add("      if (" + reader + " == null) " + reader +
+            " = gson.getAdapter(com.google.gson.reflect.TypeToken.get(" + type + "));");
+        read.add("      " + access + " = " + (object? "":"(" + erasure + ")") +
+            "readValue(" + reader + ", in, " + access + ");");
+      }
+      for (String alternate: field.alternates) {
+        reads.add("    case " + quote(alternate) + ":");
+      }
+      reads.add("    case " + name + ": {");
+      reads.addAll(read);
+      reads.add("      return true;");
+      reads.add("    }");
+      index++;
+    }
+
+    try {
+      JavaFileObject file = processingEnv.getFiler().createSourceFile(
+          (packageName.isEmpty()? "":packageName + ".") + className, clazz);
+      try (PrintWriter out = new PrintWriter(file.openWriter())) {
+        if (!packageName.isEmpty()) {
+          out.println("package " + packageName + ";");
+          out.println();
+        }
+        out.println("/** " + target + "の@JsonGeneratedから生成されたアダプタ */");
+        out.println("@SuppressWarnings({ \"unchecked\", \"rawtypes\" })");
+        out.println("public final class " + className + " extends com.cm55.gson.GeneratedAdapter<" + target + "> {");
+        declarations.forEach(out::println);
+        out.println();
+        out.println("  public " + className + "(com.google.gson.Gson gson) {");
+        out.println("    super(gson, " + target + ".class);");
+        initializers.forEach(out::println);
+        out.println("  }");
+        if (hasAccessibleConstructor(clazz)) {
+          out.println();
+          out.println("  @Override");
+          out.println("  protected " + target + " newInstance() {");
+          out.println("    return new " + target + "();");
+          out.println("  }");
+        }
+        out.println();
+        out.println("  @Override");
+        out.println("  protected void writeFields(com.google.gson.stream.JsonWriter out, " + target +
+            " value) throws java.io.IOException {");
+        writes.forEach(out::println);
+        out.println("  }");
+        out.println();
+        out.println("  @Override");
+        out.println("  protected boolean readField(com.google.gson.stream.JsonReader in, String name, " + target +
+            " value) throws java.io.IOException {");
+        out.println("    switch (name) {");
+        reads.forEach(out::println);
+        out.println("    default:");
+        out.println("      return false;");
+        out.println("    }");
+        out.println("  }");
+        out.println("}");
+      }
+    } catch (IOException ex) {
+      error(clazz, "could not generate " + className + ":" + ex);
+    }
+  }
+
+  /** java.lang.Stringであるか */
+  private boolean isString(TypeMirror type) {
+    if (type.getKind() != TypeKind.DECLARED) return false;
+    return ((TypeElement)((DeclaredType)type).asElement()).getQualifiedName().contentEquals(String.class.getName());
+  }
+
+  /** 生成クラスから呼び出せる引数無しのコンストラクタがあるか */
+  private boolean hasAccessibleConstructor(TypeElement clazz) {
+    for (ExecutableElement constructor: ElementFilter.constructorsIn(clazz.getEnclosedElements())) {
+      if (constructor.getParameters().isEmpty() && !constructor.getModifiers().contains(Modifier.PRIVATE)) return true;
+    }
+    return false;
+  }
+
+  /** Java文字列リテラルにする */
+  private static String quote(String s) {
+    StringBuilder result = new StringBuilder("\"");
+    for (char c: s.toCharArray()) {
+      if (c == '"' || c == '\\') result.append('\\');
+      if (c < 0x20) {
+        // \\uエスケープは字句解析の前に変換されてしまうので八進エスケープにする
+        result.append(String.format("\\%03o", (int)c));
+        continue;
+      }
+      result.append(c);
+    }
+    return result.append('"').toString();
+  }
+
+  private void error(Element element, String message) {
+    processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+  }
+}
@@ -0,0 +1,176 @@
+package com.cm55.gson.processor;
+
+import java.io.*;
+import java.util.*;
+
+import javax.annotation.processing.*;
+import javax.lang.model.*;
+import javax.lang.model.element.*;
+import javax.lang.model.type.*;
+import javax.lang.model.util.*;
+import javax.tools.*;
+
+import com.cm55.gson.*;
+
+/**
+ * {@link JsonSubType}のアノテーションプロセッサ
+ * <p>
+ * {@link JsonSubType}の付けられたクラスを基底クラスごとにまとめ、基底クラスと同じパッケージに
+ * {@link JsonSubTypeRegistry}の実装クラスを生成する。
+ * </p>
+ * @author ysugimura
+ */
+@SupportedAnnotationTypes("com.cm55.gson.JsonSubType")
+public class JsonSubTypeProcessor extends AbstractProcessor {
+
+  /** 既に生成した基底クラスのバイナリ名 */
+  private final Set<String>generated = new HashSet<>();
+
+  @Override
+  public SourceVersion getSupportedSourceVersion() {
+    return SourceVersion.latestSupported();
+  }
+
+  @Override
+  public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+
+    // 基底クラス／登録名称／サブクラスのマップ。登録順を保持する
+    Map<TypeElement, Map<String, TypeElement>>bases = new LinkedHashMap<>();
+
+    for (Element element: roundEnv.getElementsAnnotatedWith(JsonSubType.class)) {
+      if (element.getKind() != ElementKind.CLASS) {
+        error(element, "@JsonSubType must be placed on a class");
+        continue;
+      }
+      TypeElement subType = (TypeElement)element;
+      JsonSubType annotation = subType.getAnnotation(JsonSubType.class);
+
+      TypeElement base = getBase(subType, annotation);
+      if (base == null) {
+        error(subType, "@JsonSubType could not determine the base class; specify base()");
+        continue;
+      }
+      Types types = processingEnv.getTypeUtils();
+      if (!types.isAssignable(types.erasure(subType.asType()), types.erasure(base.asType()))) {
+        error(subType, subType + " is not assignable to " + base);
+        continue;
+      }
+
+      // 登録クラスは基底クラスのパッケージに生成され、両方のクラスを参照する
+      PackageElement basePackage = processingEnv.getElementUtils().getPackageOf(base);
+      if (!isAccessible(base, basePackage)) {
+        error(subType, "@JsonSubType base class " + base + " must not be private");
+        continue;
+      }
+      if (!isAccessible(subType, basePackage)) {
+        error(subType, "@JsonSubType class " + subType + " is not accessible from package " + basePackage
+            + "; make it public or place it in the package of " + base);
+        continue;
+      }
+
+      String typeName = annotation.value().isEmpty()? subType.getSimpleName().toString():annotation.value();
+      Map<String, TypeElement>subTypes = bases.computeIfAbsent(base, b->new LinkedHashMap<>());
+      TypeElement registered = subTypes.put(typeName, subType);
+      if (registered != null) {
+        error(subType, "duplicate definition of typeName:" + typeName + "..." + registered + " and " + subType);
+      }
+    }
+
+    bases.forEach(this::generate);
+    return true;
+  }
+
+  /** 登録先の基底クラスを取得する */
+  private TypeElement getBase(TypeElement subType, JsonSubType annotation) {
+    TypeMirror base;
+    try {
+      annotation.base();
+      throw new IllegalStateException();
+    } catch (MirroredTypeException ex) {
+      // コンパイル時にはClassオブジェクトは取得できない
+      base = ex.getTypeMirror();
+    }
+    Types types = processingEnv.getTypeUtils();
+    if (types.isSameType(processingEnv.getElementUtils().getTypeElement(Object.class.getName()).asType(), base)) {
+      // 省略時は直接のスーパークラス
+      base = subType.getSuperclass();
+    }
+    if (base.getKind() != TypeKind.DECLARED) return null;
+    TypeElement element = (TypeElement)types.asElement(base);
+    if (element.getQualifiedName().contentEquals(Object.class.getName())) return null;
+    return element;
+  }
+
+  /**
+   * 指定されたパッケージのトップレベルクラスから参照できるか。
+   * 外側のクラスを含めてprivateでなく、別のパッケージであればすべてpublicでなければならない
+   * （protectedのクラスもサブクラスでない生成クラスからは参照できない）。
+   */
+  private boolean isAccessible(TypeElement element, PackageElement from) {
+    boolean samePackage = processingEnv.getElementUtils().getPackageOf(element).equals(from);
+    for (Element e = element; e instanceof TypeElement; e = e.getEnclosingElement()) {
+      Set<Modifier>modifiers = e.getModifiers();
+      if (modifiers.contains(Modifier.PRIVATE)) return false;
+      if (!samePackage && !modifiers.contains(Modifier.PUBLIC)) return false;
+    }
+    return true;
+  }
+
+  /** 一つの基底クラスについて登録クラスを生成する */
+  private void generate(TypeElement base, Map<String, TypeElement>subTypes) {
+    Elements elements = processingEnv.getElementUtils();
+    String binaryName = elements.getBinaryName(base).toString();
+    if (!generated.add(binaryName)) {
+      error(base, "@JsonSubType classes for " + base + " must be compiled in a single round");
+      return;
+    }
+    String packageName = elements.getPackageOf(base).getQualifiedName().toString();
+    String className = (packageName.isEmpty()? binaryName:binaryName.substring(packageName.length() + 1))
+        + JsonSubTypeRegistry.SUFFIX;
+    String baseName = base.getQualifiedName().toString();
+
+    List<Element>originating = new ArrayList<>(subTypes.values());
+    originating.add(base);
+    try {
+      JavaFileObject file = processingEnv.getFiler().createSourceFile(
+          (packageName.isEmpty()? "":packageName + ".") + className, originating.toArray(new Element[0]));
+      try (PrintWriter out = new PrintWriter(file.openWriter())) {
+        if (!packageName.isEmpty()) {
+          out.println("package " + packageName + ";");
+          out.println();
+        }
+        out.println("/** " + baseName + "の@JsonSubTypeから生成された登録クラス */");
+        out.println("@SuppressWarnings({ \"unchecked\", \"rawtypes\" })");
+        out.println("public final class " + className + " implements com.cm55.gson.JsonSubTypeRegistry<" + baseName + "> {");
+        out.println("  @Override");
+        out.println("  public void register(com.cm55.gson.MultiHandlerBuilder<" + baseName + "> builder) {");
+        subTypes.forEach((typeName, subType)-> {
+          out.println("    builder.addSubClass(" + quote(typeName) + ", (Class)" + subType.getQualifiedName() + ".class);");
+        });
+        out.println("  }");
+        out.println("}");
+      }
+    } catch (IOException ex) {
+      error(base, "could not generate " + className + ":" + ex);
+    }
+  }
+
+  /** Java文字列リテラルにする */
+  private static String quote(String s) {
+    StringBuilder result = new StringBuilder("\"");
+    for (char c: s.toCharArray()) {
+      if (c == '"' || c == '\\') result.append('\\');
+      if (c < 0x20) {
+        // \\uエスケープは字句解析の前に変換されてしまうので八進エスケープにする
+        result.append(String.format("\\%03o", (int)c));
+        continue;
+      }
+      result.append(c);
+    }
+    return result.append('"').toString();
+  }
+
+  private void error(Element element, String message) {
+    processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+  }
+}
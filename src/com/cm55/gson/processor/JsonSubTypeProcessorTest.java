@@ -0,0 +1,78 @@
+package com.cm55.gson.processor;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.net.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.*;
+
+import javax.tools.*;
+
+import org.junit.*;
+
+/**
+ * {@link JsonSubTypeProcessor}の診断のテスト。実行時にJavaコンパイラを用いる。
+ * @author ysugimura
+ */
+public class JsonSubTypeProcessorTest {
+
+  private static final String BASE = "package a; public abstract class Base { }";
+
+  @Test
+  public void 別パッケージのパッケージプライベート() throws Exception {
+    List<String>errors = process(BASE,
+      "package b; @com.cm55.gson.JsonSubType(base = a.Base.class) class Hidden extends a.Base { }");
+    assertEquals(1, errors.size());
+    assertTrue(errors.get(0), errors.get(0).contains("not accessible from package a"));
+  }
+
+  @Test
+  public void 別パッケージのprotected() throws Exception {
+    List<String>errors = process(BASE,
+      "package b; public class Outer { @com.cm55.gson.JsonSubType(base = a.Base.class) protected static class Nested extends a.Base { } }");
+    assertEquals(1, errors.size());
+  }
+
+  @Test
+  public void 同じパッケージ() throws Exception {
+    List<String>errors = process(BASE,
+      "package a; class Outer { @com.cm55.gson.JsonSubType protected static class Nested extends Base { } }",
+      "package b; @com.cm55.gson.JsonSubType(base = a.Base.class) public class Visible extends a.Base { }");
+    assertEquals(Collections.emptyList(), errors);
+  }
+
+  /** アノテーション処理のみを行い、エラーのメッセージを返す */
+  private List<String> process(String... sources) throws IOException {
+    JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    assertNotNull("JDK is required", compiler);
+    Path output = Files.createTempDirectory("processor");
+    try {
+      List<JavaFileObject>files = new ArrayList<>();
+      for (String source: sources) {
+        String[]words = source.split("[ ;{]+");
+        String className = words[1] + "/" + words[Arrays.asList(words).indexOf("class") + 1];
+        files.add(new SimpleJavaFileObject(URI.create("string:///" + className + ".java"), JavaFileObject.Kind.SOURCE) {
+          @Override
+          public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return source;
+          }
+        });
+      }
+      DiagnosticCollector<JavaFileObject>diagnostics = new DiagnosticCollector<>();
+      compiler.getTask(null, null, diagnostics, Arrays.asList(
+          "-proc:only", "-processor", JsonSubTypeProcessor.class.getName(),
+          "-classpath", System.getProperty("java.class.path"),
+          "-d", output.toString(), "-s", output.toString()), null, files).call();
+      return diagnostics.getDiagnostics().stream()
+          .filter(d->d.getKind() == Diagnostic.Kind.ERROR)
+          .map(d->d.getMessage(Locale.ROOT))
+          .collect(Collectors.toList());
+    } finally {
+      try (Stream<Path>paths = Files.walk(output)) {
+        paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+      }
+    }
+  }
+}